@@ -1,14 +1,49 @@
 package anl.verdi.area.target;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import ucar.unidata.geoloc.Projection;
+import anl.verdi.util.Tools;
 
+/**
+ * Area map and grid cell overlaps of the targets in an area file for a single
+ * grid. The overlaps are persisted to a binary file keyed by the area file
+ * contents, the grid definition and the projection, so that they are only
+ * calculated once per grid. Files are memory-mapped when loaded.
+ */
 public class CachedTargetList {
-	
+
+	static final Logger Logger = LogManager.getLogger(CachedTargetList.class.getName());
+
+	private static final int MAGIC = 0x56455241; // "VERA"
+	// increment whenever the file layout or the way the overlaps are calculated changes
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".area";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// separates the id field from the target id in the area info keys
+	private static final char SEPARATOR = '\u0000';
+
 	String filename = null;
 	int rows = 0;
 	int columns = 0;
@@ -17,15 +52,30 @@ public class CachedTargetList {
 	double cellWidth = 0;
 	double cellHeight = 0;
 	String idString = null;
-	
+
+	private Map<String, TargetAreaInfo> areaInfoMap = new HashMap<String, TargetAreaInfo>();
+	private boolean dirty = false;
+	// false when the area file could not be checksummed, so the overlaps are not persisted
+	private boolean cacheable = true;
+
 	private static Map<String, CachedTargetList> CACHED_TARGET_LIST = new HashMap<String, CachedTargetList>();
-	
-	public synchronized static CachedTargetList getCachedTargetList(Target target, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
-		String sourcePath = target.getSource().getURL().getPath();
-		CachedTargetList listKey = new CachedTargetList(sourcePath, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
-		
+	static Map<String, Set<String>> FILE_ID_MAP = new HashMap<String, Set<String>>();
+	// checksums of the area files, with the length and modification time they were calculated for
+	private static Map<String, long[]> CHECKSUMS = new HashMap<String, long[]>();
+
+	public synchronized static CachedTargetList getCachedTargetList(Target target, Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
+		URL url = target.getSource().getURL();
+		String sourcePath = url.getPath();
+		CachedTargetList listKey = new CachedTargetList(sourcePath, getSourceFile(url), projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+
+		if (!listKey.cacheable) {
+			// the overlaps are calculated again rather than keyed by a file that cannot be read
+			Logger.info("Not caching area map of " + sourcePath + ", its shapes or attributes could not be read");
+			return listKey;
+		}
 		if (CACHED_TARGET_LIST.containsKey(listKey.idString))
 			return CACHED_TARGET_LIST.get(listKey.idString);
+		listKey.load();
 		CACHED_TARGET_LIST.put(listKey.idString, listKey);
 		Set<String> cachesForPath = FILE_ID_MAP.get(sourcePath);
 		if (cachesForPath == null) {
@@ -33,11 +83,11 @@ public class CachedTargetList {
 			FILE_ID_MAP.put(sourcePath,  cachesForPath);
 		}
 		cachesForPath.add(listKey.idString);
-		
-		return listKey;				
+
+		return listKey;
 	}
-	
-	private CachedTargetList(String filename, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
+
+	private CachedTargetList(String filename, File shp, Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
 		this.filename = filename;
 		this.rows = rows;
 		this.columns = columns;
@@ -45,14 +95,18 @@ public class CachedTargetList {
 		this.southEdge = southEdge;
 		this.cellWidth = cellWidth;
 		this.cellHeight = cellHeight;
-		idString = filename + "." + rows + "." + columns + "." + westEdge + "." + southEdge + "." + cellWidth + "." + cellHeight;
+		String projectionString = projection == null ? "latlon" : projection.getClassName() + " " + projection.paramsToString();
+		String checksum = getChecksum(filename, shp);
+		cacheable = checksum != null;
+		idString = filename + "." + checksum + "." + rows + "." + columns + "." + westEdge + "." + southEdge + "." + cellWidth + "." + cellHeight
+				+ "." + projectionString;
 
 	}
 
 	public int hashCode() {
 		return idString.hashCode();
 	}
-	
+
 	public boolean equals(Object obj) {
 		if (obj == null || !(obj instanceof CachedTargetList))
 			return false;
@@ -60,56 +114,230 @@ public class CachedTargetList {
 		return source.idString.equals(idString);
 	}
 
-	static Map<String, Map<String, TargetAreaInfo>> ID_TYPE_MAP = new HashMap<String, Map<String, TargetAreaInfo>>();
-	static Map<String, Set<String>> FILE_ID_MAP = new HashMap<String, Set<String>>();
-	
-	public TargetAreaInfo getCachedAreaInfo(Target target, Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
-		
-		String mapPath = target.getSource().getURL().getPath();
-		String idField = target.getSource().getName();
-		String targetId = target.getName();
-		
-		Map<String, TargetAreaInfo> areaInfoMap = ID_TYPE_MAP.get(idField);
-		if (areaInfoMap == null) {
-			areaInfoMap = new HashMap<String, TargetAreaInfo>();
-			ID_TYPE_MAP.put(idField, areaInfoMap);
-			Set<String> fileMap = FILE_ID_MAP.get(mapPath);
-			if (fileMap == null) {
-				fileMap = new HashSet<String>();
-				FILE_ID_MAP.put(mapPath, fileMap);
-			}
-			fileMap.add(idField);
-		}
-		
-		return areaInfoMap.get(targetId);
-		
+	public synchronized TargetAreaInfo getCachedAreaInfo(Target target, Projection projection, int rows, int columns, double westEdge, double southEdge, double cellWidth, double cellHeight) {
+		return areaInfoMap.get(getKey(target));
 	}
-	
-	public static void closeFile(String path) {
+
+	public synchronized static void closeFile(String path) {
 		Set<String> caches = FILE_ID_MAP.get(path);
 		if (caches == null)
 			return;
 		for (String id : caches) {
-			CACHED_TARGET_LIST.remove(id);
-			ID_TYPE_MAP.remove(id);
+			CachedTargetList list = CACHED_TARGET_LIST.remove(id);
+			if (list != null)
+				list.save();
 		}
 		FILE_ID_MAP.remove(path);
+		CHECKSUMS.remove(path);
 	}
-	
-    public void cacheAreaInfo(Target target, int[] rowIndex, int[] colIndex, float[] overlapArea) {
-		String idField = target.getSource().getName();
-		String targetId = target.getName();
-		
-		Map<String, TargetAreaInfo> areaInfoMap = ID_TYPE_MAP.get(idField);
-		if (areaInfoMap == null) {
-			areaInfoMap = new HashMap<String, TargetAreaInfo>();
-			ID_TYPE_MAP.put(idField, areaInfoMap);
-		}
-		
+
+    public synchronized void cacheAreaInfo(Target target, int[] rowIndex, int[] colIndex, float[] overlapArea) {
 		TargetAreaInfo areaInfo = new TargetAreaInfo(target.area, rowIndex, colIndex, overlapArea);
-		
-		areaInfoMap.put(targetId, areaInfo);
+
+		areaInfoMap.put(getKey(target), areaInfo);
+		dirty = true;
+    }
+
+    private static String getKey(Target target) {
+    	return target.getSource().getName() + SEPARATOR + target.getName();
+    }
+
+    /**
+     * Writes the overlaps calculated since the list was loaded to the cache
+     * file. The file is written under a temporary name and then renamed so
+     * that a partially written file is never loaded.
+     */
+    public synchronized void save() {
+    	if (!dirty || !cacheable)
+    		return;
+    	File dir = Tools.getCacheDir(Tools.AREA_CACHE_DIR, "areacache");
+    	if (dir == null)
+    		return;
+    	dirty = false;
+
+    	byte[] key = idString.getBytes(UTF8);
+    	long size = 4 + 4 + 4 + key.length + 4;
+    	for (Map.Entry<String, TargetAreaInfo> entry : areaInfoMap.entrySet()) {
+    		TargetAreaInfo info = entry.getValue();
+    		int count = info.rowIndex == null ? 0 : info.rowIndex.length;
+    		size += 4 + entry.getKey().getBytes(UTF8).length + 8 + 4 + count * (4 + 4 + 4);
+    	}
+    	if (size > Integer.MAX_VALUE) {
+    		Logger.info("Area map too large to cache: " + size + " bytes");
+    		return;
+    	}
+
+    	File file = new File(dir, getFileName());
+    	File temp = null;
+    	try {
+    		temp = File.createTempFile(file.getName(), ".tmp", dir);
+    		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+    		try {
+    			FileChannel channel = raf.getChannel();
+    			ByteBuffer buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+    			buffer.putInt(MAGIC);
+    			buffer.putInt(VERSION);
+    			buffer.putInt(key.length);
+    			buffer.put(key);
+    			buffer.putInt(areaInfoMap.size());
+    			for (Map.Entry<String, TargetAreaInfo> entry : areaInfoMap.entrySet()) {
+    				TargetAreaInfo info = entry.getValue();
+    				int count = info.rowIndex == null ? 0 : info.rowIndex.length;
+    				byte[] id = entry.getKey().getBytes(UTF8);
+    				buffer.putInt(id.length);
+    				buffer.put(id);
+    				buffer.putDouble(info.area);
+    				buffer.putInt(count);
+    				for (int i = 0; i < count; i++)
+    					buffer.putInt(info.rowIndex[i]);
+    				for (int i = 0; i < count; i++)
+    					buffer.putInt(info.colIndex[i]);
+    				for (int i = 0; i < count; i++)
+    					buffer.putFloat(info.overlapArea[i]);
+    			}
+    			buffer.flip();
+    			while (buffer.hasRemaining())
+    				channel.write(buffer);
+    		} finally {
+    			raf.close();
+    		}
+    		// the previous file holds a subset of these overlaps
+    		file.delete();
+    		if (!temp.renameTo(file))
+    			temp.delete();
+    	} catch (IOException e) {
+    		Logger.warn("Unable to write area cache file " + file, e);
+    		if (temp != null)
+    			temp.delete();
+    	}
+    }
+
+    private void load() {
+    	File dir = Tools.getCacheDir(Tools.AREA_CACHE_DIR, "areacache");
+    	if (dir == null)
+    		return;
+    	File file = new File(dir, getFileName());
+    	if (!file.isFile())
+    		return;
+    	try {
+    		RandomAccessFile raf = new RandomAccessFile(file, "r");
+    		try {
+    			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    			buffer.order(ByteOrder.nativeOrder());
+    			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+    				Logger.info("Ignoring area cache file " + file + " written by another version");
+    				return;
+    			}
+    			if (!idString.equals(readString(buffer)))
+    				return;
+    			Map<String, TargetAreaInfo> loaded = new HashMap<String, TargetAreaInfo>();
+    			int entries = buffer.getInt();
+    			for (int e = 0; e < entries; e++) {
+    				String id = readString(buffer);
+    				double area = buffer.getDouble();
+    				int count = buffer.getInt();
+    				int[] rowIndex = null;
+    				int[] colIndex = null;
+    				float[] overlapArea = null;
+    				if (count > 0) {
+    					rowIndex = new int[count];
+    					colIndex = new int[count];
+    					overlapArea = new float[count];
+    					buffer.asIntBuffer().get(rowIndex);
+    					buffer.position(buffer.position() + count * 4);
+    					buffer.asIntBuffer().get(colIndex);
+    					buffer.position(buffer.position() + count * 4);
+    					buffer.asFloatBuffer().get(overlapArea);
+    					buffer.position(buffer.position() + count * 4);
+    				}
+    				loaded.put(id, new TargetAreaInfo(area, rowIndex, colIndex, overlapArea));
+    			}
+    			areaInfoMap = loaded;
+    		} finally {
+    			raf.close();
+    		}
+    	} catch (Exception e) {
+    		// a truncated or corrupt file is treated as a miss and rewritten
+    		Logger.warn("Unable to read area cache file " + file, e);
+    	}
     }
 
+    private static String readString(ByteBuffer buffer) {
+    	byte[] bytes = new byte[buffer.getInt()];
+    	buffer.get(bytes);
+    	return new String(bytes, UTF8);
+    }
+
+    private String getFileName() {
+    	MessageDigest digest;
+    	try {
+    		digest = MessageDigest.getInstance("SHA-1");
+    	} catch (NoSuchAlgorithmException e) {
+    		throw new IllegalStateException(e);
+    	}
+    	StringBuilder name = new StringBuilder();
+    	for (byte b : digest.digest(idString.getBytes(UTF8)))
+    		name.append(String.format("%02x", b));
+    	return name.append(SUFFIX).toString();
+    }
+
+    /**
+     * Gets a checksum of the shapes and attributes of an area file, so that
+     * overlaps cached for a file are not used once the file is replaced.
+     * Checksums are kept until the file changes size or modification time.
+     *
+     * @return the checksum, or null if the shapes or attributes cannot be read
+     */
+    private static String getChecksum(String path, File shp) {
+    	String name = shp.getName();
+    	String base = name.toLowerCase().endsWith(".shp") ? name.substring(0, name.length() - 4) : name;
+    	File dbf = new File(shp.getParentFile(), base + ".dbf");
+    	if (!shp.isFile() || !dbf.isFile())
+    		return null;
+    	long length = shp.length() + dbf.length();
+    	long modified = Math.max(shp.lastModified(), dbf.lastModified());
+    	long[] checksum = CHECKSUMS.get(path);
+    	if (checksum == null || checksum[0] != length || checksum[1] != modified) {
+    		CRC32 crc = new CRC32();
+    		if (!update(crc, shp) || !update(crc, dbf))
+    			return null;
+    		checksum = new long[] { length, modified, crc.getValue() };
+    		CHECKSUMS.put(path, checksum);
+    	}
+    	return Long.toHexString(checksum[2]);
+    }
+
+    /**
+     * Resolves the area file of a source URL. The path of a file URL is
+     * percent-encoded, so it does not name the file when the path has spaces
+     * or non-ASCII characters.
+     */
+    private static File getSourceFile(URL url) {
+    	try {
+    		return new File(url.toURI());
+    	} catch (URISyntaxException e) {
+    		return new File(url.getPath());
+    	} catch (IllegalArgumentException e) {
+    		return new File(url.getPath());
+    	}
+    }
+
+    private static boolean update(CRC32 crc, File file) {
+    	try {
+    		InputStream in = new FileInputStream(file);
+    		try {
+    			byte[] bytes = new byte[65536];
+    			int count;
+    			while ((count = in.read(bytes)) > 0)
+    				crc.update(bytes, 0, count);
+    		} finally {
+    			in.close();
+    		}
+    	} catch (IOException e) {
+    		Logger.warn("Unable to read area file " + file, e);
+    		return false;
+    	}
+    	return true;
+    }
 
 }
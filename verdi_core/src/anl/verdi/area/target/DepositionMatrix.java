@@ -0,0 +1,283 @@
+package anl.verdi.area.target;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.unitsofmeasurement.unit.UnitConverter;
+
+import anl.verdi.data.DataUtilities;
+import anl.verdi.util.ParallelUtilities;
+
+/**
+ * Overlap weights of a list of targets with the cells of a grid or mesh,
+ * held as a compressed sparse row matrix with a row per target. The total
+ * deposition of every target in a frame of data is the product of the
+ * matrix with the values of the frame, so only the cells that some target
+ * overlaps are read. The unit converters set on Target when the matrix is
+ * created are used for all of its products.
+ *
+ * @version $Revision$ $Date$
+ */
+public class DepositionMatrix {
+
+	/**
+	 * Reads the values of a frame of data.
+	 */
+	public static interface FrameReader {
+
+		/**
+		 * Reads the value of each of the cells in the frame. This is called
+		 * from several threads at once for different frames.
+		 *
+		 * @param frame the frame to read
+		 * @param cells the cells to read, as row * columns + column for a grid
+		 * or the mesh cell index for a mesh
+		 * @param values the array to hold the value of each cell
+		 */
+		public void read(int frame, int[] cells, float[] values);
+	}
+
+	private final int[] rowStart;
+	// position in cells of each overlap
+	private final int[] columnIndex;
+	// overlap area converted to the standard units
+	private final double[] weights;
+	// target area converted to the grid units
+	private final float[] areas;
+	// the distinct cells overlapped by the targets, ascending
+	private final int[] cells;
+	private final UnitConverter converterGrid;
+
+	private DepositionMatrix(int[] rowStart, int[] columnIndex, double[] weights, float[] areas, int[] cells) {
+		this.rowStart = rowStart;
+		this.columnIndex = columnIndex;
+		this.weights = weights;
+		this.areas = areas;
+		this.cells = cells;
+		converterGrid = Target.converterGrid;
+	}
+
+	/**
+	 * Creates the matrix for the overlaps of the targets with a grid.
+	 *
+	 * @param targets the targets, in the order of the matrix rows
+	 * @param gridIndex the number of the grid the overlaps were calculated for
+	 * @param rows the number of rows in the grid
+	 * @param columns the number of columns in the grid
+	 * @return the matrix.
+	 */
+	public static DepositionMatrix createGrid(List<Target> targets, int gridIndex, int rows, int columns) {
+		int[][] targetCells = new int[targets.size()][];
+		float[][] targetAreas = new float[targets.size()][];
+		for (int t = 0; t < targets.size(); t++) {
+			Target target = targets.get(t);
+			int[] rowIndex = target.rowIndex.get(gridIndex);
+			int[] colIndex = target.colIndex.get(gridIndex);
+			float[] overlap = target.overlapArea.get(gridIndex);
+			if (rowIndex == null || colIndex == null || overlap == null)
+				continue;
+			int[] flat = new int[rowIndex.length];
+			for (int i = 0; i < rowIndex.length; i++) {
+				boolean inside = rowIndex[i] >= 0 && rowIndex[i] < rows && colIndex[i] >= 0 && colIndex[i] < columns;
+				flat[i] = inside ? rowIndex[i] * columns + colIndex[i] : -1;
+			}
+			targetCells[t] = flat;
+			targetAreas[t] = overlap;
+		}
+		return create(targets, targetCells, targetAreas);
+	}
+
+	/**
+	 * Creates the matrix for the overlaps of the targets with a mesh.
+	 *
+	 * @param targets the targets, in the order of the matrix rows
+	 * @param gridIndex the number of the grid the overlaps were calculated for
+	 * @param cellCount the number of cells in the mesh
+	 * @return the matrix.
+	 */
+	public static DepositionMatrix createMesh(List<Target> targets, int gridIndex, int cellCount) {
+		int[][] targetCells = new int[targets.size()][];
+		float[][] targetAreas = new float[targets.size()][];
+		for (int t = 0; t < targets.size(); t++) {
+			Target target = targets.get(t);
+			int[] cellIndex = target.cellIndex.get(gridIndex);
+			float[] overlap = target.cellOverlapArea.get(gridIndex);
+			if (cellIndex == null || overlap == null)
+				continue;
+			int[] flat = new int[cellIndex.length];
+			for (int i = 0; i < cellIndex.length; i++)
+				flat[i] = cellIndex[i] >= 0 && cellIndex[i] < cellCount ? cellIndex[i] : -1;
+			targetCells[t] = flat;
+			targetAreas[t] = overlap;
+		}
+		return create(targets, targetCells, targetAreas);
+	}
+
+	private static DepositionMatrix create(List<Target> targets, int[][] targetCells, float[][] targetAreas) {
+		UnitConverter converterTargetStandard = Target.converterTargetStandard;
+		UnitConverter converterTargetGrid = Target.converterTargetGrid;
+		int targetCount = targets.size();
+
+		int nonZero = 0;
+		for (int[] flat : targetCells) {
+			if (flat == null)
+				continue;
+			for (int cell : flat) {
+				if (cell >= 0)
+					nonZero++;
+			}
+		}
+
+		// the distinct cells become the matrix columns
+		int[] cells = new int[nonZero];
+		int count = 0;
+		for (int[] flat : targetCells) {
+			if (flat == null)
+				continue;
+			for (int cell : flat) {
+				if (cell >= 0)
+					cells[count++] = cell;
+			}
+		}
+		Arrays.sort(cells);
+		int distinct = 0;
+		for (int i = 0; i < cells.length; i++) {
+			if (i == 0 || cells[i] != cells[i - 1])
+				cells[distinct++] = cells[i];
+		}
+		cells = Arrays.copyOf(cells, distinct);
+
+		int[] rowStart = new int[targetCount + 1];
+		int[] columnIndex = new int[nonZero];
+		double[] weights = new double[nonZero];
+		float[] areas = new float[targetCount];
+		int k = 0;
+		for (int t = 0; t < targetCount; t++) {
+			rowStart[t] = k;
+			areas[t] = (float) converterTargetGrid.convert((float) targets.get(t).area);
+			int[] flat = targetCells[t];
+			if (flat == null)
+				continue;
+			for (int i = 0; i < flat.length; i++) {
+				if (flat[i] < 0)
+					continue;
+				columnIndex[k] = Arrays.binarySearch(cells, flat[i]);
+				weights[k] = converterTargetStandard.convert(targetAreas[t][i]);
+				k++;
+			}
+		}
+		rowStart[targetCount] = k;
+		return new DepositionMatrix(rowStart, columnIndex, weights, areas, cells);
+	}
+
+	/**
+	 * @return the number of targets.
+	 */
+	public int getTargetCount() {
+		return areas.length;
+	}
+
+	/**
+	 * @return the distinct cells overlapped by the targets, in ascending
+	 * order. Do not modify.
+	 */
+	public int[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * Calculates the deposition of each target in a single frame.
+	 *
+	 * @param values the value of each of the cells returned by getCells
+	 * @param totals the array to hold the total deposition of each target
+	 * @param averages the array to hold the average deposition of each
+	 * target, may be null
+	 */
+	public void multiply(float[] values, float[] totals, float[] averages) {
+		double[] converted = new double[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			float value = values[i];
+			if (value != value || value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3
+							|| value >= DataUtilities.NC_FILL_FLOAT)
+				converted[i] = Double.NaN;
+			else
+				converted[i] = converterGrid.convert(value);
+		}
+		for (int t = 0; t < areas.length; t++) {
+			float dep = 0.0f;
+			for (int k = rowStart[t]; k < rowStart[t + 1]; k++) {
+				double value = converted[columnIndex[k]];
+				if (value == value)
+					dep = dep + (float) (weights[k] * value);
+			}
+			totals[t] = dep;
+			if (averages != null)
+				averages[t] = dep / areas[t];
+		}
+	}
+
+	/**
+	 * Calculates the deposition of each target in each frame. Frames are read
+	 * and multiplied in parallel.
+	 *
+	 * @param frames the number of frames
+	 * @param reader reads the values of a frame
+	 * @param totals the array to hold the total deposition of each target in
+	 * each frame, indexed by frame and then target
+	 * @param averages the array to hold the average deposition of each
+	 * target in each frame, may be null
+	 */
+	public void multiply(int frames, final FrameReader reader, final float[][] totals, final float[][] averages) {
+		ParallelUtilities.forRange(0, frames, 1, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				float[] values = new float[cells.length];
+				for (int frame = from; frame < to; frame++) {
+					reader.read(frame, cells, values);
+					totals[frame] = new float[areas.length];
+					if (averages != null)
+						averages[frame] = new float[areas.length];
+					multiply(values, totals[frame], averages == null ? null : averages[frame]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Calculates the range of the total and average deposition of the
+	 * targets over all frames.
+	 *
+	 * @param frames the number of frames
+	 * @param reader reads the values of a frame
+	 * @param range the range to update
+	 */
+	public void computeRange(int frames, final FrameReader reader, final DepositionRange range) {
+		ParallelUtilities.forRange(0, frames, 1, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				float[] values = new float[cells.length];
+				float[] totals = new float[areas.length];
+				float[] averages = new float[areas.length];
+				DepositionRange local = new DepositionRange();
+				for (int frame = from; frame < to; frame++) {
+					reader.read(frame, cells, values);
+					multiply(values, totals, averages);
+					for (int t = 0; t < areas.length; t++) {
+						if (totals[t] > local.totalMax)
+							local.totalMax = totals[t];
+						if (totals[t] < local.totalMin)
+							local.totalMin = totals[t];
+						if (averages[t] > local.averageMax)
+							local.averageMax = averages[t];
+						if (averages[t] < local.averageMin)
+							local.averageMin = averages[t];
+					}
+				}
+				synchronized (range) {
+					range.totalMax = Math.max(range.totalMax, local.totalMax);
+					range.totalMin = Math.min(range.totalMin, local.totalMin);
+					range.averageMax = Math.max(range.averageMax, local.averageMax);
+					range.averageMin = Math.min(range.averageMin, local.averageMin);
+				}
+			}
+		});
+	}
+}
@@ -327,7 +327,7 @@ public class Target implements Area{
 		if(source instanceof SourceData) {
 			sourceMap.remove(((SourceData)source).fileName);
 			styleMap.remove(((SourceData)source).fileName);
-			CachedTargetList.closeFile(((SourceData)source).fileName);
+			CachedTargetList.closeFile(source.getURL().getPath());
 		}
 	}
 	public static CoordinateReferenceSystem loadProjectionInfo(String fileName) {
@@ -1248,7 +1248,7 @@ public class Target implements Area{
 					Logger.debug("stop here");
 					continue;		// 2014 nothing had been done after previous line saying "stop here"
 				}
-				float dataPoint = (float)data[ i ].getValue(reader);
+				float dataPoint = (float)data[ cells[i] ].getValue(reader);
 				
 				// Logger.debug(new Float(dataPoint).toString());
 
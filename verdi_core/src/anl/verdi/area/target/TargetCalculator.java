@@ -5,11 +5,9 @@ import gov.epa.emvl.Projector;
 import gov.epa.emvl.TilePlot;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
@@ -29,20 +27,20 @@ import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameAxis;
 import anl.verdi.data.Dataset;
-import anl.verdi.data.MeshCellInfo;
+import anl.verdi.data.MeshGeometry;
 import anl.verdi.data.MeshDataReader;
 import anl.verdi.plot.data.IMPASDataset;
-import anl.verdi.plot.data.LonCellComparator;
+import anl.verdi.util.ParallelUtilities;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryComponentFilter;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
-import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.operation.overlay.OverlayOp;
-import com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp;
 
 /**
  * 
@@ -85,6 +83,8 @@ public class TargetCalculator extends LongTask {
 	public class CoordinateTransform implements CoordinateFilter{
 		Projector projector;
 		double[] t = { 0.0, 1.0 }; 
+		double[] xs = new double[256];
+		double[] ys = new double[256];
 		public CoordinateTransform(Projector projection){
 			projector=projection;
 		}
@@ -96,6 +96,38 @@ public class TargetCalculator extends LongTask {
 			arg0.x=t[0];
 			arg0.y=t[1];
 		}
+
+		/**
+		 * Projects the coordinates of a geometry a line at a time, rather
+		 * than a coordinate at a time. Each thread needs its own transform.
+		 */
+		public void transform(Geometry geometry) {
+			if(projector==null)return;
+			geometry.apply(new GeometryComponentFilter() {
+				public void filter(Geometry component) {
+					if (component instanceof LineString)
+						transform(((LineString)component).getCoordinateSequence());
+				}
+			});
+			geometry.geometryChanged();
+		}
+
+		private void transform(CoordinateSequence sequence) {
+			int size = sequence.size();
+			if (size > xs.length) {
+				xs = new double[size];
+				ys = new double[size];
+			}
+			for (int i = 0; i < size; i++) {
+				xs[i] = sequence.getX(i);
+				ys[i] = sequence.getY(i);
+			}
+			projector.project(xs, ys, xs, ys, size);
+			for (int i = 0; i < size; i++) {
+				sequence.setOrdinate(i, CoordinateSequence.X, xs[i]);
+				sequence.setOrdinate(i, CoordinateSequence.Y, ys[i]);
+			}
+		}
 	}
 	
 	public static GeometryFactory getGeometryFactory() {
@@ -114,7 +146,6 @@ public class TargetCalculator extends LongTask {
 	    //Logger.debug("plot = " + plot);
 	    // change to busy cursor
 	    boolean didCalcs = false;
-		double totalSquares = 0;
 	    try {
 	      if (targets == null || targets.isEmpty())
 	      {
@@ -153,7 +184,6 @@ public class TargetCalculator extends LongTask {
 			} else {
 				projector = new Projector(projection);
 			}
-			CoordinateTransform filter = new CoordinateTransform(projector);
 			if (rowAxis == null) {
 				rows = 1;
 			} else {
@@ -191,131 +221,31 @@ public class TargetCalculator extends LongTask {
 			Target.setCurrentGridInfo(plot.getGridInfo());
 			int num=Target.getCurrentGridNum();
 			
-			CachedTargetList cachedTargetList = CachedTargetList.getCachedTargetList((Target)targets.get(0), rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+			final CachedTargetList cachedTargetList = CachedTargetList.getCachedTargetList((Target)targets.get(0), projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
 
-	      //  get all the selected target polygons
-			double squares = 0;
-	      for (int targetNum = 0; targetNum < targets.size(); targetNum++) {
-	    	  long begin = System.currentTimeMillis();
-	    	  String dimension = "";
-	        
-	        current = targetNum;
-	        Target target = ((Target)targets.get(targetNum));
-	        // update the message
-	        statMessage = "Polygon " + target + " (" + (targetNum + 1) + " of " + targets.size() + ")";
-	        Logger.debug(statMessage);
-;
-	        Geometry obj = target.getGeometry(null, null);
-	        
-	        // if it hasn't been done yet
-	        if(!target.areaCalculatedForGrid(num)){
-	        	TargetAreaInfo areaInfo = null;
-	        	areaInfo = cachedTargetList.getCachedAreaInfo(target, projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
-	        	if (areaInfo != null) {
-		        	areaInfo = cachedTargetList.getCachedAreaInfo(target, projection, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
-	        		target.setAreaInfo(num, areaInfo.getRowIndex(), areaInfo.getColIndex(), areaInfo.getOverlapArea());
-	        		target.area = areaInfo.getArea();
-	        		continue;
-	        	}
-	        	target.setAreaInfo(num, null,null,null);
-	        	Geometry poly = (Geometry)obj.clone();
-	      		if(poly instanceof MultiPolygon){
-	      			for(int i=0;i<((MultiPolygon)poly).getNumGeometries();i++){
-	      				Geometry geo=((MultiPolygon)poly).getGeometryN(i);
-	      				// get the vertices
-	      				Polygon geoPolygon=(Polygon)geo;
-	      				// transform the polygon
-	      				geoPolygon.apply(filter);
-	      			}
-	      			poly.geometryChanged();
-	      			// convert the area
-		  	        target.area = poly.getArea() * areaConversion;
-		  	        
-	      			// get the bounding box of the geometry
-	      			Envelope env = poly.getEnvelopeInternal();
-	      			// get the corresponding grid cell 
-	      			int col1=(int)Math.floor((env.getMinX()-westEdge)/cellWidth);
-	      			int col2=(int)Math.floor((env.getMaxX()-westEdge)/cellWidth);
-	      			int row1=(int)Math.floor((env.getMinY()-southEdge)/cellHeight);
-	      			int row2=(int)Math.floor((env.getMaxY()-southEdge)/cellHeight);
-	      			
-	      			int w = col2 - col1;
-	      			int l = row2 - row1;
-	      			squares = w * l;
-	      			totalSquares += squares;
-	      			dimension = " size " + w + "x" + l + ", " + squares;
-	        		      			
-				// create the arrays to store the grid index data
-	            ArrayList<Integer> rowArray = new ArrayList<Integer>();
-	            ArrayList<Integer> colArray = new ArrayList<Integer>();
-	            ArrayList<Float> areas = new ArrayList<Float>();
-	            if(col1<0&&col2<0)
-	            	continue;
-	            if(row1<0&&row2<0)
-	            	continue;
-	            if(col1<0)
-	            	col1=0;
-	            if(row1<0)
-	            	row1=0;
-	            if(col2>=columns)
-	            	col2=columns-1;
-	            if(row2>=rows)
-	            	row2=rows-1;
-	            
-	            //TODO - this part scales with the size and complexity of the area covered by the area map.  Look for optimizations
-	            for (int i = col1; i <= col2; i++) {
-	              for (int j = row1; j <= row2; j++) {
-	                if (canceled)
-	                  return false;
-	                  
-	                // calculate the area of intersection
-	               Geometry cellPolygon=factory.toGeometry(new Envelope
-	            		   (i*cellWidth+westEdge,
-	            		   (i+1)*cellWidth+westEdge,
-	            		   j*cellHeight+southEdge,
-	            		   (j+1)*cellHeight+southEdge));
-	                
-	               Geometry intersection = calculateIntersection(poly, cellPolygon);
-	               
-	               //Geometry intersection = poly.intersection(cellPolygon);
-	               float intersectionArea=(float)intersection.getArea();
-	                if (intersectionArea > 0) {
-	                  // get the area of the intersection
-	                  rowArray.add(new Integer(j));
-	                  colArray.add(new Integer(i));
-	                  areas.add(new Float(intersectionArea));
-	                }
-
-	              }
-	            }
-	            // if there were some cells, make the arrays
-	            if (!rowArray.isEmpty()) {
-	            	
-	              int[] rowIndex = new int[rowArray.size()];
-	              int[] colIndex = new int[rowArray.size()];
-	              float[] overlapArea = new float[rowArray.size()];
-	              for (int i = 0; i < rowArray.size(); i++) {
-	                rowIndex[i] = ((Integer)rowArray.get(i)).intValue();
-	                colIndex[i] = ((Integer)colArray.get(i)).intValue();
-	                // convert the area
-	                overlapArea[i] = ((Float)areas.get(i)).floatValue() * (float)areaConversion;
-	                didCalcs = true;
-	              }
-	              // set the areas for that grid
-	              target.setAreaInfo(num, rowIndex, colIndex, overlapArea);
-	              cachedTargetList.cacheAreaInfo(target, rowIndex, colIndex, overlapArea);
-	            }
-	          }
-//	          didCalcs = true;	// 2014 moved to calculate overlapArea[i]
-	        }
-	        else
-	        	if (!didCalcs && target.overlapsGrid(num))
-	        		didCalcs = true;
-	        long total = System.currentTimeMillis() - begin;
-	        duration = System.currentTimeMillis() - start;
-	        if (duration > 30000)
-	        	System.err.println("Calculated target " + targetNum + " of " + targets.size() + ": " + target.getKeyName() + " " + dimension + " in " + total + "ms, " + (squares / total) + "squares/ms");
-	        }
+	      //  get all the selected target polygons, in parallel
+			final ArrayList targetList = targets;
+			final int gridNum = num;
+			final double conversion = areaConversion;
+			final AtomicInteger finished = new AtomicInteger();
+			final AtomicBoolean overlaps = new AtomicBoolean();
+			ParallelUtilities.forRange(0, targets.size(), 1, new ParallelUtilities.RangeFunction() {
+				public void apply(int from, int to) {
+					CoordinateTransform filter = new CoordinateTransform(projector);
+					TargetIntersector intersector = new TargetIntersector(TargetCalculator.this, factory);
+					for (int targetNum = from; targetNum < to && !canceled; targetNum++) {
+						Target target = (Target)targetList.get(targetNum);
+						if (intersectGrid(target, gridNum, filter, intersector, cachedTargetList, conversion))
+							overlaps.set(true);
+						updateProgress(target, finished.incrementAndGet(), targetList.size());
+					}
+				}
+			});
+			if (canceled)
+				return false;
+			didCalcs = overlaps.get();
+	      // keep the overlaps for the next session
+	      cachedTargetList.save();
 	        
 	    } catch (Exception e) {
 	      Logger.error("An exception occurred here");
@@ -328,38 +258,75 @@ public class TargetCalculator extends LongTask {
 	    duration = System.currentTimeMillis() - start;
 	    if (duration > 30000)
 	    	System.err.println("TargetCalculator calculated " + targets.size() + " areas in " + duration + "ms");
-		Logger.debug("TargetCalculator calculated " + targets.size() + " areas, " + totalSquares + " in " + duration + "ms, " + (totalSquares / duration) + " squares/ms");
+		Logger.debug("TargetCalculator calculated " + targets.size() + " areas in " + duration + "ms");
 	    return didCalcs;	// 2014 had returned true; now calling program can test for success
 	  }
   
-  private static Geometry calculateIntersection(Geometry g1, Geometry g2) {
-	  Geometry result = null;
-	  RuntimeException e = null;
-	  boolean isSuccess = false;
-	    try {
-	        // try basic operation with input geometries
-	        result = OverlayOp.overlayOp(g1, g2, OverlayOp.INTERSECTION); 
-	        boolean isValid = true;
-	        // not needed if noding validation is used
-	        if (isValid)
-	        	isSuccess = true;
-	      }
-	      catch (RuntimeException ex) {
-	      	e = ex;
+  /**
+   * Calculates the grid cells overlapped by a target, unless they are already
+   * known for the grid or cached.
+   * @return whether the target overlaps the grid
+   */
+  private boolean intersectGrid(Target target, int num, CoordinateTransform filter, TargetIntersector intersector,
+		  CachedTargetList cachedTargetList, double areaConversion) {
+	  if (target.areaCalculatedForGrid(num))
+		  return target.overlapsGrid(num);
+	  TargetAreaInfo areaInfo = cachedTargetList.getCachedAreaInfo(target, null, rows, columns, westEdge, southEdge, cellWidth, cellHeight);
+	  if (areaInfo != null) {
+		  target.setAreaInfo(num, areaInfo.getRowIndex(), areaInfo.getColIndex(), areaInfo.getOverlapArea());
+		  target.area = areaInfo.getArea();
+		  return areaInfo.getOverlapArea() != null && areaInfo.getOverlapArea().length > 0;
+	  }
+	  target.setAreaInfo(num, null,null,null);
+	  Geometry poly = target.getGeometry(null, null);
+	  if (!(poly instanceof MultiPolygon))
+		  return false;
+	  poly = (Geometry)poly.clone();
+	  // transform the polygon
+	  filter.transform(poly);
+	  // convert the area
+	  target.area = poly.getArea() * areaConversion;
 
-	      }
-	      if (! isSuccess) {
-	      	// this may still throw an exception
-	      	// if so, throw the original exception since it has the input coordinates
-	      	try {
-	      		result = SnapOverlayOp.overlayOp(g1, g2, OverlayOp.INTERSECTION);
-	      	}
-	      	catch (RuntimeException ex) {
-	      		throw e;
-	      	}
-	      }
-	      return result;
+	  TargetIntersector.Overlap overlap = intersector.intersectGrid(poly, rows, columns, westEdge, southEdge, cellWidth, cellHeight, (float)areaConversion);
+	  if (overlap == null || overlap.isEmpty())
+		  return false;
+	  // set the areas for that grid
+	  target.setAreaInfo(num, overlap.getRowIndex(), overlap.getColIndex(), overlap.getOverlapArea());
+	  cachedTargetList.cacheAreaInfo(target, overlap.getRowIndex(), overlap.getColIndex(), overlap.getOverlapArea());
+	  return true;
+  }
+
+  /**
+   * Calculates the mesh cells overlapped by a target, unless they are already
+   * known for the mesh.
+   * @return whether the target overlaps the mesh
+   */
+  private boolean intersectMesh(Target target, int num, CoordinateTransform filter, TargetIntersector intersector,
+		  MeshGeometry mesh, double areaConversion) {
+	  if (target.areaCalculatedForGrid(num))
+		  return target.overlapsMesh(num);
+	  target.setAreaInfo(num, null,null);
+	  Geometry poly = target.getGeometry(null, null);
+	  if (!(poly instanceof MultiPolygon))
+		  return false;
+	  poly = (Geometry)poly.clone();
+	  // transform the polygon
+	  filter.transform(poly);
+	  // convert the area
+	  target.area = poly.getArea() * areaConversion;
+
+	  TargetIntersector.Overlap overlap = intersector.intersectMesh(poly, mesh, (float)areaConversion);
+	  if (overlap == null || overlap.isEmpty())
+		  return false;
+	  // set the areas for that mesh
+	  target.setAreaInfo(num, overlap.getRowIndex(), overlap.getOverlapArea());
+	  return true;
+  }
 
+  private void updateProgress(Target target, int count, int total) {
+	  current = count;
+	  statMessage = "Polygon " + target + " (" + count + " of " + total + ")";
+	  Logger.debug(statMessage);
   }
   
   public boolean calculateIntersections(ArrayList targets, IMPASDataset dataset, TilePlot plot) {
@@ -405,7 +372,6 @@ public class TargetCalculator extends LongTask {
 //			} else {
 //				projector = new Projector(projection);
 //			}
-			CoordinateTransform filter = new CoordinateTransform(projector);
 /*			if (rowAxis == null) {
 				rows = 1;
 			} else {
@@ -442,128 +408,28 @@ public class TargetCalculator extends LongTask {
 			}
 			int num=Target.getCurrentGridNum();
 			
-	      //  get all the selected target polygons
-	      for (int targetNum = 0; targetNum < targets.size(); targetNum++) {
-	        
-	        current = targetNum;
-	        Target target = ((Target)targets.get(targetNum));
-	        // update the message
-	        statMessage = "Polygon " + target + " (" + (targetNum + 1) + " of " + targets.size() + ")";
-	        Logger.debug(statMessage);
-
-	        Geometry obj = target.getGeometry(null, null);
-	        
-	        // if it hasn't been done yet
-	        if(!target.areaCalculatedForGrid(num)){
-	        	target.setAreaInfo(num, null,null);
-	        	Geometry poly = (Geometry)obj.clone();
-	      		if(poly instanceof MultiPolygon){
-	      			for(int i=0;i<((MultiPolygon)poly).getNumGeometries();i++){
-	      				Geometry geo=((MultiPolygon)poly).getGeometryN(i);
-	      				// get the vertices
-	      				Polygon geoPolygon=(Polygon)geo;
-	      				// transform the polygon
-	      				geoPolygon.apply(filter);
-	      			}
-	      			poly.geometryChanged();
-	      			// convert the area
-		  	        target.area = poly.getArea() * areaConversion;
-		  	        
-		  	        //TODO - sort cell infos by position to avoid linear search
-		  	        
-	      			// get the bounding box of the geometry
-	      			/*Envelope env = poly.getEnvelopeInternal();
-	      			// get the corresponding grid cell 
-	      			int col1=(int)Math.floor((env.getMinX()-westEdge)/cellWidth);
-	      			int col2=(int)Math.floor((env.getMaxX()-westEdge)/cellWidth);
-	      			int row1=(int)Math.floor((env.getMinY()-southEdge)/cellHeight);
-	      			int row2=(int)Math.floor((env.getMaxY()-southEdge)/cellHeight);
-	        		      			
-				// create the arrays to store the grid index data
-	            ArrayList<Integer> rowArray = new ArrayList<Integer>();
-	            ArrayList<Integer> colArray = new ArrayList<Integer>();*/
-		  	    ArrayList<Integer> cellArray = new ArrayList<Integer>();
-	            ArrayList<Float> areas = new ArrayList<Float>(); 
-	            /* if(col1<0&&col2<0)
-	            	continue;
-	            if(row1<0&&row2<0)
-	            	continue;
-	            if(col1<0)
-	            	col1=0;
-	            if(row1<0)
-	            	row1=0;
-	            if(col2>=columns)
-	            	col2=columns-1;
-	            if(row2>=rows)
-	            	row2=rows-1;*/
-	            
-//	            for (int i = col1; i <= col2; i++) {
-	            Envelope env = poly.getEnvelopeInternal();
-	            MeshCellInfo[] data = dataset.getLonSortedCellsArray();
-	            
-
-	            int idx = Arrays.binarySearch(data, env.getMinX(), LonCellComparator.getInstance() );
-	            if (idx < 0)
-	            	idx *= -1;
-	            if (idx > 0)
-	            	--idx;
-	            Map<MeshCellInfo, Integer> potentialCells = new HashMap<MeshCellInfo, Integer>();
-	            for (int cellIdx = idx; cellIdx < data.length && env.getMaxX() >= data[cellIdx].getLon(data[cellIdx].getMinXPosition()); ++cellIdx) {
-	            	if (data[cellIdx].getLat(data[cellIdx].getMinYPosition()) <= env.getMaxY() && data[cellIdx].getLat(data[cellIdx].getMaxYPosition()) >= env.getMinY())
-	            		potentialCells.put(data[cellIdx], cellIdx);
-	            }
-	           
-
-	            for (MeshCellInfo cellInfo : potentialCells.keySet()) {
-	                if (canceled)
-	                  return false;
-	                  
-
-	                Geometry cellPolygon = cellInfo.toGeometry();
-	                // calculate the area of intersection
-	                //factory.to
-	               /*Geometry cellPolygon=factory.toGeometry(new Envelope
-	            		   (i*cellWidth+westEdge,
-	            		   (i+1)*cellWidth+westEdge,
-	            		   j*cellHeight+southEdge,
-	            		   (j+1)*cellHeight+southEdge));*/
-	                
-	               float intersectionArea = 0;
-	               try {
-	               Geometry intersection = poly.intersection(cellPolygon);
-	               intersectionArea=(float)intersection.getArea();
-	               } catch (Throwable t) {
-	            	   t.printStackTrace();
-	               }
-	                if (intersectionArea > 0) {
-	                  // get the area of the intersection
-		              cellArray.add(potentialCells.get(cellInfo));
-	                  areas.add(new Float(intersectionArea));
-	                }
-
-	              }
-//	            }
-	            // if there were some cells, make the arrays
-	            if (!cellArray.isEmpty()) {
-	            	
-	              int[] cellIndex = new int[cellArray.size()];
-	              float[] overlapArea = new float[cellArray.size()];
-	              for (int i = 0; i < cellArray.size(); i++) {
-	                cellIndex[i] = ((Integer)cellArray.get(i)).intValue();
-	                // convert the area
-	                overlapArea[i] = ((Float)areas.get(i)).floatValue() * (float)areaConversion;
-	                didCalcs = true;
-	              }
-	              // set the areas for that grid
-	              target.setAreaInfo(num, cellIndex, overlapArea);
-	            }
-	          }
-//	          didCalcs = true;	// 2014 moved to calculate overlapArea[i]
-	        }
-	        else
-	        	if (!didCalcs && target.overlapsMesh(num))
-	        		didCalcs = true;
-	        }
+	      //  get all the selected target polygons, in parallel
+			final ArrayList targetList = targets;
+			final int gridNum = num;
+			final double conversion = areaConversion;
+			final MeshGeometry mesh = dataset.getMeshGeometry();
+			final AtomicInteger finished = new AtomicInteger();
+			final AtomicBoolean overlaps = new AtomicBoolean();
+			ParallelUtilities.forRange(0, targets.size(), 1, new ParallelUtilities.RangeFunction() {
+				public void apply(int from, int to) {
+					CoordinateTransform filter = new CoordinateTransform(projector);
+					TargetIntersector intersector = new TargetIntersector(TargetCalculator.this, factory);
+					for (int targetNum = from; targetNum < to && !canceled; targetNum++) {
+						Target target = (Target)targetList.get(targetNum);
+						if (intersectMesh(target, gridNum, filter, intersector, mesh, conversion))
+							overlaps.set(true);
+						updateProgress(target, finished.incrementAndGet(), targetList.size());
+					}
+				}
+			});
+			if (canceled)
+				return false;
+			didCalcs = overlaps.get();
 	        
 	    } catch (Exception e) {
 	      Logger.error("An exception occurred", e);
@@ -0,0 +1,393 @@
+package anl.verdi.area.target;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.area.LongTask;
+import anl.verdi.data.MeshGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.operation.overlay.OverlayOp;
+import com.vividsolutions.jts.operation.overlay.snap.SnapOverlayOp;
+
+/**
+ * Calculates the overlap of a target polygon with the cells of a grid or a
+ * mesh. The polygon is prepared once so that cells inside or outside of it
+ * are classified without an overlay. Grid cells crossed by the boundary are
+ * measured by clipping the polygon rings to the cell rectangle; mesh cells
+ * crossed by the boundary use a full intersection.
+ * <p>
+ * An instance holds scratch buffers and must only be used by one thread at
+ * a time.
+ *
+ * @version $Revision$ $Date$
+ */
+public class TargetIntersector {
+
+	static final Logger Logger = LogManager.getLogger(TargetIntersector.class.getName());
+
+	/**
+	 * The cells overlapped by a polygon and the area of each overlap.
+	 */
+	public static class Overlap {
+
+		private int count;
+		private int[] rowIndex, colIndex;
+		private float[] area;
+
+		Overlap(boolean grid) {
+			rowIndex = new int[16];
+			colIndex = grid ? new int[16] : null;
+			area = new float[16];
+		}
+
+		void add(int row, int column, float overlap) {
+			if (count == area.length) {
+				rowIndex = Arrays.copyOf(rowIndex, count * 2);
+				if (colIndex != null)
+					colIndex = Arrays.copyOf(colIndex, count * 2);
+				area = Arrays.copyOf(area, count * 2);
+			}
+			rowIndex[count] = row;
+			if (colIndex != null)
+				colIndex[count] = column;
+			area[count++] = overlap;
+		}
+
+		void trim() {
+			rowIndex = Arrays.copyOf(rowIndex, count);
+			if (colIndex != null)
+				colIndex = Arrays.copyOf(colIndex, count);
+			area = Arrays.copyOf(area, count);
+		}
+
+		public boolean isEmpty() {
+			return count == 0;
+		}
+
+		/**
+		 * @return the row of each overlapped grid cell, or the index of each
+		 * overlapped mesh cell.
+		 */
+		public int[] getRowIndex() {
+			return rowIndex;
+		}
+
+		/**
+		 * @return the column of each overlapped grid cell, or null for a mesh.
+		 */
+		public int[] getColIndex() {
+			return colIndex;
+		}
+
+		public float[] getOverlapArea() {
+			return area;
+		}
+	}
+
+	private final LongTask task;
+	private final GeometryFactory factory;
+
+	// polygon rings as coordinate arrays, without the closing point
+	private double[][] ringX, ringY;
+	private double[] ringArea;
+	private boolean[] ringHole;
+	private Envelope[] ringEnvelope;
+	private int ringCount;
+
+	// ping-pong buffers for clipping a ring
+	private double[] clipX1 = new double[64], clipY1 = new double[64];
+	private double[] clipX2 = new double[64], clipY2 = new double[64];
+
+	/**
+	 * Creates a TargetIntersector.
+	 *
+	 * @param task the task to check for cancellation, may be null
+	 * @param factory the factory used to create cell geometries
+	 */
+	public TargetIntersector(LongTask task, GeometryFactory factory) {
+		this.task = task;
+		this.factory = factory;
+	}
+
+	private boolean isCanceled() {
+		return task != null && task.isCanceled();
+	}
+
+	/**
+	 * Calculates the overlap of a polygon with the cells of a regular grid.
+	 *
+	 * @param poly the polygon, in grid coordinates
+	 * @param rows the number of grid rows
+	 * @param columns the number of grid columns
+	 * @param westEdge the x coordinate of the first column
+	 * @param southEdge the y coordinate of the first row
+	 * @param cellWidth the width of a cell
+	 * @param cellHeight the height of a cell
+	 * @param scale factor applied to each overlap area
+	 * @return the overlapped cells, or null if the task was canceled.
+	 */
+	public Overlap intersectGrid(Geometry poly, int rows, int columns, double westEdge, double southEdge,
+			double cellWidth, double cellHeight, float scale) {
+		Overlap overlap = new Overlap(true);
+		Envelope env = poly.getEnvelopeInternal();
+		if (env.isNull())
+			return overlap;
+		int col1 = (int) Math.floor((env.getMinX() - westEdge) / cellWidth);
+		int col2 = (int) Math.floor((env.getMaxX() - westEdge) / cellWidth);
+		int row1 = (int) Math.floor((env.getMinY() - southEdge) / cellHeight);
+		int row2 = (int) Math.floor((env.getMaxY() - southEdge) / cellHeight);
+		if (col2 < 0 || row2 < 0 || col1 >= columns || row1 >= rows)
+			return overlap;
+		col1 = Math.max(col1, 0);
+		row1 = Math.max(row1, 0);
+		col2 = Math.min(col2, columns - 1);
+		row2 = Math.min(row2, rows - 1);
+
+		PreparedGeometry prepared = PreparedGeometryFactory.prepare(poly);
+		setRings(poly);
+		double cellArea = cellWidth * cellHeight;
+
+		for (int i = col1; i <= col2; i++) {
+			if (isCanceled())
+				return null;
+			double x0 = i * cellWidth + westEdge;
+			double x1 = (i + 1) * cellWidth + westEdge;
+			for (int j = row1; j <= row2; j++) {
+				double y0 = j * cellHeight + southEdge;
+				double y1 = (j + 1) * cellHeight + southEdge;
+				Geometry cellPolygon = factory.toGeometry(new Envelope(x0, x1, y0, y1));
+				double area;
+				if (!prepared.intersects(cellPolygon))
+					continue;
+				else if (prepared.containsProperly(cellPolygon))
+					area = cellArea;
+				else
+					area = clippedArea(x0, y0, x1, y1);
+				float intersectionArea = (float) area;
+				if (intersectionArea > 0)
+					overlap.add(j, i, intersectionArea * scale);
+			}
+		}
+		overlap.trim();
+		return overlap;
+	}
+
+	/**
+	 * Calculates the overlap of a polygon with the cells of a mesh.
+	 *
+	 * @param poly the polygon, in degrees
+	 * @param mesh the mesh
+	 * @param scale factor applied to each overlap area
+	 * @return the overlapped cells, as indices into the mesh, or null if the
+	 * task was canceled.
+	 */
+	public Overlap intersectMesh(Geometry poly, MeshGeometry mesh, float scale) {
+		Overlap overlap = new Overlap(false);
+		Envelope env = poly.getEnvelopeInternal();
+		if (env.isNull())
+			return overlap;
+		int[] order = mesh.getLonSortedOrder();
+
+		// find the first cell whose minimum longitude is not below the polygon's
+		int low = 0;
+		int high = order.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mesh.getMinLon(order[mid]) < env.getMinX())
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		int idx = low;
+		if (idx > 0)
+			--idx;
+
+		PreparedGeometry prepared = null;
+		for (int cellIdx = idx; cellIdx < order.length && env.getMaxX() >= mesh.getMinLon(order[cellIdx]); ++cellIdx) {
+			int cell = order[cellIdx];
+			if (mesh.getMinLat(cell) > env.getMaxY() || mesh.getMaxLat(cell) < env.getMinY())
+				continue;
+			if (mesh.getMaxLon(cell) < env.getMinX())
+				continue;
+			if (isCanceled())
+				return null;
+			if (prepared == null)
+				prepared = PreparedGeometryFactory.prepare(poly);
+
+			Geometry cellPolygon = mesh.toGeometry(cell, factory);
+			float intersectionArea = 0;
+			try {
+				if (!prepared.intersects(cellPolygon))
+					continue;
+				else if (prepared.containsProperly(cellPolygon))
+					intersectionArea = (float) cellPolygon.getArea();
+				else
+					intersectionArea = (float) calculateIntersection(poly, cellPolygon).getArea();
+			} catch (RuntimeException e) {
+				Logger.error("Unable to intersect mesh cell " + cell, e);
+			}
+			if (intersectionArea > 0)
+				overlap.add(cell, 0, intersectionArea * scale);
+		}
+		overlap.trim();
+		return overlap;
+	}
+
+	static Geometry calculateIntersection(Geometry g1, Geometry g2) {
+		try {
+			// try basic operation with input geometries
+			return OverlayOp.overlayOp(g1, g2, OverlayOp.INTERSECTION);
+		} catch (RuntimeException e) {
+			// this may still throw an exception
+			// if so, throw the original exception since it has the input coordinates
+			try {
+				return SnapOverlayOp.overlayOp(g1, g2, OverlayOp.INTERSECTION);
+			} catch (RuntimeException ex) {
+				throw e;
+			}
+		}
+	}
+
+	private void setRings(Geometry poly) {
+		int count = 0;
+		for (int n = 0; n < poly.getNumGeometries(); n++) {
+			Geometry geo = poly.getGeometryN(n);
+			if (geo instanceof Polygon)
+				count += 1 + ((Polygon) geo).getNumInteriorRing();
+		}
+		ringX = new double[count][];
+		ringY = new double[count][];
+		ringArea = new double[count];
+		ringHole = new boolean[count];
+		ringEnvelope = new Envelope[count];
+		ringCount = 0;
+		for (int n = 0; n < poly.getNumGeometries(); n++) {
+			Geometry geo = poly.getGeometryN(n);
+			if (!(geo instanceof Polygon))
+				continue;
+			Polygon polygon = (Polygon) geo;
+			addRing(polygon.getExteriorRing(), false);
+			for (int h = 0; h < polygon.getNumInteriorRing(); h++)
+				addRing(polygon.getInteriorRingN(h), true);
+		}
+	}
+
+	private void addRing(LineString ring, boolean hole) {
+		Coordinate[] coords = ring.getCoordinates();
+		// drop the closing point
+		int n = coords.length > 1 && coords[0].equals2D(coords[coords.length - 1]) ? coords.length - 1 : coords.length;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = coords[i].x;
+			y[i] = coords[i].y;
+		}
+		ringX[ringCount] = x;
+		ringY[ringCount] = y;
+		ringArea[ringCount] = Math.abs(signedArea(x, y, n));
+		ringHole[ringCount] = hole;
+		ringEnvelope[ringCount] = ring.getEnvelopeInternal();
+		ringCount++;
+	}
+
+	// area of the polygon rings inside the rectangle, holes subtracted
+	private double clippedArea(double x0, double y0, double x1, double y1) {
+		double area = 0;
+		for (int r = 0; r < ringCount; r++) {
+			Envelope env = ringEnvelope[r];
+			if (env.getMaxX() <= x0 || env.getMinX() >= x1 || env.getMaxY() <= y0 || env.getMinY() >= y1)
+				continue;
+			double ring;
+			if (env.getMinX() >= x0 && env.getMaxX() <= x1 && env.getMinY() >= y0 && env.getMaxY() <= y1)
+				ring = ringArea[r];
+			else
+				ring = clipRing(ringX[r], ringY[r], x0, y0, x1, y1);
+			area += ringHole[r] ? -ring : ring;
+		}
+		return Math.max(area, 0);
+	}
+
+	/**
+	 * Clips the ring to the rectangle, one edge at a time. The clipped ring
+	 * of a concave ring may contain degenerate edges along the rectangle,
+	 * but these enclose no area so the area is still exact.
+	 */
+	private double clipRing(double[] x, double[] y, double x0, double y0, double x1, double y1) {
+		int n = x.length;
+		ensureCapacity(2 * n);
+		n = clip(x, y, n, clipX1, clipY1, true, x0, true);
+		ensureCapacity(2 * n);
+		n = clip(clipX1, clipY1, n, clipX2, clipY2, true, x1, false);
+		ensureCapacity(2 * n);
+		n = clip(clipX2, clipY2, n, clipX1, clipY1, false, y0, true);
+		ensureCapacity(2 * n);
+		n = clip(clipX1, clipY1, n, clipX2, clipY2, false, y1, false);
+		return Math.abs(signedArea(clipX2, clipY2, n));
+	}
+
+	// keeps the buffers' contents, so that the input of a clip survives growing its output
+	private void ensureCapacity(int size) {
+		if (clipX1.length < size) {
+			clipX1 = Arrays.copyOf(clipX1, size);
+			clipY1 = Arrays.copyOf(clipY1, size);
+			clipX2 = Arrays.copyOf(clipX2, size);
+			clipY2 = Arrays.copyOf(clipY2, size);
+		}
+	}
+
+	// clips the ring against the line x = value or y = value, keeping the side above or below it
+	private static int clip(double[] inX, double[] inY, int n, double[] outX, double[] outY,
+			boolean vertical, double value, boolean above) {
+		if (n == 0)
+			return 0;
+		int m = 0;
+		double px = inX[n - 1];
+		double py = inY[n - 1];
+		double pv = vertical ? px : py;
+		boolean pIn = above ? pv >= value : pv <= value;
+		for (int i = 0; i < n; i++) {
+			double cx = inX[i];
+			double cy = inY[i];
+			double cv = vertical ? cx : cy;
+			boolean cIn = above ? cv >= value : cv <= value;
+			if (cIn != pIn) {
+				double t = (value - pv) / (cv - pv);
+				if (vertical) {
+					outX[m] = value;
+					outY[m] = py + t * (cy - py);
+				} else {
+					outX[m] = px + t * (cx - px);
+					outY[m] = value;
+				}
+				m++;
+			}
+			if (cIn) {
+				outX[m] = cx;
+				outY[m] = cy;
+				m++;
+			}
+			px = cx;
+			py = cy;
+			pv = cv;
+			pIn = cIn;
+		}
+		return m;
+	}
+
+	private static double signedArea(double[] x, double[] y, int n) {
+		double sum = 0;
+		for (int i = 0, j = n - 1; i < n; j = i++)
+			sum += (x[j] - x[i]) * (y[j] + y[i]);
+		return sum / 2;
+	}
+}
@@ -140,17 +140,12 @@ public class BatchScriptHandler {
 			System.out.println("BatchScriptHandler: Exception in BatchScriptHandler.processTasks: There is no task to run.");
 			throw new Exception("Error: There is no task to run.");
 		}
-		for (AbstractTask task : tasks) {
-			try {
-				if (task != null)
-					task.run();		// here is how program gets to TilePlotTask to execute
-			} catch (Throwable e) {
-				Logger.error("Error in BatchScriptHandler.processTasks: Task is null. " + e.getMessage());
-				System.out.println("BatchScriptHandler: Error in BatchScriptHandler.processTasks: Task is null. " + e.getMessage());
-				e.printStackTrace();
-				throw new Exception(e == null ? "Error running task: "
-						+ task.toString() : e.getMessage());
-			}
+		try {
+			new BatchTaskRunner(verdiApp).run(tasks);	// here is how program gets to TilePlotTask to execute
+		} catch (Exception e) {
+			Logger.error("Error in BatchScriptHandler.processTasks: " + e.getMessage());
+			System.out.println("BatchScriptHandler: Error in BatchScriptHandler.processTasks: " + e.getMessage());
+			throw e;
 		}
 	}
 
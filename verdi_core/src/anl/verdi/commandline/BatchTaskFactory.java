@@ -11,7 +11,7 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 
 import anl.verdi.commandline.task.TilePlotTask;
 import anl.verdi.commandline.task.TimeSeriesPlotTask;
-//import anl.verdi.commandline.task.VectorPlotTask;		// 2014 removed old Vector Plot
+import anl.verdi.commandline.task.VectorPlotTask;
 import anl.verdi.core.VerdiApplication;
 import anl.verdi.core.VerdiConstants;
 import anl.verdi.formula.Formula;
@@ -93,14 +93,14 @@ public class BatchTaskFactory {
 			
 			for (Map<String, String> m : maps)
 				tasks.add(new TimeSeriesPlotTask(m, new File[]{new File(m.get(VerdiConstants.DATA_FILE))}, app, Formula.Type.CONTOUR));
-		} 
-//		else if (gtype.equalsIgnoreCase(VerdiConstants.VECTOR) || gtype.equalsIgnoreCase(VerdiConstants.VECTOR_TILE)) {
-//			if (!usePattern)
-//				tasks.add(new VectorPlotTask(map, files, app));
-//			
-//			for (Map<String, String> m : maps)
-//				tasks.add(new VectorPlotTask(m, new File[]{new File(m.get(VerdiConstants.DATA_FILE))}, app));
-//		}	// 2014 removed old Vector Plot
+		} else if (gtype.equalsIgnoreCase(VerdiConstants.VECTOR) || gtype.equalsIgnoreCase(VerdiConstants.VECTOR_TILE)) {
+			String[] subDomainArgs = subDomain == null ? null : subDomain.split(" ");
+			if (!usePattern)
+				tasks.add(new VectorPlotTask(map, files, app, subDomainArgs));
+			
+			for (Map<String, String> m : maps)
+				tasks.add(new VectorPlotTask(m, new File[]{new File(m.get(VerdiConstants.DATA_FILE))}, app, subDomainArgs));
+		}
 		else {
 			Logger.warn("Invalid plot type: " + gtype);		// 2015 warn user if invalid plot type at this point
 		}
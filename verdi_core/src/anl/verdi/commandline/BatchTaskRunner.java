@@ -0,0 +1,200 @@
+package anl.verdi.commandline;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.core.VerdiApplication;
+import anl.verdi.gui.DatasetListElement;
+import anl.verdi.util.ParallelUtilities;
+import anl.verdi.util.Tools;
+
+/**
+ * Runs batch tasks on a bounded pool of worker threads. Tasks set up their
+ * plots one at a time while holding the lock of the VerdiApplication, since
+ * they share its project, and render and write their images concurrently.
+ * The datasets a task loads stay open for the following tasks that read the
+ * same files, so their formula results are also shared through the formula
+ * cache. A task that reads other files waits until the tasks still using the
+ * loaded datasets have released them, so datasets are never closed while a
+ * plot of them is drawn. The outcome of each task is logged in task order,
+ * and the batch fails if any of its tasks did.
+ *
+ * @version $Revision$ $Date$
+ */
+public class BatchTaskRunner {
+
+	static final Logger Logger = LogManager.getLogger(BatchTaskRunner.class.getName());
+
+	// the number of tasks using the datasets loaded into each application
+	private static final Map<VerdiApplication, Integer> datasetUsers =
+			Collections.synchronizedMap(new WeakHashMap<VerdiApplication, Integer>());
+
+	private VerdiApplication verdiApp;
+	private int threads;
+
+	/**
+	 * Creates a BatchTaskRunner whose number of threads is set by the
+	 * verdi.batch.threads property.
+	 *
+	 * @param verdiApp the application the tasks run in
+	 */
+	public BatchTaskRunner(VerdiApplication verdiApp) {
+		this(verdiApp, getDefaultThreadCount());
+	}
+
+	/**
+	 * Creates a BatchTaskRunner with the specified number of threads.
+	 *
+	 * @param verdiApp the application the tasks run in
+	 * @param threads the number of tasks run at once
+	 */
+	public BatchTaskRunner(VerdiApplication verdiApp, int threads) {
+		this.verdiApp = verdiApp;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Runs the tasks and closes the datasets they loaded. Every task is run
+	 * even if some of them fail.
+	 *
+	 * @param tasks the tasks to run, null tasks are skipped
+	 * @throws Exception if any of the tasks failed
+	 */
+	public void run(List<AbstractTask> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tasks.size())));
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		int failures = 0;
+		Throwable firstFailure = null;
+		try {
+			for (final AbstractTask task : tasks) {
+				if (task == null) {
+					futures.add(null);
+					continue;
+				}
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						task.run();
+						return null;
+					}
+				}));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				Future<?> future = futures.get(i);
+				if (future == null)
+					continue;
+				try {
+					future.get();
+					Logger.info("Batch task " + (i + 1) + " of " + futures.size() + " finished: " + tasks.get(i));
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause() == null ? e : e.getCause();
+					Logger.error("Batch task " + (i + 1) + " of " + futures.size() + " failed: " + tasks.get(i), cause);
+					failures++;
+					if (firstFailure == null)
+						firstFailure = cause;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			synchronized (verdiApp) {
+				verdiApp.getProject().getFormulas().clear();
+				verdiApp.getProject().getDatasets().clear();
+				datasetUsers.remove(verdiApp);
+			}
+		}
+
+		if (failures > 0)
+			throw new Exception(failures + " of " + futures.size() + " batch tasks failed: "
+							+ firstFailure.getMessage(), firstFailure);
+	}
+
+	/**
+	 * Loads the specified files into the project for a task, unless the
+	 * project already holds exactly those files, in which case the loaded
+	 * datasets are kept and shared. Otherwise the loaded datasets are closed
+	 * first, once every task using them has called releaseDatasets, so the
+	 * aliases of the new datasets start again from 1. Each call that returns
+	 * must be followed by a call to releaseDatasets when the task no longer
+	 * reads the datasets; a call that throws has released them already. The
+	 * caller must hold the lock of the VerdiApplication, which is released
+	 * while waiting.
+	 *
+	 * @param verdiApp the application to load the files into
+	 * @param files the data files
+	 * @throws Exception if there is an error loading the files
+	 */
+	public static void loadDatasets(VerdiApplication verdiApp, File[] files) throws Exception {
+		List<URL> requested = new ArrayList<URL>();
+		for (File file : files)
+			requested.add(file.toURI().toURL());
+		while (!requested.equals(getLoadedURLs(verdiApp)) && getDatasetUsers(verdiApp) > 0) {
+			Logger.debug("Waiting for " + getDatasetUsers(verdiApp) + " tasks to release the loaded datasets");
+			verdiApp.wait();
+		}
+		datasetUsers.put(verdiApp, getDatasetUsers(verdiApp) + 1);
+		if (requested.equals(getLoadedURLs(verdiApp))) {
+			Logger.debug("Reusing the loaded datasets " + requested);
+			return;
+		}
+		try {
+			verdiApp.getProject().getDatasets().clear();
+			verdiApp.loadDataset(files);
+		} catch (Exception e) {
+			releaseDatasets(verdiApp);
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the datasets loaded for a task by loadDatasets, so they can be
+	 * closed when another task needs other files. The caller must hold the
+	 * lock of the VerdiApplication.
+	 *
+	 * @param verdiApp the application the files were loaded into
+	 */
+	public static void releaseDatasets(VerdiApplication verdiApp) {
+		int users = getDatasetUsers(verdiApp);
+		if (users <= 1)
+			datasetUsers.remove(verdiApp);
+		else
+			datasetUsers.put(verdiApp, users - 1);
+		verdiApp.notifyAll();
+	}
+
+	private static int getDatasetUsers(VerdiApplication verdiApp) {
+		Integer users = datasetUsers.get(verdiApp);
+		return users == null ? 0 : users;
+	}
+
+	private static List<URL> getLoadedURLs(VerdiApplication verdiApp) {
+		List<URL> loaded = new ArrayList<URL>();
+		for (DatasetListElement element : verdiApp.getProject().getDatasetsAsList())
+			loaded.add(element.getDataset().getURL());
+		return loaded;
+	}
+
+	private static int getDefaultThreadCount() {
+		String prop = System.getProperty(Tools.BATCH_THREAD_COUNT);
+		if (prop != null && !prop.trim().isEmpty()) {
+			try {
+				return Integer.parseInt(prop.trim());
+			} catch (NumberFormatException e) {
+				Logger.warn("Invalid value for " + Tools.BATCH_THREAD_COUNT + ": " + prop);
+			}
+		}
+		return ParallelUtilities.getThreadCount();
+	}
+}
@@ -15,12 +15,11 @@ import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
 
 import anl.verdi.commandline.AbstractTask;
+import anl.verdi.commandline.BatchTaskRunner;
 import anl.verdi.commandline.CommandScript;
 import anl.verdi.core.VerdiApplication;
 import anl.verdi.core.VerdiConstants;
-import anl.verdi.data.Axes;
 import anl.verdi.data.DataFrame;
-import anl.verdi.data.DataFrameAxis;
 import anl.verdi.formula.Formula;
 import anl.verdi.gui.DatasetListElement;
 import anl.verdi.gui.DatasetListModel;
@@ -32,13 +31,12 @@ import anl.verdi.plot.config.PlotConfiguration;
 import anl.verdi.plot.config.TilePlotConfiguration;
 //import anl.verdi.plot.config.VectorPlotConfiguration;		// 2014 removed old Vector Plot
 import anl.verdi.plot.config.VertCrossPlotConfiguration;
-import anl.verdi.plot.gui.FastTilePlot;
-import anl.verdi.plot.gui.Plot;
+import anl.verdi.plot.gui.BatchTileRenderer;
 
 public class TilePlotTask implements AbstractTask {
 	static final Logger Logger = LogManager.getLogger(TilePlotTask.class.getName());
-	private Map<String, String> map;
-	private VerdiApplication verdiApp;
+	protected Map<String, String> map;
+	protected VerdiApplication verdiApp;
 	public final static String JPEG = "jpeg";
 	public final static String JPG = "jpg";
 	public final static String TIFF = "tiff";
@@ -76,21 +74,51 @@ public class TilePlotTask implements AbstractTask {
 
 	@Override
 	public void run() {
-		TilePlotConfiguration tconfig = createConfig();
-		int timeStep = 0;
-		int layer = 0;
-
 		if (datafiles == null || datafiles.length == 0) {
 			Logger.error("No data files found.");
 			return;
 		}
-		
+
+		// the project is shared by all the tasks, so plots are set up one
+		// at a time and drawn and saved concurrently, while the datasets are
+		// kept open for them
+		synchronized (verdiApp) {
+			try {
+				BatchTaskRunner.loadDatasets(verdiApp, datafiles);
+			} catch (Exception e) {
+				Logger.error("Exception in TilePlotTask when calling loadDataset: " + e.getMessage());
+				throw new IllegalStateException("Error loading the data files of " + map.get(VerdiConstants.IMAGE_FILE) + ": " + e.getMessage(), e);
+			}
+		}
+
 		try {
-			verdiApp.loadDataset(datafiles);
-		} catch (Exception e1) {
-			Logger.error("Exception in TilePlotTask when calling loadDataset: " + e1.getMessage());
-			e1.printStackTrace();
+			BatchTileRenderer renderer;
+			synchronized (verdiApp) {
+				try {
+					renderer = createPlot();
+				} finally {
+					verdiApp.getProject().getFormulas().clear();
+				}
+			}
+
+			if (renderer == null)
+				throw new IllegalStateException("No tile plot was created for " + map.get(VerdiConstants.IMAGE_FILE));
+			try {
+				save(renderer);
+			} catch (Exception e) {
+				Logger.error("Error in TilePlotTask with saving plot: " + e.getMessage());
+				throw new IllegalStateException("Error saving " + map.get(VerdiConstants.IMAGE_FILE) + ": " + e.getMessage(), e);
+			}
+		} finally {
+			synchronized (verdiApp) {
+				BatchTaskRunner.releaseDatasets(verdiApp);
+			}
 		}
+	}
+
+	private BatchTileRenderer createPlot() {
+		TilePlotConfiguration tconfig = createConfig();
+
 		Logger.debug("TilePlotTask: subDomainArgs = " + subDomainArgs);
 		if(subDomainArgs != null && subDomainArgs.length == 4) {	// make sure we have a subdomain (i.e., 4 strings here)
 			try{
@@ -132,56 +160,34 @@ public class TilePlotTask implements AbstractTask {
 			
 		}
 		createFormula();
-		FastTilePlot plot = null;
+		BatchTileRenderer renderer = null;
 
 		if (verdiApp.getProject().getSelectedFormula() != null) {
 			final DataFrame dataFrame = verdiApp.evaluateFormula(Formula.Type.TILE);
 
 			if (dataFrame != null) {
-	   	
-				plot = new FastTilePlot(verdiApp, dataFrame);
-	        	plot.configure(tconfig, Plot.ConfigSource.FILE);
+				// drawn without the Swing components of a FastTilePlot
+				renderer = new BatchTileRenderer(dataFrame, tconfig);
 	        	// here handle subdomain
 	        	if(subDomainArgs != null)	// have a subdomain defined
 	        	{
-	        		plot.resetRowsNColumns(ymin, ymax, xmin, xmax);
+	        		renderer.setSubdomain(ymin, ymax, xmin, xmax);
 	        	}
-			    
-				try {
-					Axes<DataFrameAxis> axes = dataFrame.getAxes();
-					String aTimeStep = map.get(VerdiConstants.TIME_STEP);
-					if(aTimeStep == null)
-						timeStep = 0;
-					else
-						timeStep = Integer.parseInt(map.get(VerdiConstants.TIME_STEP)) - 1; //assume it is 1-based
-					plot.updateTimeStep(timeStep - axes.getTimeAxis().getOrigin());
-				} catch (NumberFormatException e) {
-					Logger.error("Number Format Exception in TilePlotTask when calling updateTimeStep: " + e.getMessage());
-				}
-				try {
-					Axes<DataFrameAxis> axes = dataFrame.getAxes();
-					String aLayer = map.get(VerdiConstants.LAYER);
-					if(aLayer == null)
-						layer = 0;
-					else
-						layer = Integer.parseInt(map.get(VerdiConstants.LAYER)) - 1; //assume it is 1-based
-					plot.updateLayer(layer - axes.getZAxis().getOrigin());
-				} catch (NumberFormatException e) {
-					Logger.error("Number Format Exception in TilePlotTask when calling updateTimeStep: " + e.getMessage());
-				}
+	        	addVectors(renderer);
 			}
 	    }
 
-		try {
-			if (plot != null)
-				save(plot);
-		} catch (Exception e) {
-			Logger.error("Error in TilePlotTask with saving plot: " + e.getMessage());
-			e.printStackTrace();
-		} finally {
-			verdiApp.getProject().getFormulas().clear();
-			verdiApp.getProject().getDatasets().clear();
-		}
+		return renderer;
+	}
+
+	/**
+	 * Adds the vectors drawn over the tiles to the plot, if there are any.
+	 * Called while the formulas are in the project.
+	 *
+	 * @param renderer the plot
+	 */
+	protected void addVectors(BatchTileRenderer renderer) {
+		// tile plots have no vectors
 	}
 	
 	/*private static void resetConfigurationsWithoutColorMap()
@@ -366,7 +372,10 @@ public class TilePlotTask implements AbstractTask {
 		return tconfig;
 	}
 
-	private void createFormula() {
+	/**
+	 * Adds the formula of the tiles to the project and selects it.
+	 */
+	protected void createFormula() {
 		try {
 			String formula = map.get(VerdiConstants.FORMULA).trim();
 			FormulaListElement e = verdiApp.create(formula);
@@ -378,9 +387,11 @@ public class TilePlotTask implements AbstractTask {
 		}
 	}
 
-	private void save(Plot plot) throws IOException {
+	private void save(BatchTileRenderer renderer) throws IOException {
 		int width = 800;
 		int height = 600;
+		int timeStep = 0;
+		int layer = 0;
 		
 		try {
 			width = Integer.parseInt(map.get(VerdiConstants.IMAGE_WIDTH));
@@ -388,6 +399,21 @@ public class TilePlotTask implements AbstractTask {
 		} catch (Exception e) {
 			Logger.error("Exception in TilePlotTask.save: " + e.getMessage());
 		}
+
+		try {
+			String aTimeStep = map.get(VerdiConstants.TIME_STEP);
+			if(aTimeStep != null)
+				timeStep = Integer.parseInt(aTimeStep) - 1; //assume it is 1-based
+		} catch (NumberFormatException e) {
+			Logger.error("Number Format Exception in TilePlotTask when reading the time step: " + e.getMessage());
+		}
+		try {
+			String aLayer = map.get(VerdiConstants.LAYER);
+			if(aLayer != null)
+				layer = Integer.parseInt(aLayer) - 1; //assume it is 1-based
+		} catch (NumberFormatException e) {
+			Logger.error("Number Format Exception in TilePlotTask when reading the layer: " + e.getMessage());
+		}
 		
 		String ext = map.get(VerdiConstants.IMAGE_TYPE);
 		String imgFile = map.get(VerdiConstants.IMAGE_FILE);
@@ -400,22 +426,26 @@ public class TilePlotTask implements AbstractTask {
 			ext = JPEG;
 		}
 
-		if (plot instanceof FastTilePlot && ext.equalsIgnoreCase(EPS)) {
+		if (ext.equalsIgnoreCase(EPS)) {
 			String filename = file.getAbsolutePath();
 			int extPos = filename.indexOf("." + ext);
 
 			if (extPos > 0)
 				filename = filename.substring(0, extPos);
 
-			((FastTilePlot) plot).exportEPSImage(filename, width, height);
+			renderer.exportEPSImage(filename, timeStep, layer, width, height);
 
 			return;
-		} else if (plot instanceof FastTilePlot) {
-			((FastTilePlot) plot).drawBatchImage(width, height);
 		}
 
-		BufferedImage image = plot.getBufferedImage(width, height);
-		ImageIO.write(image, ext, file);
+		BufferedImage image = renderer.render(timeStep, layer, width, height);
+		if (!ImageIO.write(image, ext, file))
+			throw new IOException("No writer for image type " + ext);
+	}
+
+	@Override
+	public String toString() {
+		return "TilePlotTask " + map.get(VerdiConstants.IMAGE_FILE);
 	}
 
 	/**
@@ -13,6 +13,7 @@ import org.apache.logging.log4j.Logger;			// 2015 replacing System.out.println w
 
 // import ucar.util.Logger;						// 2015 ucar logger replaced by apache logger
 import anl.verdi.commandline.AbstractTask;
+import anl.verdi.commandline.BatchTaskRunner;
 import anl.verdi.core.VerdiApplication;
 import anl.verdi.core.VerdiConstants;
 import anl.verdi.data.Axes;
@@ -59,16 +60,47 @@ public class TimeSeriesPlotTask implements AbstractTask {
 	@Override
 	public void run() {
 		Logger.debug("in TimeSeriesPlotTask.run()");
-		createConfig();
-		Logger.debug("in TimeSeriesPlotTask.run(), back from createConfig()");
+		// the project is shared by all the tasks, so plots are set up one
+		// at a time and drawn and saved concurrently, while the datasets are
+		// kept open for them
+		synchronized (verdiApp) {
+			try {
+				BatchTaskRunner.loadDatasets(verdiApp, datafiles);
+				Logger.debug("in TimeSeriesPlotTask.run(), back from loadDataset(datafiles)");
+			} catch (Exception e) {
+				throw new IllegalStateException("Error loading the data files of " + map.get(VerdiConstants.IMAGE_FILE) + ": " + e.getMessage(), e);
+			}
+		}
+
 		try {
-			verdiApp.loadDataset(datafiles);
-			Logger.debug("in TimeSeriesPlotTask.run(), back from loadDataset(datafiles)");
+			Plot plot;
+			synchronized (verdiApp) {
+				try {
+					plot = createPlot();
+				} finally {
+					verdiApp.getProject().getFormulas().clear();
+					Logger.debug("in TimeSeriesPlotTask.run(), in finally cleared formulas");
+				}
+			}
 
-		} catch (Exception e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
+			if (plot == null)
+				throw new IllegalStateException("No plot was created for " + map.get(VerdiConstants.IMAGE_FILE));
+			try {
+				save(plot);
+				Logger.debug("in TimeSeriesPlotTask.run(), back from save(plot)");
+			} catch (Exception e) {
+				throw new IllegalStateException("Error saving " + map.get(VerdiConstants.IMAGE_FILE) + ": " + e.getMessage(), e);
+			}
+		} finally {
+			synchronized (verdiApp) {
+				BatchTaskRunner.releaseDatasets(verdiApp);
+			}
 		}
+	}
+
+	private Plot createPlot() {
+		createConfig();
+		Logger.debug("in TimeSeriesPlotTask.run(), back from createConfig()");
 		createFormula();
 		Logger.debug("in TimeSeriesPlotTask.run(), back from createFormula()");
 
@@ -96,19 +128,7 @@ public class TimeSeriesPlotTask implements AbstractTask {
 			}
 		}
 
-		try {
-			if (plot != null){
-				Logger.debug("in TimeSeriesPlotTask.run(), plot is not null");
-				save(plot);
-				Logger.debug("in TimeSeriesPlotTask.run(), back from save(plot)");
-				}
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			verdiApp.getProject().getFormulas().clear();
-			verdiApp.getProject().getDatasets().clear();
-			Logger.debug("in TimeSeriesPlotTask.run(), in finally cleared formulas");
-		}
+		return plot;
 	}
 	
 	private void handleColorMap(Map<String, String> map) {
@@ -260,4 +280,8 @@ public class TimeSeriesPlotTask implements AbstractTask {
 		ImageIO.write(image, ext, file);
 	}
 
+	@Override
+	public String toString() {
+		return "TimeSeriesPlotTask " + map.get(VerdiConstants.IMAGE_FILE);
+	}
 }
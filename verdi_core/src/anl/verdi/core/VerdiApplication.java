@@ -43,9 +43,11 @@ import anl.verdi.data.DataManager;
 import anl.verdi.data.DataUtilities;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.ObsEvaluator;
+import anl.verdi.data.SampledVectorField;
 import anl.verdi.data.Variable;
 import anl.verdi.data.VectorEvaluator;
 import anl.verdi.formula.Formula;
+import anl.verdi.formula.FormulaCache;
 import anl.verdi.formula.FormulaFactory;
 import anl.verdi.formula.FormulaValidator;
 import anl.verdi.formula.IllegalFormulaException;
@@ -438,6 +440,9 @@ FormulaElementCreator, ListDataListener {
 				boolean convertUnits = result.getProperty(FormulaValidator.UNITS_WARN) == null;
 				if (dateRange != null) formula.overrideTimeRange(dateRange);
 				frame = formula.evaluate(manager, ranges, convertUnits);
+				FormulaCache cache = manager.getFormulaCache();
+				Logger.debug("formula cache hits = " + cache.getHits() + ", misses = " + cache.getMisses()
+								+ ", size = " + cache.getSize());
 			}
 
 		} catch (Throwable e) {
@@ -490,6 +495,9 @@ FormulaElementCreator, ListDataListener {
 				boolean convertUnits = result.getProperty(FormulaValidator.UNITS_WARN) == null;
 				if (dateRange != null) formula.overrideTimeRange(dateRange);
 				frame = formula.evaluate(manager, ranges, convertUnits);
+				FormulaCache cache = manager.getFormulaCache();
+				Logger.debug("formula cache hits = " + cache.getHits() + ", misses = " + cache.getMisses()
+								+ ", size = " + cache.getSize());
 			}
 
 		} catch (IllegalFormulaException e) {
@@ -902,18 +910,16 @@ FormulaElementCreator, ListDataListener {
 				int vectorSamplingInc = dialog.getVectorSamplingInc();	// 2015 get input Vector Sampling Increment
 				Logger.debug("got vectorSamplingIncrement = " + vectorSamplingInc);
 				
-				DataFrame[] frames = DataUtilities.unitVectorTransform(xFrame, yFrame, vectorSamplingInc);	// 2015 pass in vector sampling increment
-				Logger.debug("back from DataUtilities.unitVectorTransform");
-				xFrame = frames[0];
-				yFrame = frames[1];
+				// only the sampled cells are read, when the vectors are drawn
+				SampledVectorField field = new SampledVectorField(xFrame, yFrame, vectorSamplingInc);
 				project.setSelectedFormula(dialog.getVElement());
 				Logger.debug("back from project.setSelectedFormula");
 
 				if (fastPlot != null) {
-					fastPlot.addVectorAnnotation(new VectorEvaluator(xFrame, yFrame));
+					fastPlot.addVectorAnnotation(new VectorEvaluator(field));
 					Logger.debug("did addVectorAnnotation for new VectorEvaluator (fastPlot)");
 				} else{
-					request.getPlot().addVectorAnnotation(new VectorEvaluator(xFrame, yFrame));
+					request.getPlot().addVectorAnnotation(new VectorEvaluator(field));
 					Logger.debug("did addVectorAnnotation for new VectorEvaluator (NOT fastPlot)");
 				}
 
@@ -51,6 +51,7 @@ public interface VerdiConstants {
 	String BAR_PLOT = "bar".toUpperCase();
 	String VECTOR = "vector".toUpperCase();
 	String VECTOR_TILE = "vectorTile".toUpperCase();
+	String VECTOR_SAMPLING = "vectorSampling".toUpperCase();
 	String CONTOUR_PLOT = "contour".toUpperCase();
 	String GLOBAL_ATTRIBUTE = "global".toUpperCase();
 	String GRAPHICS = "gtype".toUpperCase();
@@ -1,5 +1,6 @@
 package anl.verdi.data;
 
+import java.nio.FloatBuffer;
 import java.util.Collections;
 import java.util.List;
 
@@ -125,6 +126,34 @@ public abstract class AbstractDataFrame implements DataFrame {
 		return array.getLong(index.index);
 	}
 
+	public int getSlabSize() {
+		return DataFrameSlabs.getSlabSize(array.getShape(), axes);
+	}
+
+	public void getSlab(int timeStep, int layer, float[] values, int offset) {
+		DataFrameSlabs.getSlab(array, axes, timeStep, layer, values, offset);
+	}
+
+	public void getSlab(int timeStep, int layer, double[] values, int offset) {
+		DataFrameSlabs.getSlab(array, axes, timeStep, layer, values, offset);
+	}
+
+	public void getSlab(int timeStep, int layer, FloatBuffer values) {
+		DataFrameSlabs.getSlab(array, axes, timeStep, layer, values);
+	}
+
+	public FloatBuffer getSlabView(int timeStep, int layer) {
+		return DataFrameSlabs.getSlabView(array, axes, timeStep, layer);
+	}
+
+	public void getTimeSeries(DataFrameIndex index, float[] values, int offset) {
+		DataFrameSlabs.getTimeSeries(array, axes, index, values, offset);
+	}
+
+	public void getTimeSeries(DataFrameIndex index, double[] values, int offset) {
+		DataFrameSlabs.getTimeSeries(array, axes, index, values, offset);
+	}
+
 	/**
 	 * Gets the total number of items in the data array.
 	 *
@@ -1,5 +1,6 @@
 package anl.verdi.data;
 
+import java.nio.FloatBuffer;
 import java.util.List;
 
 import ucar.ma2.Array;
@@ -109,6 +110,82 @@ public interface DataFrame {
 	 */
 	long getLong(DataFrameIndex index);
 
+	/**
+	 * Gets the number of items at a single time step and layer: the
+	 * product of the extents of every axis other than time and layer.
+	 *
+	 * @return the number of items at a single time step and layer.
+	 */
+	int getSlabSize();
+
+	/**
+	 * Copies the items at a time step and layer into an array, in the
+	 * row major order of the remaining array dimensions, e.g. row by row
+	 * for a gridded variable. The time step and layer are array indices,
+	 * and must be 0 when this DataFrame has no such axis.
+	 *
+	 * @param timeStep the array index of the time step
+	 * @param layer the array index of the layer
+	 * @param values the array to copy into, with room for getSlabSize() items
+	 * @param offset the position in values of the first item
+	 */
+	void getSlab(int timeStep, int layer, float[] values, int offset);
+
+	/**
+	 * Copies the items at a time step and layer into an array, in the
+	 * row major order of the remaining array dimensions.
+	 *
+	 * @param timeStep the array index of the time step
+	 * @param layer the array index of the layer
+	 * @param values the array to copy into, with room for getSlabSize() items
+	 * @param offset the position in values of the first item
+	 */
+	void getSlab(int timeStep, int layer, double[] values, int offset);
+
+	/**
+	 * Puts the items at a time step and layer into a buffer, in the
+	 * row major order of the remaining array dimensions.
+	 *
+	 * @param timeStep the array index of the time step
+	 * @param layer the array index of the layer
+	 * @param values the buffer to put into, with getSlabSize() items remaining
+	 */
+	void getSlab(int timeStep, int layer, FloatBuffer values);
+
+	/**
+	 * Gets a read only view of the items at a time step and layer, without
+	 * copying them, when they are stored contiguously as floats.
+	 *
+	 * @param timeStep the array index of the time step
+	 * @param layer the array index of the layer
+	 * @return a buffer of the getSlabSize() items at the time step and layer,
+	 * or null if they are not stored contiguously as floats, in which case
+	 * getSlab copies them.
+	 */
+	FloatBuffer getSlabView(int timeStep, int layer);
+
+	/**
+	 * Copies the items at every time step of a single position into an
+	 * array. The layer, column and row or cell are those of the index; its
+	 * time step is ignored.
+	 *
+	 * @param index the position of the items to copy
+	 * @param values the array to copy into, with room for an item per time step
+	 * @param offset the position in values of the first item
+	 */
+	void getTimeSeries(DataFrameIndex index, float[] values, int offset);
+
+	/**
+	 * Copies the items at every time step of a single position into an
+	 * array. The layer, column and row or cell are those of the index; its
+	 * time step is ignored.
+	 *
+	 * @param index the position of the items to copy
+	 * @param values the array to copy into, with room for an item per time step
+	 * @param offset the position in values of the first item
+	 */
+	void getTimeSeries(DataFrameIndex index, double[] values, int offset);
+
 	/**
 	 * Creates a new DataFrame that is a slice or subsection of this one. The
 	 * two DataFrames will share data, so any change to one will
@@ -20,6 +20,18 @@ public class DataFrameIndex {
 	 * @param frame the DataFrame that this is an index for
 	 */
 	public DataFrameIndex(DataFrame frame) {
+		this(frame, frame.getArray().getIndex());
+	}
+
+	/**
+	 * Creates a DataFrameIndex for the specified DataFrame using
+	 * the specified array Index. This allows frames that do not hold
+	 * their data in an Array to be indexed.
+	 *
+	 * @param frame the DataFrame that this is an index for
+	 * @param index the array index over the frame's shape
+	 */
+	protected DataFrameIndex(DataFrame frame, Index index) {
 		Axes<DataFrameAxis> axes = frame.getAxes();
 		int count = 0;
 
@@ -59,7 +71,7 @@ public class DataFrameIndex {
 		}
 
 		indices = new int[count];
-		index = frame.getArray().getIndex();
+		this.index = index;
 	}
 
 	/**
@@ -0,0 +1,297 @@
+package anl.verdi.data;
+
+import java.nio.FloatBuffer;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.Index;
+
+/**
+ * Bulk access to the values of a DataFrame at a time step and layer, or at
+ * every time step of a single cell. The array Index is only consulted to
+ * find the position of the first value and the step between values along
+ * each dimension; the values are then read by their position in the array
+ * storage, a run at a time along the last dimensions. Runs of a plain float
+ * or double array are copied straight from its storage.
+ *
+ * @version $Revision$ $Date$
+ */
+final class DataFrameSlabs {
+
+	/**
+	 * Receives a run of values, found at evenly spaced positions in the array
+	 * storage.
+	 */
+	interface RunFunction {
+		/**
+		 * @param element the storage position of the first value
+		 * @param stride the distance in the storage between values
+		 * @param count the number of values
+		 * @param position the position of the first value within the slab
+		 */
+		void apply(int element, int stride, int count, int position);
+	}
+
+	private DataFrameSlabs() {}
+
+	/**
+	 * Gets the number of values at a time step and layer.
+	 */
+	static int getSlabSize(int[] shape, Axes<DataFrameAxis> axes) {
+		int tDim = getDim(axes.getTimeAxis());
+		int lDim = getDim(axes.getZAxis());
+		int size = 1;
+		for (int dim = 0; dim < shape.length; dim++) {
+			if (dim != tDim && dim != lDim)
+				size *= shape[dim];
+		}
+		return size;
+	}
+
+	/**
+	 * Steps through the values at a time step and layer in the row major
+	 * order of the remaining dimensions.
+	 */
+	static void forEachRun(Index index, Axes<DataFrameAxis> axes, int timeStep, int layer, RunFunction function) {
+		int[] shape = index.getShape();
+		int tDim = getDim(axes.getTimeAxis());
+		int lDim = getDim(axes.getZAxis());
+		int[] counter = new int[shape.length];
+		setCounter(counter, shape, tDim, timeStep, "time step");
+		setCounter(counter, shape, lDim, layer, "layer");
+
+		int[] dims = new int[shape.length - (tDim == -1 ? 0 : 1) - (lDim == -1 ? 0 : 1)];
+		int count = 0;
+		for (int dim = 0; dim < shape.length; dim++) {
+			if (dim != tDim && dim != lDim)
+				dims[count++] = dim;
+		}
+		forEachRun(index, shape, counter, dims, function);
+	}
+
+	/**
+	 * Steps through the values at every time step of the position of the
+	 * specified index.
+	 */
+	static void forEachTimeStep(Index index, Axes<DataFrameAxis> axes, RunFunction function) {
+		int[] counter = index.getCurrentCounter();
+		int tDim = getDim(axes.getTimeAxis());
+		int[] dims;
+		if (tDim == -1) {
+			dims = new int[0];
+		} else {
+			dims = new int[] { tDim };
+			counter[tDim] = 0;
+		}
+		forEachRun((Index) index.clone(), index.getShape(), counter, dims, function);
+	}
+
+	// steps through the dimensions in dims from the position in counter
+	private static void forEachRun(Index index, int[] shape, int[] counter, int[] dims, RunFunction function) {
+		int start = getElement(index, counter);
+		if (dims.length == 0) {
+			function.apply(start, 1, 1, 0);
+			return;
+		}
+
+		int[] strides = new int[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			int dim = dims[i];
+			if (shape[dim] > 1) {
+				counter[dim]++;
+				strides[i] = getElement(index, counter) - start;
+				counter[dim]--;
+			}
+		}
+
+		// the last dimensions form a single run while each one steps over
+		// the whole of the next, or has a single value
+		int last = dims.length - 1;
+		int count = shape[dims[last]];
+		int stride = strides[last];
+		while (last > 0 && (count == 1 || shape[dims[last - 1]] == 1 || strides[last - 1] == stride * count)) {
+			if (count == 1)
+				stride = strides[last - 1];
+			last--;
+			count *= shape[dims[last]];
+		}
+		if (count == 0)
+			return;
+
+		int[] odometer = new int[last];
+		int position = 0;
+		int element = start;
+		while (true) {
+			function.apply(element, stride, count, position);
+			position += count;
+			int i = last - 1;
+			while (i >= 0) {
+				element += strides[i];
+				if (++odometer[i] < shape[dims[i]])
+					break;
+				element -= strides[i] * odometer[i];
+				odometer[i] = 0;
+				i--;
+			}
+			if (i < 0)
+				return;
+		}
+	}
+
+	/**
+	 * Copies the values at a time step and layer of an array.
+	 */
+	static void getSlab(final Array array, Axes<DataFrameAxis> axes, int timeStep, int layer, final float[] values,
+					final int offset) {
+		final float[] storage = getFloatStorage(array);
+		forEachRun(array.getIndex(), axes, timeStep, layer, new RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				copy(array, storage, element, stride, count, values, offset + position);
+			}
+		});
+	}
+
+	/**
+	 * Copies the values at a time step and layer of an array.
+	 */
+	static void getSlab(final Array array, Axes<DataFrameAxis> axes, int timeStep, int layer, final double[] values,
+					final int offset) {
+		final double[] storage = getDoubleStorage(array);
+		forEachRun(array.getIndex(), axes, timeStep, layer, new RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				copy(array, storage, element, stride, count, values, offset + position);
+			}
+		});
+	}
+
+	/**
+	 * Copies the values at a time step and layer of an array.
+	 */
+	static void getSlab(final Array array, Axes<DataFrameAxis> axes, int timeStep, int layer, final FloatBuffer values) {
+		final float[] storage = getFloatStorage(array);
+		forEachRun(array.getIndex(), axes, timeStep, layer, new RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				if (storage != null && stride == 1) {
+					values.put(storage, element, count);
+				} else {
+					for (int i = 0; i < count; i++, element += stride)
+						values.put(array.getFloat(element));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets a read only view of the values at a time step and layer of an
+	 * array, if they are contiguous in the storage of a float array.
+	 */
+	static FloatBuffer getSlabView(Array array, Axes<DataFrameAxis> axes, int timeStep, int layer) {
+		float[] storage = getFloatStorage(array);
+		if (storage == null)
+			return null;
+		final int[] run = { -1, 0 };
+		forEachRun(array.getIndex(), axes, timeStep, layer, new RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				if (position == 0 && (stride == 1 || count == 1)) {
+					run[0] = element;
+					run[1] = count;
+				} else {
+					run[0] = -1;
+				}
+			}
+		});
+		if (run[0] == -1)
+			return null;
+		FloatBuffer buffer = FloatBuffer.wrap(storage, run[0], run[1]).slice();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies the values at every time step of the position of the index.
+	 */
+	static void getTimeSeries(final Array array, Axes<DataFrameAxis> axes, DataFrameIndex index, final float[] values,
+					final int offset) {
+		final float[] storage = getFloatStorage(array);
+		forEachTimeStep(index.index, axes, new RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				copy(array, storage, element, stride, count, values, offset + position);
+			}
+		});
+	}
+
+	/**
+	 * Copies the values at every time step of the position of the index.
+	 */
+	static void getTimeSeries(final Array array, Axes<DataFrameAxis> axes, DataFrameIndex index, final double[] values,
+					final int offset) {
+		final double[] storage = getDoubleStorage(array);
+		forEachTimeStep(index.index, axes, new RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				copy(array, storage, element, stride, count, values, offset + position);
+			}
+		});
+	}
+
+	private static void copy(Array array, float[] storage, int element, int stride, int count, float[] values,
+					int position) {
+		if (storage != null && stride == 1) {
+			System.arraycopy(storage, element, values, position, count);
+		} else if (storage != null) {
+			for (int i = 0; i < count; i++, element += stride)
+				values[position + i] = storage[element];
+		} else {
+			for (int i = 0; i < count; i++, element += stride)
+				values[position + i] = array.getFloat(element);
+		}
+	}
+
+	private static void copy(Array array, double[] storage, int element, int stride, int count, double[] values,
+					int position) {
+		if (storage != null && stride == 1) {
+			System.arraycopy(storage, element, values, position, count);
+		} else if (storage != null) {
+			for (int i = 0; i < count; i++, element += stride)
+				values[position + i] = storage[element];
+		} else {
+			for (int i = 0; i < count; i++, element += stride)
+				values[position + i] = array.getDouble(element);
+		}
+	}
+
+	// the storage of a float array whose values are read straight from it;
+	// subclasses such as the log arrays compute their values instead
+	private static float[] getFloatStorage(Array array) {
+		Class<?> type = array.getClass();
+		if (type == ArrayFloat.class || type.getEnclosingClass() == ArrayFloat.class)
+			return (float[]) array.getStorage();
+		return null;
+	}
+
+	private static double[] getDoubleStorage(Array array) {
+		Class<?> type = array.getClass();
+		if (type == ArrayDouble.class || type.getEnclosingClass() == ArrayDouble.class)
+			return (double[]) array.getStorage();
+		return null;
+	}
+
+	private static int getElement(Index index, int[] counter) {
+		index.set(counter);
+		return index.currentElement();
+	}
+
+	private static int getDim(DataFrameAxis axis) {
+		return axis == null ? -1 : axis.getArrayIndex();
+	}
+
+	private static void setCounter(int[] counter, int[] shape, int dim, int value, String name) {
+		if (dim == -1) {
+			if (value != 0)
+				throw new IllegalArgumentException("Invalid " + name + " " + value + ": the frame has no " + name + " axis");
+		} else {
+			if (value < 0 || value >= shape[dim])
+				throw new ArrayIndexOutOfBoundsException("Invalid " + name + " " + value + " of " + shape[dim]);
+			counter[dim] = value;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package anl.verdi.data;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import anl.verdi.util.ParallelUtilities;
+
+/**
+ * Summary of the values in a DataFrame for each time step and layer: the
+ * minimum and maximum, where they occur, and the number and sum of the valid
+ * values. Missing and fill values are excluded. The summary is built once
+ * per frame, a time step and layer per task, and shared by every caller
+ * through getSummary, so the range of the whole frame or of any time step or
+ * layer is found without scanning the data again. Frames are expected not to
+ * change once summarized; call invalidate if one does.
+ *
+ * @version $Revision$ $Date$
+ */
+public class DataFrameSummary {
+
+	// frame, summaries of the frame for each minimum valid value
+	private static Map<DataFrame, DataFrameSummary[]> SUMMARIES = new WeakHashMap<DataFrame, DataFrameSummary[]>();
+
+	private final double minimumValid;
+	private final int timeSteps;
+	private final int layers;
+	// indexed by time step * layers + layer
+	private final double[] min;
+	private final double[] max;
+	private final int[] minIndex;
+	private final int[] maxIndex;
+	private final long[] count;
+	private final double[] sum;
+
+	/**
+	 * Gets the summary of the specified frame, building it if necessary.
+	 * BADVAL3, AMISS3, fill values and NaN are excluded.
+	 *
+	 * @param frame the frame
+	 * @return the summary of the frame.
+	 */
+	public static DataFrameSummary getSummary(DataFrame frame) {
+		return getSummary(frame, DataUtilities.AMISS3);
+	}
+
+	/**
+	 * Gets the summary of the specified frame, building it if necessary.
+	 * Values at or below the specified minimum are excluded along with fill
+	 * values and NaN.
+	 *
+	 * @param frame the frame
+	 * @param minimumValid the values at or below this are excluded
+	 * @return the summary of the frame.
+	 */
+	public static DataFrameSummary getSummary(DataFrame frame, double minimumValid) {
+		minimumValid = Math.max(minimumValid, Math.max(DataUtilities.BADVAL3, DataUtilities.AMISS3));
+		synchronized (SUMMARIES) {
+			DataFrameSummary[] summaries = SUMMARIES.get(frame);
+			if (summaries != null) {
+				for (DataFrameSummary summary : summaries) {
+					if (summary.minimumValid == minimumValid)
+						return summary;
+				}
+			}
+		}
+		DataFrameSummary summary = new DataFrameSummary(frame, minimumValid);
+		synchronized (SUMMARIES) {
+			DataFrameSummary[] summaries = SUMMARIES.get(frame);
+			int length = summaries == null ? 0 : summaries.length;
+			DataFrameSummary[] added = new DataFrameSummary[length + 1];
+			if (summaries != null)
+				System.arraycopy(summaries, 0, added, 0, length);
+			added[length] = summary;
+			SUMMARIES.put(frame, added);
+		}
+		return summary;
+	}
+
+	/**
+	 * Discards the summaries of the specified frame, so that they are built
+	 * again the next time they are requested.
+	 *
+	 * @param frame the frame whose data has changed
+	 */
+	public static void invalidate(DataFrame frame) {
+		synchronized (SUMMARIES) {
+			SUMMARIES.remove(frame);
+		}
+	}
+
+	private DataFrameSummary(final DataFrame frame, final double minimumValid) {
+		this.minimumValid = minimumValid;
+		Axes<DataFrameAxis> axes = frame.getAxes();
+		final int[] shape = frame.getShape();
+		final int timeDim = axes.getTimeAxis() == null ? -1 : axes.getTimeAxis().getArrayIndex();
+		final int layerDim = axes.getZAxis() == null ? -1 : axes.getZAxis().getArrayIndex();
+		timeSteps = timeDim == -1 ? 1 : shape[timeDim];
+		layers = layerDim == -1 ? 1 : shape[layerDim];
+
+		int slices = timeSteps * layers;
+		min = new double[slices];
+		max = new double[slices];
+		minIndex = new int[slices];
+		maxIndex = new int[slices];
+		count = new long[slices];
+		sum = new double[slices];
+
+		ParallelUtilities.forRange(0, slices, 1, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				float[] values = new float[frame.getSlabSize()];
+				for (int slice = from; slice < to; slice++) {
+					frame.getSlab(slice / layers, slice % layers, values, 0);
+					summarize(values, slice);
+				}
+			}
+		});
+	}
+
+	// scans the values of a single time step and layer, in the row major
+	// order of the other dimensions
+	private void summarize(float[] values, int slice) {
+		double sliceMin = Double.POSITIVE_INFINITY;
+		double sliceMax = Double.NEGATIVE_INFINITY;
+		int sliceMinIndex = -1;
+		int sliceMaxIndex = -1;
+		long sliceCount = 0;
+		double sliceSum = 0;
+		for (int i = 0; i < values.length; i++) {
+			float value = values[i];
+			if (value > minimumValid && value < DataUtilities.NC_FILL_FLOAT) {
+				if (value < sliceMin) {
+					sliceMin = value;
+					sliceMinIndex = i;
+				}
+				if (value > sliceMax) {
+					sliceMax = value;
+					sliceMaxIndex = i;
+				}
+				sliceCount++;
+				sliceSum += value;
+			}
+		}
+		min[slice] = sliceMin;
+		max[slice] = sliceMax;
+		minIndex[slice] = sliceMinIndex;
+		maxIndex[slice] = sliceMaxIndex;
+		count[slice] = sliceCount;
+		sum[slice] = sliceSum;
+	}
+
+	/**
+	 * @return the number of time steps in the frame, 1 if it has no time axis.
+	 */
+	public int getTimeSteps() {
+		return timeSteps;
+	}
+
+	/**
+	 * @return the number of layers in the frame, 1 if it has no layer axis.
+	 */
+	public int getLayers() {
+		return layers;
+	}
+
+	/**
+	 * Gets the minimum valid value at a time step and layer.
+	 *
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the minimum, or positive infinity if there are no valid values.
+	 */
+	public double getMin(int timeStep, int layer) {
+		return min[timeStep * layers + layer];
+	}
+
+	/**
+	 * Gets the maximum valid value at a time step and layer.
+	 *
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the maximum, or negative infinity if there are no valid values.
+	 */
+	public double getMax(int timeStep, int layer) {
+		return max[timeStep * layers + layer];
+	}
+
+	/**
+	 * Gets the position of the minimum within a time step and layer, counting
+	 * the remaining dimensions in row major order. For a mesh this is the
+	 * cell index.
+	 *
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the position of the minimum, or -1 if there are no valid values.
+	 */
+	public int getMinIndex(int timeStep, int layer) {
+		return minIndex[timeStep * layers + layer];
+	}
+
+	/**
+	 * Gets the position of the maximum within a time step and layer, counting
+	 * the remaining dimensions in row major order. For a mesh this is the
+	 * cell index.
+	 *
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the position of the maximum, or -1 if there are no valid values.
+	 */
+	public int getMaxIndex(int timeStep, int layer) {
+		return maxIndex[timeStep * layers + layer];
+	}
+
+	/**
+	 * Gets the number of valid values at a time step and layer.
+	 *
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the number of valid values.
+	 */
+	public long getCount(int timeStep, int layer) {
+		return count[timeStep * layers + layer];
+	}
+
+	/**
+	 * Gets the sum of the valid values at a time step and layer.
+	 *
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the sum of the valid values.
+	 */
+	public double getSum(int timeStep, int layer) {
+		return sum[timeStep * layers + layer];
+	}
+
+	/**
+	 * @return the min max over the whole frame.
+	 */
+	public DataUtilities.MinMax getMinMax() {
+		return getMinMax(0, timeSteps, 0, layers);
+	}
+
+	/**
+	 * @param timeStep the time step array index
+	 * @return the min max over all the layers of a time step.
+	 */
+	public DataUtilities.MinMax getMinMax(int timeStep) {
+		return getMinMax(timeStep, timeStep + 1, 0, layers);
+	}
+
+	/**
+	 * @param timeStep the time step array index
+	 * @param layer the layer array index
+	 * @return the min max of a time step and layer.
+	 */
+	public DataUtilities.MinMax getMinMax(int timeStep, int layer) {
+		return getMinMax(timeStep, timeStep + 1, layer, layer + 1);
+	}
+
+	/**
+	 * @param layer the layer array index
+	 * @return the min max of a layer over all the time steps.
+	 */
+	public DataUtilities.MinMax getLayerMinMax(int layer) {
+		return getMinMax(0, timeSteps, layer, layer + 1);
+	}
+
+	private DataUtilities.MinMax getMinMax(int fromTime, int toTime, int fromLayer, int toLayer) {
+		double rangeMin = Double.POSITIVE_INFINITY;
+		double rangeMax = Double.NEGATIVE_INFINITY;
+		for (int t = fromTime; t < toTime; t++) {
+			for (int l = fromLayer; l < toLayer; l++) {
+				rangeMin = Math.min(rangeMin, min[t * layers + l]);
+				rangeMax = Math.max(rangeMax, max[t * layers + l]);
+			}
+		}
+		return new DataUtilities.MinMax(rangeMin, rangeMax);
+	}
+}
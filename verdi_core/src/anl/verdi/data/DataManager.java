@@ -17,6 +17,7 @@ import org.java.plugin.registry.Extension;
 import org.java.plugin.registry.ExtensionPoint;
 
 import anl.verdi.core.VerdiGUI;
+import anl.verdi.formula.FormulaCache;
 //import simphony.util.messages.MessageCenter;
 import anl.verdi.util.AliasGenerator;
 
@@ -41,6 +42,9 @@ public class DataManager {
 	// alias, dataset
 	private Map<String, Dataset> datasets = new HashMap<String, Dataset>();
 	private Map<Dataset, DataLoader> setLoaderMap = new HashMap<Dataset, DataLoader>();
+	private FormulaCache formulaCache = new FormulaCache();
+	// dataset, variable name, observation store
+	private Map<Dataset, Map<String, ObsStore>> obsStores = new HashMap<Dataset, Map<String, ObsStore>>();
 
 	/**
 	 * Creates a DataManager that uses the specified DataLoaders to
@@ -247,6 +251,10 @@ public class DataManager {
 		Dataset set = datasets.remove(alias);
 		if (set != null) {
 			setLoaderMap.remove(set);
+			formulaCache.invalidate(set);
+			synchronized (obsStores) {
+				obsStores.remove(set);
+			}
 			set.close();
 		}
 		if (datasets.size() == 0) aliasGenerator.clearAlias();
@@ -263,6 +271,45 @@ public class DataManager {
 			set.close();
 		}
 		datasets.clear();
+		formulaCache.clear();
+		synchronized (obsStores) {
+			obsStores.clear();
+		}
 		aliasGenerator.clearAlias();
 	}
+
+	/**
+	 * Gets the cache of formula results read from the datasets managed by
+	 * this manager.
+	 *
+	 * @return the formula result cache.
+	 */
+	public FormulaCache getFormulaCache() {
+		return formulaCache;
+	}
+
+	/**
+	 * Gets the store of the readings of an observation variable, creating it
+	 * if necessary. The store is shared by every overlay of the variable
+	 * until its dataset is closed.
+	 *
+	 * @param var the observation variable
+	 * @return the observation store.
+	 */
+	public ObsStore getObsStore(Variable var) {
+		Dataset set = var.getDataset();
+		synchronized (obsStores) {
+			Map<String, ObsStore> stores = obsStores.get(set);
+			if (stores == null) {
+				stores = new HashMap<String, ObsStore>();
+				obsStores.put(set, stores);
+			}
+			ObsStore store = stores.get(var.getName());
+			if (store == null) {
+				store = new ObsStore(getDataReader(set), var);
+				stores.put(var.getName(), store);
+			}
+			return store;
+		}
+	}
 }
@@ -1,7 +1,7 @@
 package anl.verdi.data;
 
 import java.awt.Point;
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -9,9 +9,7 @@ import org.apache.logging.log4j.LogManager;		// 2015
 import org.apache.logging.log4j.Logger;			// 2015 replacing System.out.println with logger messages
 
 import ucar.ma2.Array;
-import ucar.ma2.ArrayDouble;
-import ucar.ma2.ArrayFloat;
-import ucar.ma2.Index4D;
+import ucar.ma2.ArrayLogFactory;
 import ucar.ma2.IndexIterator;
 import ucar.ma2.InvalidRangeException;
 import anl.verdi.core.VerdiConstants;
@@ -102,25 +100,9 @@ public class DataUtilities {
 	 * @return the minimum value contained by the specified  DataFrame.
 	 */
 	public static MinMax minMax(DataFrame frame) {
-		return minMax(frame.getArray());
+		return DataFrameSummary.getSummary(frame).getMinMax();
 	}
 
-	private static MinMax minMax(Array array) {
-		double min = Double.POSITIVE_INFINITY;
-		double max = Double.NEGATIVE_INFINITY;
-
-		for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
-			double val = iter.getDoubleNext();
-			
-			if (val <= BADVAL3 || val <= AMISS3)	// 2014 changed from == AMISS3
-				continue;
-			
-			min = Math.min(min, val);
-			max = Math.max(max, val);
-		}
-
-		return new MinMax(min, max);
-	}
 
 	/**
 	 * Gets the min max of the frame data for the specified time
@@ -136,16 +118,9 @@ public class DataUtilities {
 	public static MinMax minMaxTX(DataFrame frame, int timeStep, int x) throws InvalidRangeException {
 		if (frame.getShape().length != 4) throw new InvalidRangeException("Frame rank does not equal 4");
 		Axes<DataFrameAxis> axes = frame.getAxes();
-		ucar.ma2.Range[] ranges = new ucar.ma2.Range[4];
-		ranges[axes.getTimeAxis().getArrayIndex()] = new ucar.ma2.Range(timeStep, timeStep);
-		DataFrameAxis layerAxis = axes.getZAxis();
-		ranges[layerAxis.getArrayIndex()] = new ucar.ma2.Range(0, layerAxis.getExtent() - 1);
-		DataFrameAxis xAxis = axes.getXAxis();
-		ranges[xAxis.getArrayIndex()] = new ucar.ma2.Range(x, x);
-		DataFrameAxis yAxis = axes.getYAxis();
-		ranges[yAxis.getArrayIndex()] = new ucar.ma2.Range(0, yAxis.getExtent() - 1);
-		Array array = frame.getArray().section(Arrays.asList(ranges));
-		return minMax(array);
+		checkIndex(axes.getTimeAxis(), timeStep, "Time step");
+		checkIndex(axes.getXAxis(), x, "Column");
+		return minMaxLayers(frame, timeStep, x, x + 1, 0, axes.getYAxis().getExtent());
 	}
 
 	/**
@@ -162,44 +137,62 @@ public class DataUtilities {
 	public static MinMax minMaxTY(DataFrame frame, int timeStep, int y) throws InvalidRangeException {
 		if (frame.getShape().length != 4) throw new InvalidRangeException("Frame rank does not equal 4");
 		Axes<DataFrameAxis> axes = frame.getAxes();
-		ucar.ma2.Range[] ranges = new ucar.ma2.Range[4];
-		ranges[axes.getTimeAxis().getArrayIndex()] = new ucar.ma2.Range(timeStep, timeStep);
-		DataFrameAxis layerAxis = axes.getZAxis();
-		ranges[layerAxis.getArrayIndex()] = new ucar.ma2.Range(0, layerAxis.getExtent() - 1);
-		DataFrameAxis xAxis = axes.getXAxis();
-		ranges[xAxis.getArrayIndex()] = new ucar.ma2.Range(0, xAxis.getExtent() - 1);
-		DataFrameAxis yAxis = axes.getYAxis();
-		ranges[yAxis.getArrayIndex()] = new ucar.ma2.Range(y, y);
-		Array array = frame.getArray().section(Arrays.asList(ranges));
-		return minMax(array);
+		checkIndex(axes.getTimeAxis(), timeStep, "Time step");
+		checkIndex(axes.getYAxis(), y, "Row");
+		return minMaxLayers(frame, timeStep, 0, axes.getXAxis().getExtent(), y, y + 1);
 	}
-	
-	private static MinMax mpasMinMax(DataFrame frame, int timeStep, int layer) throws InvalidRangeException {
-		if (frame.getShape().length != 3) throw new InvalidRangeException("Frame rank does not equal 3");
-		Axes<DataFrameAxis> axes = frame.getAxes();
-		ucar.ma2.Range[] ranges = new ucar.ma2.Range[3];
-		ranges[axes.getZAxis().getArrayIndex()] = new ucar.ma2.Range(layer, layer);
-		DataFrameAxis cellAxis = axes.getCellAxis();
-		ranges[cellAxis.getArrayIndex()] = new ucar.ma2.Range(0, cellAxis.getExtent() - 1);
-		Array array = frame.getArray().section(Arrays.asList(ranges));
-		return minMax(array);
+
+	private static void checkIndex(DataFrameAxis axis, int value, String name) throws InvalidRangeException {
+		if (value < 0 || value >= axis.getExtent())
+			throw new InvalidRangeException(name + " " + value + " is out of range");
 	}
 
-	public static MinMax minMax(DataFrame frame, int timeStep, int layer) throws InvalidRangeException {
-		if (frame.getDataset().get(0) instanceof IMPASDataset) {
-			return mpasMinMax(frame, timeStep, layer);
+	// the min max over all the layers of the x, y cells in [fromX, toX) and
+	// [fromY, toY) at a time step, read through the frame index so that
+	// frames not held in an Array are not copied into one
+	private static MinMax minMaxLayers(DataFrame frame, int timeStep, int fromX, int toX, int fromY, int toY) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		DataFrameIndex index = frame.getIndex();
+		index.set(timeStep, 0, fromX, fromY);
+		for (int z = 0, zLimit = frame.getAxes().getZAxis().getExtent(); z < zLimit; z++) {
+			index.setLayer(z);
+			for (int y = fromY; y < toY; y++) {
+				for (int x = fromX; x < toX; x++) {
+					index.setXY(x, y);
+					double val = frame.getDouble(index);
+
+					if (val <= BADVAL3 || val <= AMISS3)	// 2014 changed from == AMISS3
+						continue;
+
+					min = Math.min(min, val);
+					max = Math.max(max, val);
+				}
+			}
 		}
-		if (frame.getShape().length != 4) throw new InvalidRangeException("Frame rank does not equal 4");
-		Axes<DataFrameAxis> axes = frame.getAxes();
-		ucar.ma2.Range[] ranges = new ucar.ma2.Range[4];
-		ranges[axes.getTimeAxis().getArrayIndex()] = new ucar.ma2.Range(timeStep, timeStep);
-		ranges[axes.getZAxis().getArrayIndex()] = new ucar.ma2.Range(layer, layer);
-		DataFrameAxis xAxis = axes.getXAxis();
-		ranges[xAxis.getArrayIndex()] = new ucar.ma2.Range(0, xAxis.getExtent() - 1);
-		DataFrameAxis yAxis = axes.getYAxis();
-		ranges[yAxis.getArrayIndex()] = new ucar.ma2.Range(0, yAxis.getExtent() - 1);
-		Array array = frame.getArray().section(Arrays.asList(ranges));
-		return minMax(array);
+		return new MinMax(min, max);
+	}
+	
+	public static MinMax minMax(DataFrame frame, int timeStep, int layer) throws InvalidRangeException {
+		boolean mpas = !frame.getDataset().isEmpty() && frame.getDataset().get(0) instanceof IMPASDataset;
+		if (frame.getShape().length != (mpas ? 3 : 4))
+			throw new InvalidRangeException("Frame rank does not equal " + (mpas ? 3 : 4));
+		DataFrameSummary summary = DataFrameSummary.getSummary(frame);
+		checkLayer(summary, layer);
+		// the range of an MPAS layer is over all the time steps
+		if (mpas) return summary.getLayerMinMax(layer);
+		checkTimeStep(summary, timeStep);
+		return summary.getMinMax(timeStep, layer);
+	}
+
+	private static void checkTimeStep(DataFrameSummary summary, int timeStep) throws InvalidRangeException {
+		if (timeStep < 0 || timeStep >= summary.getTimeSteps())
+			throw new InvalidRangeException("Time step " + timeStep + " is out of range");
+	}
+
+	private static void checkLayer(DataFrameSummary summary, int layer) throws InvalidRangeException {
+		if (layer < 0 || layer >= summary.getLayers())
+			throw new InvalidRangeException("Layer " + layer + " is out of range");
 	}
 	
 	public static MinMaxPoint minMaxTYPoint(DataFrame frame, int timestep, int y) throws InvalidRangeException {
@@ -303,31 +296,9 @@ public class DataUtilities {
 	public static MinMax minMaxForTimeLayer(DataFrame frame, int layer) throws InvalidRangeException {
 		Axes<DataFrameAxis> axes = frame.getAxes();
 		if (axes.getZAxis() == null) throw new InvalidRangeException("Z-Axis is missing");
-		ucar.ma2.Range[] ranges = new ucar.ma2.Range[4];
-		int rangeCount = 1;
-		ranges[axes.getZAxis().getArrayIndex()] = new ucar.ma2.Range(layer, layer);
-		DataFrameAxis timeAxis = axes.getTimeAxis();
-		if (timeAxis != null) {
-			rangeCount++;
-			ranges[timeAxis.getArrayIndex()] = new ucar.ma2.Range(0, timeAxis.getExtent() - 1);
-		}
-		DataFrameAxis xAxis = axes.getXAxis();
-		if (xAxis != null) {
-			rangeCount++;
-			ranges[xAxis.getArrayIndex()] = new ucar.ma2.Range(0, xAxis.getExtent() - 1);
-		}
-		DataFrameAxis yAxis = axes.getYAxis();
-		if (yAxis != null) {
-			rangeCount++;
-			ranges[yAxis.getArrayIndex()] = new ucar.ma2.Range(0, yAxis.getExtent() - 1);
-		}
-
-
-		ucar.ma2.Range[] validRanges = new ucar.ma2.Range[rangeCount];
-		System.arraycopy(ranges, 0, validRanges, 0, rangeCount);
-
-		Array array = frame.getArray().section(Arrays.asList(validRanges));
-		return minMax(array);
+		DataFrameSummary summary = DataFrameSummary.getSummary(frame);
+		checkLayer(summary, layer);
+		return summary.getLayerMinMax(layer);
 	}
 
 	/**
@@ -343,39 +314,65 @@ public class DataUtilities {
 	public static MinMax minMax(DataFrame frame, int timeStep) throws InvalidRangeException {
 		Axes<DataFrameAxis> axes = frame.getAxes();
 		if (axes.getTimeAxis() == null) throw new InvalidRangeException("Time Axis is missing");
-
-		ucar.ma2.Range[] ranges = new ucar.ma2.Range[4];
-		int rangeCount = 1;
-		ranges[axes.getTimeAxis().getArrayIndex()] = new ucar.ma2.Range(timeStep, timeStep);
-		DataFrameAxis layerAxis = axes.getZAxis();
-		if (layerAxis != null) {
-			rangeCount++;
-			ranges[layerAxis.getArrayIndex()] = new ucar.ma2.Range(0, layerAxis.getExtent() - 1);
-		}
-		DataFrameAxis xAxis = axes.getXAxis();
-		if (xAxis != null) {
-			rangeCount++;
-			ranges[xAxis.getArrayIndex()] = new ucar.ma2.Range(0, xAxis.getExtent() - 1);
-		}
-		DataFrameAxis yAxis = axes.getYAxis();
-		if (yAxis != null) {
-			rangeCount++;
-			ranges[yAxis.getArrayIndex()] = new ucar.ma2.Range(0, yAxis.getExtent() - 1);
-		}
-
-
-		ucar.ma2.Range[] validRanges = new ucar.ma2.Range[rangeCount];
-		System.arraycopy(ranges, 0, validRanges, 0, rangeCount);
-
-		Array array = frame.getArray().section(Arrays.asList(validRanges));
-		return minMax(array);
+		DataFrameSummary summary = DataFrameSummary.getSummary(frame);
+		checkTimeStep(summary, timeStep);
+		return summary.getMinMax(timeStep);
 	}
 
 	public static DataFrame createDataFrame(DataFrame frame) {
 		DataFrameBuilder builder = new DataFrameBuilder();
 		builder.addDataset(frame.getDataset());
 		builder.setVariable(frame.getVariable());
-		builder.setArray(ArrayFactory.createDoubleArray(frame.getArray().getShape()));
+		builder.setArray(ArrayFactory.createDoubleArray(frame.getShape()));
+		Axes<DataFrameAxis> axes = frame.getAxes();
+		if (axes.getTimeAxis() != null)
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(axes.getTimeAxis(), axes.getTimeAxis().getArrayIndex()));
+		if (axes.getZAxis() != null)
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(axes.getZAxis(), axes.getZAxis().getArrayIndex()));
+		if (axes.getXAxis() != null)
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(axes.getXAxis(), axes.getXAxis().getArrayIndex()));
+		if (axes.getYAxis() != null)
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(axes.getYAxis(), axes.getYAxis().getArrayIndex()));
+		if (axes.getCellAxis() != null)
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(axes.getCellAxis(), axes.getCellAxis().getArrayIndex()));
+		return builder.createDataFrame();
+	}
+
+	/**
+	 * Creates a DataFrame holding the log of the values of the specified
+	 * frame, with the same axes. The logs are computed a time step at a time
+	 * when first read and are shared by all the log frames of the same array.
+	 * The logs of a MappedDataFrame are kept by the frame in a file of their
+	 * own rather than read into an array. Missing, fill, zero and negative
+	 * values have a log of BADVAL3.
+	 *
+	 * @param frame the frame whose log we want
+	 * @param logBase the base of the log
+	 * @return the log frame.
+	 */
+	public static DataFrame createLogDataFrame(DataFrame frame, double logBase) {
+		if (frame instanceof MappedDataFrame) {
+			try {
+				return ((MappedDataFrame) frame).getLogFrame(logBase);
+			} catch (IOException e) {
+				Logger.warn("Error while creating temporary file for log values, reading them into memory: " + e.getMessage());
+			}
+		}
+		Array source = frame.getArray();
+		Array logArray = ArrayLogFactory.getArray(source, logBase);
+		if (logArray == null) {
+			// log arrays exist for float, double and int data only
+			Array copy = ArrayFactory.createDoubleArray(source.getShape());
+			IndexIterator from = source.getIndexIterator();
+			IndexIterator to = copy.getIndexIterator();
+			while (from.hasNext())
+				to.setDoubleNext(from.getDoubleNext());
+			logArray = ArrayLogFactory.getArray(copy, logBase);
+		}
+		DataFrameBuilder builder = new DataFrameBuilder();
+		builder.addDataset(frame.getDataset());
+		builder.setVariable(frame.getVariable());
+		builder.setArray(logArray);
 		Axes<DataFrameAxis> axes = frame.getAxes();
 		if (axes.getTimeAxis() != null)
 			builder.addAxis(DataFrameAxis.createDataFrameAxis(axes.getTimeAxis(), axes.getTimeAxis().getArrayIndex()));
@@ -431,86 +428,5 @@ public class DataUtilities {
 		Logger.debug("done with DataUtilities.unitVectorTransform");	// done with this function
 		return new DataFrame[]{newX, newY};
 	}
-	
-	public static DataFrame[] unitVectorTransform(DataFrame xFrame, DataFrame yFrame, int vectorSamplingInc) {
-			// overloaded function where this one is also passed the vector sampling increment
-		Logger.debug("in unitVectorTransform, vectorSamplingInc = " + vectorSamplingInc);
-		DataFrame newX = createDataFrame(xFrame);	// NOTE: incoming are Float but created (outgoing) are Double
-		DataFrame newY = createDataFrame(yFrame);
-		DataFrame mFrame = createDataFrame(xFrame);
-
-		ArrayFloat.D4 xArray = (ArrayFloat.D4) xFrame.getArray();	// arrays from incoming DataFrames
-		ArrayFloat.D4 yArray = (ArrayFloat.D4) yFrame.getArray();
-		ArrayDouble.D4 mArray = (ArrayDouble.D4) mFrame.getArray();	// make copy of X array for maskArray (0 to skip, 1 to put value)
-		ArrayDouble.D4 newXArray = (ArrayDouble.D4)newX.getArray(); // arrays from outgoing DataFrames
-		ArrayDouble.D4 newYArray = (ArrayDouble.D4)newY.getArray();
-		IndexIterator mZeroIter = mArray.getIndexIterator();	// to iterate and set array to 0's
-		int[] lenDims = xArray.getShape();	// get length (number of elements) in each dimension
-		Index4D idx = new Index4D(lenDims);	// need a 4-dimensional index for this shape
-		
-		// fill masking array
-		while(mZeroIter.hasNext())
-		{
-			mZeroIter.setDoubleNext((float) 0.0); 		// initialize to 0 (mask all out)
-		}
-		
-		for(int i0=0; i0<lenDims[0]; i0++)			// initialize values to keep (set = 1.0)
-		{
-			for(int i1=0; i1<lenDims[1]; i1++)
-			{
-				for(int i2=0; i2<lenDims[2]; i2+=vectorSamplingInc)
-				{
-					for(int i3=0; i3<lenDims[3]; i3+=vectorSamplingInc)
-					{
-						mArray.setDouble(idx.set(i0,i1,i2,i3), (float) 1.0);
-					}
-				}
-			}
-		}		// masking array now complete
-		
-		float maxUVal = 0;		// now get maxU (x) and maxV (y) for masked values
-		float maxVVal = 0;
-		for(int i0=0; i0<lenDims[0]; i0++)
-		{
-			for(int i1=0; i1<lenDims[1]; i1++)
-			{
-				for(int i2=0; i2<lenDims[2]; i2++)
-				{
-					for(int i3=0; i3<lenDims[3]; i3++)
-					{
-						float xValue = xArray.getFloat(idx.set(i0,i1,i2,i3));
-						float yValue = yArray.getFloat(idx.set(i0,i1,i2,i3));
-						float mValue = (float) mArray.getDouble(idx.set(i0,i1,i2,i3));
-						maxUVal = Math.max(maxUVal, mValue * Math.abs(xValue));
-						maxVVal = Math.max(maxVVal, mValue * Math.abs(yValue));
-					}
-				}
-			}
-		}		// now have maxUVal and maxVVal for only unmasked values
-		
-		Logger.debug("final maxUVal = " + maxUVal + ", maxVVal = " + maxVVal);
-		
-		for(int i0=0; i0<lenDims[0]; i0++)		// now loop through and compute scaled values, save to outgoing data structures
-		{
-			for(int i1=0; i1<lenDims[1]; i1++)
-			{
-				for(int i2=0; i2<lenDims[2]; i2++)
-				{
-					for(int i3=0; i3<lenDims[3]; i3++)
-					{
-						float xValue = xArray.getFloat(idx.set(i0,i1,i2,i3));
-						float yValue = yArray.getFloat(idx.set(i0,i1,i2,i3));
-						float mValue = (float) mArray.getDouble(idx.set(i0,i1,i2,i3));
-						double newXValue = xValue * mValue / maxUVal * (double)0.5;
-						double newYValue = yValue * mValue / maxVVal * (double)0.5;
-						newXArray.setDouble(idx.set(i0,i1,i2,i3), newXValue);
-						newYArray.setDouble(idx.set(i0,i1,i2,i3), newYValue);
-					}
-				}
-			}
-		}
-		Logger.debug("done with DataUtilities.unitVectorTransform with vectorSamplingInc = " + vectorSamplingInc);
-		return new DataFrame[]{newX, newY};
-	}
 }
 
@@ -8,6 +8,7 @@
 
 package anl.verdi.data;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -105,6 +106,41 @@ public class MPASPlotDataFrame implements DataFrame {
 	public long getLong(DataFrameIndex index) {
 		return array.getLong(index.index);
 	}
+
+	@Override
+	public int getSlabSize() {
+		return DataFrameSlabs.getSlabSize(array.getShape(), axes);
+	}
+
+	@Override
+	public void getSlab(int timeStep, int layer, float[] values, int offset) {
+		DataFrameSlabs.getSlab(array, axes, timeStep, layer, values, offset);
+	}
+
+	@Override
+	public void getSlab(int timeStep, int layer, double[] values, int offset) {
+		DataFrameSlabs.getSlab(array, axes, timeStep, layer, values, offset);
+	}
+
+	@Override
+	public void getSlab(int timeStep, int layer, FloatBuffer values) {
+		DataFrameSlabs.getSlab(array, axes, timeStep, layer, values);
+	}
+
+	@Override
+	public FloatBuffer getSlabView(int timeStep, int layer) {
+		return DataFrameSlabs.getSlabView(array, axes, timeStep, layer);
+	}
+
+	@Override
+	public void getTimeSeries(DataFrameIndex index, float[] values, int offset) {
+		DataFrameSlabs.getTimeSeries(array, axes, index, values, offset);
+	}
+
+	@Override
+	public void getTimeSeries(DataFrameIndex index, double[] values, int offset) {
+		DataFrameSlabs.getTimeSeries(array, axes, index, values, offset);
+	}
 	
 	private Array sliceArray(Slice slice, Array srcArray, Axes<DataFrameAxis> fullAxes) throws InvalidRangeException {
 		int[] origin = AbstractDataFrame.createOrigins(slice, fullAxes);
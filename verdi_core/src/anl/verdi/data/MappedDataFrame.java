@@ -0,0 +1,445 @@
+package anl.verdi.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ucar.ma2.Array;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import anl.verdi.core.VerdiConstants;
+
+/**
+ * DataFrame whose data is kept as floats in a memory-mapped temporary file
+ * rather than on the heap. This allows frames larger than the available
+ * heap to be produced one time step at a time and then read through a
+ * DataFrameIndex. The time axis must be the first array dimension. Values
+ * are addressed by their time step and their position within it, so the
+ * frame may hold more values than an Array can. The backing file is deleted
+ * when the frame is closed or garbage collected.
+ *
+ * @version $Revision$ $Date$
+ */
+public class MappedDataFrame extends AbstractDataFrame {
+
+	private static final int FLOAT_SIZE = 4;
+
+	private int[] shape;
+	// strides of the array dimensions within a time step
+	private int[] strides;
+	private int stepSize;
+	private int stepsPerBuffer;
+	private FloatBuffer[] buffers;
+	private File file;
+	// log base, frame of the logs of this one
+	private Map<Double, MappedDataFrame> logFrames = new HashMap<Double, MappedDataFrame>();
+
+	/**
+	 * Creates a MappedDataFrame with the specified number of time steps. The
+	 * axes, datasets and variable are taken from the template whose shape
+	 * defines a single time step.
+	 *
+	 * @param template a frame containing a single time step of the data
+	 * @param steps the number of time steps in this frame
+	 * @param dir the directory in which to create the backing file
+	 * @throws IOException if the backing file cannot be created
+	 */
+	public MappedDataFrame(DataFrame template, int steps, File dir) throws IOException {
+		Axes<DataFrameAxis> templateAxes = template.getAxes();
+		DataFrameAxis time = templateAxes.getTimeAxis();
+		if (time == null || time.getArrayIndex() != 0) {
+			throw new IllegalArgumentException("MappedDataFrame requires time as the first array dimension");
+		}
+
+		List<DataFrameAxis> list = new ArrayList<DataFrameAxis>();
+		for (DataFrameAxis axis : templateAxes.getAxes()) {
+			if (axis == time) {
+				list.add(DataFrameAxis.createDataFrameAxis(axis.getAxis(), axis.getOrigin(), steps, 0));
+			} else {
+				list.add(axis);
+			}
+		}
+		axes = new Axes<DataFrameAxis>(list, templateAxes.getBoundingBoxer());
+		datasets = new ArrayList<Dataset>(template.getDataset());
+		variable = template.getVariable();
+
+		shape = template.getShape().clone();
+		shape[0] = steps;
+		strides = new int[shape.length];
+		long size = 1;
+		for (int i = shape.length - 1; i > 0; i--) {
+			strides[i] = (int) size;
+			size *= shape[i];
+			if (size > Integer.MAX_VALUE / FLOAT_SIZE) {
+				throw new IllegalArgumentException("Time step of " + size + " values is too large to map");
+			}
+		}
+		stepSize = (int) size;
+		map(dir);
+	}
+
+	// creates an empty frame with the same axes, shape and variable as source
+	private MappedDataFrame(MappedDataFrame source) throws IOException {
+		axes = source.axes;
+		datasets = new ArrayList<Dataset>(source.datasets);
+		variable = source.variable;
+		shape = source.shape.clone();
+		strides = source.strides;
+		stepSize = source.stepSize;
+		map(source.file.getParentFile());
+	}
+
+	private void map(File dir) throws IOException {
+		int steps = shape[0];
+		// each buffer holds whole time steps and is at most 2GB
+		stepsPerBuffer = Math.max(1, Integer.MAX_VALUE / FLOAT_SIZE / Math.max(1, stepSize));
+		buffers = new FloatBuffer[(steps + stepsPerBuffer - 1) / stepsPerBuffer];
+
+		file = File.createTempFile("verdi_frame", ".dat", dir);
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			long bufferBytes = (long) stepsPerBuffer * stepSize * FLOAT_SIZE;
+			for (int i = 0; i < buffers.length; i++) {
+				int count = Math.min(stepsPerBuffer, steps - i * stepsPerBuffer);
+				buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * bufferBytes,
+								(long) count * stepSize * FLOAT_SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes the data for a single time step into this frame.
+	 *
+	 * @param step the time step array index
+	 * @param slab the data for the time step, shaped like the template
+	 */
+	public void writeTimeStep(int step, Array slab) {
+		float[] values = (float[]) slab.get1DJavaArray(float.class);
+		if (values.length != stepSize) {
+			throw new IllegalArgumentException("Time step size " + values.length + " does not match frame size " + stepSize);
+		}
+		writeTimeStep(step, values);
+	}
+
+	private void writeTimeStep(int step, float[] values) {
+		FloatBuffer buffer = getStepBuffer(step);
+		buffer.position(getPosition(step));
+		buffer.put(values);
+	}
+
+	/**
+	 * Gets a frame holding the log of the values of this one, backed by a
+	 * temporary file of its own. The logs are computed a time step at a time
+	 * the first time a base is requested, and the frame is kept and shared
+	 * for later requests. Missing, fill, zero and negative values have a log
+	 * of BADVAL3.
+	 *
+	 * @param logBase the base of the log
+	 * @return the log frame.
+	 * @throws IOException if the backing file cannot be created
+	 */
+	public synchronized MappedDataFrame getLogFrame(double logBase) throws IOException {
+		MappedDataFrame logFrame = logFrames.get(logBase);
+		if (logFrame != null)
+			return logFrame;
+
+		logFrame = new MappedDataFrame(this);
+		double scale = Math.log(logBase);
+		float[] values = new float[stepSize];
+		for (int step = 0; step < shape[0]; step++) {
+			readTimeSteps(step, 1, values);
+			for (int i = 0; i < stepSize; i++) {
+				float value = values[i];
+				values[i] = !(value > 0) || value >= VerdiConstants.NC_FILL_FLOAT ? VerdiConstants.BADVAL3
+								: (float) (Math.log(value) / scale);
+			}
+			logFrame.writeTimeStep(step, values);
+		}
+		logFrames.put(logBase, logFrame);
+		return logFrame;
+	}
+
+	private void readTimeSteps(int origin, int extent, float[] values) {
+		for (int i = 0; i < extent; i++) {
+			int step = origin + i;
+			FloatBuffer buffer = getStepBuffer(step);
+			buffer.position(getPosition(step));
+			buffer.get(values, i * stepSize, stepSize);
+		}
+	}
+
+	// the index of a DataFrameIndex holds the position within the time
+	// step, and its indices the time step itself
+	private float get(DataFrameIndex index) {
+		return get(index.indices[0], index.index.currentElement());
+	}
+
+	private float get(int step, int element) {
+		return getBuffers()[step / stepsPerBuffer].get(getPosition(step) + element);
+	}
+
+	// the buffer holding a time step, to be read at its own position
+	private FloatBuffer getStepBuffer(int step) {
+		return getBuffers()[step / stepsPerBuffer].duplicate();
+	}
+
+	// the position of the first value of a time step within its buffer
+	private int getPosition(int step) {
+		return (int) ((long) (step % stepsPerBuffer) * stepSize);
+	}
+
+	private FloatBuffer[] getBuffers() {
+		FloatBuffer[] buffers = this.buffers;
+		if (buffers == null)
+			throw new IllegalStateException("MappedDataFrame has been closed");
+		return buffers;
+	}
+
+	// an index over the shape of the frame that ignores the time step, so
+	// that its elements are positions within a time step
+	private Index createStepIndex() {
+		return new Index(shape, strides);
+	}
+
+	/**
+	 * Gets the file that backs this frame.
+	 *
+	 * @return the file that backs this frame.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Releases the backing files of this frame and of its log frames. The
+	 * frame cannot be read once it is closed.
+	 */
+	public synchronized void close() {
+		buffers = null;
+		for (MappedDataFrame logFrame : logFrames.values())
+			logFrame.close();
+		logFrames.clear();
+		// a file that is still mapped elsewhere is deleted on exit instead
+		if (file != null)
+			file.delete();
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		close();
+		super.finalize();
+	}
+
+	/**
+	 * Gets the Array that contains the data. This reads the entire frame
+	 * onto the heap and so should be avoided for large frames. Use
+	 * getIndex or slice instead.
+	 *
+	 * @return an Array containing a copy of the data.
+	 */
+	@Override
+	public Array getArray() {
+		float[] values = new float[getArraySize(shape[0])];
+		readTimeSteps(0, shape[0], values);
+		return Array.factory(float.class, shape, values);
+	}
+
+	@Override
+	public DataFrameIndex getIndex() {
+		return new DataFrameIndex(this, createStepIndex());
+	}
+
+	private int getArraySize(int steps) {
+		long size = (long) steps * stepSize;
+		if (size > Integer.MAX_VALUE)
+			throw new UnsupportedOperationException("MappedDataFrame of " + size + " values is too large for an Array");
+		return (int) size;
+	}
+
+	@Override
+	public Class getArrayType() {
+		return float.class;
+	}
+
+	@Override
+	public double getDouble(DataFrameIndex index) {
+		return get(index);
+	}
+
+	@Override
+	public float getFloat(DataFrameIndex index) {
+		return get(index);
+	}
+
+	@Override
+	public int getInt(DataFrameIndex index) {
+		return (int) get(index);
+	}
+
+	@Override
+	public long getLong(DataFrameIndex index) {
+		return (long) get(index);
+	}
+
+	@Override
+	public int getSlabSize() {
+		return DataFrameSlabs.getSlabSize(shape, axes);
+	}
+
+	@Override
+	public void getSlab(int timeStep, int layer, final float[] values, final int offset) {
+		final int base = getPosition(timeStep);
+		final FloatBuffer buffer = getStepBuffer(timeStep);
+		DataFrameSlabs.forEachRun(createStepIndex(), axes, timeStep, layer, new DataFrameSlabs.RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				element += base;
+				if (stride == 1) {
+					buffer.position(element);
+					buffer.get(values, offset + position, count);
+				} else {
+					for (int i = 0; i < count; i++, element += stride)
+						values[offset + position + i] = buffer.get(element);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void getSlab(int timeStep, int layer, final double[] values, final int offset) {
+		final int base = getPosition(timeStep);
+		final FloatBuffer buffer = getStepBuffer(timeStep);
+		DataFrameSlabs.forEachRun(createStepIndex(), axes, timeStep, layer, new DataFrameSlabs.RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				element += base;
+				for (int i = 0; i < count; i++, element += stride)
+					values[offset + position + i] = buffer.get(element);
+			}
+		});
+	}
+
+	@Override
+	public void getSlab(int timeStep, int layer, final FloatBuffer values) {
+		final int base = getPosition(timeStep);
+		final FloatBuffer buffer = getStepBuffer(timeStep);
+		DataFrameSlabs.forEachRun(createStepIndex(), axes, timeStep, layer, new DataFrameSlabs.RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				element += base;
+				if (stride == 1) {
+					buffer.limit(element + count).position(element);
+					values.put(buffer);
+					buffer.limit(buffer.capacity());
+				} else {
+					for (int i = 0; i < count; i++, element += stride)
+						values.put(buffer.get(element));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets a read only view of the items at a time step and layer. The view
+	 * reads the backing file directly, so no items are copied onto the heap.
+	 */
+	@Override
+	public FloatBuffer getSlabView(int timeStep, int layer) {
+		final int[] run = { -1, 0 };
+		DataFrameSlabs.forEachRun(createStepIndex(), axes, timeStep, layer, new DataFrameSlabs.RunFunction() {
+			public void apply(int element, int stride, int count, int position) {
+				if (position == 0 && (stride == 1 || count == 1)) {
+					run[0] = element;
+					run[1] = count;
+				} else {
+					run[0] = -1;
+				}
+			}
+		});
+		if (run[0] == -1)
+			return null;
+		int base = getPosition(timeStep);
+		FloatBuffer buffer = getStepBuffer(timeStep);
+		buffer.limit(base + run[0] + run[1]).position(base + run[0]);
+		return buffer.slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public void getTimeSeries(DataFrameIndex index, float[] values, int offset) {
+		int element = index.index.currentElement();
+		for (int step = 0; step < shape[0]; step++)
+			values[offset + step] = get(step, element);
+	}
+
+	@Override
+	public void getTimeSeries(DataFrameIndex index, double[] values, int offset) {
+		int element = index.index.currentElement();
+		for (int step = 0; step < shape[0]; step++)
+			values[offset + step] = get(step, element);
+	}
+
+	@Override
+	public long getSize() {
+		return (long) shape[0] * stepSize;
+	}
+
+	@Override
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	/**
+	 * Creates a new DataFrame that is a slice or subsection of this one. Only
+	 * the time steps within the slice are read from the backing file. The
+	 * new DataFrame holds its data on the heap and so does not share data
+	 * with this one.
+	 *
+	 * @param slice describes the slice of data contained by the
+	 *              new DataFrame.
+	 * @return a new DataFrame that is a slice or subsection of this one
+	 * @throws InvalidRangeException if the slice is not within the range
+	 * of this DataFrame's dimensions.
+	 */
+	@Override
+	public DataFrame slice(Slice slice) throws InvalidRangeException {
+		return sliceCopy(slice);
+	}
+
+	@Override
+	public DataFrame sliceCopy(Slice slice) throws InvalidRangeException {
+		int[] origin = createOrigins(slice, axes);
+		int[] extents = createExtents(slice, axes);
+		if (origin[0] < 0 || extents[0] < 0 || origin[0] + extents[0] > shape[0]) {
+			throw new InvalidRangeException("Time range " + origin[0] + ", " + extents[0] + " is out of bounds");
+		}
+
+		int[] stepsShape = shape.clone();
+		stepsShape[0] = extents[0];
+		float[] values = new float[getArraySize(extents[0])];
+		readTimeSteps(origin[0], extents[0], values);
+		int[] sectionOrigin = origin.clone();
+		sectionOrigin[0] = 0;
+		Array newArray = Array.factory(float.class, stepsShape, values).sectionNoReduce(sectionOrigin, extents, null).copy();
+
+		DataFrameBuilder builder = new DataFrameBuilder();
+		builder.addDataset(datasets);
+		builder.setArray(newArray);
+		builder.setVariable(variable);
+		for (DataFrameAxis dfAxis : axes.getAxes()) {
+			int index = dfAxis.getArrayIndex();
+			DataFrameAxis axis = DataFrameAxis.createDataFrameAxis(dfAxis.getAxis(), dfAxis.getOrigin() + origin[index], extents[index],
+							index);
+			builder.addAxis(axis);
+		}
+		return builder.createDataFrame();
+	}
+}
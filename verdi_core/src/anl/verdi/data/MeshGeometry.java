@@ -0,0 +1,404 @@
+package anl.verdi.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Compact store for the polygons that make up an unstructured mesh. Rather
+ * than an object per cell, the vertex coordinates of all the cells are kept
+ * in flat arrays with an offset index, together with the cell ids, centers
+ * and the positions of each cell's bounding vertices. Cells are referred to
+ * by their index in the store.
+ *
+ * @version $Revision$ $Date$
+ */
+public class MeshGeometry {
+
+	public static final double RAD_TO_DEG = 180 / Math.PI;
+
+	// the maximum number of vertices in a cell, as bounding vertex positions are stored as bytes
+	public static final int MAX_VERTICES = Byte.MAX_VALUE;
+
+	private int cellCount;
+	private int vertexCount;
+	private int[] ids;
+	private int[] vertexOffsets;
+	private double[] lonRad;
+	private double[] latRad;
+	private double[] centerLon;
+	private double[] centerLat;
+	// min x, max x, min y, max y vertex positions for each cell
+	private byte[] boundPositions;
+	private int[] lonSortedOrder, latSortedOrder;
+
+	/**
+	 * Creates a MeshGeometry with the specified initial capacity. The
+	 * store grows as necessary.
+	 *
+	 * @param cellCapacity the expected number of cells
+	 * @param vertexCapacity the expected total number of vertices
+	 */
+	public MeshGeometry(int cellCapacity, int vertexCapacity) {
+		cellCapacity = Math.max(1, cellCapacity);
+		vertexCapacity = Math.max(1, vertexCapacity);
+		ids = new int[cellCapacity];
+		vertexOffsets = new int[cellCapacity + 1];
+		centerLon = new double[cellCapacity];
+		centerLat = new double[cellCapacity];
+		boundPositions = new byte[cellCapacity * 4];
+		lonRad = new double[vertexCapacity];
+		latRad = new double[vertexCapacity];
+	}
+
+	/**
+	 * Adds a cell to the store.
+	 *
+	 * @param id the id of the cell
+	 * @param lons the longitude of each vertex in radians
+	 * @param lats the latitude of each vertex in radians
+	 * @param count the number of vertices
+	 * @param lon the longitude of the cell center in degrees
+	 * @param lat the latitude of the cell center in degrees
+	 * @return the index of the cell in the store.
+	 */
+	public int addCell(int id, double[] lons, double[] lats, int count, double lon, double lat) {
+		if (count < 1 || count > MAX_VERTICES)
+			throw new IllegalArgumentException("Invalid number of vertices " + count + " for cell " + id);
+		if (cellCount == ids.length) {
+			int capacity = ids.length * 3 / 2 + 1;
+			ids = Arrays.copyOf(ids, capacity);
+			vertexOffsets = Arrays.copyOf(vertexOffsets, capacity + 1);
+			centerLon = Arrays.copyOf(centerLon, capacity);
+			centerLat = Arrays.copyOf(centerLat, capacity);
+			boundPositions = Arrays.copyOf(boundPositions, capacity * 4);
+		}
+		if (vertexCount + count > lonRad.length) {
+			int capacity = Math.max(vertexCount + count, lonRad.length * 3 / 2 + 1);
+			lonRad = Arrays.copyOf(lonRad, capacity);
+			latRad = Arrays.copyOf(latRad, capacity);
+		}
+
+		int cell = cellCount++;
+		ids[cell] = id;
+		centerLon[cell] = lon;
+		centerLat[cell] = lat;
+		System.arraycopy(lons, 0, lonRad, vertexCount, count);
+		System.arraycopy(lats, 0, latRad, vertexCount, count);
+
+		int minX = 0, maxX = 0, minY = 0, maxY = 0;
+		for (int j = 0; j < count; ++j) {
+			if (lons[j] < lons[minX])
+				minX = j;
+			if (lons[j] > lons[maxX])
+				maxX = j;
+			if (lats[j] < lats[minY])
+				minY = j;
+			if (lats[j] > lats[maxY])
+				maxY = j;
+		}
+		boundPositions[cell * 4] = (byte) minX;
+		boundPositions[cell * 4 + 1] = (byte) maxX;
+		boundPositions[cell * 4 + 2] = (byte) minY;
+		boundPositions[cell * 4 + 3] = (byte) maxY;
+
+		vertexCount += count;
+		vertexOffsets[cellCount] = vertexCount;
+		lonSortedOrder = null;
+		latSortedOrder = null;
+		return cell;
+	}
+
+	/**
+	 * Releases any unused capacity.
+	 */
+	public void trim() {
+		ids = Arrays.copyOf(ids, cellCount);
+		vertexOffsets = Arrays.copyOf(vertexOffsets, cellCount + 1);
+		centerLon = Arrays.copyOf(centerLon, cellCount);
+		centerLat = Arrays.copyOf(centerLat, cellCount);
+		boundPositions = Arrays.copyOf(boundPositions, cellCount * 4);
+		lonRad = Arrays.copyOf(lonRad, vertexCount);
+		latRad = Arrays.copyOf(latRad, vertexCount);
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * Gets the total number of vertices over all the cells.
+	 *
+	 * @return the total number of vertices over all the cells.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getId(int cell) {
+		return ids[cell];
+	}
+
+	/**
+	 * Gets the position in the flat vertex arrays of the first vertex of
+	 * the specified cell.
+	 *
+	 * @param cell the cell index
+	 * @return the position of the cell's first vertex.
+	 */
+	public int getVertexOffset(int cell) {
+		return vertexOffsets[cell];
+	}
+
+	public int getNumVertices(int cell) {
+		return vertexOffsets[cell + 1] - vertexOffsets[cell];
+	}
+
+	/**
+	 * Gets the longitude in radians of the vertex at the specified
+	 * position in the flat vertex arrays.
+	 *
+	 * @param vertex the vertex position
+	 * @return the longitude in radians.
+	 */
+	public double getVertexLonRad(int vertex) {
+		return lonRad[vertex];
+	}
+
+	/**
+	 * Gets the latitude in radians of the vertex at the specified
+	 * position in the flat vertex arrays.
+	 *
+	 * @param vertex the vertex position
+	 * @return the latitude in radians.
+	 */
+	public double getVertexLatRad(int vertex) {
+		return latRad[vertex];
+	}
+
+	public double getLonRad(int cell, int index) {
+		return lonRad[vertexOffsets[cell] + index];
+	}
+
+	public double getLatRad(int cell, int index) {
+		return latRad[vertexOffsets[cell] + index];
+	}
+
+	public double getLon(int cell, int index) {
+		return getLonRad(cell, index) * RAD_TO_DEG;
+	}
+
+	public double getLat(int cell, int index) {
+		return getLatRad(cell, index) * RAD_TO_DEG;
+	}
+
+	/**
+	 * Gets the longitude of the cell center in degrees.
+	 *
+	 * @param cell the cell index
+	 * @return the longitude of the cell center in degrees.
+	 */
+	public double getCenterLon(int cell) {
+		return centerLon[cell];
+	}
+
+	/**
+	 * Gets the latitude of the cell center in degrees.
+	 *
+	 * @param cell the cell index
+	 * @return the latitude of the cell center in degrees.
+	 */
+	public double getCenterLat(int cell) {
+		return centerLat[cell];
+	}
+
+	public int getMinXPosition(int cell) {
+		return boundPositions[cell * 4];
+	}
+
+	public int getMaxXPosition(int cell) {
+		return boundPositions[cell * 4 + 1];
+	}
+
+	public int getMinYPosition(int cell) {
+		return boundPositions[cell * 4 + 2];
+	}
+
+	public int getMaxYPosition(int cell) {
+		return boundPositions[cell * 4 + 3];
+	}
+
+	public double getMinLonRad(int cell) {
+		return getLonRad(cell, getMinXPosition(cell));
+	}
+
+	public double getMaxLonRad(int cell) {
+		return getLonRad(cell, getMaxXPosition(cell));
+	}
+
+	public double getMinLatRad(int cell) {
+		return getLatRad(cell, getMinYPosition(cell));
+	}
+
+	public double getMaxLatRad(int cell) {
+		return getLatRad(cell, getMaxYPosition(cell));
+	}
+
+	public double getMinLon(int cell) {
+		return getMinLonRad(cell) * RAD_TO_DEG;
+	}
+
+	public double getMaxLon(int cell) {
+		return getMaxLonRad(cell) * RAD_TO_DEG;
+	}
+
+	public double getMinLat(int cell) {
+		return getMinLatRad(cell) * RAD_TO_DEG;
+	}
+
+	public double getMaxLat(int cell) {
+		return getMaxLatRad(cell) * RAD_TO_DEG;
+	}
+
+	/**
+	 * Gets the cell indices sorted by the cells' minimum longitude.
+	 *
+	 * @return the cell indices sorted by the cells' minimum longitude.
+	 */
+	public synchronized int[] getLonSortedOrder() {
+		if (lonSortedOrder == null)
+			lonSortedOrder = sortCells(true);
+		return lonSortedOrder;
+	}
+
+	/**
+	 * Gets the cell indices sorted by the cells' minimum latitude.
+	 *
+	 * @return the cell indices sorted by the cells' minimum latitude.
+	 */
+	public synchronized int[] getLatSortedOrder() {
+		if (latSortedOrder == null)
+			latSortedOrder = sortCells(false);
+		return latSortedOrder;
+	}
+
+	private int[] sortCells(final boolean byLon) {
+		Integer[] cells = new Integer[cellCount];
+		for (int i = 0; i < cellCount; i++) {
+			cells[i] = i;
+		}
+		Arrays.sort(cells, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				double v1 = byLon ? getMinLonRad(o1) : getMinLatRad(o1);
+				double v2 = byLon ? getMinLonRad(o2) : getMinLatRad(o2);
+				return Double.compare(v1, v2);
+			}
+		});
+		int[] order = new int[cellCount];
+		for (int i = 0; i < cellCount; i++) {
+			order[i] = cells[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Gets the number of bytes written by write.
+	 *
+	 * @return the number of bytes written by write.
+	 */
+	public long getByteSize() {
+		// counts, ids, offsets, centers, bounds, vertices and the two sort orders
+		return 2 * 4 + cellCount * 4L + (cellCount + 1) * 4L + cellCount * 16L + cellCount * 4L + vertexCount * 16L
+						+ cellCount * 8L;
+	}
+
+	/**
+	 * Writes this geometry, including its sort orders, to the specified
+	 * buffer starting at the buffer's position.
+	 *
+	 * @param buffer the buffer to write to
+	 */
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(cellCount);
+		buffer.putInt(vertexCount);
+		buffer.asIntBuffer().put(ids, 0, cellCount);
+		buffer.position(buffer.position() + cellCount * 4);
+		buffer.asIntBuffer().put(vertexOffsets, 0, cellCount + 1);
+		buffer.position(buffer.position() + (cellCount + 1) * 4);
+		putDoubles(buffer, centerLon, cellCount);
+		putDoubles(buffer, centerLat, cellCount);
+		buffer.put(boundPositions, 0, cellCount * 4);
+		putDoubles(buffer, lonRad, vertexCount);
+		putDoubles(buffer, latRad, vertexCount);
+		buffer.asIntBuffer().put(getLonSortedOrder());
+		buffer.position(buffer.position() + cellCount * 4);
+		buffer.asIntBuffer().put(getLatSortedOrder());
+		buffer.position(buffer.position() + cellCount * 4);
+	}
+
+	/**
+	 * Reads a geometry written by write from the specified buffer starting
+	 * at the buffer's position.
+	 *
+	 * @param buffer the buffer to read from
+	 * @return the geometry read from the buffer.
+	 */
+	public static MeshGeometry read(ByteBuffer buffer) {
+		int cells = buffer.getInt();
+		int vertices = buffer.getInt();
+		MeshGeometry mesh = new MeshGeometry(cells, vertices);
+		mesh.cellCount = cells;
+		mesh.vertexCount = vertices;
+		mesh.ids = getInts(buffer, cells);
+		mesh.vertexOffsets = getInts(buffer, cells + 1);
+		mesh.centerLon = getDoubles(buffer, cells);
+		mesh.centerLat = getDoubles(buffer, cells);
+		mesh.boundPositions = new byte[cells * 4];
+		buffer.get(mesh.boundPositions);
+		mesh.lonRad = getDoubles(buffer, vertices);
+		mesh.latRad = getDoubles(buffer, vertices);
+		mesh.lonSortedOrder = getInts(buffer, cells);
+		mesh.latSortedOrder = getInts(buffer, cells);
+		return mesh;
+	}
+
+	private static void putDoubles(ByteBuffer buffer, double[] values, int count) {
+		buffer.asDoubleBuffer().put(values, 0, count);
+		buffer.position(buffer.position() + count * 8);
+	}
+
+	private static double[] getDoubles(ByteBuffer buffer, int count) {
+		double[] values = new double[count];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + count * 8);
+		return values;
+	}
+
+	private static int[] getInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+
+	/**
+	 * Creates a closed polygon, in degrees, for the specified cell.
+	 *
+	 * @param cell the cell index
+	 * @param factory the factory used to create the polygon
+	 * @return the created polygon.
+	 */
+	public Geometry toGeometry(int cell, GeometryFactory factory) {
+		int count = getNumVertices(cell);
+		Coordinate[] coords = new Coordinate[count + 1];
+		for (int i = 0; i < count; ++i) {
+			coords[i] = new Coordinate(getLon(cell, i), getLat(cell, i));
+		}
+		coords[count] = coords[0];
+		return factory.createPolygon(coords);
+	}
+}
@@ -1,19 +1,10 @@
 package anl.verdi.data;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
-//import javax.measure.units.Unit;		// JScience changed its hierarchy
-//import javax.measure.unit.Unit;
-import org.unitsofmeasurement.unit.Unit;
-
-import ucar.ma2.Array;
-import ucar.ma2.IndexIterator;
-import anl.verdi.util.VUnits;
 
 /**
  * @author Nick Collier
@@ -23,103 +14,54 @@ public class ObsEvaluator {
 
 	static final Logger Logger = LogManager.getLogger(ObsEvaluator.class.getName());
 	private DataManager manager;
-	private Variable var, lat, lon;
-
-	private static class ObsIterator implements Iterator<ObsData>, Iterable<ObsData> {
-
-		private Array lat, lon, values;
-		private IndexIterator latIndex, lonIndex, valuesIndex;
-		private Unit unit;
-
-		public ObsIterator(Array lat, Array lon, Array values, Unit unit) {
-			this.lat = lat;
-			this.lon = lon;
-			this.values = values;
-//			latIndex = lat.getIndexIteratorFast();	// NetCDF library replaced getIndexIteratorFast
-			latIndex = lat.getIndexIterator();
-			lonIndex = lon.getIndexIterator();
-			valuesIndex = values.getIndexIterator();
-			this.unit = unit;
-			Logger.debug("in ObsEvaluator constructor, unit = " + this.unit);
-		}
-
-		public boolean hasNext() {
-			return latIndex.hasNext();
-		}
-
-		public ObsData next() {
-			return new ObsData(latIndex.getDoubleNext(),
-							lonIndex.getDoubleNext(), unit,
-							valuesIndex.getDoubleNext());
-		}
-
-		public void remove() {
-			throw new UnsupportedOperationException();
-		}
-
-		public Iterator<ObsData> iterator() {
-			return this;
-		}
-	}
+	private Variable var;
+	// longitude and latitude range of the plot, null for all the readings
+	private double[][] domain;
 
 	public ObsEvaluator(DataManager manager, Variable var) {
 		this.manager = manager;
 		this.var = var;
-		Unit deg = VUnits.createUnit("degrees");
-		lat = new DefaultVariable("LAT", "LAT", deg, var.getDataset());
-		lon = new DefaultVariable("LON", "LON", deg, var.getDataset());
+	}
+
+	/**
+	 * Sets the area of the plot the readings are drawn on. Readings outside
+	 * of it are not returned by evaluate.
+	 *
+	 * @param domain the longitude and latitude range, indexed by longitude or
+	 * latitude and then minimum or maximum, or null for all the readings
+	 */
+	public void setDomain(double[][] domain) {
+		if (domain == null) {
+			this.domain = null;
+			return;
+		}
+		this.domain = new double[][] { domain[0].clone(), domain[1].clone() };
 	}
 
 	public List<ObsData> evaluate(int timestep) {
-		Dataset dataset = var.getDataset();
-		DataReader reader = manager.getDataReader(dataset);
-		return getObsDataList(dataset, reader, timestep);
+		return getObsDataList(timestep);
 	}
 	
 	public List<ObsData> evaluate(Date date) {
 		Dataset dataset = var.getDataset();
-		DataReader reader = manager.getDataReader(dataset);
 		TimeCoordAxis timeAxis = (TimeCoordAxis)dataset.getCoordAxes().getTimeAxis();
 		int timestep = timeAxis.getTimeStep(date);
 
-		return getObsDataList(dataset, reader, timestep);
+		return getObsDataList(timestep);
 	}	
 	
 	public List<ObsData> evaluate(Date date, int timestep) {
 		Dataset dataset = var.getDataset();
-		DataReader reader = manager.getDataReader(dataset);
 		TimeCoordAxis timeAxis = (TimeCoordAxis)dataset.getCoordAxes().getTimeAxis();
 		int baseTimestep = 0;
 		if (date != null)
 			baseTimestep = timeAxis.getTimeStep(date);
 
-		return getObsDataList(dataset, reader, baseTimestep + timestep);
+		return getObsDataList(baseTimestep + timestep);
 	}
 
-	private List<ObsData> getObsDataList(Dataset dataset, DataReader reader,
-			int timestep) {
-		List<AxisRange> range = new ArrayList<AxisRange>();
-		range.add(new AxisRange(dataset.getCoordAxes().getTimeAxis(), 0, timestep));
-		if (dataset.getCoordAxes().getZAxis() != null) {
-			range.add(new AxisRange(dataset.getCoordAxes().getZAxis(), 0, 1)); //could add layer if observation data is layered
-		}
-
-		DataFrame obsFrame = reader.getValues(dataset, range, var);
-		if (obsFrame == null)
-			throw new IllegalArgumentException("OBS data does not contain readings for the times within the data file.");		
-		DataFrame latFrame = reader.getValues(dataset, range, lat);
-		DataFrame lonFrame = reader.getValues(dataset, range, lon);
-		if (latFrame == null || lonFrame == null)
-			
-			throw new IllegalArgumentException("OBS data does not cover the are of the data file.");
-		Iterable<ObsData> iter = new ObsIterator(latFrame.getArray(), lonFrame.getArray(),
-						obsFrame.getArray(), var.getUnit());
-		List<ObsData> list = new ArrayList<ObsData>();
-		
-		for (ObsData data : iter)
-			list.add(data);
-
-		return list;
+	private List<ObsData> getObsDataList(int timestep) {
+		return manager.getObsStore(var).getData(timestep, domain);
 	}
 	
 	public Variable getVariable() {
@@ -0,0 +1,136 @@
+package anl.verdi.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.unitsofmeasurement.unit.Unit;
+
+import ucar.ma2.Array;
+import anl.verdi.util.VUnits;
+
+/**
+ * Latitudes, longitudes and values of an observation variable held in
+ * primitive arrays for each time step. A time step is read from the dataset
+ * the first time it is requested and kept, so animating an observation
+ * overlay reads each time step once and creates ObsData only for the points
+ * of the frame being drawn. Stores are shared through the DataManager.
+ *
+ * @version $Revision$ $Date$
+ */
+public class ObsStore {
+
+	private static final int LONGITUDE = 0;
+	private static final int LATITUDE = 1;
+	private static final int MINIMUM = 0;
+	private static final int MAXIMUM = 1;
+
+	private DataReader reader;
+	private Variable var, lat, lon;
+	// time step, lat lon and value columns; null until read
+	private double[][][] columns;
+
+	/**
+	 * Creates an ObsStore for the specified variable.
+	 *
+	 * @param reader the reader of the variable's dataset
+	 * @param var the observation variable
+	 */
+	public ObsStore(DataReader reader, Variable var) {
+		this.reader = reader;
+		this.var = var;
+		Unit deg = VUnits.createUnit("degrees");
+		lat = new DefaultVariable("LAT", "LAT", deg, var.getDataset());
+		lon = new DefaultVariable("LON", "LON", deg, var.getDataset());
+		CoordAxis timeAxis = var.getDataset().getCoordAxes().getTimeAxis();
+		columns = new double[timeAxis == null ? 0 : (int) timeAxis.getRange().getExtent()][][];
+	}
+
+	/**
+	 * @return the observation variable.
+	 */
+	public Variable getVariable() {
+		return var;
+	}
+
+	/**
+	 * Gets the observations at a time step.
+	 *
+	 * @param timestep the time step
+	 * @param domain the longitude and latitude range, indexed by longitude or
+	 * latitude and then minimum or maximum, outside of which observations are
+	 * skipped, or null for all the observations
+	 * @return the observations.
+	 * @throws IllegalArgumentException if the dataset has no observations at
+	 * the time step.
+	 */
+	public List<ObsData> getData(int timestep, double[][] domain) {
+		double[][] step = getColumns(timestep);
+		double[] lats = step[0];
+		double[] lons = step[1];
+		double[] values = step[2];
+		Unit unit = var.getUnit();
+		List<ObsData> list = new ArrayList<ObsData>(lats.length);
+		for (int i = 0; i < lats.length; i++) {
+			if (domain == null || contains(domain, lats[i], lons[i]))
+				list.add(new ObsData(lats[i], lons[i], unit, values[i]));
+		}
+		return list;
+	}
+
+	// grids in longitudes from 0 to 360 may hold observations from -180 to 180
+	private static boolean contains(double[][] domain, double lat, double lon) {
+		if (lat < domain[LATITUDE][MINIMUM] || lat > domain[LATITUDE][MAXIMUM])
+			return false;
+		double min = domain[LONGITUDE][MINIMUM];
+		double max = domain[LONGITUDE][MAXIMUM];
+		if (min > max) // crosses the date line
+			return lon >= min || lon <= max || lon - 360 >= min || lon + 360 <= max;
+		return (lon >= min && lon <= max) || (lon + 360 >= min && lon + 360 <= max)
+						|| (lon - 360 >= min && lon - 360 <= max);
+	}
+
+	private synchronized double[][] getColumns(int timestep) {
+		boolean cached = timestep >= 0 && timestep < columns.length;
+		if (cached && columns[timestep] != null)
+			return columns[timestep];
+		double[][] step = read(timestep);
+		if (cached)
+			columns[timestep] = step;
+		return step;
+	}
+
+	private double[][] read(int timestep) {
+		Dataset dataset = var.getDataset();
+		List<AxisRange> range = new ArrayList<AxisRange>();
+		// the observation readers take the extent of the time range as the time step
+		range.add(new AxisRange(dataset.getCoordAxes().getTimeAxis(), 0, timestep));
+		if (dataset.getCoordAxes().getZAxis() != null) {
+			range.add(new AxisRange(dataset.getCoordAxes().getZAxis(), 0, 1)); //could add layer if observation data is layered
+		}
+
+		DataFrame obsFrame = reader.getValues(dataset, range, var);
+		if (obsFrame == null)
+			throw new IllegalArgumentException("OBS data does not contain readings for the times within the data file.");
+		DataFrame latFrame = reader.getValues(dataset, range, lat);
+		DataFrame lonFrame = reader.getValues(dataset, range, lon);
+		if (latFrame == null || lonFrame == null)
+			throw new IllegalArgumentException("OBS data does not cover the are of the data file.");
+
+		double[] lats = toDoubles(latFrame.getArray());
+		double[] lons = toDoubles(lonFrame.getArray());
+		double[] values = toDoubles(obsFrame.getArray());
+		int count = Math.min(lats.length, Math.min(lons.length, values.length));
+		if (lats.length != count) lats = Arrays.copyOf(lats, count);
+		if (lons.length != count) lons = Arrays.copyOf(lons, count);
+		if (values.length != count) values = Arrays.copyOf(values, count);
+		return new double[][] { lats, lons, values };
+	}
+
+	// the frames come straight from the dataset's reader, which reads them
+	// into an Array, so getArray returns that Array rather than a copy.
+	// Formula results, which may be held in a MappedDataFrame, never reach here
+	private static double[] toDoubles(Array array) {
+		return (double[]) array.get1DJavaArray(double.class);
+	}
+}
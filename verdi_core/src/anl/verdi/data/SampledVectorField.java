@@ -0,0 +1,170 @@
+package anl.verdi.data;
+
+/**
+ * A view of the u and v components of a vector field that reads only the
+ * cells drawn as vectors: every stride'th column and row, starting at the
+ * first. The components are scaled so that the largest absolute u and v of
+ * the sampled cells, over every time step and layer, are 0.5 of a cell. The
+ * values are read from the component frames when asked for, so no copy of
+ * the frames is made; the largest components are found the first time they
+ * are needed.
+ *
+ * @version $Revision$ $Date$
+ */
+public class SampledVectorField {
+
+	private final DataFrame uFrame, vFrame;
+	private final int stride;
+	private final int columns, rows;
+	private final int timeSteps, layers;
+	private double uMaximum = Double.NaN;
+	private double vMaximum = Double.NaN;
+
+	/**
+	 * Creates a SampledVectorField from the u and v components, which must
+	 * have the same axes.
+	 *
+	 * @param uFrame the u (x) components
+	 * @param vFrame the v (y) components
+	 * @param stride the number of columns and rows between sampled cells
+	 */
+	public SampledVectorField(DataFrame uFrame, DataFrame vFrame, int stride) {
+		this.uFrame = uFrame;
+		this.vFrame = vFrame;
+		this.stride = Math.max(1, stride);
+		Axes<DataFrameAxis> axes = uFrame.getAxes();
+		columns = axes.getXAxis().getExtent();
+		rows = axes.getYAxis().getExtent();
+		timeSteps = axes.getTimeAxis() == null ? 1 : axes.getTimeAxis().getExtent();
+		layers = axes.getZAxis() == null ? 1 : axes.getZAxis().getExtent();
+	}
+
+	/**
+	 * Gets the u components.
+	 *
+	 * @return the u components.
+	 */
+	public DataFrame getUFrame() {
+		return uFrame;
+	}
+
+	/**
+	 * Gets the v components.
+	 *
+	 * @return the v components.
+	 */
+	public DataFrame getVFrame() {
+		return vFrame;
+	}
+
+	/**
+	 * Gets the number of columns and rows between sampled cells.
+	 *
+	 * @return the number of columns and rows between sampled cells.
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Gets the number of sampled columns.
+	 *
+	 * @return the number of sampled columns.
+	 */
+	public int getSampledColumns() {
+		return (columns + stride - 1) / stride;
+	}
+
+	/**
+	 * Gets the number of sampled rows.
+	 *
+	 * @return the number of sampled rows.
+	 */
+	public int getSampledRows() {
+		return (rows + stride - 1) / stride;
+	}
+
+	/**
+	 * Gets whether the cell at the specified column and row is sampled.
+	 *
+	 * @param x the column, relative to the x axis origin
+	 * @param y the row, relative to the y axis origin
+	 * @return whether the cell is sampled.
+	 */
+	public boolean isSampled(int x, int y) {
+		return x % stride == 0 && y % stride == 0;
+	}
+
+	/**
+	 * Gets the scaled components of the sampled cells at a time step and
+	 * layer, a sampled row after another.
+	 *
+	 * @param timeStep the time step
+	 * @param layer the layer
+	 * @param us receives the scaled u components
+	 * @param vs receives the scaled v components
+	 */
+	public void getSamples(int timeStep, int layer, double[] us, double[] vs) {
+		double uScale = getScale(getUMaximum());
+		double vScale = getScale(getVMaximum());
+		DataFrameIndex uIndex = uFrame.getIndex();
+		DataFrameIndex vIndex = vFrame.getIndex();
+		int sample = 0;
+		for (int y = 0; y < rows; y += stride) {
+			for (int x = 0; x < columns; x += stride, sample++) {
+				uIndex.set(timeStep, layer, x, y);
+				vIndex.set(timeStep, layer, x, y);
+				us[sample] = uFrame.getDouble(uIndex) * uScale;
+				vs[sample] = vFrame.getDouble(vIndex) * vScale;
+			}
+		}
+	}
+
+	/**
+	 * Gets the largest absolute u component of the sampled cells.
+	 *
+	 * @return the largest absolute u component of the sampled cells.
+	 */
+	public synchronized double getUMaximum() {
+		if (Double.isNaN(uMaximum))
+			findMaximums();
+		return uMaximum;
+	}
+
+	/**
+	 * Gets the largest absolute v component of the sampled cells.
+	 *
+	 * @return the largest absolute v component of the sampled cells.
+	 */
+	public synchronized double getVMaximum() {
+		if (Double.isNaN(vMaximum))
+			findMaximums();
+		return vMaximum;
+	}
+
+	private void findMaximums() {
+		DataFrameIndex uIndex = uFrame.getIndex();
+		DataFrameIndex vIndex = vFrame.getIndex();
+		double uMax = 0;
+		double vMax = 0;
+		for (int timeStep = 0; timeStep < timeSteps; timeStep++) {
+			for (int layer = 0; layer < layers; layer++) {
+				for (int y = 0; y < rows; y += stride) {
+					for (int x = 0; x < columns; x += stride) {
+						uIndex.set(timeStep, layer, x, y);
+						vIndex.set(timeStep, layer, x, y);
+						uMax = Math.max(uMax, Math.abs(uFrame.getDouble(uIndex)));
+						vMax = Math.max(vMax, Math.abs(vFrame.getDouble(vIndex)));
+					}
+				}
+			}
+		}
+		uMaximum = uMax;
+		vMaximum = vMax;
+	}
+
+	// components are scaled so the largest is half a cell
+	private static double getScale(double maximum) {
+		return maximum == 0 ? 0 : 0.5 / maximum;
+	}
+}
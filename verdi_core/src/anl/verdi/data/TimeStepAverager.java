@@ -1,11 +1,11 @@
 package anl.verdi.data;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import anl.verdi.plot.data.IMPASDataset;
 
 import anl.verdi.util.ArrayFactory;
+import anl.verdi.util.ParallelUtilities;
 import ucar.ma2.Array;
 import ucar.ma2.Index;
 
@@ -17,6 +17,9 @@ import ucar.ma2.Index;
  */
 public class TimeStepAverager implements DataTransformer {
 
+	// number of values summed by a single task
+	private static final int SUM_GRAIN = 1 << 16;
+
 	// averages x,y for each timestep -- assumes
 	// input data has no layer -- results in a 1D
 	// DataFrame
@@ -40,17 +43,10 @@ public class TimeStepAverager implements DataTransformer {
 
 			Array array = ArrayFactory.createDoubleArray(new int[]{timeAxis.getExtent()});
 			Index index = array.getIndex();
-			DataFrameIndex frameIndex = frame.getIndex();
+			double[] slab = new double[frame.getSlabSize()];
 
 			for (int time = 0; time < timeAxis.getExtent(); time++) {
-				frameIndex.setTime(time);
-				double xySum = 0;
-				for (int x = 0; x < xExtent; x++) {
-					for (int y = 0; y < yExtent; y++) {
-						frameIndex.setXY(x, y);
-						xySum += frame.getDouble(frameIndex);
-					}
-				}
+				double xySum = sumSlab(frame, time, 0, slab);
 				double avg = xySum / xySize;
 				index.set(time);
 				array.setDouble(index, avg);
@@ -87,21 +83,13 @@ public class TimeStepAverager implements DataTransformer {
 
 			Array array = ArrayFactory.createDoubleArray(new int[]{timeAxis.getExtent(), layerAxis.getExtent()});
 			Index index = array.getIndex();
-			DataFrameIndex frameIndex = frame.getIndex();
+			double[] slab = new double[frame.getSlabSize()];
 
 			for (int time = 0; time < timeAxis.getExtent(); time++) {
 				double avg = 0;
 
 				for (int layer = 0; layer < layerExtent; layer++) {
-					double xySum = 0;
-					frameIndex.set(time, layer, 0, 0);
-
-					for (int x = 0; x < xExtent; x++) {
-						for (int y = 0; y < yExtent; y++) {
-							frameIndex.setXY(x, y);
-							xySum += frame.getDouble(frameIndex);
-						}
-					}
+					double xySum = sumSlab(frame, time, layer, slab);
 					avg = xySum / xySize;
 					index.set(time, layer);
 					array.setDouble(index, avg);
@@ -138,19 +126,13 @@ public class TimeStepAverager implements DataTransformer {
 
 			Array array = ArrayFactory.createDoubleArray(new int[]{timeAxis.getExtent(), layerAxis.getExtent()});
 			Index index = array.getIndex();
-			MPASDataFrameIndex frameIndex = (MPASDataFrameIndex)frame.getIndex();
+			double[] slab = new double[frame.getSlabSize()];
 
 			for (int time = 0; time < timeAxis.getExtent(); time++) {
 				double avg = 0;
 
 				for (int layer = 0; layer < layerExtent; layer++) {
-					double cellSum = 0;
-					frameIndex.set(time, layer, 0);
-
-					for (int cell = 0; cell < cellExtent; cell++) {
-						frameIndex.setCell(cell);
-						cellSum += frame.getDouble(frameIndex);
-					}
+					double cellSum = sumSlab(frame, time, layer, slab);
 					avg = cellSum / cellExtent;
 					index.set(time, layer);
 					array.setDouble(index, avg);
@@ -185,18 +167,12 @@ public class TimeStepAverager implements DataTransformer {
 
 			Array array = ArrayFactory.createDoubleArray(new int[]{timeAxis.getExtent()});
 			Index index = array.getIndex();
-			MPASDataFrameIndex frameIndex = (MPASDataFrameIndex)frame.getIndex();
+			double[] slab = new double[frame.getSlabSize()];
 
 			for (int time = 0; time < timeAxis.getExtent(); time++) {
 				double avg = 0;
 
-				double cellSum = 0;
-				frameIndex.set(time, -1, 0);
-
-				for (int cell = 0; cell < cellExtent; cell++) {
-					frameIndex.setCell(cell);
-					cellSum += frame.getDouble(frameIndex);
-				}
+				double cellSum = sumSlab(frame, time, 0, slab);
 				avg = cellSum / cellExtent;
 				index.set(time);
 				array.setDouble(index, avg);
@@ -210,6 +186,88 @@ public class TimeStepAverager implements DataTransformer {
 	}
 
 
+	// sums the data at a time step and layer, copied into slab. Large slabs
+	// are summed in parallel, in fixed chunks whose sums are then added in
+	// order so that the result does not depend on the number of threads.
+	private static double sumSlab(DataFrame frame, int time, int layer, final double[] slab) {
+		frame.getSlab(time, layer, slab, 0);
+		if (slab.length <= SUM_GRAIN)
+			return sum(slab, 0, slab.length);
+		final double[] sums = new double[(slab.length + SUM_GRAIN - 1) / SUM_GRAIN];
+		ParallelUtilities.forRange(0, slab.length, SUM_GRAIN, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				for (int start = from; start < to; start += SUM_GRAIN)
+					sums[start / SUM_GRAIN] = sum(slab, start, Math.min(start + SUM_GRAIN, to));
+			}
+		});
+		return sum(sums, 0, sums.length);
+	}
+
+	private static double sum(double[] values, int from, int to) {
+		double sum = 0;
+		for (int i = from; i < to; i++)
+			sum += values[i];
+		return sum;
+	}
+
+	/**
+	 * Gets the number of averages produced for each time step of a frame:
+	 * one for each layer, or a single average if the frame has no layer.
+	 *
+	 * @param frame the data to average
+	 * @return the number of averages produced for each time step.
+	 */
+	public int getAveragesPerTimeStep(DataFrame frame) {
+		DataFrameAxis layerAxis = frame.getAxes().getZAxis();
+		return layerAxis == null ? 1 : layerAxis.getExtent();
+	}
+
+	/**
+	 * Averages the data at a single time step. Each layer's x,y domain data
+	 * is averaged into a value for each layer. This allows data to be
+	 * averaged as each time step is read, rather than reading every time
+	 * step before averaging.
+	 *
+	 * @param frame the data to average
+	 * @param timeStep the time step of the frame to average
+	 * @param averages receives the average of each layer
+	 * @param offset the position in averages of the first layer's average
+	 */
+	public void averageTimeStep(DataFrame frame, int timeStep, double[] averages, int offset) {
+		int slabSize = frame.getSlabSize();
+		double[] slab = new double[slabSize];
+		int layers = getAveragesPerTimeStep(frame);
+		for (int layer = 0; layer < layers; layer++)
+			averages[offset + layer] = sumSlab(frame, timeStep, layer, slab) / slabSize;
+	}
+
+	/**
+	 * Creates the DataFrame of averages produced by averageTimeStep, in the
+	 * same form as transform produces.
+	 *
+	 * @param frame data that was averaged, whose dataset, variable and layer
+	 *              axis the result shares
+	 * @param timeAxis the time steps that were averaged
+	 * @param averages the averages of each time step, in the order of the
+	 *                 time steps
+	 * @return the data averaged for each time step.
+	 */
+	public DataFrame createFrame(DataFrame frame, DataFrameAxis timeAxis, double[] averages) {
+		DataFrameAxis layerAxis = frame.getAxes().getZAxis();
+		int[] shape = layerAxis == null ? new int[]{timeAxis.getExtent()}
+						: new int[]{timeAxis.getExtent(), layerAxis.getExtent()};
+		Array array = ArrayFactory.createDoubleArray(shape);
+		for (int i = 0; i < array.getSize(); i++)
+			array.setDouble(i, averages[i]);
+
+		DataFrameBuilder builder = new DataFrameBuilder();
+		builder.addDataset(frame.getDataset()).setArray(array).setVariable(frame.getVariable());
+		builder.addAxis(DataFrameAxis.createDataFrameAxis(timeAxis, 0));
+		if (layerAxis != null)
+			builder.addAxis(DataFrameAxis.createDataFrameAxis(layerAxis, 1));
+		return builder.createDataFrame();
+	}
+
 	/**
 	 * Averages the data at each time step. For each time step, each
 	 * layer's x,y domain data is averaged into a value for each layer.
@@ -254,30 +312,32 @@ public class TimeStepAverager implements DataTransformer {
 		else
 			array = ArrayFactory.createDoubleArray(new int[]{timeAxis.getExtent()});
 		Index index = array.getIndex();
-		MPASDataFrameIndex frameIndex = null;
-		List<MPASDataFrameIndex> frameIndices = new ArrayList<MPASDataFrameIndex>();
-		for (int i = 0; i < frames.size(); ++i)
-			frameIndices.add((MPASDataFrameIndex)frames.get(i).getIndex());
+		int timeExtent = timeAxis.getExtent();
+
+		// sum the time series of each cell's layers, cell by cell
+		double[] cellSums = new double[layerExtent * timeExtent];
+		double[] series = new double[timeExtent];
+		for (int cell = 0; cell < cellExtent; cell++) {
+			DataFrame cellFrame = frames.get(cell);
+			MPASDataFrameIndex frameIndex = (MPASDataFrameIndex)cellFrame.getIndex();
+			for (int layer = 0; layer < layerExtent; layer++) {
+				if (layerAxis != null)
+					frameIndex.set(0, layer, 0);
+				else {
+					frameIndex.setTime(0);
+					frameIndex.setCell(0);
+				}
+				cellFrame.getTimeSeries(frameIndex, series, 0);
+				for (int time = 0; time < timeExtent; time++)
+					cellSums[layer * timeExtent + time] += series[time];
+			}
+		}
 
-		for (int time = 0; time < timeAxis.getExtent(); time++) {
+		for (int time = 0; time < timeExtent; time++) {
 			double avg = 0;
 
 			for (int layer = 0; layer < layerExtent; layer++) {
-				double cellSum = 0;
-
-				for (int cell = 0; cell < cellExtent; cell++) {
-					frameIndex = frameIndices.get(cell);
-					if (layerAxis != null)
-						frameIndex.set(time, layer, 0);
-					else {
-						frameIndex.setTime(time);
-						frameIndex.setCell(0);
-					}
-					
-					DataFrame cellFrame = frames.get(cell);
-					double cellVal = cellFrame.getDouble(frameIndex);
-					cellSum += cellVal;
-				}
+				double cellSum = cellSums[layer * timeExtent + time];
 				avg = cellSum / cellExtent;
 				if (layerAxis != null)
 					index.set(time, layer);
@@ -16,6 +16,7 @@ import anl.verdi.plot.data.DFVectorXYDataset;
 public class VectorEvaluator {
 
 	private DataFrame uComp, vComp;
+	private SampledVectorField field;
 	private DFVectorXYDataset data;
 	static final Logger Logger = LogManager.getLogger(VectorEvaluator.class.getName());
 
@@ -28,14 +29,30 @@ public class VectorEvaluator {
 		Logger.debug("back from DFVectorXYDataset");
 	}
 
+	/**
+	 * Creates a VectorEvaluator that evaluates only the sampled cells of
+	 * the field.
+	 *
+	 * @param field the vector field
+	 */
+	public VectorEvaluator(SampledVectorField field) {
+		this(field.getUFrame(), field.getVFrame());
+		this.field = field;
+	}
+
 	public DFVectorXYDataset getData(int timeStep, int layer) {
-		data.addSeries(uComp, vComp, timeStep, layer);
+		if (field != null)
+			data.addSeries(field, timeStep, layer);
+		else
+			data.addSeries(uComp, vComp, timeStep, layer);
 		Logger.debug("done in VectorEvaluator.getData");
 		return data;
 	}
 
 	public List<VectorData> evaluate(int timeStep) {
 		Logger.debug("into VectorEvauator.evaluate for timeStep = " + timeStep);
+		if (field != null)
+			return evaluateSamples(timeStep);
 		data.addSeries(uComp, vComp, timeStep, 0);
 		BoundingBoxer boxer = uComp.getAxes().getBoundingBoxer();
 		List<VectorData> list = new ArrayList<VectorData>();
@@ -54,4 +71,28 @@ public class VectorEvaluator {
 
 		return list;
 	}
+
+	// evaluates the sampled cells only, the others having no vectors to draw
+	private List<VectorData> evaluateSamples(int timeStep) {
+		int columns = field.getSampledColumns();
+		int rows = field.getSampledRows();
+		int stride = field.getStride();
+		double[] us = new double[columns * rows];
+		double[] vs = new double[columns * rows];
+		field.getSamples(timeStep, 0, us, vs);
+
+		Axes<DataFrameAxis> axes = uComp.getAxes();
+		int xOrigin = axes.getXAxis().getOrigin();
+		int yOrigin = axes.getYAxis().getOrigin();
+		BoundingBoxer boxer = axes.getBoundingBoxer();
+		List<VectorData> list = new ArrayList<VectorData>(us.length);
+		for (int row = 0, sample = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++, sample++) {
+				Point2D latLon = boxer.axisPointToLatLonPoint(column * stride + xOrigin, row * stride + yOrigin);
+				list.add(new VectorData(latLon.getY(), latLon.getX(), us[sample], vs[sample]));
+			}
+		}
+		Logger.debug("done with VectorEvaluator.evaluate for " + list.size() + " sampled cells");
+		return list;
+	}
 }
@@ -1,8 +1,11 @@
 package anl.verdi.formula;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Set;
 
 //import org.jscience.physics.measures.Measure;
 import org.apache.logging.log4j.LogManager;		// 2014
@@ -11,6 +14,7 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 //import javax.measure.units.Unit;		// JScience changed its hierarchy
 //import javax.measure.unit.Unit;
 import org.unitsofmeasurement.unit.Unit;
+import org.unitsofmeasurement.unit.UnitConverter;
 
 import ucar.ma2.Array;
 import ucar.ma2.IndexIterator;
@@ -23,14 +27,18 @@ import anl.verdi.data.DataFrameAxis;
 import anl.verdi.data.DataFrameBuilder;
 import anl.verdi.data.DataManager;
 import anl.verdi.data.DataTransformer;
+import anl.verdi.data.Dataset;
 import anl.verdi.data.DefaultVariable;
+import anl.verdi.data.MappedDataFrame;
 import anl.verdi.data.Range;
+import anl.verdi.data.TimeStepAverager;
 import anl.verdi.data.Variable;
 import anl.verdi.parser.ASTTreeInfo;
 import anl.verdi.parser.ASTVar;
 import anl.verdi.parser.Node;
 import anl.verdi.util.DateRange;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.Tools;
 import anl.verdi.util.VUnits;
 
 /**
@@ -50,6 +58,8 @@ public class DefaultFormula implements Formula {
 		DataFrame frame;
 		IndexIterator iter;
 		Unit unit;
+		// linear unit conversion applied when the formula is evaluated
+		double scale = 1, offset = 0;
 
 		public VarFramePair(DataFrame frame, FormulaVariable var) {
 			this.frame = frame;
@@ -88,28 +98,44 @@ public class DefaultFormula implements Formula {
 				return null;
 			Logger.debug("var = " + var);
 			Logger.debug("units = " + var.getUnit());
-			// do the unit conversion
+			VarFramePair varFramePair = new VarFramePair(frame, var);
+			// do the unit conversion. Linear conversions are resolved once and
+			// folded into the formula evaluation, anything else is applied here
 			if (convertUnits && !var.getUnit().equals(commonUnit)) {
 				Logger.debug("performing unit conversion to commonUnit");
-				Array array = frame.getArray();
-				Unit unit = var.getUnit();
-//				for (IndexIterator iter = array.getIndexIteratorFast(); iter.hasNext();) {	// 2014 NetCDF library replaced getIndexIteratorFast
-				for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
-					double val = iter.getDoubleNext();
-					// 2014 I think that the next statement is trying to perform a unit conversion
-					// the current value for the current unit is recalculated to a new value for the "commonUnit"
-					// Needs to be changed to appropriately use org.eclipse.uomo methods
-//					iter.setDoubleCurrent(Measure.valueOf(val, unit).doubleValue(commonUnit));
-//					current method: double newValue = oldUnit.getConverterTo(newUnit).convert(oldValue);
-					iter.setDoubleCurrent(unit.getConverterTo(commonUnit).convert(val));
+				UnitConverter converter = var.getUnit().getConverterTo(commonUnit);
+				double offset = converter.convert(0.0);
+				double scale = converter.convert(1.0) - offset;
+				if (isLinear(converter, scale, offset)) {
+					varFramePair.scale = scale;
+					varFramePair.offset = offset;
+				} else {
+					Array array = frame.getArray();
+					for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
+						iter.setDoubleCurrent(converter.convert(iter.getDoubleNext()));
+					}
 				}
 			}
-			VarFramePair varFramePair = new VarFramePair(frame, var);
 			results.add(varFramePair);
 		}
 		return results;
 	}
 
+	// checks whether the converter can be applied as value * scale + offset
+	private boolean isLinear(UnitConverter converter, double scale, double offset) {
+		if (Double.isNaN(scale) || Double.isInfinite(scale) || Double.isNaN(offset) || Double.isInfinite(offset))
+			return false;
+		if (converter.isLinear()) return true;
+		double[] samples = {-1000, 1000};
+		for (double sample : samples) {
+			double expected = sample * scale + offset;
+			double diff = converter.convert(sample) - expected;
+			// written so that a NaN difference is not linear
+			if (!(Math.abs(diff) <= 1e-9 * Math.max(1, Math.abs(expected)))) return false;
+		}
+		return true;
+	}
+
 //	private List<VarFramePair> transformData(List<VarFramePair> data) {
 //		// transform the values in each array according to some strategy
 //		for (VarFramePair pair : data) {
@@ -243,6 +269,138 @@ public class DefaultFormula implements Formula {
 	public DataFrame evaluate(DataManager manager, List<AxisRange> ranges, boolean convertUnits) throws IllegalFormulaException {
 		if (treeInfo == null) throw new UnsupportedOperationException("Validate() must be called before evaluate");
 		
+		applyTimeStep(ranges);
+
+		// the untransformed result is cached so that plots of different types share it
+		FormulaCache cache = manager == null ? null : manager.getFormulaCache();
+		Set<Dataset> datasets = FormulaCache.getDatasets(variables);
+		String key = FormulaCache.createKey(parser.getFormulaAsString(), ranges, convertUnits, commonUnit, datasets);
+		DataFrame dataFrame = cache == null ? null : cache.get(key);
+
+		if (dataFrame == null && transformer instanceof TimeStepAverager && canStream()) {
+			// only the averages are needed, so each time step is averaged as it
+			// is evaluated and the whole result is never held
+			Logger.debug("averaging the formula one time step at a time");
+			return evaluateAveraged(ranges, convertUnits);
+		}
+		if (dataFrame == null && canStream() && estimateMemory(ranges) > getMemoryLimit()) {
+			Logger.debug("formula result exceeds the memory limit, evaluating one time step at a time");
+			dataFrame = evaluateStreaming(ranges, convertUnits);
+			return dataFrame == null ? null : transformer.transform(dataFrame);
+		}
+
+		if (dataFrame == null) {
+			dataFrame = evaluateFrame(ranges, convertUnits);
+			if (dataFrame != null && cache != null)
+				cache.put(key, dataFrame, datasets);
+		}
+		return dataFrame == null ? null : transformer.transform(dataFrame);
+	}
+
+	/**
+	 * Evaluates the formula one time step at a time, storing the result in a
+	 * memory-mapped file rather than on the heap. This is used automatically
+	 * by evaluate when the result would exceed the memory limit set with the
+	 * verdi.formula.memory property.
+	 *
+	 * @param manager      the manager used to get read access to the relevant data
+	 * @param ranges       the ranges that constrain the evaluation
+	 * @param convertUnits whether or not to convert the units when evaluating the formula
+	 * @return a DataFrame containing the result of evaluating the formula.
+	 * @throws IllegalFormulaException if the formula is unable to be executed or
+	 * cannot be evaluated a time step at a time.
+	 */
+	public DataFrame evaluateStreaming(DataManager manager, List<AxisRange> ranges, boolean convertUnits)
+					throws IllegalFormulaException {
+		if (treeInfo == null) throw new UnsupportedOperationException("Validate() must be called before evaluate");
+		applyTimeStep(ranges);
+		if (!canStream())
+			throw new IllegalFormulaException("Formula cannot be evaluated one time step at a time");
+		DataFrame dataFrame = evaluateStreaming(ranges, convertUnits);
+		return dataFrame == null ? null : transformer.transform(dataFrame);
+	}
+
+	private DataFrame evaluateStreaming(List<AxisRange> ranges, boolean convertUnits) throws IllegalFormulaException {
+		List<AxisRange> stepRanges = new ArrayList<AxisRange>();
+		AxisRange timeRange = getTimeRange(ranges, stepRanges);
+		int steps = timeRange.getExtent();
+
+		MappedDataFrame result = null;
+		boolean complete = false;
+		try {
+			for (int step = 0; step < steps; step++) {
+				DataFrame frame = evaluateFrame(setTimeStep(stepRanges, timeRange, step), convertUnits);
+				if (frame == null)
+					return null;
+				try {
+					if (result == null) result = new MappedDataFrame(frame, steps, getTemporaryDir());
+				} catch (IOException e) {
+					throw new IllegalFormulaException("Error while creating temporary file for formula result: " + e.getMessage());
+				} catch (IllegalArgumentException e) {
+					throw new IllegalFormulaException("Formula cannot be evaluated one time step at a time: " + e.getMessage());
+				}
+				result.writeTimeStep(step, frame.getArray());
+			}
+			complete = true;
+			return result;
+		} finally {
+			// a partial result is of no use, so its file is released now
+			if (!complete && result != null)
+				result.close();
+		}
+	}
+
+	// evaluates the formula one time step at a time, averaging each time
+	// step with the averager before evaluating the next
+	private DataFrame evaluateAveraged(List<AxisRange> ranges, boolean convertUnits) throws IllegalFormulaException {
+		TimeStepAverager averager = (TimeStepAverager) transformer;
+		List<AxisRange> stepRanges = new ArrayList<AxisRange>();
+		AxisRange timeRange = getTimeRange(ranges, stepRanges);
+		int steps = timeRange.getExtent();
+
+		DataFrame first = null;
+		double[] averages = null;
+		int perStep = 0;
+		for (int step = 0; step < steps; step++) {
+			DataFrame frame = evaluateFrame(setTimeStep(stepRanges, timeRange, step), convertUnits);
+			if (frame == null)
+				return null;
+			if (first == null) {
+				first = frame;
+				perStep = averager.getAveragesPerTimeStep(frame);
+				averages = new double[steps * perStep];
+			}
+			averager.averageTimeStep(frame, 0, averages, step * perStep);
+		}
+		if (first == null)
+			return null;
+		DataFrameAxis time = first.getAxes().getTimeAxis();
+		DataFrameAxis timeAxis = DataFrameAxis.createDataFrameAxis(time.getAxis(), time.getOrigin(), steps, 0);
+		return averager.createFrame(first, timeAxis, averages);
+	}
+
+	// gets the time steps to evaluate, copying the other ranges into
+	// stepRanges followed by a place for the range of a single time step
+	private AxisRange getTimeRange(List<AxisRange> ranges, List<AxisRange> stepRanges) {
+		AxisRange timeRange = null;
+		for (AxisRange range : ranges) {
+			if (range.getAxisType() == AxisType.TIME) timeRange = range;
+			else stepRanges.add(range);
+		}
+		stepRanges.add(null);
+		if (timeRange != null)
+			return timeRange;
+		return new AxisRange(variables.get(0).getDataset().getCoordAxes().getTimeAxis());
+	}
+
+	// sets the last of stepRanges to a single step of the time range
+	private List<AxisRange> setTimeStep(List<AxisRange> stepRanges, AxisRange timeRange, int step) {
+		stepRanges.set(stepRanges.size() - 1, new AxisRange(timeRange.getAxis(), timeRange.getOrigin() + step, 1));
+		return stepRanges;
+	}
+
+	// overrides the time range if the formula specifies a time step
+	private void applyTimeStep(List<AxisRange> ranges) {
 		//NOTE: need to get the time step info from the formula and reset the Time Axis
 		int numberOfChildren = treeInfo.getStart().jjtGetNumChildren();
 		int timestep = -1;
@@ -271,7 +429,63 @@ public class DefaultFormula implements Formula {
 				ranges.add(new AxisRange(axes.getTimeAxis(), timestep, 1));
 			}
 		}
-		
+	}
+
+	// only element-wise formulas over gridded x, y, time data can be
+	// evaluated one time step at a time
+	private boolean canStream() {
+		if (!treeInfo.isElementWise() || variables.isEmpty())
+			return false;
+		for (FormulaVariable var : variables) {
+			Axes<CoordAxis> axes = var.getDataset().getCoordAxes();
+			if (var.getDataset().isObs() || axes.getTimeAxis() == null || axes.getXAxis() == null
+							|| axes.getYAxis() == null || axes.getCellAxis() != null)
+				return false;
+		}
+		return true;
+	}
+
+	// estimates the number of bytes needed to evaluate the formula in memory
+	private long estimateMemory(List<AxisRange> ranges) {
+		Axes<CoordAxis> axes = variables.get(0).getDataset().getCoordAxes();
+		long elements = getExtent(ranges, AxisType.TIME, axes.getTimeAxis())
+						* getExtent(ranges, AxisType.X_AXIS, axes.getXAxis())
+						* getExtent(ranges, AxisType.Y_AXIS, axes.getYAxis());
+		long layers = 1;
+		for (FormulaVariable var : variables) {
+			CoordAxis layer = var.getDataset().getCoordAxes().getZAxis();
+			if (layer != null) layers = Math.max(layers, getExtent(ranges, AxisType.LAYER, layer));
+		}
+		// each variable plus the result, as doubles
+		return elements * layers * (variables.size() + 1) * 8;
+	}
+
+	private long getExtent(List<AxisRange> ranges, AxisType type, CoordAxis axis) {
+		for (AxisRange range : ranges) {
+			if (range.getAxisType() == type) return range.getExtent();
+		}
+		return axis.getRange().getExtent();
+	}
+
+	private long getMemoryLimit() {
+		String prop = System.getProperty(Tools.FORMULA_MEMORY_LIMIT);
+		if (prop != null && !prop.trim().isEmpty()) {
+			try {
+				return Long.parseLong(prop.trim()) * 1024 * 1024;
+			} catch (NumberFormatException e) {
+				Logger.warn("Invalid value for " + Tools.FORMULA_MEMORY_LIMIT + ": " + prop);
+			}
+		}
+		return Runtime.getRuntime().maxMemory() / 2;
+	}
+
+	private File getTemporaryDir() {
+		String dir = System.getProperty(Tools.TEMP_DIR);
+		if (dir != null && !dir.trim().isEmpty() && new File(dir).isDirectory()) return new File(dir);
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	private DataFrame evaluateFrame(List<AxisRange> ranges, boolean convertUnits) throws IllegalFormulaException {
 		List<VarFramePair> results = readData(ranges, convertUnits);
 		if (results == null)
 			return null;
@@ -297,14 +511,13 @@ public class DefaultFormula implements Formula {
 
 		builder.setArray(evaluateFormula(results));
 		builder.setVariable(createVariable());
-		DataFrame dataFrame = builder.createDataFrame();
-		return transformer.transform(dataFrame);
+		return builder.createDataFrame();
 	}
 
 	private Array evaluateFormula(List<VarFramePair> results) throws IllegalFormulaException {
 		for (VarFramePair pair : results) {
 			String name = pair.var.getAliasedName();
-			parser.setVariable(name, pair.frame);
+			parser.setVariable(name, pair.frame, pair.scale, pair.offset);
 		}
 		FormulaArray array = parser.evaluate();
 		return array.getArray();
@@ -9,6 +9,8 @@ import anl.verdi.parser.Frame;
 import anl.verdi.parser.ParseException;
 import anl.verdi.parser.Parser;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
+import anl.verdi.util.Tools;
 
 /**
  * @author Nick Collier
@@ -20,10 +22,12 @@ public class DefaultParser implements FormulaParser {
 	private Parser parser;
 	private Frame frame;
 	private ASTTreeInfo treeInfo;
+	private boolean compile;
 
 	public DefaultParser(String formula, Frame frame) {
 		this.formula = formula;
 		this.frame = frame;
+		this.compile = Boolean.parseBoolean(System.getProperty(Tools.FORMULA_COMPILE, "true"));
 		String tmp = formula;
 		if (!tmp.endsWith(";")) tmp += ";";
 		this.parser = new Parser(new StringReader(tmp));
@@ -41,17 +45,51 @@ public class DefaultParser implements FormulaParser {
 	 * @param value the array value
 	 */
 	public void setVariable(String name, DataFrame value) {
+		setVariable(name, value, 1, 0);
+	}
+
+	/**
+	 * Sets the value of the variable to the specified array. The
+	 * conversion is folded into the compiled formula rather than
+	 * applied as a separate pass over the data.
+	 *
+	 * @param name the name of the variable
+	 * @param value the array value
+	 * @param scale the value to multiply by
+	 * @param offset the value to add after scaling
+	 */
+	public void setVariable(String name, DataFrame value, double scale, double offset) {
 		frame.setValue(name, value);
+		frame.setConversion(name, scale, offset);
+	}
+
+	/**
+	 * Sets whether or not the element-wise parts of the formula are
+	 * compiled into a single kernel rather than evaluated node by node.
+	 *
+	 * @param compile true to compile the formula, false to walk the tree
+	 */
+	public void setCompile(boolean compile) {
+		this.compile = compile;
 	}
 
 	/**
 	 * Evaluates the formula and returns the result as a FormulaArray.
+	 * If compilation is enabled the formula is first compiled into a
+	 * kernel and evaluated in a single pass. If nothing in the formula
+	 * could be fused, the tree is evaluated node by node.
 	 *
 	 * @return the result of the evaluation
 	 * @throws IllegalFormulaException if the formula is invalid
 	 */
 	public FormulaArray evaluate() throws IllegalFormulaException {
 		preprocess();
+		if (compile) {
+			FormulaKernel kernel = treeInfo.getStart().compile(frame);
+			if (kernel != null && !kernel.isLeaf()) return kernel.evaluate();
+			// nothing was fused, so the leaf already holds the result
+			if (kernel != null && kernel.getSource() != null) return kernel.getSource();
+		}
 		return treeInfo.getStart().evaluate(frame);
 	}
 
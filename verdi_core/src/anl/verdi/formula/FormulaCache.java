@@ -0,0 +1,238 @@
+package anl.verdi.formula;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.unitsofmeasurement.unit.Unit;
+
+import ucar.ma2.ArrayLogFactory;
+import anl.verdi.data.AxisRange;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.Dataset;
+import anl.verdi.util.Tools;
+
+/**
+ * Cache of evaluated formula results shared by all the plots created from a
+ * DataManager, so that plotting the same formula over the same ranges again,
+ * for example as a tile plot and then as an animated GIF, does not read and
+ * evaluate the data again. Results are evicted least recently used first
+ * once their total size exceeds the limit in megabytes set with the
+ * verdi.formula.cache.size property, and are dropped when a dataset they
+ * were read from is closed.
+ *
+ * @version $Revision$ $Date$
+ */
+public class FormulaCache {
+
+	static final Logger Logger = LogManager.getLogger(FormulaCache.class.getName());
+
+	private static class Entry {
+		DataFrame frame;
+		long bytes;
+		Set<Dataset> datasets;
+
+		Entry(DataFrame frame, long bytes, Set<Dataset> datasets) {
+			this.frame = frame;
+			this.bytes = bytes;
+			this.datasets = datasets;
+		}
+	}
+
+	// key, entry in access order
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long limit;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates a FormulaCache whose size is limited by the
+	 * verdi.formula.cache.size property, or to a quarter of the maximum heap
+	 * size if the property is not set.
+	 */
+	public FormulaCache() {
+		this(getDefaultLimit());
+	}
+
+	/**
+	 * Creates a FormulaCache with the specified size limit.
+	 *
+	 * @param limit the size limit in bytes, 0 to disable caching
+	 */
+	public FormulaCache(long limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Gets the result cached for the specified key.
+	 *
+	 * @param key the key created with createKey
+	 * @return the cached result, or null if there is none.
+	 */
+	public synchronized DataFrame get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.frame;
+	}
+
+	/**
+	 * Caches a result, evicting the least recently used results if the cache
+	 * would exceed its size limit. Results larger than the limit are not
+	 * cached.
+	 *
+	 * @param key the key created with createKey
+	 * @param frame the result
+	 * @param datasets the datasets the result was read from
+	 */
+	public synchronized void put(String key, DataFrame frame, Set<Dataset> datasets) {
+		long size = frame.getArray().getSizeBytes();
+		if (size > limit)
+			return;
+		entries.remove(key);
+		long bytes = getSize();
+		Iterator<Entry> iter = entries.values().iterator();
+		while (bytes + size > limit && iter.hasNext()) {
+			bytes -= getSize(iter.next());
+			iter.remove();
+		}
+		entries.put(key, new Entry(frame, size, datasets));
+	}
+
+	/**
+	 * Removes the results read from the specified dataset.
+	 *
+	 * @param dataset the dataset
+	 */
+	public synchronized void invalidate(Dataset dataset) {
+		for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+			Entry entry = iter.next();
+			if (entry.datasets.contains(dataset))
+				iter.remove();
+		}
+	}
+
+	/**
+	 * Removes all the cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of lookups that found a cached result.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that did not find a cached result.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the total size in bytes of the cached results, including the
+	 * log arrays created from them.
+	 */
+	public synchronized long getSize() {
+		long bytes = 0;
+		for (Entry entry : entries.values())
+			bytes += getSize(entry);
+		return bytes;
+	}
+
+	// log arrays are created when a result is first plotted on a log scale,
+	// so they are counted each time rather than when the result is cached
+	private static long getSize(Entry entry) {
+		return entry.bytes + ArrayLogFactory.getSizeBytes(entry.frame.getArray());
+	}
+
+	/**
+	 * Creates the key for the result of a formula. The key identifies the
+	 * formula text, the ranges it is evaluated over, the unit conversion and
+	 * the file and modification time of each dataset it reads.
+	 *
+	 * @param formula the formula text
+	 * @param ranges the ranges the formula is evaluated over
+	 * @param convertUnits whether the units are converted
+	 * @param commonUnit the unit the variables are converted to
+	 * @param datasets the datasets the formula reads
+	 * @return the key.
+	 */
+	public static String createKey(String formula, List<AxisRange> ranges, boolean convertUnits, Unit commonUnit,
+					Set<Dataset> datasets) {
+		StringBuilder key = new StringBuilder(formula.replaceAll("\\s+", ""));
+		List<AxisRange> sorted = new ArrayList<AxisRange>(ranges);
+		Collections.sort(sorted, new Comparator<AxisRange>() {
+			public int compare(AxisRange r1, AxisRange r2) {
+				return r1.getAxisType().toString().compareTo(r2.getAxisType().toString());
+			}
+		});
+		for (AxisRange range : sorted)
+			key.append('|').append(range.getAxisType()).append(':').append(range.getOrigin()).append(':')
+							.append(range.getExtent());
+		key.append('|').append(convertUnits).append('|').append(commonUnit);
+		for (Dataset dataset : datasets) {
+			URL url = dataset.getURL();
+			key.append('|').append(dataset.getAlias()).append('=').append(url).append('#')
+							.append(dataset.getIndexInURL());
+			if (url != null && "file".equals(url.getProtocol()))
+				key.append('@').append(getLastModified(url));
+		}
+		return key.toString();
+	}
+
+	// the path of a file URL is percent-encoded, so it is resolved through
+	// its URI to find files whose paths have spaces or non-ASCII characters
+	private static long getLastModified(URL url) {
+		try {
+			return new File(url.toURI()).lastModified();
+		} catch (URISyntaxException e) {
+			return new File(url.getPath()).lastModified();
+		} catch (IllegalArgumentException e) {
+			return new File(url.getPath()).lastModified();
+		}
+	}
+
+	/**
+	 * Gets the distinct datasets read by the specified variables.
+	 *
+	 * @param variables the formula variables
+	 * @return the datasets.
+	 */
+	public static Set<Dataset> getDatasets(List<FormulaVariable> variables) {
+		Set<Dataset> datasets = new LinkedHashSet<Dataset>();
+		for (FormulaVariable var : variables)
+			datasets.add(var.getDataset());
+		return datasets;
+	}
+
+	private static long getDefaultLimit() {
+		String prop = System.getProperty(Tools.FORMULA_CACHE_SIZE);
+		if (prop != null && !prop.trim().isEmpty()) {
+			try {
+				return Long.parseLong(prop.trim()) * 1024 * 1024;
+			} catch (NumberFormatException e) {
+				Logger.warn("Invalid value for " + Tools.FORMULA_CACHE_SIZE + ": " + prop);
+			}
+		}
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+}
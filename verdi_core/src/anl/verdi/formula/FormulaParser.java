@@ -49,6 +49,18 @@ public interface FormulaParser {
 	 */
 	void setVariable(String name, DataFrame value);
 
+	/**
+	 * Sets the value of the variable to the specified array. The
+	 * variable's values are converted with value * scale + offset
+	 * when the formula is evaluated.
+	 *
+	 * @param name the name of the variable
+	 * @param value the array value
+	 * @param scale the value to multiply by
+	 * @param offset the value to add after scaling
+	 */
+	void setVariable(String name, DataFrame value, double scale, double offset);
+
 	/**
 	 * Evaluates the formula and returns the result as a FormulaArray.
 	 *
@@ -55,6 +55,10 @@ public class SimpleParser implements FormulaParser {
 		//todo implement method
 	}
 
+	public void setVariable(String name, DataFrame value, double scale, double offset) {
+		//todo implement method
+	}
+
 	public String getFormulaAsString() {
 		return formula;
 	}
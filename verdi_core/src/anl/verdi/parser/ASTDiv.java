@@ -4,6 +4,8 @@ package anl.verdi.parser;
 
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
+import anl.verdi.util.FormulaKernel.BinaryOp;
 
 public class ASTDiv extends SimpleNode {
   public ASTDiv(int id) {
@@ -24,4 +26,15 @@ public class ASTDiv extends SimpleNode {
 	public FormulaArray evaluate(Frame frame) throws IllegalFormulaException {
 		return jjtGetChild(0).evaluate(frame).divide(jjtGetChild(1).evaluate(frame));
 	}
+
+	/**
+	 * Compiles this Node into an element-wise kernel.
+	 *
+	 * @param frame
+	 * @return the compiled kernel.
+	 */
+	@Override
+	public FormulaKernel compile(Frame frame) throws IllegalFormulaException {
+		return FormulaKernel.binary(jjtGetChild(0).compile(frame), BinaryOp.DIVIDE, jjtGetChild(1).compile(frame));
+	}
 }
@@ -5,6 +5,7 @@ package anl.verdi.parser;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.DoubleFunction;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
 
 public class ASTExp extends SimpleNode {
 
@@ -32,4 +33,15 @@ public class ASTExp extends SimpleNode {
 	public FormulaArray evaluate(Frame frame) throws IllegalFormulaException {
 		return jjtGetChild(0).evaluate(frame).foreach(new Exp());
 	}
+
+	/**
+	 * Compiles this Node into an element-wise kernel.
+	 *
+	 * @param frame
+	 * @return the compiled kernel.
+	 */
+	@Override
+	public FormulaKernel compile(Frame frame) throws IllegalFormulaException {
+		return FormulaKernel.unary(jjtGetChild(0).compile(frame), new Exp());
+	}
 }
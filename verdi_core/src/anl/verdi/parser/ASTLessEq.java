@@ -4,6 +4,8 @@ package anl.verdi.parser;
 
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
+import anl.verdi.util.FormulaKernel.BinaryOp;
 
 public class ASTLessEq extends SimpleNode {
   public ASTLessEq(int id) {
@@ -25,4 +27,14 @@ public class ASTLessEq extends SimpleNode {
 		return jjtGetChild(0).evaluate(frame).lessThanEq(jjtGetChild(1).evaluate(frame));
 	}
 
+	/**
+	 * Compiles this Node into an element-wise kernel.
+	 *
+	 * @param frame
+	 * @return the compiled kernel.
+	 */
+	@Override
+	public FormulaKernel compile(Frame frame) throws IllegalFormulaException {
+		return FormulaKernel.binary(jjtGetChild(0).compile(frame), BinaryOp.LESS_THAN_EQ, jjtGetChild(1).compile(frame));
+	}
 }
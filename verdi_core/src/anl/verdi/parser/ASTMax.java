@@ -2,10 +2,9 @@
 
 package anl.verdi.parser;
 
-import ucar.ma2.Array;
-import ucar.ma2.Index;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaArray.TimeReduction;
 
 public class ASTMax extends SimpleNode {
   public ASTMax(int id) {
@@ -16,6 +15,13 @@ public class ASTMax extends SimpleNode {
     super(p, id);
   }
 
+	@Override
+	public void gatherInfo(ASTTreeInfo info) {
+		// reduces over time so the result is not element-wise
+		info.setElementWise(false);
+		super.gatherInfo(info);
+	}
+
 	/**
 	 * Evaluates this Node.
 	 * 
@@ -27,45 +33,6 @@ public class ASTMax extends SimpleNode {
 	 */
 	@Override
 	public FormulaArray evaluate(Frame frame) throws IllegalFormulaException {
-		Array array = jjtGetChild(0).evaluate(frame).getArray();
-		Array maxA = calcMax(array);
-
-		return new FormulaArray(maxA, false);
-	}
-	
-	private Array calcMax(Array array) {
-		Array maxA = array.copy();
-		int rank = array.getRank();
-
-		int[] shape = array.getShape();
-		
-		if (rank != 4) return array;
-		
-		if (rank == 4 && shape[0] == 1) return array; // NOTE: only one time step
-		
-		if (rank == 4) {
-			Index index = array.getIndex();
-
-			for (int i = 0; i < shape[2]; i++) {
-				for (int j = 0; j < shape[3]; j++) {
-					for (int k = 0; k < shape[1]; k++) {
-						double max = Double.NEGATIVE_INFINITY;
-						
-						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							double val = array.getDouble(index);
-							if (val > max) max = val;
-						}
-						
-						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							maxA.setDouble(index, max);
-						}
-					}
-				}
-			}
-		}
-		
-		return maxA;
+		return jjtGetChild(0).evaluate(frame).reduceTime(TimeReduction.MAX);
 	}
 }
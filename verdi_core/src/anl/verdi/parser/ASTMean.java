@@ -2,10 +2,9 @@
 
 package anl.verdi.parser;
 
-import ucar.ma2.Array;
-import ucar.ma2.Index;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaArray.TimeReduction;
 
 public class ASTMean extends AggregateFuncNode {
 
@@ -32,45 +31,6 @@ public class ASTMean extends AggregateFuncNode {
 	 */
 	@Override
 	public FormulaArray evaluate(Frame frame) throws IllegalFormulaException {
-		Array array = jjtGetChild(0).evaluate(frame).getArray();
-		Array meanA = calcMean(array);
-
-		return new FormulaArray(meanA, false);
-	}
-	
-	private Array calcMean(Array array) {
-		Array meanA = array.copy();
-		int rank = array.getRank();
-
-		int[] shape = array.getShape();
-		
-		if (rank != 4) return array;
-		
-		if (rank == 4 && shape[0] == 1) return array;
-		
-		if (rank == 4) {
-			Index index = array.getIndex();
-
-			for (int i = 0; i < shape[2]; i++) {
-				for (int j = 0; j < shape[3]; j++) {
-					for (int k = 0; k < shape[1]; k++) {
-						double sum = 0;
-						
-						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							double val = array.getDouble(index);
-							sum += val;
-						}
-						
-						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							meanA.setDouble(index, sum / shape[0]);
-						}
-					}
-				}
-			}
-		}
-		
-		return meanA;
+		return jjtGetChild(0).evaluate(frame).reduceTime(TimeReduction.MEAN);
 	}
 }
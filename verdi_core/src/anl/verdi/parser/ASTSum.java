@@ -2,10 +2,9 @@
 
 package anl.verdi.parser;
 
-import ucar.ma2.Array;
-import ucar.ma2.Index;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaArray.TimeReduction;
 
 public class ASTSum extends AggregateFuncNode {
 
@@ -28,45 +27,6 @@ public class ASTSum extends AggregateFuncNode {
 	 */
 	@Override
 	public FormulaArray evaluate(Frame frame) throws IllegalFormulaException {
-		Array array = jjtGetChild(0).evaluate(frame).getArray();
-		Array sumA = calcSum(array);
-
-		return new FormulaArray(sumA, false);
-	}
-	
-	private Array calcSum(Array array) {
-		Array sumA = array.copy();
-		int rank = array.getRank();
-
-		int[] shape = array.getShape();
-		
-		if (rank != 4) return array;
-		
-		if (rank == 4 && shape[0] == 1) return array; // NOTE: only one time step
-		
-		if (rank == 4) {
-			Index index = array.getIndex();
-
-			for (int i = 0; i < shape[2]; i++) {
-				for (int j = 0; j < shape[3]; j++) {
-					for (int k = 0; k < shape[1]; k++) {
-						double sum = 0;
-						
-						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							double val = array.getDouble(index);
-							sum += val;
-						}
-						
-						for (int t = 0; t < shape[0]; t++) {
-							index.set(t, k, i, j);
-							sumA.setDouble(index, sum);
-						}
-					}
-				}
-			}
-		}
-		
-		return sumA;
+		return jjtGetChild(0).evaluate(frame).reduceTime(TimeReduction.SUM);
 	}
 }
@@ -11,6 +11,7 @@ public class ASTTreeInfo {
 
 	private Set<String> varNames = new HashSet<String>();
 	private boolean hasAggregates = false;
+	private boolean elementWise = true;
 	private Set<AggregateFuncNode> aggregateNodes = new HashSet<AggregateFuncNode>();
 	private ASTstart start;
 
@@ -48,6 +49,21 @@ public class ASTTreeInfo {
 		this.hasAggregates = hasAggregates;
 	}
 
+	/**
+	 * Gets whether or not each element of the result depends only on the
+	 * elements at the same position in the variables. Formulas containing
+	 * aggregates or reductions over time are not element-wise.
+	 *
+	 * @return true if the formula is element-wise, otherwise false.
+	 */
+	public boolean isElementWise() {
+		return elementWise;
+	}
+
+	public void setElementWise(boolean elementWise) {
+		this.elementWise = elementWise;
+	}
+
 	void addVarName(String name) {
 		varNames.add(name);
 	}
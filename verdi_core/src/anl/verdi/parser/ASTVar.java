@@ -5,12 +5,14 @@ package anl.verdi.parser;
 import anl.verdi.data.DataFrame;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
 
 public class ASTVar extends SimpleNode {
 
 	private String name;
 	private int timeStep = -1;
 	private FormulaArray array;
+	private double[] conversion;
 
   public ASTVar(int id) {
     super(id);
@@ -52,6 +54,7 @@ public class ASTVar extends SimpleNode {
 		DataFrame data = frame.getValue(name);
 		if (data == null) throw new IllegalFormulaException("Array for variable '" + name + "' has not been set");
 		array = new FormulaArray(data.getArray());
+		conversion = frame.getConversion(name);
 		
 //NOTE: since it doesn't do its work on slicing, let other functions to take care of it		
 //		if (timeStep == -1) array = new FormulaArray(data.getArray());
@@ -75,8 +78,26 @@ public class ASTVar extends SimpleNode {
 	 */
 	@Override
 	public FormulaArray evaluate(Frame frame) throws IllegalFormulaException {
+		if (conversion != null) {
+			// convert once, later evaluations reuse the converted values
+			array = FormulaKernel.linear(FormulaKernel.array(array.getArray()), conversion[0], conversion[1]).evaluate();
+			conversion = null;
+		}
 		return array;
 	}
+
+	/**
+	 * Compiles this Node into an element-wise kernel. Any unit
+	 * conversion is folded into the kernel.
+	 *
+	 * @param frame
+	 * @return the compiled kernel.
+	 */
+	@Override
+	public FormulaKernel compile(Frame frame) throws IllegalFormulaException {
+		if (conversion == null) return FormulaKernel.leaf(array);
+		return FormulaKernel.linear(FormulaKernel.array(array.getArray()), conversion[0], conversion[1]);
+	}
 	
 	public int getTimeStep() {
 		return this.timeStep;
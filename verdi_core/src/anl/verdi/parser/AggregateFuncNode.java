@@ -26,6 +26,7 @@ public abstract class AggregateFuncNode extends SimpleNode {
 	@Override
 	public void gatherInfo(ASTTreeInfo info) {
 		info.setHasAggregates(true);
+		info.setElementWise(false);
 		super.gatherInfo(info);
 	}
 
@@ -16,6 +16,7 @@ public class Frame {
 	// 2015 changed "level" to "layer" for consistency
 
 	private Map<String, DataFrame> varValues = new HashMap<String, DataFrame>();
+	private Map<String, double[]> conversions = new HashMap<String, double[]>();
 	private int timeStep, layer, x, y, nrows, ncols, nlayers;
 
 	/**
@@ -37,6 +38,30 @@ public class Frame {
 		return varValues.get(name);
 	}
 
+	/**
+	 * Sets the linear conversion applied to the values of the
+	 * named variable.
+	 *
+	 * @param name the name of the variable
+	 * @param scale the value to multiply by
+	 * @param offset the value to add after scaling
+	 */
+	public void setConversion(String name, double scale, double offset) {
+		if (scale == 1 && offset == 0) conversions.remove(name);
+		else conversions.put(name, new double[]{scale, offset});
+	}
+
+	/**
+	 * Gets the linear conversion applied to the values of the named
+	 * variable as a {scale, offset} pair.
+	 *
+	 * @param name the name of the variable.
+	 * @return the conversion, or null if the values are not converted.
+	 */
+	public double[] getConversion(String name) {
+		return conversions.get(name);
+	}
+
 	/**
 	 * Gets the current layer index.
 	 *
@@ -4,6 +4,7 @@ package anl.verdi.parser;
 
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
 
 /* All AST nodes must implement this interface.  It provides basic
    machinery for constructing the parent and child relationships
@@ -45,4 +46,15 @@ public interface Node {
 	 * @param frame
 	 */
 	public void preprocess(Frame frame) throws IllegalFormulaException;
+
+	/**
+	 * Compiles this Node into an element-wise kernel that
+	 * can be evaluated in a single pass without allocating
+	 * intermediate arrays. This should only be called
+	 * after preprocess.
+	 *
+	 * @param frame
+	 * @return the compiled kernel, or null if the node cannot be compiled.
+	 */
+	public FormulaKernel compile(Frame frame) throws IllegalFormulaException;
 }
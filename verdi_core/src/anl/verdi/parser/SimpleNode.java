@@ -7,6 +7,7 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.util.FormulaArray;
+import anl.verdi.util.FormulaKernel;
 
 public class SimpleNode implements Node {
 
@@ -140,5 +141,19 @@ public class SimpleNode implements Node {
 			}
 		}
 	}
+
+	/**
+	 * Compiles this Node into an element-wise kernel. This default
+	 * implementation evaluates the node and uses the result as
+	 * a leaf of the kernel, which is appropriate for nodes such as
+	 * variables, constants and aggregates that cannot be fused with
+	 * their parent.
+	 *
+	 * @param frame
+	 * @return the compiled kernel.
+	 */
+	public FormulaKernel compile(Frame frame) throws IllegalFormulaException {
+		return FormulaKernel.leaf(evaluate(frame));
+	}
 }
 
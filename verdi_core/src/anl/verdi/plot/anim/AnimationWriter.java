@@ -0,0 +1,145 @@
+package anl.verdi.plot.anim;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import anl.verdi.plot.util.MovieMaker;
+import anl.verdi.plot.util.VideoMaker;
+import anl.verdi.plot.util.WriteAnimatedGif;
+
+/**
+ * Writes the frames of an animation to movie, AVI and animated GIF files on
+ * a thread of its own, so the plot can draw the next frame while the
+ * previous ones are encoded. Frames are written in the order they are added.
+ * At most a few frames are held waiting to be written; adding a frame blocks
+ * while the writer is that far behind. Should the writer thread stop early,
+ * later frames are dropped rather than waiting for it.
+ *
+ * @version $Revision$ $Date$
+ */
+class AnimationWriter {
+
+	static final Logger Logger = LogManager.getLogger(AnimationWriter.class.getName());
+
+	private static final int CAPACITY = 8;
+	private static final BufferedImage END = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+	private final BlockingQueue<BufferedImage> frames = new ArrayBlockingQueue<BufferedImage>(CAPACITY);
+	private MovieMaker maker;
+	private WriteAnimatedGif gif;
+	private int gifDelay;
+	private VideoMaker videoMaker;
+	private Thread thread;
+	private boolean finished = false;
+	// set once the writer thread stops taking frames
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates an AnimationWriter and starts its thread.
+	 *
+	 * @param maker writes the quicktime movie, may be null
+	 * @param gif writes the animated gif, already started, may be null
+	 * @param gifDelay the delay between gif frames in centiseconds
+	 * @param videoMaker writes the AVI movie, may be null
+	 */
+	AnimationWriter(MovieMaker maker, WriteAnimatedGif gif, int gifDelay, VideoMaker videoMaker) {
+		this.maker = maker;
+		this.gif = gif;
+		this.gifDelay = gifDelay;
+		this.videoMaker = videoMaker;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "Animation Writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a frame to be written, waiting while the queue is full.
+	 *
+	 * @param frame the frame, which must not be changed afterwards
+	 */
+	synchronized void addFrame(BufferedImage frame) {
+		if (finished)
+			return;
+		try {
+			queue(frame);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.error("Interrupted while queuing an animation frame", e);
+		}
+	}
+
+	/**
+	 * Waits for the queued frames to be written and closes the files. Frames
+	 * added afterwards are ignored.
+	 */
+	synchronized void finish() {
+		if (finished)
+			return;
+		finished = true;
+		try {
+			queue(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.error("Interrupted while writing the animation", e);
+		}
+	}
+
+	// waits for room in the queue while the writer is still taking frames
+	private void queue(BufferedImage frame) throws InterruptedException {
+		while (!stopped) {
+			if (frames.offer(frame, 100, TimeUnit.MILLISECONDS))
+				return;
+		}
+		if (frame != END)
+			Logger.warn("Animation writer has stopped, dropping frame");
+	}
+
+	private void write() {
+		try {
+			BufferedImage frame;
+			while ((frame = frames.take()) != END) {
+				if (maker != null || videoMaker != null) {
+					try {
+						if (maker != null) maker.addImageAsFrame(frame);
+						if (videoMaker != null) videoMaker.addImageAsFrame(frame);
+					} catch (Exception e) {
+						maker = null;
+						videoMaker = null;
+						Logger.error("Error while making movie", e);
+					}
+				}
+				if (gif != null) {
+					try {
+						gif.addFrame(frame, gifDelay);
+					} catch (Exception e) {
+						Logger.error("Error while making animated gif", e);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Logger.error("Interrupted while writing the animation", e);
+		} finally {
+			stopped = true;
+			frames.clear();
+			if (maker != null) maker.cleanUp();
+			if (gif != null) {
+				try {
+					gif.finish();
+				} catch (Exception e) {
+					Logger.error("Error while finishing animated gif", e);
+				}
+			}
+			if (videoMaker != null) videoMaker.cleanUp();
+		}
+	}
+}
@@ -92,6 +92,7 @@ public class MultiPlotAnimator {
 		private TimeAnimatablePlot plot;
 //		private AnimatedGifEncoder gifEncoder;
 		private WriteAnimatedGif writeAnimatedGif;
+		private AnimationWriter writer;
 
 		public UpdatePlotAction(TimeAnimatablePlot plot, int start, int end, File gifFile) {
 			this.end = end;
@@ -101,6 +102,7 @@ public class MultiPlotAnimator {
 				writeAnimatedGif = new WriteAnimatedGif();
 				try {
 					writeAnimatedGif.start(gifFile);
+					writer = new AnimationWriter(null, writeAnimatedGif, 50, null);
 				} catch (Exception e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -113,13 +115,8 @@ public class MultiPlotAnimator {
 		}
 
 		public void stopGif() {
-			if (writeAnimatedGif != null)
-				try {
-					writeAnimatedGif.finish();
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+			if (writer != null)
+				writer.finish();
 		}
 
 		public void actionPerformed(ActionEvent e) {
@@ -128,13 +125,8 @@ public class MultiPlotAnimator {
 			} else {
 				plot.updateTimeStep(current++);
 				BufferedImage bufferedImage = plot.getBufferedImage();
-				if (writeAnimatedGif != null)
-					try {
-						writeAnimatedGif.addFrame(bufferedImage, 50);
-					} catch (Exception e1) {
-						// TODO Auto-generated catch block
-						e1.printStackTrace();
-					}
+				if (writer != null)
+					writer.addFrame(bufferedImage);
 			}
 		}
 	}
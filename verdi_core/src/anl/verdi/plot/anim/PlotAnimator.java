@@ -4,7 +4,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,6 +17,7 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 
 import anl.verdi.plot.data.MinMaxLevelListener;
 import anl.verdi.plot.gui.AbstractPlotPanel;
+import anl.verdi.plot.gui.FastTilePlot;
 //import simphony.util.messages.MessageCenter;
 import anl.verdi.plot.types.TimeAnimatablePlot;
 import anl.verdi.plot.util.AnimationListener;
@@ -39,6 +39,7 @@ public class PlotAnimator {
 	private VideoMaker videoMaker;
 //	private AnimatedGifEncoder gifEncoder;
 	private WriteAnimatedGif writeAnimatedGif;
+	private AnimationWriter writer;
 	private Timer timer;
 	private List<AnimationListener> listeners = new ArrayList<AnimationListener>();
 	private UpdatePlotAction action;
@@ -132,6 +133,9 @@ public class PlotAnimator {
 //			gifEncoder.start(animatedGifFile.getAbsolutePath());
 //			gifEncoder.setDelay(500);
 			writeAnimatedGif = new WriteAnimatedGif();
+			// the legend colors head the palette so they are kept exactly
+			if (plot instanceof FastTilePlot)
+				writeAnimatedGif.setPalette(((FastTilePlot) plot).getLegendColors());
 			try {
 				writeAnimatedGif.start(animatedGifFile);
 			} catch (Exception e) {
@@ -144,6 +148,9 @@ public class PlotAnimator {
 			videoMaker = new VideoMaker(1, aviFile, FileTypeDescriptor.MSVIDEO);
 		}
 		
+		if (maker != null || writeAnimatedGif != null || videoMaker != null)
+			writer = new AnimationWriter(maker, writeAnimatedGif, 50, videoMaker);
+		
 		start(start, end, delay);
 	}
 
@@ -163,6 +170,7 @@ public class PlotAnimator {
 		writeAnimatedGif = null;
 //		gifEncoder = null;
 		videoMaker = null;
+		writer = null;
 	}
 
 	// ActionListener that the timer fires to
@@ -182,19 +190,8 @@ public class PlotAnimator {
 				timer.stop();
 			else
 				((AbstractPlotPanel)plot).setAnimationHandler(null);
-			if (maker != null) maker.cleanUp();
-			if (writeAnimatedGif != null) {
-//			if (gifEncoder != null) {
-//				gifEncoder.finish();
-				//
-				try {
-					writeAnimatedGif.finish();
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-			if (videoMaker != null) videoMaker.cleanUp();
+			// waits for the writer to encode the queued frames and close the files
+			if (writer != null) writer.finish();
 			fireStopped();
 		}
 
@@ -204,25 +201,9 @@ public class PlotAnimator {
 			} else {
 				if (timer != null)
 					plot.updateTimeStep(current++);
-				try {
-					if (maker != null || writeAnimatedGif/*gifEncoder*/ != null || videoMaker != null) {
-						BufferedImage bufferedImage = (BufferedImage)e.getSource();
-						if (maker != null) maker.addImageAsFrame(bufferedImage);
-						if (writeAnimatedGif/*gifEncoder*/ != null) {
-//							bufferedImages[current - 1] = bufferedImage;
-							try {
-								writeAnimatedGif.addFrame(bufferedImage, 50);
-							} catch (Exception e1) {
-								// TODO Auto-generated catch block
-								e1.printStackTrace();
-							}
-						}
-						if (videoMaker != null) videoMaker.addImageAsFrame(bufferedImage);
-					}
-				} catch (IOException ex) {
-					maker = null;
-					videoMaker = null;
-					Logger.error("Error while making movie " + ex.getMessage());
+				if (writer != null) {
+					Object source = e.getSource();
+					writer.addFrame(source instanceof BufferedImage ? (BufferedImage)source : plot.getBufferedImage());
 				}
 				if (timer == null) {
 					if (current == end)
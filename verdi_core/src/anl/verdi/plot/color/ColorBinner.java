@@ -0,0 +1,181 @@
+package anl.verdi.plot.color;
+
+import java.util.Arrays;
+
+import anl.verdi.data.DataUtilities;
+import anl.verdi.util.ParallelUtilities;
+
+/**
+ * Maps data values to the index of the legend interval that contains them.
+ * A value below the first level maps to the first interval and a value
+ * above the last level maps to the last interval. Missing values map to
+ * MISSING. Evenly spaced legends are binned arithmetically, others by a
+ * binary search over the levels.
+ *
+ * @version $Revision$ $Date$
+ */
+public class ColorBinner {
+
+	public static final byte MISSING = -1;
+
+	// number of values above which a grid is binned in parallel
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	private final double[] levels;
+	private final int last;
+	private final boolean constant, sorted;
+	private boolean uniform;
+	private double step;
+
+	/**
+	 * Creates a ColorBinner for the specified legend levels.
+	 *
+	 * @param levels the legend levels, the start of each interval followed by the maximum
+	 */
+	public ColorBinner(double[] levels) {
+		this.levels = levels.clone();
+		last = levels.length - 2;
+		constant = levels[0] == levels[levels.length - 1];
+		sorted = isSorted(levels);
+		if (sorted && !constant && levels.length > 2) {
+			step = (levels[levels.length - 1] - levels[0]) / (levels.length - 1);
+			uniform = true;
+			double tolerance = step * 1e-6;
+			for (int i = 1; i < levels.length && uniform; i++) {
+				uniform = Math.abs(levels[i] - (levels[0] + i * step)) <= tolerance;
+			}
+		}
+	}
+
+	private static boolean isSorted(double[] levels) {
+		for (int i = 1; i < levels.length; i++) {
+			if (levels[i] < levels[i - 1]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets whether or not this binner was created for the specified levels.
+	 *
+	 * @param levels the legend levels
+	 * @return true if the levels are the same as this binner's, otherwise false.
+	 */
+	public boolean matches(double[] levels) {
+		return Arrays.equals(this.levels, levels);
+	}
+
+	/**
+	 * Gets whether or not the value is NaN or one of the missing value markers.
+	 *
+	 * @param value the value to check
+	 * @return true if the value is missing, otherwise false.
+	 */
+	public static boolean isMissing(float value) {
+		return value != value || value <= DataUtilities.AMISS3 || value <= DataUtilities.BADVAL3
+						|| value >= DataUtilities.NC_FILL_FLOAT;
+	}
+
+	/**
+	 * Gets the index of the legend interval that contains the value.
+	 *
+	 * @param value the value
+	 * @return the interval index, or MISSING if the value is missing.
+	 */
+	public byte indexOf(float value) {
+		if (isMissing(value)) return MISSING;
+		if (constant) return 0;
+		if (!sorted) return linearIndexOf(value, levels);
+		if (!uniform) return searchIndexOf(value, levels);
+
+		int index;
+		double offset = (value - levels[0]) / step;
+		if (offset <= 0) index = 0;
+		else if (offset >= last) index = last;
+		else index = (int) offset;
+		// correct for rounding so the result matches the level comparisons
+		while (index < last && levels[index + 1] <= value) index++;
+		while (index > 0 && levels[index] > value) index--;
+		return (byte) index;
+	}
+
+	/**
+	 * Gets the index of the legend interval that contains the value. This
+	 * is a convenience for a single value; create a ColorBinner to bin many
+	 * values against the same levels.
+	 *
+	 * @param value the value
+	 * @param levels the legend levels. Levels not in ascending order are
+	 * searched linearly, as the instance methods do.
+	 * @return the interval index, or MISSING if the value is missing.
+	 */
+	public static byte indexOf(float value, double[] levels) {
+		if (isMissing(value)) return MISSING;
+		if (levels[0] == levels[levels.length - 1]) return 0;
+		if (!isSorted(levels)) return linearIndexOf(value, levels);
+		return searchIndexOf(value, levels);
+	}
+
+	// the interval before the first level above the value
+	private static byte searchIndexOf(float value, double[] levels) {
+		int low = 1;
+		int high = levels.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (levels[mid] > value) high = mid;
+			else low = mid + 1;
+		}
+		return (byte) (low - 1);
+	}
+
+	private static byte linearIndexOf(float value, double[] levels) {
+		for (int index = 1; index < levels.length; index++) {
+			if (levels[index] > value) return (byte) (index - 1);
+		}
+		return (byte) (levels.length - 2);
+	}
+
+	/**
+	 * Bins each value in the grid. Large grids are binned in parallel.
+	 *
+	 * @param data the values to bin
+	 * @param indices the array to hold the result. If null or not the same
+	 * shape as data a new one is created.
+	 * @return the interval index of each value.
+	 */
+	public byte[][] indexOf(final float[][] data, byte[][] indices) {
+		final int rows = data.length;
+		final int columns = rows == 0 ? 0 : data[0].length;
+		if (indices == null || indices.length != rows || (rows > 0 && indices[0].length != columns)) {
+			indices = new byte[rows][columns];
+		}
+
+		final byte[][] result = indices;
+		ParallelUtilities.RangeFunction func = new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				for (int i = from; i < to; ++i) {
+					indexOf(data[i], 0, data[i].length, result[i]);
+				}
+			}
+		};
+		if ((long) rows * columns < PARALLEL_THRESHOLD) {
+			func.apply(0, rows);
+		} else {
+			ParallelUtilities.forRange(0, rows, Math.max(1, PARALLEL_THRESHOLD / Math.max(1, columns)), func);
+		}
+		return result;
+	}
+
+	/**
+	 * Bins the values in [from, to) of data into the same positions of indices.
+	 *
+	 * @param data the values to bin
+	 * @param from the first value
+	 * @param to the position after the last value
+	 * @param indices the array to hold the result
+	 */
+	public void indexOf(float[] data, int from, int to, byte[] indices) {
+		for (int i = from; i < to; ++i) {
+			indices[i] = indexOf(data[i]);
+		}
+	}
+}
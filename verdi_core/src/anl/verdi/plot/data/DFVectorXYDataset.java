@@ -13,6 +13,7 @@ import org.jfree.data.xy.VectorXYDataset;
 
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameIndex;
+import anl.verdi.data.SampledVectorField;
 // 2014
 // 2014 replacing System.out.println with logger messages
 
@@ -67,6 +68,31 @@ public class DFVectorXYDataset extends AbstractDataset implements VectorXYDatase
 		}
 	}
 
+	// the scaled components of a sampled vector field, zero at the cells
+	// that are not sampled
+	private static class SampledFrameData extends FrameData {
+		SampledVectorField field;
+		double[] samples;
+
+		public SampledFrameData(SampledVectorField field, DataFrame frame, double[] samples, int timeStep, int layer) {
+			super(frame, timeStep, layer);
+			this.field = field;
+			this.samples = samples;
+		}
+
+		public double getValue(int item) {
+			int x = item % xExtent;
+			return getValue(x, (item - x) / xExtent);
+		}
+
+		public double getValue(int x, int y) {
+			if (!field.isSampled(x, y))
+				return 0;
+			int stride = field.getStride();
+			return samples[(y / stride) * field.getSampledColumns() + x / stride];
+		}
+	}
+
 	private static class SeriesData {
 		private FrameData xFrame, yFrame;
 		private String name;
@@ -78,6 +104,18 @@ public class DFVectorXYDataset extends AbstractDataset implements VectorXYDatase
 			name = xFrame.getVariable().getName() + "x" + yFrame.getVariable().getName();
 		}
 
+		public SeriesData(SampledVectorField field, int timeStep, int layer) {
+			int samples = field.getSampledColumns() * field.getSampledRows();
+			double[] us = new double[samples];
+			double[] vs = new double[samples];
+			field.getSamples(timeStep, layer, us, vs);
+			DataFrame uFrame = field.getUFrame();
+			DataFrame vFrame = field.getVFrame();
+			this.xFrame = new SampledFrameData(field, uFrame, us, timeStep, layer);
+			this.yFrame = new SampledFrameData(field, vFrame, vs, timeStep, layer);
+			name = uFrame.getVariable().getName() + "x" + vFrame.getVariable().getName();
+		}
+
 		public FrameData getXFrame() {
 			return xFrame;
 		}
@@ -99,16 +137,31 @@ public class DFVectorXYDataset extends AbstractDataset implements VectorXYDatase
 	private List<SeriesData> data = new ArrayList<SeriesData>();
 
 	public void addSeries(DataFrame xVect, DataFrame yVect, int timeStep, int layer) {
-			SeriesData seriesData = new SeriesData(xVect, yVect, timeStep, layer);
-			int index = indexOf(seriesData.getName());
-			if (index > -1) {
-				data.add(index, seriesData);
-				data.remove(index + 1);
-			} else {
-				data.add(seriesData);
-			}
-			notifyListeners(new DatasetChangeEvent(this, this));
+		addSeries(new SeriesData(xVect, yVect, timeStep, layer));
+	}
+
+	/**
+	 * Adds the scaled vectors of a sampled vector field at a time step and
+	 * layer. The cells that are not sampled have zero length vectors.
+	 *
+	 * @param field the vector field
+	 * @param timeStep the time step
+	 * @param layer the layer
+	 */
+	public void addSeries(SampledVectorField field, int timeStep, int layer) {
+		addSeries(new SeriesData(field, timeStep, layer));
+	}
+
+	private void addSeries(SeriesData seriesData) {
+		int index = indexOf(seriesData.getName());
+		if (index > -1) {
+			data.add(index, seriesData);
+			data.remove(index + 1);
+		} else {
+			data.add(seriesData);
 		}
+		notifyListeners(new DatasetChangeEvent(this, this));
+	}
 
 	/**
 	 * Returns the x-component of the vector.
@@ -13,6 +13,7 @@ import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.MeshCellInfo;
+import anl.verdi.data.MeshGeometry;
 
 public interface IMPASDataset extends Dataset {
 		
@@ -71,6 +72,7 @@ public interface IMPASDataset extends Dataset {
 	//Returns each cell to be displayed onscreen.  Cells that cross plot boundaries are split, and each section is returned separately
 	public Collection<MeshCellInfo> getAllCells();
 	
+	//Returns the cells in the order of the mesh geometry: the dataset's cells followed by the split cell sections
 	public MeshCellInfo[] getAllCellsArray();
 
 	public MeshCellInfo[] getLonSortedCellsArray();
@@ -83,6 +85,9 @@ public interface IMPASDataset extends Dataset {
 	//Returns all cells that cross plot boundaries
 	public Map<MeshCellInfo, Integer> getSplitCells();
 	
+	//Returns the vertices and bounds of all cells, indexed as getAllCellsArray
+	public MeshGeometry getMeshGeometry();
+	
 	//MPAS files can have multiple layer axes.  Returns the one for the given variable
 	public CoordAxis getZAxis(String variable);
 	
@@ -0,0 +1,378 @@
+package anl.verdi.plot.gui;
+
+import gov.epa.emvl.Mapper;
+import gov.epa.emvl.Projector;
+import gov.epa.emvl.TilePlot;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.text.NumberFormat;
+import java.util.GregorianCalendar;
+
+import net.sf.epsgraphics.ColorMode;
+import net.sf.epsgraphics.Drawable;
+import net.sf.epsgraphics.EpsTools;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import ucar.unidata.geoloc.Projection;
+import ucar.unidata.geoloc.projection.LatLonProjection;
+import anl.verdi.data.Axes;
+import anl.verdi.data.CoordAxis;
+import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameAxis;
+import anl.verdi.data.DataFrameSummary;
+import anl.verdi.data.DataUtilities;
+import anl.verdi.data.Dataset;
+import anl.verdi.data.VectorEvaluator;
+import anl.verdi.plot.color.ColorMap;
+import anl.verdi.plot.color.Palette;
+import anl.verdi.plot.color.PavePaletteCreator;
+import anl.verdi.plot.config.PlotConfiguration;
+import anl.verdi.plot.config.TilePlotConfiguration;
+import anl.verdi.util.Tools;
+
+/**
+ * Draws a tile plot of a time step and layer of a DataFrame into an image,
+ * with optional vectors over it, the way FastTilePlot draws a batch image but
+ * without creating any Swing components, so batch and command line plots can
+ * be drawn headless and several at once. The frame's values are read when the
+ * image is drawn, so its datasets must stay open until then.
+ *
+ * @version $Revision$ $Date$
+ */
+public class BatchTileRenderer {
+
+	static final Logger Logger = LogManager.getLogger(BatchTileRenderer.class.getName());
+
+	private static final double MINIMUM_VALID_VALUE = -900.0;
+	private static final int X = 0;
+	private static final int Y = 1;
+	private static final int MINIMUM = 0;
+	private static final int MAXIMUM = 1;
+	private static final int LONGITUDE = 0;
+	private static final int LATITUDE = 1;
+
+	private final DataFrame dataFrame;
+	private final TilePlotConfiguration config;
+	private final TilePlot tilePlot;
+	private final String variable;
+	private final String units;
+	private final int timesteps, firstTimestep;
+	private final int layers, firstLayer;
+	private final int rows, columns;
+	private final boolean invertRows;
+	private final double westEdge, southEdge, cellWidth, cellHeight;
+	private final Projection projection;
+	private final CoordinateReferenceSystem gridCRS;
+	private boolean log = false;
+	private DataFrame logFrame;
+	private double[] legendLevels;
+	private Color[] legendColors;
+	private NumberFormat format;
+	private int firstRow, lastRow, firstColumn, lastColumn;
+	private VectorEvaluator vectors;
+
+	/**
+	 * Creates a BatchTileRenderer of the specified frame. The legend is taken
+	 * from the color map of the configuration, if it has one, and otherwise
+	 * spans the range of the whole frame.
+	 *
+	 * @param dataFrame the frame to draw
+	 * @param plotConfig the titles, color map and other settings of the plot
+	 */
+	public BatchTileRenderer(DataFrame dataFrame, PlotConfiguration plotConfig) {
+		this.dataFrame = dataFrame;
+		variable = dataFrame.getVariable().getName();
+		String unit = dataFrame.getVariable().getUnit() == null ? null : dataFrame.getVariable().getUnit().toString();
+		units = (unit == null || unit.trim().isEmpty()) ? "none" : unit;
+
+		final Axes<DataFrameAxis> axes = dataFrame.getAxes();
+		final DataFrameAxis timeAxis = axes.getTimeAxis();
+		timesteps = timeAxis == null ? 1 : timeAxis.getExtent();
+		firstTimestep = timeAxis == null ? 0 : timeAxis.getOrigin();
+		final DataFrameAxis layerAxis = axes.getZAxis();
+		layers = layerAxis == null ? 1 : layerAxis.getExtent();
+		firstLayer = layerAxis == null ? 0 : layerAxis.getOrigin();
+		rows = axes.getYAxis() != null ? axes.getYAxis().getExtent() : 1;
+		columns = axes.getXAxis() != null ? axes.getXAxis().getExtent() : 1;
+		firstRow = 0;
+		lastRow = rows - 1;
+		firstColumn = 0;
+		lastColumn = columns - 1;
+
+		final Dataset dataset = dataFrame.getDataset().get(0);
+		final Axes<CoordAxis> coordinateAxes = dataset.getCoordAxes();
+		projection = coordinateAxes.getProjection();
+		gridCRS = coordinateAxes.getBoundingBoxer().getCRS();
+		final ReferencedEnvelope envelope = axes.getBoundingBox(dataset.getNetcdfCovn());
+		westEdge = envelope.getMinX();
+		southEdge = envelope.getMinY();
+		cellWidth = envelope.getWidth() / columns;
+		cellHeight = envelope.getHeight() / rows;
+
+		// AURAMS / GEM / CF Convention files have their rows inverted
+		final CoordAxis yAxis = coordinateAxes.getYAxis();
+		invertRows = yAxis.getValue(0) > yAxis.getValue(rows - 1);
+
+		GregorianCalendar startDate = axes.getDate(firstTimestep);
+		startDate = startDate == null ? new GregorianCalendar() : startDate;
+		long timestepSize = 1 * 60 * 60;
+		if (timesteps > 1)
+			timestepSize = axes.getDate(firstTimestep + 1).getTimeInMillis() - startDate.getTimeInMillis();
+		tilePlot = new TilePlot(startDate, timestepSize);
+
+		// the defaults of FastTilePlot, updated with the plot's settings
+		config = new TilePlotConfiguration();
+		config.setGridLines(false, Color.gray);
+		config.setSubtitle1(Tools.getDatasetNames(dataFrame));
+		config.setLayerColor(Color.black);
+		config.setLayerLineSize(1);
+		config.updateConfig(plotConfig);
+
+		createLegend((ColorMap) config.getObject(TilePlotConfiguration.COLOR_MAP));
+	}
+
+	/**
+	 * Limits the plot to the specified rows and columns, which are 1-based
+	 * and inclusive like those of FastTilePlot.resetRowsNColumns.
+	 *
+	 * @param fRow the first row
+	 * @param lRow the last row
+	 * @param fColumn the first column
+	 * @param lColumn the last column
+	 */
+	public void setSubdomain(int fRow, int lRow, int fColumn, int lColumn) {
+		int first = Math.max(1, Math.min(rows, fRow)) - 1;
+		int last = Math.max(1, Math.min(rows, lRow)) - 1;
+		firstRow = Math.min(first, last);
+		lastRow = Math.max(first, last);
+		first = Math.max(1, Math.min(columns, fColumn)) - 1;
+		last = Math.max(1, Math.min(columns, lColumn)) - 1;
+		firstColumn = Math.min(first, last);
+		lastColumn = Math.max(first, last);
+	}
+
+	/**
+	 * Sets the vectors drawn over the tiles, or null for none.
+	 *
+	 * @param vectors the evaluator of the vectors
+	 */
+	public void setVectors(VectorEvaluator vectors) {
+		this.vectors = vectors;
+	}
+
+	/**
+	 * Draws the plot of a time step and layer into an image.
+	 *
+	 * @param timestep the 0-based time step of the dataset
+	 * @param layer the 0-based layer of the dataset
+	 * @param canvasWidth the width of the image
+	 * @param canvasHeight the height of the image
+	 * @return the image of the plot.
+	 */
+	public BufferedImage render(int timestep, int layer, int canvasWidth, int canvasHeight) {
+		final BufferedImage image = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_RGB);
+		final Graphics graphics = image.getGraphics();
+		try {
+			draw(graphics, image, timestep, layer, canvasWidth, canvasHeight);
+		} finally {
+			graphics.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Draws the plot of a time step and layer into an EPS file.
+	 *
+	 * @param filename the name of the file, without the .eps extension
+	 * @param timestep the 0-based time step of the dataset
+	 * @param layer the 0-based layer of the dataset
+	 * @param canvasWidth the width of the plot
+	 * @param canvasHeight the height of the plot
+	 */
+	public void exportEPSImage(String filename, final int timestep, final int layer,
+			final int canvasWidth, final int canvasHeight) {
+		Drawable drawable = new Drawable() {
+			public void draw(Graphics2D g, Rectangle2D rect) {
+				BatchTileRenderer.this.draw(g, null, timestep, layer, canvasWidth, canvasHeight);
+			}
+		};
+		EpsTools.createFromDrawable(drawable, filename, canvasWidth, canvasHeight, ColorMode.COLOR_RGB);
+	}
+
+	// image is the image graphics draws into, if any, whose pixels the grid
+	// cells are then written into directly
+	private synchronized void draw(Graphics graphics, BufferedImage image, int timestep, int layer,
+			int canvasWidth, int canvasHeight) {
+		final int step = Math.max(0, Math.min(timesteps - 1, timestep - firstTimestep));
+		final int level = Math.max(0, Math.min(layers - 1, layer - firstLayer));
+
+		graphics.setColor(Color.white);
+		graphics.fillRect(0, 0, canvasWidth, canvasHeight);
+
+		final int xOffset = 100;
+		final int yOffset = getYOffset();
+		final Boolean showGridLines = (Boolean) config.getObject(TilePlotConfiguration.SHOW_GRID_LINES);
+		final Color gridLineColor = (showGridLines == null || !showGridLines) ? null
+				: (Color) config.getObject(TilePlotConfiguration.GRID_LINE_COLOR);
+
+		tilePlot.setRasterImage(image);
+		try {
+			tilePlot.drawBatchImage(graphics, xOffset, yOffset, canvasWidth, canvasHeight,
+					step, firstLayer + level, firstRow, lastRow, firstColumn, lastColumn,
+					legendLevels, legendColors, Color.darkGray, Color.black, variable, units,
+					config, format, gridLineColor, copySubsetLayerData(step, level));
+		} finally {
+			tilePlot.setRasterImage(null);
+		}
+
+		drawMap(graphics, xOffset, yOffset, image != null);
+
+		if (vectors != null) {
+			VectorAnnotation annotation = new VectorAnnotation(vectors, step,
+					dataFrame.getAxes().getBoundingBoxer());
+			annotation.draw(graphics, xOffset, yOffset, tilePlot.getPlotWidth(), tilePlot.getPlotHeight(),
+					firstRow, lastRow, firstColumn, lastColumn);
+		}
+	}
+
+	// the same legend as FastTilePlot.updateColorMap, or a default one
+	private void createLegend(ColorMap map) {
+		if (map != null && map.getScaleType() == ColorMap.ScaleType.LOGARITHM) {
+			log = true;
+			tilePlot.setLog(true);
+			tilePlot.setLogBase((int) map.getLogBase());
+		}
+
+		if (map == null) {
+			Palette palette = new PavePaletteCreator().createPavePalette();
+			DataUtilities.MinMax range = DataFrameSummary.getSummary(getDataFrame(), MINIMUM_VALID_VALUE).getMinMax();
+			double min = range.getMin() <= range.getMax() ? range.getMin() : 0.0;
+			double max = range.getMin() <= range.getMax() ? range.getMax() : 0.0;
+			map = new ColorMap(palette, min, max);
+			map.setPaletteType(ColorMap.PaletteType.SEQUENTIAL);
+			legendColors = palette.getColors();
+			legendLevels = new double[legendColors.length + 1];
+			final double delta = (max - min) / legendColors.length;
+			for (int level = 0; level < legendLevels.length; ++level)
+				legendLevels[level] = min + level * delta;
+		} else {
+			legendColors = map.getPalette().getColors();
+			legendLevels = new double[legendColors.length + 1];
+			try {
+				for (int i = 0; i < legendColors.length; i++)
+					legendLevels[i] = map.getIntervalStart(i);
+				legendLevels[legendColors.length] = map.getMax();
+			} catch (Exception e) {
+				throw new IllegalArgumentException("Invalid color map: " + e.getMessage(), e);
+			}
+		}
+
+		try {
+			format = map.getNumberFormat();
+		} catch (Exception e) {
+			Logger.warn("Invalid number format of the color map, using the default: " + e.getMessage());
+			format = NumberFormat.getInstance();
+			format.setMaximumFractionDigits(4);
+		}
+	}
+
+	private DataFrame getDataFrame() {
+		if (!log)
+			return dataFrame;
+		if (logFrame == null)
+			logFrame = DataUtilities.createLogDataFrame(dataFrame, tilePlot.getLogBase());
+		return logFrame;
+	}
+
+	private float[][] copySubsetLayerData(int step, int level) {
+		final DataFrame frame = getDataFrame();
+		final float[] slab = new float[frame.getSlabSize()];
+		frame.getSlab(step, level, slab, 0);
+
+		// the positions of successive rows and columns in the slab
+		final DataFrameAxis rowAxis = frame.getAxes().getYAxis();
+		final DataFrameAxis columnAxis = frame.getAxes().getXAxis();
+		int rowStride = 1;
+		int columnStride = 1;
+		if (rowAxis != null && columnAxis != null) {
+			if (rowAxis.getArrayIndex() < columnAxis.getArrayIndex())
+				rowStride = columns;
+			else
+				columnStride = rows;
+		}
+
+		final float[][] data = new float[1 + lastRow - firstRow][1 + lastColumn - firstColumn];
+		for (int row = firstRow; row <= lastRow; ++row) {
+			final int dataRow = !invertRows ? row : rows - 1 - row;
+			final float[] rowData = data[row - firstRow];
+			for (int column = firstColumn; column <= lastColumn; ++column)
+				rowData[column - firstColumn] = slab[dataRow * rowStride + column * columnStride];
+		}
+		return data;
+	}
+
+	// room for the title and subtitles above the plot, as in FastTilePlot
+	private int getYOffset() {
+		String sTitle1 = config.getSubtitle1();
+		String sTitle2 = config.getSubtitle2();
+		Font tFont = config.getFont(PlotConfiguration.TITLE_FONT);
+		Font sFont1 = config.getFont(PlotConfiguration.SUBTITLE_1_FONT);
+		Font sFont2 = config.getFont(PlotConfiguration.SUBTITLE_2_FONT);
+		int yOffset = 20 + ((tFont == null) ? 20 : tFont.getSize());
+
+		if (sTitle1 != null && !sTitle1.trim().isEmpty())
+			yOffset += ((sFont1 == null) ? 20 : sFont1.getSize()) + 6;
+
+		if (sTitle2 != null && !sTitle2.trim().isEmpty()) {
+			if (sTitle1 == null || sTitle1.trim().isEmpty())
+				yOffset += 26;
+			yOffset += ((sFont2 == null) ? 20 : sFont2.getSize()) + 6;
+		}
+		return yOffset;
+	}
+
+	// the map outlines are left out when there are no map files
+	private void drawMap(Graphics graphics, int xOffset, int yOffset, boolean cacheOverlay) {
+		String mapFileDirectory = Mapper.getDefaultMapFileDirectory();
+		File directory = new File(mapFileDirectory);
+		if (!directory.isDirectory() || !directory.canRead()) {
+			Logger.warn("No map files in " + directory.getAbsolutePath() + ", drawing the plot without map outlines");
+			return;
+		}
+
+		final double[][] gridBounds = { { 0.0, 0.0 }, { 0.0, 0.0 } };
+		final double[][] domain = { { 0.0, 0.0 }, { 0.0, 0.0 } };
+		gridBounds[X][MINIMUM] = westEdge + firstColumn * cellWidth;
+		gridBounds[X][MAXIMUM] = westEdge + (1 + lastColumn) * cellWidth;
+		gridBounds[Y][MINIMUM] = southEdge + firstRow * cellHeight;
+		gridBounds[Y][MAXIMUM] = southEdge + (1 + lastRow) * cellHeight;
+
+		if (!(projection instanceof LatLonProjection)) {
+			FastTilePlot.computeMapDomain(new Projector(projection), gridBounds, domain);
+		} else {
+			domain[LONGITUDE][MINIMUM] = gridBounds[X][MINIMUM];
+			domain[LONGITUDE][MAXIMUM] = gridBounds[X][MAXIMUM];
+			domain[LATITUDE][MINIMUM] = gridBounds[Y][MINIMUM];
+			domain[LATITUDE][MAXIMUM] = gridBounds[Y][MAXIMUM];
+		}
+
+		Mapper mapper = new Mapper(mapFileDirectory, projection, gridCRS);
+		try {
+			mapper.setLayerStyle(config);
+			mapper.draw(domain, gridBounds, gridCRS, graphics, xOffset, yOffset,
+					tilePlot.getPlotWidth(), tilePlot.getPlotHeight(), false, false, false, cacheOverlay);
+		} finally {
+			mapper.dispose();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package anl.verdi.plot.gui;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * The lines of a boundary shapefile that has already been projected to the
+ * coordinates of the plots, kept as arrays of coordinates with a spatial
+ * index of the bounds of each line. Drawing them culls the lines outside the
+ * domain and draws the rest directly with Java2D, rather than reading and
+ * rendering every feature again for each frame. The lines are read once per
+ * feature source and shared by every plot that draws it. Polygons are drawn
+ * as the lines of their rings; sources with points have no lines.
+ *
+ * @version $Revision$ $Date$
+ */
+class BoundaryLines {
+
+	static final Logger Logger = LogManager.getLogger(BoundaryLines.class.getName());
+
+	// feature source, its lines or null if it has none
+	private static final Map<FeatureSource, BoundaryLines> LINES = new WeakHashMap<FeatureSource, BoundaryLines>();
+
+	// coordinates are kept as floats relative to the first coordinate
+	private double originX;
+	private double originY;
+	private float[] xs = new float[1024];
+	private float[] ys = new float[1024];
+	private int size = 0;
+	// start of each line in xs and ys, followed by the end of the last line
+	private int[] starts = new int[256];
+	private int lines = 0;
+	private final STRtree index = new STRtree();
+
+	/**
+	 * Gets the lines of a projected feature source, reading them the first
+	 * time.
+	 *
+	 * @param source the features
+	 * @return the lines of the features, or null if they are not all lines
+	 * and polygons.
+	 */
+	static BoundaryLines getLines(FeatureSource source) {
+		synchronized (LINES) {
+			if (LINES.containsKey(source))
+				return LINES.get(source);
+			BoundaryLines boundaryLines = null;
+			if (source instanceof SimpleFeatureSource) {
+				boundaryLines = new BoundaryLines();
+				if (!boundaryLines.read((SimpleFeatureSource) source))
+					boundaryLines = null;
+			}
+			LINES.put(source, boundaryLines);
+			return boundaryLines;
+		}
+	}
+
+	private BoundaryLines() {}
+
+	private boolean read(SimpleFeatureSource source) {
+		SimpleFeatureIterator iterator = null;
+		try {
+			iterator = source.getFeatures().features();
+			while (iterator.hasNext()) {
+				if (!addGeometry((Geometry) iterator.next().getDefaultGeometry()))
+					return false;
+			}
+		} catch (Exception e) {
+			Logger.error("Unable to read the boundary lines of " + source.getName(), e);
+			return false;
+		} finally {
+			if (iterator != null)
+				iterator.close();
+		}
+		xs = Arrays.copyOf(xs, size);
+		ys = Arrays.copyOf(ys, size);
+		starts = Arrays.copyOf(starts, lines + 1);
+		starts[lines] = size;
+		index.build();
+		return true;
+	}
+
+	private boolean addGeometry(Geometry geometry) {
+		if (geometry == null || geometry.isEmpty())
+			return true;
+		if (geometry instanceof GeometryCollection) {
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				if (!addGeometry(geometry.getGeometryN(i)))
+					return false;
+			}
+			return true;
+		}
+		if (geometry instanceof Polygon) {
+			Polygon polygon = (Polygon) geometry;
+			addLine(polygon.getExteriorRing().getCoordinates());
+			for (int i = 0; i < polygon.getNumInteriorRing(); i++)
+				addLine(polygon.getInteriorRingN(i).getCoordinates());
+			return true;
+		}
+		if (geometry instanceof LineString) {
+			addLine(geometry.getCoordinates());
+			return true;
+		}
+		return false;
+	}
+
+	private void addLine(Coordinate[] coordinates) {
+		if (coordinates.length < 2)
+			return;
+		if (size == 0) {
+			originX = coordinates[0].x;
+			originY = coordinates[0].y;
+		}
+		if (size + coordinates.length > xs.length) {
+			int length = Math.max(xs.length * 2, size + coordinates.length);
+			xs = Arrays.copyOf(xs, length);
+			ys = Arrays.copyOf(ys, length);
+		}
+		if (lines + 1 >= starts.length)
+			starts = Arrays.copyOf(starts, starts.length * 2);
+
+		Envelope bounds = new Envelope();
+		for (Coordinate coordinate : coordinates) {
+			xs[size] = (float) (coordinate.x - originX);
+			ys[size] = (float) (coordinate.y - originY);
+			size++;
+			bounds.expandToInclude(coordinate);
+		}
+		index.insert(bounds, Integer.valueOf(lines));
+		starts[++lines] = size;
+	}
+
+	/**
+	 * Draws the lines within a domain, clipped to the area of the graphics
+	 * that shows the domain.
+	 *
+	 * @param graphics the graphics to draw on
+	 * @param color the color of the lines
+	 * @param lineWidth the width of the lines in pixels
+	 * @param gridBounds the domain, in the coordinates of the lines
+	 * @param xOffset the left of the area that shows the domain
+	 * @param yOffset the top of the area that shows the domain
+	 * @param width the width of the area
+	 * @param height the height of the area
+	 */
+	void draw(Graphics2D graphics, Color color, float lineWidth, double[][] gridBounds, int xOffset, int yOffset,
+					int width, int height) {
+		if (width <= 0 || height <= 0)
+			return;
+		final double xScale = width / (gridBounds[0][1] - gridBounds[0][0]);
+		final double yScale = height / (gridBounds[1][1] - gridBounds[1][0]);
+		// the screen position of the origin of the coordinates
+		final double left = xOffset + (originX - gridBounds[0][0]) * xScale;
+		final double top = yOffset + height - (originY - gridBounds[1][0]) * yScale;
+
+		List<?> found = index.query(new Envelope(gridBounds[0][0], gridBounds[0][1], gridBounds[1][0], gridBounds[1][1]));
+		Path2D.Float path = new Path2D.Float();
+		for (Object line : found) {
+			int from = starts[(Integer) line];
+			int to = starts[(Integer) line + 1];
+			float lastX = (float) (left + xs[from] * xScale);
+			float lastY = (float) (top - ys[from] * yScale);
+			path.moveTo(lastX, lastY);
+			for (int i = from + 1; i < to; i++) {
+				float x = (float) (left + xs[i] * xScale);
+				float y = (float) (top - ys[i] * yScale);
+				// points within half a pixel of the last one drawn add nothing
+				if (i < to - 1 && Math.abs(x - lastX) < 0.5f && Math.abs(y - lastY) < 0.5f)
+					continue;
+				path.lineTo(x, y);
+				lastX = x;
+				lastY = y;
+			}
+			if (xs[from] == xs[to - 1] && ys[from] == ys[to - 1])
+				path.closePath();
+		}
+
+		Shape clip = graphics.getClip();
+		Stroke stroke = graphics.getStroke();
+		Color previousColor = graphics.getColor();
+		graphics.clipRect(xOffset, yOffset, width, height);
+		graphics.setStroke(new BasicStroke(lineWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER));
+		graphics.setColor(color);
+		graphics.draw(path);
+		graphics.setColor(previousColor);
+		graphics.setStroke(stroke);
+		graphics.setClip(clip);
+	}
+}
@@ -48,6 +48,7 @@ import anl.verdi.area.AreaDataFrameTableModel;
 import anl.verdi.area.AreaTilePlot;
 import anl.verdi.area.MapPolygon;
 import anl.verdi.area.Units;
+import anl.verdi.area.target.DepositionMatrix;
 import anl.verdi.area.target.DepositionRange;
 import anl.verdi.area.target.FormulaDialog;
 import anl.verdi.area.target.GridInfo;
@@ -55,7 +56,6 @@ import anl.verdi.area.target.ShapeFileTableExporter;
 //import anl.verdi.area.target.ShapeFileTableExporter;	// 2014 disabling shapefile export in VERDI 1.5.0
 import anl.verdi.area.target.Target;
 import anl.verdi.area.target.TargetCalculator;
-import anl.verdi.area.target.TargetDeposition;
 import anl.verdi.area.target.TargetCalculator.CoordinateTransform;
 import anl.verdi.core.Project;
 import anl.verdi.core.VerdiApplication;
@@ -160,8 +160,7 @@ public class FastAreaTilePlot extends FastTilePlot {
       				// get the vertices
       				Polygon geoPolygon=(Polygon)geo;
       				// transform the polygon
-      				geoPolygon.apply(filter);
-      				geoPolygon.geometryChanged();
+      				filter.transform(geoPolygon);
       				areas.add(geoPolygon);
 					if(showAverages)
 						values.add(target.calculateAverageDeposition(getLayerData(), getFirstRow(), getFirstColumn()));
@@ -829,28 +828,6 @@ public class FastAreaTilePlot extends FastTilePlot {
 	private DepositionRange range = new DepositionRange();
 	private boolean depositionRangeAlreadySet = false;
 
-	private float[][] getSubsetLayerData(DataFrame dataFrame, 
-			int timestep, int firstTimestep,
-			int layer,    int firstLayer,
-			int rows,     int columns) {
-
-		float[][] subsetLayerData;
-
-		subsetLayerData = new float[rows][columns];
-
-		final DataFrameIndex dataFrameIndex = dataFrame.getIndex();
-
-		for (int row = 0; row < rows; ++row) {
-
-			for (int column = 0; column < columns; ++column) {
-				dataFrameIndex.set(timestep-firstTimestep, layer-firstLayer, column, row);
-				final float value = dataFrame.getFloat(dataFrameIndex);
-				subsetLayerData[row][column] = value;
-			}
-		}
-		return subsetLayerData;
-	}
-
 	private DepositionRange getGlobalDepositionRange() {
 
 		if ( !depositionRangeAlreadySet ) {
@@ -888,40 +865,30 @@ public class FastAreaTilePlot extends FastTilePlot {
 	}	
 
 	private void calcGlobalDepositionRange() {
-		for (int timestep=0; timestep<this.timesteps; timestep++) {
-			for (int layer=0; layer<this.layers; layer++) {
-				float[][] subsetLayerData = getSubsetLayerData( this.dataFrame, 
-						timestep, this.firstTimestep,
-						layer,    this.firstLayer,
-						this.rows,     this.columns);
-				GridInfo gridInfo = new GridInfo(gridBounds,domain);
-				int num=GridInfo.getGridNumber(gridInfo);
-				calcFrameDepositionRange(subsetLayerData, num, range);
+		final DataFrame dataFrame = this.dataFrame;
+		final int firstTimestep = this.firstTimestep;
+		final int firstLayer = this.firstLayer;
+		final int layers = this.layers;
+		final int columns = this.columns;
+		GridInfo gridInfo = new GridInfo(gridBounds,domain);
+		int num=GridInfo.getGridNumber(gridInfo);
+		Target.setUnitConverters(units);
+		DepositionMatrix matrix = DepositionMatrix.createGrid((ArrayList<Target>)Target.getTargets(), num, this.rows, columns);
+
+		// read only the cells the targets overlap, each frame on its own index
+		matrix.computeRange(this.timesteps * layers, new DepositionMatrix.FrameReader() {
+			public void read(int frame, int[] cells, float[] values) {
+				final int timestep = frame / layers;
+				final int layer = frame % layers;
+				final DataFrameIndex dataFrameIndex = dataFrame.getIndex();
+				for (int i = 0; i < cells.length; ++i) {
+					dataFrameIndex.set(timestep-firstTimestep, layer-firstLayer, cells[i] % columns, cells[i] / columns);
+					values[i] = dataFrame.getFloat(dataFrameIndex);
+				}
 			}
-		}
+		}, range);
 
 		depositionRangeAlreadySet = true;
 	}
 
-	private void calcFrameDepositionRange(float [][] data, int gridIndex, DepositionRange range) {
-		ArrayList polygons=Target.getTargets();
-		
-		TargetDeposition deposition = new TargetDeposition();
-		for(Target polygon:(ArrayList<Target>)polygons){
-			Target.setUnitConverters(units);
-			polygon.computeAverageDeposition(data,gridIndex, deposition);
-			if (deposition.total > range.totalMax) {
-				range.totalMax = deposition.total;
-			}
-			if (deposition.total < range.totalMin) {
-				range.totalMin = deposition.total;
-			}
-			if (deposition.average > range.averageMax) {
-				range.averageMax = deposition.average;
-			}
-			if (deposition.average < range.averageMin) {
-				range.averageMin = deposition.average;
-			}
-		}
-	}
 }
@@ -107,7 +107,6 @@ import org.geotools.swing.data.JFileDataStoreChooser;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import saf.core.ui.event.DockableFrameEvent;
-import ucar.ma2.IndexIterator;
 import ucar.ma2.InvalidRangeException;
 import ucar.unidata.geoloc.Projection;
 import ucar.unidata.geoloc.projection.LatLonProjection;
@@ -118,7 +117,7 @@ import anl.verdi.data.Axes;
 import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.DataFrameAxis;
-import anl.verdi.data.DataFrameIndex;
+import anl.verdi.data.DataFrameSummary;
 import anl.verdi.data.DataManager;
 import anl.verdi.data.DataUtilities;
 import anl.verdi.data.DataUtilities.MinMax;
@@ -244,6 +243,9 @@ public class FastTilePlot extends AbstractPlotPanel implements ActionListener, P
 	// subsetLayerData[ 1 + lastRow - firstRow ][ 1 + lastColumn - firstColumn ]
 	// at current timestep and layer.
 	private float[][] subsetLayerData = null;
+
+	// slabData[ rows * columns ] of the data frame at a timestep and layer.
+	private float[] slabData = null;
 	private byte[][] colorIndexCache = null;
 
 	// layerData[ rows ][ columns ][ timesteps ]
@@ -634,12 +636,21 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 //									aPlotUnits, 
 //									config, aNumberFormat, gridLineColor,
 //									subsetLayerData);
-							tilePlot.draw(offScreenGraphics, xOffset, yOffset,
-									width, height, stepsLapsed, layer, firstRow + rowOrigin,
-									lastRow + rowOrigin, firstColumn + columnOrigin, lastColumn + columnOrigin, projection, legendLevels,
-									legendColors, axisColor, labelColor, plotVariable,
-									((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config, map.getNumberFormat(), gridLineColor,
-									subsetLayerData, colorIndexCache);
+							synchronized (tilePlot) {
+								// grid cells are written straight into the pixels of a buffered image
+								tilePlot.setRasterImage(exportGraphics == null && offScreenImage instanceof BufferedImage
+										? (BufferedImage) offScreenImage : null);
+								try {
+									tilePlot.draw(offScreenGraphics, xOffset, yOffset,
+											width, height, stepsLapsed, layer, firstRow + rowOrigin,
+											lastRow + rowOrigin, firstColumn + columnOrigin, lastColumn + columnOrigin, projection, legendLevels,
+											legendColors, axisColor, labelColor, plotVariable,
+											((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config, map.getNumberFormat(), gridLineColor,
+											subsetLayerData, colorIndexCache);
+								} finally {
+									tilePlot.setRasterImage(null);
+								}
+							}
 						} catch (Exception e) {
 							Logger.error("FastTilePlot's run method", e);
 						}
@@ -662,7 +673,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 																	// coordinateSystem: DefaultCartesianCS
 																	// datum: DefaultGeodeticDatum
 								offScreenGraphics, xOffset, yOffset, width,
-								height, withHucs, withRivers, withRoads);
+								height, withHucs, withRivers, withRoads, offScreenGraphics != exportGraphics);
 						Logger.debug("back from mapper.draw, ready to check for ObsAnnotation");
 						
 						if (obsAnnotations != null) {
@@ -833,14 +844,21 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		Logger.debug("plotUnits = " + plotUnits);
 		final int stepsLapsed = timestep - firstTimestep;
 		try {
-			tilePlot.drawBatchImage(offScreenGraphics,
-					xOffset, yOffset,
-					canvasWidth, canvasHeight, stepsLapsed, layer, firstRow,
-					lastRow, firstColumn, lastColumn, legendLevels,
-					legendColors, axisColor, labelColor, plotVariable,
-					((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config,
-					map.getNumberFormat(), gridLineColor,
-					subsetLayerData);
+			synchronized (tilePlot) {
+				tilePlot.setRasterImage((BufferedImage) offScreenImage);
+				try {
+					tilePlot.drawBatchImage(offScreenGraphics,
+							xOffset, yOffset,
+							canvasWidth, canvasHeight, stepsLapsed, layer, firstRow,
+							lastRow, firstColumn, lastColumn, legendLevels,
+							legendColors, axisColor, labelColor, plotVariable,
+							((plotUnits==null || plotUnits.trim().equals(""))?"none":plotUnits), config,
+							map.getNumberFormat(), gridLineColor,
+							subsetLayerData);
+				} finally {
+					tilePlot.setRasterImage(null);
+				}
+			}
 		} catch (Exception e) {
 			Logger.error("FastTilePlot's drawBatch method", e);
 			e.printStackTrace();
@@ -853,7 +871,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		Logger.debug("in FastTilePlot (797); getting ready to call mapper.draw");
 		mapper.draw(domain, gridBounds, gridCRS,
 				offScreenGraphics, xOffset, yOffset, tilePlot.getPlotWidth(),
-				tilePlot.getPlotHeight(), withHucs, withRivers, withRoads);
+				tilePlot.getPlotHeight(), withHucs, withRivers, withRoads, true);
 
 		try {
 			bImage = (BufferedImage) offScreenImage;
@@ -1714,19 +1732,22 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 			statisticsData = new float[ GridCellStatistics.STATISTICS ][ rows ][ columns ];
 		}
 			
-		// Copy from dataFrame into layerData[ rows ][ columns ][ timesteps ]:
+		// Copy from dataFrame into layerData[ rows ][ columns ][ timesteps ],
+		// a time step at a time:
 
-		final DataFrameIndex dataFrameIndex = getDataFrame(log).getIndex();
+		final DataFrame frame = getDataFrame(log);
+		final int[] strides = getSlabStrides(frame);
+		final float[] slab = getSlabData(frame);
 
-		for ( int row = 0; row < rows; ++row ) {
-			final int dataRow = ! invertRows ? row : rows - 1 - row;
+		for ( int timestep = 0; timestep < timesteps; ++timestep ) {
+			frame.getSlab( timestep, layer - firstLayer, slab, 0 );
 
-			for ( int column = 0; column < columns; ++column ) {
+			for ( int row = 0; row < rows; ++row ) {
+				final int dataRow = ! invertRows ? row : rows - 1 - row;
+				final float[][] rowData = layerData[ row ];
 
-				for ( int timestep = 0; timestep < timesteps; ++timestep ) {
-					dataFrameIndex.set( timestep, layer, column, dataRow );
-					float value = this.getDataFrame(log).getFloat( dataFrameIndex ); 
-					layerData[ row ][ column ][ timestep ] = value;
+				for ( int column = 0; column < columns; ++column ) {
+					rowData[ column ][ timestep ] = slab[ dataRow * strides[ 0 ] + column * strides[ 1 ] ];
 				}
 			}
 		}
@@ -1780,8 +1801,29 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 			domain[LATITUDE][MAXIMUM] = gridBounds[Y][MAXIMUM];
 		}
 		VerdiApplication.getInstance().setLastDomain(domain);
+
+		// readings outside of the zoomed domain are not drawn
+		if (obsAnnotations != null) {
+			try {
+				for (ObsAnnotation ann : obsAnnotations) {
+					ann.setDomain(domain);
+					ann.update(timestep);
+				}
+			} catch (Exception e) {
+				Logger.error("", e);
+			}
+		}
 	}
 	
+	/**
+	 * Gets the colors of the legend of this plot.
+	 *
+	 * @return the legend colors, or null if they have not been set.
+	 */
+	public Color[] getLegendColors() {
+		return legendColors == null ? null : legendColors.clone();
+	}
+
 	public Projection getPojection() {
 		if (projector == null)
 			return null;
@@ -1790,7 +1832,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 
 	// Compute map domain from grid bounds:
 
-	private static void computeMapDomain(final Projector projector,		// 2016 replace Projector with CRS ???
+	static void computeMapDomain(final Projector projector,		// 2016 replace Projector with CRS ???
 			final double[][] gridBounds, double[][] mapDomain) {
 		// JEB 2016 figure this out & rewrite for JMapPane
 		// & get rid of Projector (use CRS) ???
@@ -1864,6 +1906,34 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		return firstColumn;
 	}
 
+	// The positions of successive rows and columns in a time step and layer
+	// slab of a data frame, which follows the order of the array dimensions.
+
+	private int[] getSlabStrides(DataFrame frame) {
+		final DataFrameAxis rowAxis = frame.getAxes().getYAxis();
+		final DataFrameAxis columnAxis = frame.getAxes().getXAxis();
+
+		if ( rowAxis == null || columnAxis == null ) {
+			return new int[] { 1, 1 };
+		} else if ( rowAxis.getArrayIndex() < columnAxis.getArrayIndex() ) {
+			return new int[] { columns, 1 };
+		}
+
+		return new int[] { 1, rows };
+	}
+
+	// Reallocate the slabData[] only if needed:
+
+	private float[] getSlabData(DataFrame frame) {
+		final int size = frame.getSlabSize();
+
+		if ( slabData == null || slabData.length != size ) {
+			slabData = new float[ size ];
+		}
+
+		return slabData;
+	}
+
 	private void copySubsetLayerData(boolean log) {
 		
 		final int selection = statisticsMenu.getSelectedIndex();
@@ -1895,15 +1965,17 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 
 			// Copy from dataFrame into subsetLayerData[ rows ][ columns ]:
 
-			final DataFrameIndex dataFrameIndex = getDataFrame(log).getIndex();
+			final DataFrame frame = getDataFrame(log);
+			final int[] strides = getSlabStrides(frame);
+			final float[] slab = getSlabData(frame);
+			frame.getSlab( timestep-firstTimestep, layer-firstLayer, slab, 0 );
 
 			for ( int row = firstRow; row <= lastRow; ++row ) {
 				final int dataRow = ! invertRows ? row : rows - 1 - row;
+				final float[] rowData = subsetLayerData[row - firstRow];
 
 				for ( int column = firstColumn; column <= lastColumn; ++column ) {
-					dataFrameIndex.set( timestep-firstTimestep, layer-firstLayer, column, dataRow ) ;
-					final float value = getDataFrame(log).getFloat( dataFrameIndex );
-					subsetLayerData[row - firstRow][column - firstColumn] = value;
+					rowData[column - firstColumn] = slab[ dataRow * strides[ 0 ] + column * strides[ 1 ] ];
 				}
 			}
 		} else {
@@ -1930,7 +2002,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 			recomputeLegend = false;
 		}
 		
-		colorIndexCache = tilePlot.calculateColorIndices(subsetLayerData, legendLevels);
+		colorIndexCache = tilePlot.calculateColorIndices(subsetLayerData, legendLevels, colorIndexCache);
 		prevFirstRow = firstRow;
 		prevLastRow = lastRow;
 		prevFirstColumn = firstColumn;
@@ -1948,35 +2020,13 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		boolean initialized = false;
 		minmax[0] = minmax[1] = 0.0;
 		if ( selection == 0 ) {
-			DataFrame dataFrame = getDataFrame(log);
-			final DataFrameIndex dataFrameIndex = 
-				dataFrame.getIndex();
-	
-			for (int timestep = 0; timestep < timesteps; ++timestep) {
-				for (int layer = 0; layer < layers; ++layer) {
-					for (int row = 0; row < rows; ++row) {
-						for (int column = 0; column < columns; ++column) {
-							dataFrameIndex.set(timestep, layer, column, row);
-							final float value = 
-								dataFrame.getFloat(dataFrameIndex);
-	
-							if (value > MINIMUM_VALID_VALUE) {
-	
-								if (initialized) {
-	
-									if (value < minmax[0]) {
-										minmax[0] = value;
-									} else if (value > minmax[1]) {
-										minmax[1] = value;
-									}
-								} else {
-									minmax[0] = minmax[1] = value;
-									initialized = true;
-								}
-							}
-						}
-					}
-				}
+			// looked up in the summary shared with the other plots of the frame
+			MinMax range =
+				DataFrameSummary.getSummary(getDataFrame(log), MINIMUM_VALID_VALUE).getMinMax();
+
+			if (range.getMin() <= range.getMax()) {
+				minmax[0] = range.getMin();
+				minmax[1] = range.getMax();
 			}
 		} else {
 						
@@ -2711,7 +2761,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		try {
 			legendLevels[count] = map.getMax();
 			if (subsetLayerData != null && legendLevels != null)
-				colorIndexCache = tilePlot.calculateColorIndices(subsetLayerData, legendLevels);
+				colorIndexCache = tilePlot.calculateColorIndices(subsetLayerData, legendLevels, colorIndexCache);
 		} catch (Exception e) {
 			Logger.error("Exception in FastTilePlot.updateColorMap", e);
 			return;
@@ -3116,6 +3166,11 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		draw();
 		processTimeChange = true;
 
+		// the animation handler updates the plot from the drawing thread,
+		// which cannot finish drawing while it waits
+		if (Thread.currentThread() == doubleBufferedRendererThread)
+			return;
+
 		try {
 			Thread.sleep(500); //wait for the drawing thread to finish drawing
 		} catch (InterruptedException e) {
@@ -3139,6 +3194,11 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 		processTimeChange = true;
 		processLayerChange = true;
 
+		// the animation handler updates the plot from the drawing thread,
+		// which cannot finish drawing while it waits
+		if (Thread.currentThread() == doubleBufferedRendererThread)
+			return;
+
 		try {
 			Thread.sleep(500); //wait for the drawing thread to finish drawing
 		} catch (InterruptedException e) {
@@ -3636,6 +3696,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 			for (OverlayObject obs : obsData) {
 				ObsEvaluator eval = new ObsEvaluator(manager, obs.getVariable());
 				ObsAnnotation ann = new ObsAnnotation(eval, axs, initDate, layer);
+				ann.setDomain(domain);
 				ann.update(timestep);
 				ann.setDrawingParams(obs.getSymbol(), obs.getStrokeSize(), obs.getShapeSize(), map);
 				obsAnnotations.add(ann);
@@ -3678,8 +3739,10 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 	private void drawOverLays() {
 		try {
 			if (obsAnnotations != null)  {
-				for (ObsAnnotation ann : obsAnnotations) 
+				for (ObsAnnotation ann : obsAnnotations) {
+					ann.setDomain(domain);
 					ann.update(timestep);
+				}
 			}
 			
 			if (vectAnnotation != null) {
@@ -3706,34 +3769,7 @@ Logger.debug("now set up time step, color, statistics, plot units, etc.");
 			return;
 		}
 		
-		boolean doDebug = false;
-		
-		this.dataFrameLog = DataUtilities.createDataFrame( this.dataFrame);
- 
-		if ( doDebug) {
-			Logger.debug( "debug print 1:");
-		}
-		
-		int count = 0;	    	
-		IndexIterator iter2 = this.dataFrameLog.getArray().getIndexIterator();
-		IndexIterator iter1 = this.dataFrame.getArray().getIndexIterator();
-		if ( doDebug) 
-			Logger.debug( "debug print 2:");
-		float val1, val2;
-		double currentLogBase = Math.log(this.logBase);
-		while (iter2.hasNext()) {
-			val1 = iter1.getFloatNext(); 
-			val2 = iter2.getFloatNext(); 
-			if ( doDebug && count<100) 
-				Logger.debug(val1 + " " + val2);
-			val2 = (float)(Math.log(val1) / currentLogBase);
-			iter2.setFloatCurrent( (float)( val2));
-
-			val2 = iter2.getFloatCurrent();
-
-			if ( doDebug && count++<100) 
-				Logger.debug( " : " + val1 + " " + val2);
-		}
+		this.dataFrameLog = DataUtilities.createLogDataFrame( this.dataFrame, this.logBase);
 	}
 	
 	protected DataFrame getDataFrame() {
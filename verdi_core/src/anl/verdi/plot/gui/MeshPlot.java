@@ -120,10 +120,10 @@ import ucar.unidata.geoloc.projection.LatLonProjection;
 import anl.map.coordinates.Decidegrees;
 import anl.verdi.area.MapPolygon;
 import anl.verdi.area.Units;
+import anl.verdi.area.target.DepositionMatrix;
 import anl.verdi.area.target.DepositionRange;
 import anl.verdi.area.target.GridInfo;
 import anl.verdi.area.target.Target;
-import anl.verdi.area.target.TargetDeposition;
 import anl.verdi.core.VerdiApplication;
 import anl.verdi.core.VerdiGUI;
 import anl.verdi.data.ArrayReader;
@@ -142,6 +142,7 @@ import anl.verdi.data.MPASDataFrameIndex;
 import anl.verdi.data.MPASPlotDataFrame;
 import anl.verdi.data.MeshCellInfo;
 import anl.verdi.data.MeshDataReader;
+import anl.verdi.data.MeshGeometry;
 import anl.verdi.data.ObsEvaluator;
 import anl.verdi.data.Slice;
 import anl.verdi.data.Variable;
@@ -150,6 +151,7 @@ import anl.verdi.formula.Formula;
 import anl.verdi.gis.FastTileLayerEditor;
 import anl.verdi.gis.OverlayObject;
 import anl.verdi.plot.anim.AnimationPanel;
+import anl.verdi.plot.color.ColorBinner;
 import anl.verdi.plot.color.ColorMap;
 import anl.verdi.plot.color.Palette;
 import anl.verdi.plot.color.PavePaletteCreator;
@@ -885,7 +887,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 						
 						mapper.draw(domain, gridBounds, gridCRS,
 								offScreenGraphics, xOffset, yOffset, width,
-								height, withHucs, withRivers, withRoads);
+								height, withHucs, withRivers, withRoads, offScreenGraphics != exportGraphics);
 
 						if (obsAnnotations != null) {
 							for (ObsAnnotation ann : obsAnnotations)
@@ -1101,7 +1103,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 
 				mapper.draw(domain, gridBounds, gridCRS,
 						offScreenGraphics, xOffset, yOffset, tilePlot.getPlotWidth(),
-						tilePlot.getPlotHeight(), withHucs, withRivers, withRoads);
+						tilePlot.getPlotHeight(), withHucs, withRivers, withRoads, true);
 
 				try {
 					bImage = (BufferedImage) offScreenImage;
@@ -1713,23 +1715,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	}
 	
 	private static byte indexOfObsValue(float value, final double[] values) {
-		if (Float.isNaN(value))
-			return -1;
-		
-		if (value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3 || value >= DataUtilities.NC_FILL_FLOAT) 	// 2014 changed AMISS3 comparison from == to <=
-			return -1;
-
-		final byte count = (byte)values.length;
-
-		if (values[0] == values[values.length - 1])
-			return 0;
-
-		for (byte index = 1; index < count; index++) {
-			if (values[index] > value)
-				return (byte)(index - 1);
-		}
-
-		return (byte)(count - 2);
+		return ColorBinner.indexOf(value, values);
 	}
 	
 	public LocalCellInfo getCellInfo(int id) {
@@ -1741,8 +1727,9 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	public class LocalCellInfo {
 		boolean visible;
 		boolean cellClicked;
-		int[] lonTransformed;
-		int[] latTransformed;
+		// position of the first vertex in the shared transformed vertex arrays
+		int offset;
+		int count;
 		byte colorIndex;
 		
 		int[] windStart = new int[2];
@@ -1753,10 +1740,18 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		
 		MeshCellInfo source;
 		
-		public LocalCellInfo(MeshCellInfo source) {
+		public LocalCellInfo(MeshCellInfo source, int geometryIndex) {
 			this.source = source;
-			lonTransformed = new int[source.getNumVertices()];
-			latTransformed = new int[source.getNumVertices()];
+			offset = mesh.getVertexOffset(geometryIndex);
+			count = mesh.getNumVertices(geometryIndex);
+		}
+		
+		public int getX(int vertex) {
+			return lonTransformed[offset + vertex];
+		}
+		
+		public int getY(int vertex) {
+			return latTransformed[offset + vertex];
 		}
 		
 		public double getValue() {
@@ -1767,14 +1762,6 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 			return source.getId();
 		}
 		
-		private void transformCell(double xFactor, double yFactor, int xOffset, int yOffset) {
-			for (int i = 0; i < source.getNumVertices(); ++i) {
-				lonTransformed[i] = (int)Math.round((source.getLonRad(i) - lonMin - panX) * xFactor) + xOffset;
-				latTransformed[i] = (int)Math.round((source.getLatRad(i) * -1 - latMin - panY) * yFactor) + yOffset;
-			}
-			visible = false;
-		}
-		
 		public void calculateWindVector() {
 			//TODO - cache scaledDiameter after transformCell if needed
 			scaledDiameter = source.getMaxLat() - source.getMinLat();
@@ -2035,6 +2022,10 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	Axes<CoordAxis> mpasAxes;
 	LocalCellInfo[] cellInfo = null;
 	Map<LocalCellInfo, Integer> splitCellInfo = null;
+	MeshGeometry mesh = null;
+	// screen coordinates of every vertex in the mesh, indexed as the mesh geometry
+	int[] lonTransformed = null;
+	int[] latTransformed = null;
 	
 	private void getCellStructure() throws IOException {
 
@@ -2066,11 +2057,15 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		latMax = dataset.getLatMax();
 		locChanged = true;
 		avgCellDiam = dataset.getAvgCellDiam();
-		for (MeshCellInfo cell : dataset.getCellsToRender()) {
-			cellInfo[cell.getId()] = new LocalCellInfo(cell);
-		}
-		for (MeshCellInfo cell : splitCells.keySet()) {
-			splitCellInfo.put(new LocalCellInfo(cell),  cell.getId());
+		mesh = dataset.getMeshGeometry();
+		lonTransformed = new int[mesh.getVertexCount()];
+		latTransformed = new int[mesh.getVertexCount()];
+		MeshCellInfo[] allCells = dataset.getAllCellsArray();
+		for (int i = 0; i < allCells.length; ++i) {
+			if (i < cellInfo.length)
+				cellInfo[i] = new LocalCellInfo(allCells[i], i);
+			else
+				splitCellInfo.put(new LocalCellInfo(allCells[i], i), splitCells.get(allCells[i]));
 		}
 	}
 	
@@ -2103,12 +2098,19 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 
 		double xFactor = compositeFactor * xScale;
 		double yFactor = compositeFactor * yScale;
+		double xShift = lonMin + panX;
+		double yShift = latMin + panY;
+		for (int v = 0; v < lonTransformed.length; ++v) {
+			lonTransformed[v] = (int)Math.round((mesh.getVertexLonRad(v) - xShift) * xFactor) + xOrigin;
+			latTransformed[v] = (int)Math.round((mesh.getVertexLatRad(v) * -1 - yShift) * yFactor) + yOrigin;
+		}
+		
 		for (int i = 0; i < cellsToRender.length; ++i) {
-			getCellInfo(i).transformCell(xFactor, yFactor, xOrigin, yOrigin);
+			getCellInfo(i).visible = false;
 		}
 		
 		for (LocalCellInfo cell : splitCellInfo.keySet()) {
-			cell.transformCell(xFactor, yFactor, xOrigin, yOrigin);
+			cell.visible = false;
 		}
 		
 		gridBounds[X][MINIMUM] = westEdge + panX * RAD_TO_DEG;
@@ -2172,13 +2174,14 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	public void updateCellColors() {
 		long start = System.currentTimeMillis();
 		synchronized (legendLock) {
+		ColorBinner binner = new ColorBinner(legendLevels);
 		for (int i = 0; i < cellsToRender.length; ++i) {
 			LocalCellInfo cell = getCellInfo(i);
-			cell.colorIndex = indexOfObsValue((float)cell.getValue(), legendLevels);
+			cell.colorIndex = binner.indexOf((float)cell.getValue());
 		}
 		
 		for (LocalCellInfo cell : splitCellInfo.keySet()) {
-			cell.colorIndex = indexOfObsValue((float)cell.getValue(), legendLevels);
+			cell.colorIndex = binner.indexOf((float)cell.getValue());
 		}
 		}
 		Logger.info("Updated cell data in " + (System.currentTimeMillis() - start) + "ms");
@@ -2202,17 +2205,20 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 				config.getObject( TilePlotConfiguration.SHOW_GRID_LINES );
 		final boolean showCellBorder = showGridLines != null && showGridLines.booleanValue() && !forceHideBorders;
 
+		// scratch space for the vertices of the cell being drawn
+		int[] xPoints = new int[MeshGeometry.MAX_VERTICES];
+		int[] yPoints = new int[MeshGeometry.MAX_VERTICES];
 		synchronized (legendLock) {
 			for (int i = 0; i < cells; ++i) { //for each cell
 				LocalCellInfo cell = getCellInfo(i);
 				if (visibleOnly && !cell.visible && i != 0)
 					continue;
-				renderCell(gr, xOffset, yOffset, cell, showCellBorder, i);
+				renderCell(gr, xOffset, yOffset, cell, showCellBorder, i, xPoints, yPoints);
 			}
 			for (LocalCellInfo cell : splitCellInfo.keySet()) {
 				if (visibleOnly && !cell.visible)
 					continue;
-				renderCell(gr, xOffset, yOffset, cell, showCellBorder, cell.getId());
+				renderCell(gr, xOffset, yOffset, cell, showCellBorder, cell.getId(), xPoints, yPoints);
 			}
 		}
 		
@@ -2235,7 +2241,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		
 	}
 	
-	private void renderCell(Graphics2D gr, int xOffset, int yOffset, LocalCellInfo cell, boolean showCellBorder, int index) {
+	private void renderCell(Graphics2D gr, int xOffset, int yOffset, LocalCellInfo cell, boolean showCellBorder, int index, int[] xPoints, int[] yPoints) {
 		if (cell.colorIndex == -1)
 			return;
 
@@ -2259,16 +2265,18 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 			}
 		}
 
-		gr.fillPolygon(cell.lonTransformed, cell.latTransformed, cell.lonTransformed.length);
+		System.arraycopy(lonTransformed, cell.offset, xPoints, 0, cell.count);
+		System.arraycopy(latTransformed, cell.offset, yPoints, 0, cell.count);
+		gr.fillPolygon(xPoints, yPoints, cell.count);
 		if (showCellBorder) {
 			gr.setColor(Color.BLACK);
-			int length = cell.lonTransformed.length - 1;
+			int length = cell.count - 1;
 			for (int j = 0; j < length; ++j) {
-				gr.drawLine(cell.lonTransformed[j], cell.latTransformed[j],
-						cell.lonTransformed[j + 1], cell.latTransformed[j + 1]);
+				gr.drawLine(xPoints[j], yPoints[j],
+						xPoints[j + 1], yPoints[j + 1]);
 			}
-			gr.drawLine(cell.lonTransformed[length],  cell.latTransformed[length], 
-					cell.lonTransformed[0], cell.latTransformed[0]);
+			gr.drawLine(xPoints[length],  yPoints[length], 
+					xPoints[0], yPoints[0]);
 		}
 		
 		if (renderWind) {
@@ -2296,7 +2304,7 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 					currentDataFrame,
 					timestep,
 					layer,
-					cellsToRender,
+					mesh, cellsToRender.length,
 					gridCRS);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -4422,8 +4430,8 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 			MeshCellInfo meshCell = cell.getSource();
 			if (cellIdList.contains(cell.getId()))
 				cell.visible = true;
-			else if (cell.lonTransformed[meshCell.getMinXPosition() ]>= 0 && cell.lonTransformed[meshCell.getMaxXPosition()] <= width && 
-					cell.latTransformed[meshCell.getMinYPosition()] >=0 && cell.latTransformed[meshCell.getMaxYPosition()] <= height)
+			else if (cell.getX(meshCell.getMinXPosition()) >= 0 && cell.getX(meshCell.getMaxXPosition()) <= width && 
+					cell.getY(meshCell.getMinYPosition()) >=0 && cell.getY(meshCell.getMaxYPosition()) <= height)
 				cell.visible = true;
 			else if (renderMode == MODE_CROSS_SECTION) { //reverseAxes	
 				if (!reverseAxes && ((cell.getSource().getMinLatValue() >= startDegree - 2 &&
@@ -4438,8 +4446,8 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 					cell.visible = true;
 					
 						
-					/*(cell.lonTransformed[meshCell.getMinXPosition()] <= width * 2 && cell.lonTransformed[meshCell.getMaxXPosition()] >= 0) &&
-					(cell.latTransformed[meshCell.getMinYPosition()] <= height + 1 && cell.latTransformed[meshCell.getMaxYPosition()] >= 0)
+					/*(cell.getX(meshCell.getMinXPosition()) <= width * 2 && cell.getX(meshCell.getMaxXPosition()) >= 0) &&
+					(cell.getY(meshCell.getMinYPosition()) <= height + 1 && cell.getY(meshCell.getMaxYPosition()) >= 0)
 					))
 				cell.visible = true;
 			cell.visible = true;*/
@@ -4470,8 +4478,8 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 			MeshCellInfo meshCell = cell.getSource();
 			if (cellIdList.contains(cell.getId()))
 				cell.visible = true;
-			else if (cell.lonTransformed[meshCell.getMinXPosition() ]>= 0 && cell.lonTransformed[meshCell.getMaxXPosition()] <= width && 
-					cell.latTransformed[meshCell.getMinYPosition()] >=0 && cell.latTransformed[meshCell.getMaxYPosition()] <= height)
+			else if (cell.getX(meshCell.getMinXPosition()) >= 0 && cell.getX(meshCell.getMaxXPosition()) <= width && 
+					cell.getY(meshCell.getMinYPosition()) >=0 && cell.getY(meshCell.getMaxYPosition()) <= height)
 				cell.visible = true;
 			//cell.visible = true; //TAH debug
 		}
@@ -5792,14 +5800,14 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 		
 		/*for (int i = 0; i < cellsToRender.length; ++i) {
 			LocalCellInfo cell = getCellInfo(i);
-			for (int j = 0; j < cell.lonTransformed.length; ++j) {
+			for (int j = 0; j < cell.count; ++j) {
 				if (!cell.visible)
 					continue;
 			}
 		}
 
 		for (LocalCellInfo cell : splitCellInfo.keySet()) {
-			for (int j = 0; j < cell.lonTransformed.length; ++j) {
+			for (int j = 0; j < cell.count; ++j) {
 				if (!cell.visible)
 					continue;
 			}
@@ -6174,42 +6182,24 @@ public class MeshPlot extends AbstractPlotPanel implements ActionListener, Print
 	}
 
 	private void calcGlobalDepositionRange() {
-		//TODO - build data reader
-		MeshDataReader reader = createDataReader();
-		for (int timestep=0; timestep<this.timesteps; timestep++) {
-			reader.setTimestep(timestep);
-			for (int layer=0; layer<this.layers; layer++) {
-				reader.setLayer(layer);
-	    		MeshCellInfo[] cells = dataset.getAllCellsArray();
-				calcFrameDepositionRange(cells, reader, gridNum, range);
+		final MeshCellInfo[] allCells = dataset.getAllCellsArray();
+		final ArrayReader variable = currentVariable;
+		final DataFrame frame = currentDataFrame;
+		final int layers = this.layers;
+		Target.setUnitConverters(units);
+		DepositionMatrix matrix = DepositionMatrix.createMesh((ArrayList<Target>)Target.getTargets(), gridNum, allCells.length);
+
+		// read only the cells the targets overlap, each frame with its own reader
+		matrix.computeRange(this.timesteps * layers, new DepositionMatrix.FrameReader() {
+			public void read(int frameNum, int[] cells, float[] values) {
+				MeshDataReader reader = new MeshDataReader(variable, frame, new MPASDataFrameIndex(frame), frameNum / layers, frameNum % layers);
+				for (int i = 0; i < cells.length; ++i)
+					values[i] = (float)allCells[cells[i]].getValue(reader);
 			}
-		}
+		}, range);
 
 		depositionRangeAlreadySet = true;
 	}
-
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private void calcFrameDepositionRange(MeshCellInfo[] data, MeshDataReader reader, int gridIndex, DepositionRange range) {
-		ArrayList polygons=Target.getTargets();
-		
-		TargetDeposition deposition = new TargetDeposition();
-		for(Target polygon:(ArrayList<Target>)polygons){
-			Target.setUnitConverters(units);
-			polygon.computeAverageDeposition(data, reader, gridIndex, deposition);
-			if (deposition.total > range.totalMax) {
-				range.totalMax = deposition.total;
-			}
-			if (deposition.total < range.totalMin) {
-				range.totalMin = deposition.total;
-			}
-			if (deposition.average > range.averageMax) {
-				range.averageMax = deposition.average;
-			}
-			if (deposition.average < range.averageMin) {
-				range.averageMin = deposition.average;
-			}
-		}
-	}
 	
 	public void calculateTotalLevels(){
 		//if (((AreaTilePlot) tilePlot).mouseOverOK) {
@@ -40,10 +40,10 @@ import anl.verdi.area.target.Target;
 import anl.verdi.data.Axes;
 import anl.verdi.data.BoundingBoxer;
 import anl.verdi.data.DataFrameAxis;
-import anl.verdi.data.DataUtilities;
 import anl.verdi.data.Dataset;
 import anl.verdi.data.ObsData;
 import anl.verdi.data.ObsEvaluator;
+import anl.verdi.plot.color.ColorBinner;
 import anl.verdi.plot.color.ColorMap;
 import anl.verdi.plot.util.Graphics2DShapesTool;
 import ucar.unidata.geoloc.Projection;
@@ -141,6 +141,17 @@ public class ObsAnnotation extends AbstractXYAnnotation {
 		updateList();
 	}
 
+	/**
+	 * Sets the longitude and latitude range of the plot, so that readings
+	 * outside of it are skipped by the next update.
+	 *
+	 * @param domain the range indexed by longitude or latitude and then
+	 * minimum or maximum, or null for all the readings
+	 */
+	public void setDomain(double[][] domain) {
+		eval.setDomain(domain);
+	}
+
 	private void updateList() {
 		/*BoundingBoxer boxer = axes.getBoundingBoxer();
 		//int values = 0;
@@ -410,23 +421,7 @@ public class ObsAnnotation extends AbstractXYAnnotation {
 	 */
 
 	private static int indexOfObsValue(float value, final double[] values) {
-		if (Float.isNaN(value))
-			return -1;
-		
-		if (value <= DataUtilities.BADVAL3 || value <= DataUtilities.AMISS3 || value >= DataUtilities.NC_FILL_FLOAT) 	// 2014 changed AMISS3 comparison from == to <=
-			return -1;
-
-		final int count = values.length;
-
-		if (values[0] == values[values.length - 1])
-			return 0;
-
-		for (int index = 1; index < count; index++) {
-			if (values[index] > value)
-				return index - 1;
-		}
-
-		return count - 2;
+		return ColorBinner.indexOf(value, values);
 	}
 
 	public void updateMap(ColorMap map) {
@@ -14,12 +14,16 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.geotools.data.FeatureSource;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
 import org.geotools.map.MapContent;
+import org.geotools.referencing.CRS;
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.Style;
@@ -46,6 +50,7 @@ public class VerdiBoundaries {
 	//private MathTransform vTransform = null;	// math transform from shapefile to grid CRS
 	private Projection vProjection = null;
 	private CoordinateReferenceSystem vCRS = null;
+	private GTRenderer vRenderer = null;	// renders the layers when they cannot be drawn as BoundaryLines
 	
 	public VerdiBoundaries()		// default constructor
 	{
@@ -119,6 +124,7 @@ public class VerdiBoundaries {
 		if (vMap != null)
 			vMap.dispose();
 		vMap = null;
+		vRenderer = null;
 		//vTransform = null;
 	}
 	
@@ -128,6 +134,13 @@ public class VerdiBoundaries {
 		Logger.debug("in VerdiBoundaries.draw; ready to getStyle() and return theStyle");
 		Style theStyle = aVerdiStyle.getStyle();
 		graphics.setColor(vColor);		// set color for this graphics drawing to color stored for this VerdiBoundaries object
+		BoundaryLines lines = getBoundaryLines(gridCRS);
+		if (lines != null)				// already projected to gridCRS, so draw the lines directly
+		{
+			lines.draw((Graphics2D)graphics, aVerdiStyle.getLayerLineColor(), aVerdiStyle.getLayerLineWidth(),
+					gridBounds, xOffset, yOffset, width, height);
+			return;
+		}
 		Logger.debug("just back from getting style");
 		Logger.debug("in VerdiBoundaries.draw; aVerdiStyle.getStyle() = " + theStyle.toString());
 		Logger.debug("in VerdiBoundaries.draw, CRS for tile plot (gridCRS) = " + gridCRS);
@@ -203,12 +216,45 @@ public class VerdiBoundaries {
 //			iterator.close();
 //		}
 		// TODO - create a map layer and add it to the vMap object
-		vMap.addLayers(aVerdiStyle.getLayers());	// FIGURE THIS ONE OUT BECAUSE TRANSFORM IS HERE
-		GTRenderer renderer = new StreamingRenderer();
-		renderer.setMapContent(vMap);
+		if (vMap.layers().isEmpty())
+			vMap.addLayers(aVerdiStyle.getLayers());	// FIGURE THIS ONE OUT BECAUSE TRANSFORM IS HERE
+		if (vRenderer == null)
+		{
+			vRenderer = new StreamingRenderer();
+			vRenderer.setMapContent(vMap);
+		}
 		Rectangle outputArea = new Rectangle(xOffset, yOffset, width, height);
-		renderer.paint((Graphics2D)graphics, outputArea, vMap.getViewport().getBounds());
+		vRenderer.paint((Graphics2D)graphics, outputArea, vMap.getViewport().getBounds());
 	}	// end of draw function
+	
+	// get the lines of the shapefile if the style only draws them with a single line color and width
+	// and they are already in gridCRS, else null
+	private BoundaryLines getBoundaryLines(CoordinateReferenceSystem gridCRS)
+	{
+		if (!aVerdiStyle.isLayerLineStyle())
+			return null;
+		FeatureSource source = aVerdiStyle.getFeatureSource();	// waits for the projection
+		CoordinateReferenceSystem sourceCRS = aVerdiStyle.getCoordinateReferenceSystem();
+		if (source == null || sourceCRS == null || gridCRS == null)
+			return null;
+		if (sourceCRS != gridCRS && !CRS.equalsIgnoreMetadata(sourceCRS, gridCRS))
+			return null;
+		return BoundaryLines.getLines(source);
+	}
+	
+	public List<Object> getDrawState()	// get what changes the drawing besides the domain and size of the area
+	{
+		List<Object> state = new ArrayList<Object>();
+		state.add(this);
+		if (aVerdiStyle != null)
+		{
+			state.add(aVerdiStyle.getStyle());
+			state.add(aVerdiStyle.getFeatureSource());
+			state.add(aVerdiStyle.getLayerLineColor());
+			state.add(aVerdiStyle.getLayerLineWidth());
+		}
+		return state;
+	}
 		
 	public MapContent getMap()	// send vMap back to calling program
 	{
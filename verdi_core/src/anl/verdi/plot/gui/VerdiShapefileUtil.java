@@ -45,6 +45,7 @@ import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
 import anl.verdi.area.target.Target;
+import gov.epa.emvl.Projector;
 import anl.verdi.data.ObsData;
 import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.Projection;
@@ -656,17 +657,17 @@ public class VerdiShapefileUtil {
         if (!sourceCoordinates[0].equals(sourceCoordinates[sourceCoordinates.length - 1]))
         	closeRing = 1;
         Coordinate[] targetCoordinates = new Coordinate[sourceCoordinates.length + closeRing];
-        LatLonPointImpl latLon = new LatLonPointImpl();
-        ProjectionPointImpl xy = new ProjectionPointImpl();
-        
-    	
-        for (int i = 0; i < sourceCoordinates.length; ++i) {
-        	Coordinate source = sourceCoordinates[i];
-        	latLon.set(source.y, source.x);
-        	//latLon.set(73.487559, 42.049);
-        	proj.latLonToProj(latLon, xy);
-        	targetCoordinates[i] = new Coordinate(xy.getX() * factor, xy.getY() * factor);
+        int count = sourceCoordinates.length;
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        for (int i = 0; i < count; ++i) {
+        	xs[i] = sourceCoordinates[i].x;
+        	ys[i] = sourceCoordinates[i].y;
         }
+        // project the whole ring at once
+        new Projector(proj, factor).project(xs, ys, xs, ys, count);
+        for (int i = 0; i < count; ++i)
+        	targetCoordinates[i] = new Coordinate(xs[i], ys[i]);
         if (closeRing > 0)
         	targetCoordinates[targetCoordinates.length - 1] = (Coordinate) targetCoordinates[0].clone();
         
@@ -67,6 +67,7 @@ public class VerdiStyle implements Callable<Boolean> {
 	static final Logger Logger = LogManager.getLogger(VerdiStyle.class.getName());
 	private Style vStyle = null;		// Style associated with this Shapefile
 	private Stroke vStroke = null;
+	private Style strokedStyle = null;	// Style that only draws lines with vStroke
 	private FeatureSource vFeatureSource = null;
 	private File vFile = null;			// File associated with this Shapefile
 	private String shpPath = null;		// path (as a String) to this Shapefile
@@ -140,6 +141,7 @@ public class VerdiStyle implements Callable<Boolean> {
 		shpPath = null;
 		vStyle = null;
 		vStroke = null;
+		strokedStyle = null;
 		vCRS = null;
 		vLayer = null;
 		vStore = null;
@@ -237,6 +239,7 @@ public class VerdiStyle implements Callable<Boolean> {
 		Logger.debug("in createStyle; ready to create Style vStyle as null");		// JEB YES
 		vStyle = null;
 		vStroke = null;
+		strokedStyle = null;
 		File sld = toSLDFile();			// JEB YES, there & returned with a null
 		if(sld != null)
 		{
@@ -422,6 +425,7 @@ public class VerdiStyle implements Callable<Boolean> {
 		Logger.debug("created polygon style: " + style.toString());
 		vStyle = style;
 		vStroke = stroke;
+		strokedStyle = style;
 	}
 	
 	private void createLineStyle()		// create a style to draw lines
@@ -438,6 +442,7 @@ public class VerdiStyle implements Callable<Boolean> {
 		Logger.debug("created line style: " + style.toString());		// JEB YES StyleImp[ name=Default Styler]
 		vStyle = style;
 		vStroke = stroke;
+		strokedStyle = style;
 	}
 	
 	private void createPointStyle()	// create a style to draw points as circles
@@ -594,6 +599,24 @@ public class VerdiStyle implements Callable<Boolean> {
 		}
 	}
 	
+	public Color getLayerLineColor()	// get the color set by setLayerLine, null if the Style has no such line
+	{
+		return vStroke == null ? null : vStroke.getColor().evaluate(null, Color.class);
+	}
+	
+	public float getLayerLineWidth()	// get the width set by setLayerLine, 0 if the Style has no such line
+	{
+		if (vStroke == null)
+			return 0;
+		Float width = vStroke.getWidth().evaluate(null, Float.class);
+		return width == null ? 0 : width.floatValue();
+	}
+	
+	public boolean isLayerLineStyle()	// true if the Style only draws lines of the color and width set by setLayerLine
+	{
+		return vStyle != null && vStyle == strokedStyle;
+	}
+	
 	public List<Layer> getLayers()			// get Layer based on FeatureSource and Style
 	{
 		if(vLayer == null)
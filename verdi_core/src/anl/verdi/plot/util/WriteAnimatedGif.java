@@ -1,7 +1,18 @@
 package anl.verdi.plot.util;
 
+import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -24,6 +35,12 @@ import anl.verdi.plot.gui.FastTilePlotPanel;
  * other people, as documented on the thread on the Sun forums 'Create animated
  * GIF using imageio' http://forums.sun.com/thread.jspa?threadID=5395006 See the
  * printUsage() method for details on parameters required.
+ * <p>
+ * Frames are written as indexed color images with a palette fixed for the
+ * whole animation: the colors set with setPalette, usually those of the plot
+ * legend, followed by the most frequent colors of the first frame. Every
+ * frame is mapped onto that palette with a lookup, so the GIF writer does not
+ * have to reduce the colors of each frame.
  * 
  * @author Andrew Thompson
  */
@@ -33,11 +50,133 @@ public class WriteAnimatedGif {
 	private ImageWriter iw;
 	private ImageOutputStream ios;
 	private int frameCount = 0;
+	private Color[] palette;
+	private IndexColorModel colorModel;
+	private int[] paletteRGB;
+	// rgb, palette index of the colors mapped so far
+	private Map<Integer, Integer> paletteIndex = new HashMap<Integer, Integer>();
 
 	public WriteAnimatedGif() {
 		//
 	}
 
+	/**
+	 * Sets the colors placed first in the palette of the animation. This must
+	 * be called before the first frame is added.
+	 *
+	 * @param colors the colors, at most 256 of which are used
+	 */
+	public void setPalette(Color[] colors) {
+		palette = colors == null ? null : colors.clone();
+	}
+
+	/**
+	 * Converts a frame to an indexed color image using the palette of the
+	 * animation, creating the palette from the frame if this is the first
+	 * one. Colors not in the palette are mapped to the nearest palette color.
+	 *
+	 * @param frame the frame
+	 * @return the frame as an indexed color image.
+	 */
+	public BufferedImage toIndexed(BufferedImage frame) {
+		if (frame.getType() == BufferedImage.TYPE_BYTE_INDEXED)
+			return frame;
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		int[] rgb = frame.getRGB(0, 0, width, height, null, 0, width);
+		if (colorModel == null)
+			createColorModel(rgb);
+
+		BufferedImage indexed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+		byte[] pixels = ((DataBufferByte) indexed.getRaster().getDataBuffer()).getData();
+		// plots have long runs of the same color
+		int last = 0;
+		int lastIndex = getPaletteIndex(0);
+		for (int i = 0; i < rgb.length; i++) {
+			int color = rgb[i] & 0xFFFFFF;
+			if (color != last) {
+				last = color;
+				lastIndex = getPaletteIndex(color);
+			}
+			pixels[i] = (byte) lastIndex;
+		}
+		return indexed;
+	}
+
+	private void createColorModel(int[] rgb) {
+		Set<Integer> colors = new LinkedHashSet<Integer>();
+		if (palette != null) {
+			for (Color color : palette) {
+				if (color != null && colors.size() < 256)
+					colors.add(color.getRGB() & 0xFFFFFF);
+			}
+		}
+
+		final Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+		int last = -1;
+		int[] lastCount = null;
+		for (int i = 0; i < rgb.length; i++) {
+			int color = rgb[i] & 0xFFFFFF;
+			if (color != last) {
+				last = color;
+				lastCount = counts.get(color);
+				if (lastCount == null) {
+					lastCount = new int[1];
+					counts.put(color, lastCount);
+				}
+			}
+			lastCount[0]++;
+		}
+		List<Integer> frequent = new ArrayList<Integer>(counts.keySet());
+		Collections.sort(frequent, new Comparator<Integer>() {
+			public int compare(Integer c1, Integer c2) {
+				return counts.get(c2)[0] - counts.get(c1)[0];
+			}
+		});
+		for (int i = 0; i < frequent.size() && colors.size() < 256; i++)
+			colors.add(frequent.get(i));
+
+		paletteRGB = new int[colors.size()];
+		byte[] r = new byte[paletteRGB.length];
+		byte[] g = new byte[paletteRGB.length];
+		byte[] b = new byte[paletteRGB.length];
+		int i = 0;
+		for (int color : colors) {
+			paletteRGB[i] = color;
+			r[i] = (byte) (color >> 16);
+			g[i] = (byte) (color >> 8);
+			b[i] = (byte) color;
+			i++;
+		}
+		colorModel = new IndexColorModel(8, paletteRGB.length, r, g, b);
+	}
+
+	private void resetColorModel() {
+		colorModel = null;
+		paletteRGB = null;
+		paletteIndex.clear();
+	}
+
+	private int getPaletteIndex(int color) {
+		Integer index = paletteIndex.get(color);
+		if (index != null)
+			return index;
+		int nearest = 0;
+		int nearestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < paletteRGB.length && nearestDistance > 0; i++) {
+			int dr = ((color >> 16) & 0xFF) - ((paletteRGB[i] >> 16) & 0xFF);
+			int dg = ((color >> 8) & 0xFF) - ((paletteRGB[i] >> 8) & 0xFF);
+			int db = (color & 0xFF) - (paletteRGB[i] & 0xFF);
+			int distance = dr * dr + dg * dg + db * db;
+			if (distance < nearestDistance) {
+				nearest = i;
+				nearestDistance = distance;
+			}
+		}
+		paletteIndex.put(color, nearest);
+		return nearest;
+	}
+
 	/**
 	 * See http://forums.sun.com/thread.jspa?messageID=10755673#10755673
 	 * 
@@ -116,10 +255,11 @@ public class WriteAnimatedGif {
 		iw.setOutput(ios);
 		iw.prepareWriteSequence(null);
 		frameCount = 0;
+		resetColorModel();
 		for (int i = 0; i < frames.length; i++) 
 		{			
 			frameCount++;
-			BufferedImage src = frames[i];
+			BufferedImage src = toIndexed(frames[i]);
 			ImageWriteParam iwp = iw.getDefaultWriteParam();
 			IIOMetadata metadata = iw.getDefaultImageMetadata(new ImageTypeSpecifier(src), iwp);
 			configure(metadata, delayTimes[i]);
@@ -132,6 +272,7 @@ public class WriteAnimatedGif {
 
 	public void start(File file) throws Exception {
 		this.frameCount = 0;
+		resetColorModel();
 		iw = ImageIO.getImageWritersByFormatName("gif").next();
 
 		ios = ImageIO.createImageOutputStream(file);
@@ -160,6 +301,7 @@ public class WriteAnimatedGif {
 			int delayTime) throws Exception 
 		{
 			frameCount++;
+			frame = toIndexed(frame);
 			ImageWriteParam iwp = iw.getDefaultWriteParam();
 			IIOMetadata metadata = iw.getDefaultImageMetadata(new ImageTypeSpecifier(frame), iwp);
 			configure(metadata, delayTime + "");
@@ -1,8 +1,11 @@
 package anl.verdi.util;
 
+import java.util.Arrays;
+
 import ucar.ma2.Array;
 import ucar.ma2.Index;
 import ucar.ma2.IndexIterator;
+import anl.verdi.util.ParallelUtilities.RangeFunction;
 
 /**
  * @author Nick Collier
@@ -10,6 +13,13 @@ import ucar.ma2.IndexIterator;
  */
 public class FormulaArray {
 
+	/**
+	 * Reductions over the time steps of each cell.
+	 */
+	public enum TimeReduction {
+		SUM, MEAN, MAX, MIN
+	}
+
 	private static interface Evaluator {
 		void evaluate(Array local, Array other, Array result, BinaryDoubleFunction func);
 	}
@@ -376,58 +386,140 @@ public class FormulaArray {
 	}
 
 	private void calcMinMax() {
-		int rank = array.getRank();
-
-		minIndices = new int[rank];
-		maxIndices = new int[rank];
-		min = Double.POSITIVE_INFINITY;
-		max = Double.NEGATIVE_INFINITY;
-
-		int[] shape = array.getShape();
-		if (rank == 1) {
-			Index index = array.getIndex();
-			for (int i = 0; i < shape[0]; i++) {
-				index.set(i);
-				double val = array.getDouble(index);
-				if (val < min) {
-					min = val;
-					minIndices[0] = i;
-				}
-
-				if (val > max) {
-					max = val;
-					maxIndices[0] = i;
-				}
-			}
-		} else {
-			// assumes rank of 4
-			Index index = array.getIndex();
-
-			for (int t = 0; t < shape[0]; t++) {
-				for (int k = 0; k < shape[1]; k++) {
-					for (int i = 0; i < shape[2]; i++) {
-						for (int j = 0; j < shape[3]; j++) {
-							index.set(t, k, i, j);
-							double val = array.getDouble(index);
+		final FormulaKernel reader = FormulaKernel.array(array);
+		int size = (int) array.getSize();
+		final int grain = FormulaKernel.BLOCK_SIZE * 4;
+		int chunks = (size + grain - 1) / grain;
+		final double[] chunkMins = new double[chunks];
+		final double[] chunkMaxs = new double[chunks];
+		final int[] chunkMinAt = new int[chunks];
+		final int[] chunkMaxAt = new int[chunks];
+
+		ParallelUtilities.forRange(0, size, grain, new RangeFunction() {
+			public void apply(int from, int to) {
+				double[] values = new double[FormulaKernel.BLOCK_SIZE];
+				// a range may hold several chunks, each found on its own
+				for (int start = from; start < to; start += grain) {
+					int end = Math.min(start + grain, to);
+					double min = Double.POSITIVE_INFINITY;
+					double max = Double.NEGATIVE_INFINITY;
+					int minAt = start, maxAt = start;
+					for (int offset = start; offset < end; offset += values.length) {
+						int length = Math.min(values.length, end - offset);
+						reader.evaluate(offset, length, values, 0);
+						for (int i = 0; i < length; i++) {
+							double val = values[i];
 							if (val < min) {
 								min = val;
-								minIndices[0] = t;
-								minIndices[1] = k;
-								minIndices[2] = i;
-								minIndices[3] = j;
+								minAt = offset + i;
 							}
 
 							if (val > max) {
 								max = val;
-								maxIndices[0] = t;
-								maxIndices[1] = k;
-								maxIndices[2] = i;
-								maxIndices[3] = j;
+								maxAt = offset + i;
 							}
 						}
 					}
+					int chunk = start / grain;
+					chunkMins[chunk] = min;
+					chunkMaxs[chunk] = max;
+					chunkMinAt[chunk] = minAt;
+					chunkMaxAt[chunk] = maxAt;
 				}
 			}
+		});
+
+		// combine the chunks in order so that, as with a sequential
+		// scan, the first occurrence of the min or max wins
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		int minAt = 0, maxAt = 0;
+		for (int i = 0; i < chunks; i++) {
+			if (chunkMins[i] < min) {
+				min = chunkMins[i];
+				minAt = chunkMinAt[i];
+			}
+
+			if (chunkMaxs[i] > max) {
+				max = chunkMaxs[i];
+				maxAt = chunkMaxAt[i];
+			}
 		}
+
+		int[] shape = array.getShape();
+		minIndices = toIndices(minAt, shape);
+		maxIndices = toIndices(maxAt, shape);
+	}
+
+	// converts an index into the row major storage into per dimension indices
+	private static int[] toIndices(int element, int[] shape) {
+		int[] indices = new int[shape.length];
+		for (int i = shape.length - 1; i >= 0; i--) {
+			indices[i] = element % shape[i];
+			element /= shape[i];
+		}
+		return indices;
+	}
+
+	/**
+	 * Reduces the values of each cell over the time steps and sets every
+	 * time step of the cell to the result. This assumes an array of rank 4
+	 * whose first dimension is time. Arrays of any other rank, or with a
+	 * single time step, are returned unchanged. Cells are reduced in parallel.
+	 *
+	 * @param reduction the reduction to perform
+	 * @return the result of the reduction.
+	 */
+	public FormulaArray reduceTime(final TimeReduction reduction) {
+		int[] shape = array.getShape();
+		if (array.getRank() != 4 || shape[0] == 1) return new FormulaArray(array, false);
+
+		final int steps = shape[0];
+		final int slab = (int) (array.getSize() / steps);
+		final FormulaKernel reader = FormulaKernel.array(array);
+		Array result = ArrayFactory.createDoubleArray(shape);
+		final double[] storage = (double[]) result.getStorage();
+
+		ParallelUtilities.forRange(0, slab, FormulaKernel.BLOCK_SIZE, new RangeFunction() {
+			public void apply(int from, int to) {
+				int length = to - from;
+				double[] values = new double[length];
+				double[] acc = new double[length];
+				if (reduction == TimeReduction.MAX) Arrays.fill(acc, Double.NEGATIVE_INFINITY);
+				else if (reduction == TimeReduction.MIN) Arrays.fill(acc, Double.POSITIVE_INFINITY);
+
+				for (int t = 0; t < steps; t++) {
+					reader.evaluate(t * slab + from, length, values, 0);
+					switch (reduction) {
+						case MAX:
+							for (int i = 0; i < length; i++) {
+								if (values[i] > acc[i]) acc[i] = values[i];
+							}
+							break;
+						case MIN:
+							for (int i = 0; i < length; i++) {
+								if (values[i] < acc[i]) acc[i] = values[i];
+							}
+							break;
+						default:
+							for (int i = 0; i < length; i++) {
+								acc[i] += values[i];
+							}
+					}
+				}
+
+				if (reduction == TimeReduction.MEAN) {
+					for (int i = 0; i < length; i++) {
+						acc[i] /= steps;
+					}
+				}
+
+				for (int t = 0; t < steps; t++) {
+					System.arraycopy(acc, 0, storage, t * slab + from, length);
+				}
+			}
+		});
+
+		return new FormulaArray(result, false);
 	}
 }
@@ -0,0 +1,577 @@
+package anl.verdi.util;
+
+import java.util.Arrays;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.IndexIterator;
+import anl.verdi.util.ParallelUtilities.RangeFunction;
+
+/**
+ * Compiled, element-wise form of a formula parse tree. Rather than
+ * materializing a full size FormulaArray for every node, a kernel tree is
+ * evaluated in a single pass over the data, one block of elements at a time,
+ * so the only temporaries are block sized scratch buffers. Leaves read
+ * directly from the primitive storage of the variable arrays.
+ *
+ * @version $Revision$ $Date$
+ */
+public abstract class FormulaKernel {
+
+	/**
+	 * The number of elements evaluated per pass through the kernel tree.
+	 */
+	public static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Binary operators supported by compiled kernels. These mirror the
+	 * binary operations on FormulaArray.
+	 */
+	public enum BinaryOp implements BinaryDoubleFunction {
+		ADD {
+			public double apply(double val1, double val2) {
+				return val1 + val2;
+			}
+		},
+		SUBTRACT {
+			public double apply(double val1, double val2) {
+				return val1 - val2;
+			}
+		},
+		MULTIPLY {
+			public double apply(double val1, double val2) {
+				return val1 * val2;
+			}
+		},
+		DIVIDE {
+			public double apply(double val1, double val2) {
+				return val1 / val2;
+			}
+		},
+		MOD {
+			public double apply(double val1, double val2) {
+				return val1 % val2;
+			}
+		},
+		POW {
+			public double apply(double val1, double val2) {
+				return Math.pow(val1, val2);
+			}
+		},
+		LESS_THAN {
+			public double apply(double val1, double val2) {
+				return val1 < val2 ? 1 : 0;
+			}
+		},
+		LESS_THAN_EQ {
+			public double apply(double val1, double val2) {
+				return val1 <= val2 ? 1 : 0;
+			}
+		},
+		GREATER_THAN {
+			public double apply(double val1, double val2) {
+				return val1 > val2 ? 1 : 0;
+			}
+		},
+		GREATER_THAN_EQ {
+			public double apply(double val1, double val2) {
+				return val1 >= val2 ? 1 : 0;
+			}
+		},
+		NOT_EQUAL {
+			public double apply(double val1, double val2) {
+				return val1 != val2 ? 1 : 0;
+			}
+		},
+		EQUAL {
+			public double apply(double val1, double val2) {
+				return val1 == val2 ? 1 : 0;
+			}
+		},
+		AND {
+			public double apply(double val1, double val2) {
+				return val1 != 0 && val2 != 0 ? 1 : 0;
+			}
+		},
+		OR {
+			public double apply(double val1, double val2) {
+				return val1 != 0 || val2 != 0 ? 1 : 0;
+			}
+		}
+	}
+
+	// the smallest number of elements evaluated by a single parallel task
+	private static final int MIN_CHUNK_SIZE = 4 * BLOCK_SIZE;
+
+	private static final int[] SCALAR_SHAPE = new int[]{1};
+
+	protected int[] shape;
+	protected int size;
+	private FormulaArray source;
+
+	protected FormulaKernel(int[] shape) {
+		this.shape = shape;
+		int size = 1;
+		for (int dim : shape) {
+			size *= dim;
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Creates a kernel that evaluates to the specified constant.
+	 *
+	 * @param val the constant value
+	 * @return the created kernel.
+	 */
+	public static FormulaKernel constant(double val) {
+		return new ConstantKernel(val);
+	}
+
+	/**
+	 * Creates a leaf kernel that reads its values from the specified array.
+	 * Arrays of size 1 become constants. The storage of the stock float and
+	 * double arrays is read directly, anything else (other element types, or
+	 * subclasses that override the getters) is read once through its iterator.
+	 *
+	 * @param array the array to read from
+	 * @return the created kernel.
+	 */
+	public static FormulaKernel array(Array array) {
+		if (array.getSize() == 1) {
+			return new ConstantKernel(array.getDouble(array.getIndex()));
+		}
+
+		Class<?> type = array.getClass();
+		if (type == ArrayFloat.class || type.getEnclosingClass() == ArrayFloat.class) {
+			return new FloatArrayKernel((float[]) array.get1DJavaArray(float.class), array.getShape());
+		}
+		if (type == ArrayDouble.class || type.getEnclosingClass() == ArrayDouble.class) {
+			return new DoubleArrayKernel((double[]) array.get1DJavaArray(double.class), array.getShape());
+		}
+
+		double[] values = new double[(int) array.getSize()];
+		int i = 0;
+		for (IndexIterator iter = array.getIndexIterator(); iter.hasNext();) {
+			values[i++] = iter.getDoubleNext();
+		}
+		return new DoubleArrayKernel(values, array.getShape());
+	}
+
+	/**
+	 * Creates a leaf kernel that reads its values from the specified
+	 * FormulaArray. The array is kept as the source of the kernel so that
+	 * it can be returned as is if nothing is compiled on top of it.
+	 *
+	 * @param array the array to read from
+	 * @return the created kernel.
+	 */
+	public static FormulaKernel leaf(FormulaArray array) {
+		FormulaKernel kernel = array(array.getArray());
+		kernel.source = array;
+		return kernel;
+	}
+
+	/**
+	 * Creates a kernel that scales and offsets each value produced by the
+	 * child kernel, for example to apply a linear unit conversion.
+	 *
+	 * @param child the child kernel
+	 * @param scale the value to multiply by
+	 * @param offset the value to add after scaling
+	 * @return the created kernel.
+	 */
+	public static FormulaKernel linear(FormulaKernel child, double scale, double offset) {
+		if (child == null) return null;
+		if (scale == 1 && offset == 0) return child;
+		if (child.isScalar()) return new ConstantKernel(child.getScalar() * scale + offset);
+		return new LinearKernel(child, scale, offset);
+	}
+
+	/**
+	 * Creates a kernel that applies the specified function to each value
+	 * produced by the child kernel.
+	 *
+	 * @param child the child kernel
+	 * @param func the function to apply
+	 * @return the created kernel.
+	 */
+	public static FormulaKernel unary(FormulaKernel child, DoubleFunction func) {
+		if (child == null) return null;
+		if (child.isScalar()) return new ConstantKernel(func.apply(child.getScalar()));
+		return new UnaryKernel(child, func);
+	}
+
+	/**
+	 * Creates a kernel that combines the values produced by the two child
+	 * kernels with the specified operator. A scalar operand is broadcast
+	 * against the other one, as FormulaArray does.
+	 *
+	 * @param left the left hand operand
+	 * @param op the operator
+	 * @param right the right hand operand
+	 * @return the created kernel, or null if the operands are not the same
+	 * size and so cannot be combined element-wise.
+	 */
+	public static FormulaKernel binary(FormulaKernel left, BinaryOp op, FormulaKernel right) {
+		if (left == null || right == null) return null;
+		if (left.isScalar() && right.isScalar())
+			return new ConstantKernel(op.apply(left.getScalar(), right.getScalar()));
+		if (!left.isScalar() && !right.isScalar() && left.size != right.size) return null;
+		return new BinaryKernel(left, op, right);
+	}
+
+	/**
+	 * Gets the shape of the array this kernel produces.
+	 *
+	 * @return the shape of the array this kernel produces.
+	 */
+	public int[] getShape() {
+		return shape;
+	}
+
+	/**
+	 * Gets the number of elements this kernel produces.
+	 *
+	 * @return the number of elements this kernel produces.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets whether or not this kernel evaluates to a single constant value.
+	 *
+	 * @return true if this kernel is a constant, otherwise false.
+	 */
+	public boolean isScalar() {
+		return false;
+	}
+
+	/**
+	 * Gets the value of a scalar kernel.
+	 *
+	 * @return the value of a scalar kernel.
+	 */
+	public double getScalar() {
+		throw new UnsupportedOperationException("Kernel is not a scalar");
+	}
+
+	/**
+	 * Gets whether or not this kernel simply reads its values from
+	 * an existing array or constant without computing anything.
+	 *
+	 * @return true if this kernel is a leaf, otherwise false.
+	 */
+	public boolean isLeaf() {
+		return true;
+	}
+
+	/**
+	 * Gets the FormulaArray a leaf kernel was created from.
+	 *
+	 * @return the FormulaArray this kernel was created from, or null if it
+	 * was not created from one.
+	 */
+	public FormulaArray getSource() {
+		return source;
+	}
+
+	/**
+	 * Evaluates the elements [offset, offset + length) of this kernel into
+	 * out, starting at outOffset. Length must not be greater than BLOCK_SIZE.
+	 *
+	 * @param offset the index of the first element to evaluate
+	 * @param length the number of elements to evaluate
+	 * @param out the array to write the results into
+	 * @param outOffset the position in out of the first result
+	 */
+	public abstract void evaluate(int offset, int length, double[] out, int outOffset);
+
+	/**
+	 * Creates a copy of this kernel tree that does not share any scratch
+	 * buffers with this one and so can be evaluated on another thread.
+	 *
+	 * @return a copy of this kernel.
+	 */
+	public abstract FormulaKernel copy();
+
+	/**
+	 * Evaluates the elements [from, to) of this kernel directly into the
+	 * specified storage, one block at a time.
+	 *
+	 * @param from the index of the first element to evaluate
+	 * @param to the index after the last element to evaluate
+	 * @param storage the array to write the results into
+	 */
+	public void evaluate(int from, int to, double[] storage) {
+		for (int offset = from; offset < to; offset += BLOCK_SIZE) {
+			evaluate(offset, Math.min(BLOCK_SIZE, to - offset), storage, offset);
+		}
+	}
+
+	/**
+	 * Evaluates this kernel over all its elements. The elements are
+	 * split into chunks of whole (time step, layer) slabs that are
+	 * evaluated in parallel.
+	 *
+	 * @return the result of the evaluation.
+	 */
+	public FormulaArray evaluate() {
+		if (isScalar()) return new FormulaArray(getScalar(), true);
+		Array result = ArrayFactory.createDoubleArray(shape);
+		final double[] storage = (double[]) result.getStorage();
+		ParallelUtilities.forRange(0, size, getChunkSize(), new RangeFunction() {
+			public void apply(int from, int to) {
+				copy().evaluate(from, to, storage);
+			}
+		});
+		return new FormulaArray(result, true);
+	}
+
+	// chunks are made up of whole (time step, layer) slabs, enough
+	// of them to keep the per task overhead small
+	private int getChunkSize() {
+		int slab = 1;
+		for (int i = Math.max(0, shape.length - 2); i < shape.length; i++) {
+			slab *= shape[i];
+		}
+		return slab * Math.max(1, (MIN_CHUNK_SIZE + slab - 1) / slab);
+	}
+
+	private static class ConstantKernel extends FormulaKernel {
+
+		private double val;
+
+		ConstantKernel(double val) {
+			super(SCALAR_SHAPE);
+			this.val = val;
+		}
+
+		@Override
+		public boolean isScalar() {
+			return true;
+		}
+
+		@Override
+		public double getScalar() {
+			return val;
+		}
+
+		@Override
+		public void evaluate(int offset, int length, double[] out, int outOffset) {
+			Arrays.fill(out, outOffset, outOffset + length, val);
+		}
+
+		@Override
+		public FormulaKernel copy() {
+			return this;
+		}
+	}
+
+	private static class FloatArrayKernel extends FormulaKernel {
+
+		private float[] data;
+
+		FloatArrayKernel(float[] data, int[] shape) {
+			super(shape);
+			this.data = data;
+		}
+
+		@Override
+		public void evaluate(int offset, int length, double[] out, int outOffset) {
+			for (int i = 0; i < length; i++) {
+				out[outOffset + i] = data[offset + i];
+			}
+		}
+
+		@Override
+		public FormulaKernel copy() {
+			return this;
+		}
+	}
+
+	private static class DoubleArrayKernel extends FormulaKernel {
+
+		private double[] data;
+
+		DoubleArrayKernel(double[] data, int[] shape) {
+			super(shape);
+			this.data = data;
+		}
+
+		@Override
+		public void evaluate(int offset, int length, double[] out, int outOffset) {
+			System.arraycopy(data, offset, out, outOffset, length);
+		}
+
+		@Override
+		public FormulaKernel copy() {
+			return this;
+		}
+	}
+
+	private static class UnaryKernel extends FormulaKernel {
+
+		private FormulaKernel child;
+		private DoubleFunction func;
+
+		UnaryKernel(FormulaKernel child, DoubleFunction func) {
+			super(child.shape);
+			this.child = child;
+			this.func = func;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return false;
+		}
+
+		@Override
+		public void evaluate(int offset, int length, double[] out, int outOffset) {
+			child.evaluate(offset, length, out, outOffset);
+			for (int i = outOffset, n = outOffset + length; i < n; i++) {
+				out[i] = func.apply(out[i]);
+			}
+		}
+
+		@Override
+		public FormulaKernel copy() {
+			return new UnaryKernel(child.copy(), func);
+		}
+	}
+
+	private static class LinearKernel extends FormulaKernel {
+
+		private FormulaKernel child;
+		private double scale, offset;
+
+		LinearKernel(FormulaKernel child, double scale, double offset) {
+			super(child.shape);
+			this.child = child;
+			this.scale = scale;
+			this.offset = offset;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return false;
+		}
+
+		@Override
+		public void evaluate(int offset, int length, double[] out, int outOffset) {
+			child.evaluate(offset, length, out, outOffset);
+			for (int i = outOffset, n = outOffset + length; i < n; i++) {
+				out[i] = out[i] * scale + this.offset;
+			}
+		}
+
+		@Override
+		public FormulaKernel copy() {
+			return new LinearKernel(child.copy(), scale, offset);
+		}
+	}
+
+	private static class BinaryKernel extends FormulaKernel {
+
+		private FormulaKernel left, right;
+		private BinaryOp op;
+		private double[] scratch;
+
+		BinaryKernel(FormulaKernel left, BinaryOp op, FormulaKernel right) {
+			super(left.isScalar() ? right.shape : left.shape);
+			this.left = left;
+			this.op = op;
+			this.right = right;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return false;
+		}
+
+		@Override
+		public void evaluate(int offset, int length, double[] out, int outOffset) {
+			if (right.isScalar()) {
+				left.evaluate(offset, length, out, outOffset);
+				applyRight(out, outOffset, length, right.getScalar());
+			} else if (left.isScalar()) {
+				right.evaluate(offset, length, out, outOffset);
+				applyLeft(left.getScalar(), out, outOffset, length);
+			} else {
+				if (scratch == null) scratch = new double[BLOCK_SIZE];
+				left.evaluate(offset, length, out, outOffset);
+				right.evaluate(offset, length, scratch, 0);
+				apply(out, outOffset, length, scratch);
+			}
+		}
+
+		// out[i] = out[i] op other[i]
+		private void apply(double[] out, int outOffset, int length, double[] other) {
+			switch (op) {
+				case ADD:
+					for (int i = 0; i < length; i++) out[outOffset + i] += other[i];
+					break;
+				case SUBTRACT:
+					for (int i = 0; i < length; i++) out[outOffset + i] -= other[i];
+					break;
+				case MULTIPLY:
+					for (int i = 0; i < length; i++) out[outOffset + i] *= other[i];
+					break;
+				case DIVIDE:
+					for (int i = 0; i < length; i++) out[outOffset + i] /= other[i];
+					break;
+				default:
+					for (int i = 0; i < length; i++) out[outOffset + i] = op.apply(out[outOffset + i], other[i]);
+			}
+		}
+
+		// out[i] = out[i] op val
+		private void applyRight(double[] out, int outOffset, int length, double val) {
+			int n = outOffset + length;
+			switch (op) {
+				case ADD:
+					for (int i = outOffset; i < n; i++) out[i] += val;
+					break;
+				case SUBTRACT:
+					for (int i = outOffset; i < n; i++) out[i] -= val;
+					break;
+				case MULTIPLY:
+					for (int i = outOffset; i < n; i++) out[i] *= val;
+					break;
+				case DIVIDE:
+					for (int i = outOffset; i < n; i++) out[i] /= val;
+					break;
+				default:
+					for (int i = outOffset; i < n; i++) out[i] = op.apply(out[i], val);
+			}
+		}
+
+		// out[i] = val op out[i]
+		private void applyLeft(double val, double[] out, int outOffset, int length) {
+			int n = outOffset + length;
+			switch (op) {
+				case ADD:
+					for (int i = outOffset; i < n; i++) out[i] = val + out[i];
+					break;
+				case SUBTRACT:
+					for (int i = outOffset; i < n; i++) out[i] = val - out[i];
+					break;
+				case MULTIPLY:
+					for (int i = outOffset; i < n; i++) out[i] = val * out[i];
+					break;
+				case DIVIDE:
+					for (int i = outOffset; i < n; i++) out[i] = val / out[i];
+					break;
+				default:
+					for (int i = outOffset; i < n; i++) out[i] = op.apply(val, out[i]);
+			}
+		}
+
+		@Override
+		public FormulaKernel copy() {
+			return new BinaryKernel(left.copy(), op, right.copy());
+		}
+	}
+}
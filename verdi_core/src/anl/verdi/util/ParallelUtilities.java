@@ -0,0 +1,117 @@
+package anl.verdi.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shared fork / join pool and helpers for splitting work over an index
+ * range. The number of worker threads defaults to the number of available
+ * processors and can be set with the verdi.threads property.
+ *
+ * @version $Revision$ $Date$
+ */
+public class ParallelUtilities {
+
+	/**
+	 * Work to be performed over a sub range of indices.
+	 */
+	public static interface RangeFunction {
+
+		/**
+		 * Performs the work for the indices [from, to).
+		 *
+		 * @param from the first index
+		 * @param to the index after the last one
+		 */
+		public void apply(int from, int to);
+	}
+
+	private static class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 4325174917012851839L;
+
+		private int from, to, grain;
+		private RangeFunction func;
+
+		RangeTask(int from, int to, int grain, RangeFunction func) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.func = func;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				func.apply(from, to);
+			} else {
+				// split on a grain boundary so callers can rely on chunks
+				// starting at a multiple of the grain
+				int chunks = (to - from + grain - 1) / grain;
+				int mid = from + (chunks / 2) * grain;
+				invokeAll(new RangeTask(from, mid, grain, func), new RangeTask(mid, to, grain, func));
+			}
+		}
+	}
+
+	private static ForkJoinPool pool;
+
+	/**
+	 * Gets the pool shared by all parallel computations.
+	 *
+	 * @return the pool shared by all parallel computations.
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if (pool == null) pool = new ForkJoinPool(getThreadCount());
+		return pool;
+	}
+
+	/**
+	 * Gets the number of threads used for parallel computations.
+	 *
+	 * @return the number of threads used for parallel computations.
+	 */
+	public static int getThreadCount() {
+		int count = Runtime.getRuntime().availableProcessors();
+		String prop = System.getProperty(Tools.THREAD_COUNT);
+		if (prop != null && !prop.trim().isEmpty()) {
+			try {
+				count = Integer.parseInt(prop.trim());
+			} catch (NumberFormatException ex) {
+				// keep the default
+			}
+		}
+		return Math.max(1, count);
+	}
+
+	/**
+	 * Applies the function to the range [from, to) split into chunks of
+	 * grain indices, running the chunks on the shared pool. Every chunk
+	 * starts on a multiple of grain relative to from, only the last one
+	 * may be shorter. Returns when all the chunks have completed.
+	 *
+	 * @param from the first index
+	 * @param to the index after the last one
+	 * @param grain the number of indices handled by a single task
+	 * @param func the work to perform on each chunk
+	 */
+	public static void forRange(int from, int to, int grain, RangeFunction func) {
+		if (to <= from) return;
+		grain = Math.max(1, grain);
+		if (to - from <= grain) {
+			func.apply(from, to);
+			return;
+		}
+		if (getThreadCount() == 1) {
+			// the same grain aligned chunks, one after another
+			for (int start = from; start < to; start += grain)
+				func.apply(start, Math.min(start + grain, to));
+			return;
+		}
+
+		RangeTask task = new RangeTask(from, to, grain, func);
+		if (ForkJoinTask.inForkJoinPool()) task.invoke();
+		else getPool().invoke(task);
+	}
+}
@@ -29,6 +29,14 @@ public class Tools {
 	public static final String REMOTE_HOSTS = "verdi.remote.hosts";
 	public static final String SSH_PATH = "verdi.remote.ssh";
 	public static final String REMOTE_UTIL_PATH = "remote.file.util";
+	public static final String FORMULA_COMPILE = "verdi.formula.compile";
+	public static final String THREAD_COUNT = "verdi.threads";
+	public static final String BATCH_THREAD_COUNT = "verdi.batch.threads";
+	public static final String FORMULA_MEMORY_LIMIT = "verdi.formula.memory";
+	public static final String FORMULA_CACHE_SIZE = "verdi.formula.cache.size";
+	public static final String MPAS_CACHE_SIZE = "verdi.mpas.cache.size";
+	public static final String MESH_CACHE_DIR = "verdi.mesh.cache.dir";
+	public static final String AREA_CACHE_DIR = "verdi.area.cache.dir";
 	public static final String USER_HOME = "user.home";
 	public static final String LINE_SEPARATOR = System.getProperty("line.separator");
 	public static final String PROPERTY_FILE = "/verdi/config.properties";
@@ -58,6 +66,31 @@ public class Tools {
 		return System.getProperty(USER_HOME);
 	}
 	
+	/**
+	 * Gets a directory for files cached between sessions, creating it if
+	 * necessary. The directory is taken from the specified property and
+	 * defaults to the named directory under verdi in the user's home.
+	 * 
+	 * @param property the property that sets the directory, or none to disable the cache
+	 * @param name the name of the default directory
+	 * @return the directory, or null if the cache is disabled or the directory cannot be created.
+	 */
+	public static File getCacheDir(String property, String name) {
+		String prop = System.getProperty(property);
+		File dir;
+		if (prop == null || prop.trim().isEmpty())
+			dir = new File(getUserHome(), "verdi" + File.separator + name);
+		else if (prop.trim().equalsIgnoreCase("none"))
+			return null;
+		else
+			dir = new File(prop.trim());
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Logger.warn("Unable to create cache directory " + dir);
+			return null;
+		}
+		return dir;
+	}
+	
 	public static String getPropertyFile() {
 		String file = getUserHome() + PROPERTY_FILE;
 		String temp = getUserHome() + PROPERTY_FILE_TEMP;
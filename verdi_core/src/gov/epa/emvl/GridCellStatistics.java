@@ -15,6 +15,7 @@ import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
 
 import anl.verdi.data.DataUtilities;
+import anl.verdi.util.ParallelUtilities;
 
 public final class GridCellStatistics {
 	static final Logger Logger = LogManager.getLogger(GridCellStatistics.class.getName());
@@ -87,15 +88,22 @@ public final class GridCellStatistics {
     return statisticNamesAndUnits[ statistic ][ SHORT_NAME ];
   }
 
+
   /**
    * PURPOSE: computeStatistics - For each cell, compute a set of
    *          time-aggregate statistics.
    * INPUTS:  final float[][][] data   data[ rows ][ columns ][ timesteps ]
    *          double threshold         Exceedance threshold, e.g., 0.12 ppb.
    *          double hoursPerTimestep  Timestep size in decimal hours.
-   * OUTPUTS: final float[][][] data         data sorted across timesteps.
-   *          final float[][][] statistics   Time-aggregated statistics.
+   *          int statIndex            Statistic to compute.
+   *          double customPercentileValue  Percentile for CUSTOM_PERCENTILE.
+   * OUTPUTS: final float[][][] statistics   Time-aggregated statistics.
    *          statistics[ STATISTICS ][ rows ][ columns ]
+   * NOTES:   Each cell's time series is read once and every statistic
+   *          needed for statIndex is accumulated in that pass: Kahan sums,
+   *          Welford's mean and variance, and the percentiles are selected
+   *          from a copy of the valid values rather than sorted, so data is
+   *          not modified. Cells are computed in parallel.
  * @throws Exception 
    **/
 
@@ -105,804 +113,454 @@ public final class GridCellStatistics {
                                         final float[][][] statistics,
                                         final int statIndex,
                                         final double customPercentileValue) throws Exception {
-	  
-	  boolean separate = true;
-	  //Logger.debug( "statIndex = " + statIndex);
-	  
-	  if ( separate) {
-		  if ( statIndex == 13 || statIndex == 14) {
-			  computeTimestepsOfExtrema( data,
-					  statistics[ TIMESTEP_OF_MINIMUM ],
-					  statistics[ TIMESTEP_OF_MAXIMUM ] );
-			  
-//			  for ( int i = 0; i<statistics[ TIMESTEP_OF_MINIMUM ].length; i++) {
-//				  for ( int j = 0; j<statistics[ TIMESTEP_OF_MINIMUM ][0].length; j++) {
-//					  System.out.print(statistics[TIMESTEP_OF_MINIMUM][i][j]+" ");
-//				  }
-//				  Logger.debug("\n");
-//			  }	
-			  
-			  return;
-		  }
-		  
-		  if ( statIndex == 16 ){
-			  computeMaximum8HourMeans( data, hoursPerTimestep,
-					  statistics[ MAXIMUM_8HOUR_MEAN ] );
-			  return;
-		  }
-
-		  sortDataAcrossTimesteps( data ); // Required for quartiles.	  
-		  computeValidTimesteps( data, statistics[ COUNT ] );
-
-		  if ( statIndex == 0 || statIndex == 1 || statIndex == 4 ||
-				  statIndex == 5 || statIndex == 6 ||
-				  statIndex == 10 || statIndex == 11 || 
-				  statIndex == 17 || statIndex == 18 || statIndex == 19) {
-			  computeQuartiles( data,
-					  statistics[ COUNT ],
-					  statistics[ MINIMUM ],
-					  statistics[ MAXIMUM ],
-					  statistics[ MEDIAN ],
-					  statistics[ FIRST_QUARTILE ],
-					  statistics[ THIRD_QUARTILE ],
-					  statistics[ RANGE ],
-					  statistics[ INTERQUARTILE_RANGE ],
-					  statistics[ FOURTH_MAX ],
-					  statistics[ CUSTOM_PERCENTILE ],
-					  customPercentileValue);
-			  return;
-		  }
-
-		  if ( statIndex == 12 ) {
-			  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-			  
-//			  for ( int i = 0; i<statistics[ SUM ].length; i++) {
-//				  for ( int j = 0; j<statistics[ SUM ][0].length; j++) {
-//					  System.out.print(statistics[SUM][i][j]+" ");
-//				  }
-//				  Logger.debug("\n");
-//			  }
-			  
-			  return;
-		  }
-
-		  if ( statIndex == 2) {
-			  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-			  computeMeans( statistics[ COUNT ],
-					  statistics[ SUM ],
-					  statistics[ MEAN ] );
-			  // JEB 2016 WHY NO return; FOR THIS "ELSE"?
-		  }
-		  
-
-		  if ( statIndex == 3) {
-			  computeGeometricMeans( data,
-					  statistics[ COUNT ],
-					  statistics[ GEOMETRIC_MEAN ] );
-			  return;
-		  }
-
-		  if ( statIndex == 7 || statIndex == 8 || statIndex == 9) {
-			  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-			  computeMeans( statistics[ COUNT ],
-					  statistics[ SUM ],
-					  statistics[ MEAN ] );
-			  computeVariance( data,
-					  statistics[ COUNT ],
-					  statistics[ MEAN ],
-					  statistics[ VARIANCE ],
-					  statistics[ STANDARD_DEVIATION ],
-					  statistics[ COEFFICIENT_OF_VARIANCE ] );
-			  return;
-		  }
-
-		  if ( statIndex == 15) {
-			  computeHoursOfNonCompliance( data,
-					  statistics[ COUNT ],
-					  hoursPerTimestep,
-					  threshold,
-					  statistics[ HOURS_OF_NON_COMPLIANCE ] );
-			  return;
-		  }
-	  } else {
-	  
-	  //////////////////////////////////////////////////////////////////////////
-  
-		  computeTimestepsOfExtrema( data,
-				  statistics[ TIMESTEP_OF_MINIMUM ],
-				  statistics[ TIMESTEP_OF_MAXIMUM ] );
-
-		  computeMaximum8HourMeans( data, hoursPerTimestep,
-				  statistics[ MAXIMUM_8HOUR_MEAN ] );
-
-		  sortDataAcrossTimesteps( data ); // Required for quartiles.
-
-		  // For each data value (cell/site), count the number of valid timesteps:
-
-		  computeValidTimesteps( data, statistics[ COUNT ] );
-
-		  computeQuartiles( data,
-				  statistics[ COUNT ],
-				  statistics[ MINIMUM ],
-				  statistics[ MAXIMUM ],
-				  statistics[ MEDIAN ],
-				  statistics[ FIRST_QUARTILE ],
-				  statistics[ THIRD_QUARTILE ],
-				  statistics[ RANGE ],
-				  statistics[ INTERQUARTILE_RANGE ],
-				  statistics[ FOURTH_MAX ],
-				  statistics[ CUSTOM_PERCENTILE],
-				  customPercentileValue);
-
-		  computeSums( data, statistics[ COUNT ], statistics[ SUM ] );
-
-		  computeMeans( statistics[ COUNT ],
-				  statistics[ SUM ],
-				  statistics[ MEAN ] );
-
-		  computeGeometricMeans( data,
-				  statistics[ COUNT ],
-				  statistics[ GEOMETRIC_MEAN ] );
-
-		  computeVariance( data,
-				  statistics[ COUNT ],
-				  statistics[ MEAN ],
-				  statistics[ VARIANCE ],
-				  statistics[ STANDARD_DEVIATION ],
-				  statistics[ COEFFICIENT_OF_VARIANCE ] );
-
-		  computeHoursOfNonCompliance( data,
-				  statistics[ COUNT ],
-				  hoursPerTimestep,
-				  threshold,
-				  statistics[ HOURS_OF_NON_COMPLIANCE ] );
-	  
-	  /////////////////////////////////////////////////////////////////////////////////
-	  }
-  }
-
-  /**
-   * PURPOSE: computeTimestepsOfExtrema - For each cell, compute the
-   *          1-based timestep of the minimum and the timestep of the maximum.
-   * INPUTS:  final float[][][] data        data[ rows ][ columns][ timesteps ]
-   * OUTPUTS: float[][] timestepOfMinimum   timestepOfMinimum[ rows ][ columns]
-   *                                        For each cell,
-   *                                        this is the timestep number
-   *                                        (whole, 1-based) of its minimum
-   *                                        value over all of the timesteps.
-   *          float[][] timestepOfMaximum   timestepOfMaximum[ rows ][ columns]
-   *                                        For each cell,
-   *                                        this is the timestep number
-   *                                        (whole, 1-based) of its maximum
-   *                                        value over all of the timesteps.
-   **/
-
-  private static void computeTimestepsOfExtrema( final float[][][] data,
-                                                 float[][] timestepOfMinimum,
-                                                 float[][] timestepOfMaximum) {
 
     final int rows    = data.length;
     final int columns = data[ 0 ].length;
+    final Request request = new Request( statIndex );
 
-    for ( int row = 0; row < rows; ++row ) {
+    ParallelUtilities.forRange( 0, rows * columns, CELLS_PER_TASK,
+                                new ParallelUtilities.RangeFunction() {
+      public void apply( int from, int to ) {
+        float[] values = new float[ 0 ];
 
-      for ( int column = 0; column < columns; ++column ) {
-        timestepOfMinimum[ row ][ column ] =
-          indexOfMinimum( data[ row ][ column ] ) + 1;
-        timestepOfMaximum[ row ][ column ] =
-          indexOfMaximum( data[ row ][ column ] ) + 1;
-      }
-    }
-  }
+        for ( int cell = from; cell < to; ++cell ) {
+          final int row = cell / columns;
+          final int column = cell % columns;
+          final float[] series = data[ row ][ column ];
 
-  /**
-   * PURPOSE: computeMaximum8HourMeans - For each cell, compute the
-   *          1-based timestep of the minimum and the timestep of the maximum.
-   * INPUTS:  final float[][][] data      data[ rows ][ columns][ timesteps ]
-   *          double hoursPerTimestep  Timestep size in decimal hours.
-   * OUTPUTS: float[][] maximum8HourMean  maximum8HourMean[ rows ][ columns]
-   *                                      For each cell,
-   *                                      this is the maximum of the means
-   *                                      of each moving 8-hour set of values.
-   **/
-
-  private static void computeMaximum8HourMeans( final float[][][] data,
-                                                final double hoursPerTimestep,
-                                                float[][] maximum8HourMean ) {
-
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
+          if ( values.length < series.length ) {
+            values = new float[ series.length ];
+          }
 
-      for ( int column = 0; column < columns; ++column ) {
-        maximum8HourMean[ row ][ column ] =
-          maximum8HourMeans( data[ row ][ column ], hoursPerTimestep );
+          computeCellStatistics( series, values, request, threshold,
+                                 hoursPerTimestep, customPercentileValue,
+                                 statistics, row, column );
+        }
       }
-    }
+    } );
   }
 
-  /**
-   * PURPOSE: sortDataAcrossTimesteps - For each cell, sort its timestep data.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   * OUTPUTS: final float[][][] data  data sorted over timesteps.
-   **/
-
-  private static void sortDataAcrossTimesteps( final float[][][] data  ) {
-
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
+  // Cells computed by each parallel task:
 
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        java.util.Arrays.sort( data[ row ][ column ] );
-      }
-    }
-  }
+  private static final int CELLS_PER_TASK = 256;
 
   /**
-   * PURPOSE: sortDataAcrossTimesteps - For each cell, compute the number of
-   *          valid (i.e., not marked as "missing/bad") timestep values.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   * OUTPUTS: float[][][] count       count[ rows ][ columns ] valid values.
+   * PURPOSE: Request - The groups of statistics needed for a statIndex.
    **/
 
-  private static void computeValidTimesteps( final float data[][][],
-                                             float[][] count ) {
-
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int firstIndex = firstValidIndex( data[ row ][ column ] );
-
-        if ( firstIndex == -1 ) {
-          count[ row ][ column ] = 0;
-        } else {
-          final int validCount = timesteps - firstIndex;
-          count[ row ][ column ] = validCount;
-        }
-      }
+  private static final class Request {
+    final boolean extrema;
+    final boolean maximum8HourMean;
+    final boolean count;
+    final boolean quartiles;
+    final boolean sum;
+    final boolean mean;
+    final boolean geometricMean;
+    final boolean variance;
+    final boolean hoursOfNonCompliance;
+
+    Request( final int statIndex ) {
+      extrema = statIndex == TIMESTEP_OF_MINIMUM ||
+                statIndex == TIMESTEP_OF_MAXIMUM;
+      maximum8HourMean = statIndex == MAXIMUM_8HOUR_MEAN;
+      count = ! extrema && ! maximum8HourMean;
+      quartiles = statIndex == MINIMUM || statIndex == MAXIMUM ||
+                  statIndex == MEDIAN ||
+                  statIndex == FIRST_QUARTILE || statIndex == THIRD_QUARTILE ||
+                  statIndex == RANGE || statIndex == INTERQUARTILE_RANGE ||
+                  statIndex == COUNT || statIndex == FOURTH_MAX ||
+                  statIndex == CUSTOM_PERCENTILE;
+      variance = statIndex == VARIANCE || statIndex == STANDARD_DEVIATION ||
+                 statIndex == COEFFICIENT_OF_VARIANCE;
+      mean = statIndex == MEAN || variance;
+      sum = statIndex == SUM || mean;
+      geometricMean = statIndex == GEOMETRIC_MEAN;
+      hoursOfNonCompliance = statIndex == HOURS_OF_NON_COMPLIANCE;
     }
   }
 
   /**
-   * PURPOSE: computeQuartiles - For each cell, compute the minimum, maximum,
-   *          median, first quartile, third quartile and range
-   *          over all timestep values.
-   * INPUTS:  final float[][][] data   data[ rows ][ columns][ timesteps ].
-   *          final float[][][] count  count[ rows ][ columns] valid values.
-   * OUTPUTS: float[][] minimum        minimum[ rows ][ columns ].
-   *          float[][] maximum        maximum[ rows ][ columns ].
-   *          float[][] median         median[ rows ][ columns ]
-   *                                   middle of sorted sequence of values.
-   *          float[][] firstQuartile  firstQuartile[ rows ][ columns ]
-   *                                   25th percentile of sorted of values.
-   *          float[][] thirdQuartile  thirdQuartile[ rows ][ columns ]
-   *                                   75th percentile of sorted of values.
-   *          float[][] range          range[ rows ][ columns ]
-   *                                   maximum - minimum.
-   *          float[][] interquartileRange
-   *                                   interquartileRange[ rows ][ columns ]
-   *                                   75th - 25th.
+   * PURPOSE: computeCellStatistics - Compute the requested statistics of
+   *          one cell in a single pass over its timesteps.
+   * INPUTS:  final float[] series   series[ timesteps ] of the cell.
+   *          float[] values         Scratch space of at least timesteps.
+   *          Request request        Statistics to compute.
+   *          double threshold       Exceedance threshold.
+   *          double hoursPerTimestep  Timestep size in decimal hours.
+   *          double customPercentileValue  Percentile for CUSTOM_PERCENTILE.
+   *          int row, column        Cell to store the statistics for.
+   * OUTPUTS: float[][][] statistics  statistics[ STATISTICS ][ row ][ column ]
    **/
 
-  private static void computeQuartiles( final float[][][] data,
-                                        final float[][] count,
-                                        final float[][] minimum,
-                                        final float[][] maximum,
-                                        final float[][] median,
-                                        final float[][] firstQuartile,
-                                        final float[][] thirdQuartile,
-                                        final float[][] range,
-                                        final float[][] interquartileRange,
-                                        final float[][] fourthMax,
-                                        final float[][] customPercentile,
-                                        final double customPercentileValue) {
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
-
-        
-        if ( numberOfValidTimesteps == 0 ) {
-          minimum[            row ][ column ] = BADVAL3;
-          maximum[            row ][ column ] = BADVAL3;
-          range[              row ][ column ] = BADVAL3;
-          median[             row ][ column ] = BADVAL3;
-          firstQuartile[      row ][ column ] = BADVAL3;
-          thirdQuartile[      row ][ column ] = BADVAL3;
-          interquartileRange[ row ][ column ] = BADVAL3;
-          fourthMax[          row ][ column ] = BADVAL3;
-          customPercentile[   row ][ column ] = BADVAL3;
-        } else {
-          final int index    = timesteps - numberOfValidTimesteps;
-          final int last     = numberOfValidTimesteps - 1;
-          final int middle   = numberOfValidTimesteps / 2;
-          final int middle_1 = middle > 0 ? middle - 1 : 0;
-          final int lower    = numberOfValidTimesteps / 4;
-          final int lower_1  = lower > 0 ? lower - 1 : 0;
-          final int upper    = numberOfValidTimesteps * 3 / 4;
-          final int upper_1  = upper > 0 ? upper - 1 : 0;
-          final int custom   = (int)Math.round(numberOfValidTimesteps * customPercentileValue / 100.0);
-          final int custom_l = custom > 0 ? custom - 1 : 0;
-          final boolean oddNumberOfTimesteps = numberOfValidTimesteps % 2 != 0;
-          final float firstValue  = data[ row ][ column ][ index          ];
-          final float lastValue   = data[ row ][ column ][ index + last   ];
-
-          int fourthMaxIndex = index + last - 3;         
-          float fourthMaxValue = BADVAL3;
-          if (fourthMaxIndex < data[row][column].length && fourthMaxIndex >= 0)
-        		  fourthMaxValue = data[ row ][ column ][ fourthMaxIndex  ];
-          final float middleValue = data[ row ][ column ][ index + middle ];
-          final float lowerValue  = data[ row ][ column ][ index + lower  ];
-          final float upperValue  = data[ row ][ column ][ index + upper  ];
-
-          minimum[ row ][ column ] = firstValue;
-          maximum[ row ][ column ] = lastValue;
-          fourthMax[ row ][ column ] = fourthMaxValue;
-          range[   row ][ column ] = lastValue - firstValue;
-          customPercentile[ row ][ column ] = data[ row ][ column ][ index + custom_l ];
-
-          if ( oddNumberOfTimesteps ) {
-            median[             row ][ column ] = middleValue;
-            firstQuartile[      row ][ column ] = lowerValue;
-            thirdQuartile[      row ][ column ] = upperValue;
-            interquartileRange[ row ][ column ] = upperValue - lowerValue;
-          } else {
-            final float averageLowerValue =
-              ( lowerValue + data[ row ][ column ][ index + lower_1 ] ) * 0.5f;
-            final float averageUpperValue =
-              ( upperValue + data[ row ][ column ][ index + upper_1 ] ) * 0.5f;
-
-            median[             row ][ column ] =
-              ( middleValue + data[ row ][ column ][ index + middle_1]) * 0.5f;
-            firstQuartile[      row ][ column ] = averageLowerValue;
-            thirdQuartile[      row ][ column ] = averageUpperValue;
-            interquartileRange[ row ][ column ] =
-              averageUpperValue - averageLowerValue;
-
-          }
-        }
-      }
+  private static void computeCellStatistics( final float[] series,
+                                             final float[] values,
+                                             final Request request,
+                                             final double threshold,
+                                             final double hoursPerTimestep,
+                                          final double customPercentileValue,
+                                             final float[][][] statistics,
+                                             final int row,
+                                             final int column ) {
+
+    if ( request.extrema ) {
+      computeTimestepsOfExtrema( series, statistics, row, column );
+      return;
     }
-  }
 
-  /**
-   * PURPOSE: computeSums - For each cell, compute the sum over timesteps.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          float[][] count         count[ rows ][ columns ] valid values.
-   * OUTPUTS: float[][] sum           sum[ rows ][ columns ].
-   **/
+    if ( request.maximum8HourMean ) {
+      statistics[ MAXIMUM_8HOUR_MEAN ][ row ][ column ] =
+        maximum8HourMeans( series, hoursPerTimestep );
+      return;
+    }
 
-  private static void computeSums( final float[][][] data,
-                                   final float[][] count,
-                                   float[][] sum ) {
+    // Gather the valid values and accumulate the moments in one pass:
 
-    final int rows    = data.length;
-    final int columns = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
+    int count = 0;
+    int exceedances = 0;
+    double sum = 0.0;
+    double correction = 0.0; // Kahan corrector subtracts each round-off error
+    double mean = 0.0;
+    double squaredDifferences = 0.0;
+    double logSum = 0.0;
 
-    for ( int row = 0; row < rows; ++row ) {
+    for ( int timestep = 0; timestep < series.length; ++timestep ) {
+      final float value = series[ timestep ];
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+      if ( value > AMISS3 ) {
+        values[ count++ ] = value;
 
-        if ( numberOfValidTimesteps == 0 ) {
-          sum[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          sum[ row ][ column ] = (float)
-            sumf( data[ row ][ column ], index );
+        if ( request.sum ) {
+          final double correctedNextTerm = value - correction;
+          final double newSum = sum + correctedNextTerm;
+          correction = ( newSum - sum ) - correctedNextTerm;
+          sum = newSum;
         }
-      }
-    }
-  }
 
-  /**
-   * PURPOSE: computeMeans - For each cell, compute the mean over timesteps.
-   * INPUTS:  final float[][] count   count[ rows ][ columns ] valid values.
-   *          final float[][] sum     sum[ rows ][ columns ] summed values.
-   * OUTPUTS: float[][] mean          mean[ rows ][ columns ].
-   **/
-
-  private static void computeMeans( final float[][] count,
-                                    final float[][] sum,
-                                    float[][] mean ) {
-
-    final int rows    = count.length;
-    final int columns = count[ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
+        if ( request.variance ) { // Welford's update.
+          final double difference = value - mean;
+          mean += difference / count;
+          squaredDifferences += difference * ( value - mean );
+        }
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+        if ( request.geometricMean ) {
+          logSum += java.lang.Math.log( value );
+        }
 
-        if ( numberOfValidTimesteps == 0 ) {
-          mean[ row ][ column ] = BADVAL3;
-        } else {
-          mean[ row ][ column ] =
-            sum[ row ][ column ] / numberOfValidTimesteps;
+        if ( value > threshold ) {
+          ++exceedances;
         }
       }
     }
-  }
-
-  /**
-   * PURPOSE: computeGeometricMeans - For each cell, compute the geometric
-   *          mean over timesteps.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          final float[][] count   count[ rows ][ columns ] valid values.
-   * OUTPUTS: float[][] mean          mean[ rows ][ columns ].
- * @throws Exception 
-   **/
-
-  private static void computeGeometricMeans( final float[][][] data,
-                                             final float[][] count,
-                                             float[][] geometricMean ) throws Exception {
 
-    final int rows      = data.length;
-    final int columns   = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
+    if ( request.count ) {
+      statistics[ COUNT ][ row ][ column ] = count;
+    }
 
-    for ( int row = 0; row < rows; ++row ) {
+    if ( request.quartiles ) {
+      computeQuartiles( values, count, customPercentileValue,
+                        statistics, row, column );
+    }
 
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
+    if ( request.sum ) {
+      statistics[ SUM ][ row ][ column ] = count == 0 ? BADVAL3 : (float) sum;
+    }
 
-        if ( numberOfValidTimesteps == 0 ) {
-          geometricMean[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          geometricMean[ row ][ column ] = (float)
-            geometricMeanf( data[ row ][ column ], index );
-        }
-      }
+    if ( request.mean ) {
+      statistics[ MEAN ][ row ][ column ] =
+        count == 0 ? BADVAL3 : (float) ( sum / count );
     }
-  }
 
-  /**
-   * PURPOSE: computeVariance - For each cell, compute the variance, standard
-   *          deviation and the coefficient of variance over timesteps.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          final float[][] count   count[ rows ][ columns ] valid values.
-   *          final float[][] mean    mean[ rows ][ columns ] mean values.
-   * OUTPUTS: float[][] variance      variance[ rows ][ columns ].
-   *          float[][] standardDeviation      std[ rows ][ columns ].
-   *          float[][] coefficientsOfVariance cov[ rows ][ columns ].
-   **/
+    if ( request.geometricMean ) {
+      statistics[ GEOMETRIC_MEAN ][ row ][ column ] =
+        count == 0 ? BADVAL3 : (float) java.lang.Math.exp( logSum / count );
+    }
 
-  private static void computeVariance( final float[][][] data,
-                                       final float[][] count,
-                                       final float[][] mean,
-                                       float[][] variance,
-                                       float[][] standardDeviation,
-                                       float[][] coefficientsOfVariance ) {
-
-    final int rows      = data.length;
-    final int columns   = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
-
-        if ( numberOfValidTimesteps == 0 ) {
-          variance[ row ][ column ] = BADVAL3;
-          standardDeviation[ row ][ column ] = BADVAL3;
-          coefficientsOfVariance[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          final float meanValue = mean[ row ][ column ];
-          final float s2 = (float)
-            variancef( data[ row ][ column ], index, meanValue );
-          final float std = (float) java.lang.Math.sqrt( s2 );
-          final float cv = meanValue > 0.0f ? 100.0f * std / meanValue : 0.0f;
-          variance[ row ][ column ] = s2;
-          standardDeviation[ row ][ column ] = std;
-          coefficientsOfVariance[ row ][ column ] = cv;
-        }
+    if ( request.variance ) {
+
+      if ( count == 0 ) {
+        statistics[ VARIANCE ][ row ][ column ] = BADVAL3;
+        statistics[ STANDARD_DEVIATION ][ row ][ column ] = BADVAL3;
+        statistics[ COEFFICIENT_OF_VARIANCE ][ row ][ column ] = BADVAL3;
+      } else {
+        final float meanValue = statistics[ MEAN ][ row ][ column ];
+        final float s2 =
+          count > 1 ? (float) ( squaredDifferences / ( count - 1 ) ) : 0.0f;
+        final float std = (float) java.lang.Math.sqrt( s2 );
+        final float cv = meanValue > 0.0f ? 100.0f * std / meanValue : 0.0f;
+        statistics[ VARIANCE ][ row ][ column ] = s2;
+        statistics[ STANDARD_DEVIATION ][ row ][ column ] = std;
+        statistics[ COEFFICIENT_OF_VARIANCE ][ row ][ column ] = cv;
       }
     }
-  }
 
-  /**
-   * PURPOSE: computeHoursOfNonCompliance - For each cell, compute the hours
-   *          of non-compliance (threshold exceedance) of the time series data.
-   * INPUTS:  final float[][][] data  data[ rows ][ columns][ timesteps ].
-   *          final float[][] count   count[ rows ][ columns ] valid values.
-   *          final double hoursPerTimestep  Timestep size in decimal hours.
-   *          final double threshold         Exceedance value to compare to.
-   * OUTPUTS: float[][] hoursOfNonCompliance honc[ rows ][ columns ].
-   **/
-
-  private static void computeHoursOfNonCompliance( final float[][][] data,
-                                                  final float[][] count,
-                                                 final double hoursPerTimestep,
-                                                  final double threshold,
-                                            float[][] hoursOfNonCompliance ) {
-
-    final int rows      = data.length;
-    final int columns   = data[ 0 ].length;
-    final int timesteps = data[ 0 ][ 0 ].length;
-
-    for ( int row = 0; row < rows; ++row ) {
-
-      for ( int column = 0; column < columns; ++column ) {
-        final int numberOfValidTimesteps =
-          (int) ( count[ row ][ column ] + 0.5 );
-
-        if ( numberOfValidTimesteps == 0 ) {
-          hoursOfNonCompliance[ row ][ column ] = BADVAL3;
-        } else {
-          final int index = timesteps - numberOfValidTimesteps;
-          final int numberOfTimestepsExceedingThreshhold =
-            exceedance( data[ row ][ column ], index, threshold );
-          hoursOfNonCompliance[ row ][ column ] = (float)
-            ( numberOfTimestepsExceedingThreshhold * hoursPerTimestep );
-        }
-      }
+    if ( request.hoursOfNonCompliance ) {
+      statistics[ HOURS_OF_NON_COMPLIANCE ][ row ][ column ] =
+        count == 0 ? BADVAL3 : (float) ( exceedances * hoursPerTimestep );
     }
   }
 
   /**
-   * PURPOSE: indexOfMinimum - Compute the index of the minimum valid value.
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: int 0-based index into data[] or -1 if all invalid.
+   * PURPOSE: computeTimestepsOfExtrema - For a cell, compute the
+   *          1-based timestep of the minimum and the timestep of the maximum.
+   * INPUTS:  final float[] series   series[ timesteps ] of the cell.
+   * OUTPUTS: float[][][] statistics TIMESTEP_OF_MINIMUM and
+   *                                 TIMESTEP_OF_MAXIMUM of the cell are the
+   *                                 timestep numbers (whole, 1-based) of its
+   *                                 minimum and maximum valid values, or 0 if
+   *                                 all are invalid.
    **/
 
-  private static int indexOfMinimum( final float[] data ) {
+  private static void computeTimestepsOfExtrema( final float[] series,
+                                                 final float[][][] statistics,
+                                                 final int row,
+                                                 final int column ) {
 
-    final int count = data.length;
     float minimum = 0.0f;
-    int result = -1;
+    float maximum = 0.0f;
+    int indexOfMinimum = -1;
+    int indexOfMaximum = -1;
 
-    for ( int index = 0; index < count; ++index ) {
-      final float value = data[ index ];
+    for ( int index = 0; index < series.length; ++index ) {
+      final float value = series[ index ];
 
       if ( value > AMISS3 ) {
 
-        if ( result == -1 || value < minimum ) {
+        if ( indexOfMinimum == -1 || value < minimum ) {
           minimum = value;
-          result = index;
+          indexOfMinimum = index;
         }
-      }
-    }
-
-    return result;
-  }
-
-  /**
-   * PURPOSE: indexOfMaximum - Compute the index of the maximum valid value.
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: int 0-based index into data[] or -1 if all invalid.
-   **/
 
-  private static int indexOfMaximum( final float[] data ) {
-
-    final int count = data.length;
-    float maximum = 0.0f;
-    int result = -1;
-
-    for ( int index = 0; index < count; ++index ) {
-      final float value = data[ index ];
-
-      if ( value > AMISS3 ) {
-
-        if ( result == -1 || value > maximum ) {
+        if ( indexOfMaximum == -1 || value > maximum ) {
           maximum = value;
-          result = index;
+          indexOfMaximum = index;
         }
       }
     }
 
-    return result;
+    statistics[ TIMESTEP_OF_MINIMUM ][ row ][ column ] = indexOfMinimum + 1;
+    statistics[ TIMESTEP_OF_MAXIMUM ][ row ][ column ] = indexOfMaximum + 1;
   }
 
   /**
-   * PURPOSE: maximum8HourMeans - Compute the maximum of a set of 8-hour means.
-   * INPUTS:  final float[] data       Data to compare.
-   *          double hoursPerTimestep  Decimal hours per timestep.
-   * RETURNS: float maximum of a set of 8-hour means.
+   * PURPOSE: computeQuartiles - For a cell, compute the minimum, maximum,
+   *          median, first quartile, third quartile, range, fourth maximum
+   *          and custom percentile of its valid values.
+   * INPUTS:  float[] values   values[ 0 .. count - 1 ] valid values of the
+   *                           cell, in any order. They are reordered.
+   *          int count        Number of valid values.
+   *          double customPercentileValue  Percentile for CUSTOM_PERCENTILE.
+   * OUTPUTS: float[][][] statistics  statistics[ STATISTICS ][ row ][ column ]
+   * NOTES:   The values at the needed ranks are found by selection in
+   *          increasing rank order, each search starting at the previous
+   *          rank, which costs far less than sorting all of the values.
    **/
 
-  private static float maximum8HourMeans( final float[] data,
-                                          final double hoursPerTimestep ) {
-
-    final int count = (int) ( 8.0 / hoursPerTimestep + 0.5 );
-    final int timesteps = data.length - count;
-    float result = BADVAL3;
-
-    for ( int timestep = 0; timestep <= timesteps; ++timestep ) {
-      final int end = timestep + count;
-      final float windowMean = mean( data, timestep, end );
+  private static void computeQuartiles( final float[] values,
+                                        final int count,
+                                        final double customPercentileValue,
+                                        final float[][][] statistics,
+                                        final int row,
+                                        final int column ) {
+
+    if ( count == 0 ) {
+      statistics[ MINIMUM             ][ row ][ column ] = BADVAL3;
+      statistics[ MAXIMUM             ][ row ][ column ] = BADVAL3;
+      statistics[ RANGE               ][ row ][ column ] = BADVAL3;
+      statistics[ MEDIAN              ][ row ][ column ] = BADVAL3;
+      statistics[ FIRST_QUARTILE      ][ row ][ column ] = BADVAL3;
+      statistics[ THIRD_QUARTILE      ][ row ][ column ] = BADVAL3;
+      statistics[ INTERQUARTILE_RANGE ][ row ][ column ] = BADVAL3;
+      statistics[ FOURTH_MAX          ][ row ][ column ] = BADVAL3;
+      statistics[ CUSTOM_PERCENTILE   ][ row ][ column ] = BADVAL3;
+      return;
+    }
 
-      if ( windowMean > result ) {
-        result = windowMean;
+    final int last     = count - 1;
+    final int middle   = count / 2;
+    final int middle_1 = middle > 0 ? middle - 1 : 0;
+    final int lower    = count / 4;
+    final int lower_1  = lower > 0 ? lower - 1 : 0;
+    final int upper    = count * 3 / 4;
+    final int upper_1  = upper > 0 ? upper - 1 : 0;
+    final int custom   = (int)Math.round(count * customPercentileValue / 100.0);
+    final int custom_l = Math.min( custom > 0 ? custom - 1 : 0, last );
+    final int fourth   = last - 3;
+    final boolean oddNumberOfTimesteps = count % 2 != 0;
+
+    final int[] ranks = { 0, lower_1, lower, middle_1, middle, upper_1, upper,
+                          custom_l, fourth < 0 ? 0 : fourth, last };
+    java.util.Arrays.sort( ranks );
+    int previous = -1;
+
+    for ( final int rank : ranks ) {
+
+      if ( rank > previous ) {
+        select( values, previous + 1, last, rank );
+        previous = rank;
       }
     }
 
-    return result;
+    final float firstValue  = values[ 0 ];
+    final float lastValue   = values[ last ];
+    final float middleValue = values[ middle ];
+    final float lowerValue  = values[ lower ];
+    final float upperValue  = values[ upper ];
+
+    statistics[ MINIMUM    ][ row ][ column ] = firstValue;
+    statistics[ MAXIMUM    ][ row ][ column ] = lastValue;
+    statistics[ FOURTH_MAX ][ row ][ column ] =
+      fourth >= 0 ? values[ fourth ] : BADVAL3;
+    statistics[ RANGE      ][ row ][ column ] = lastValue - firstValue;
+    statistics[ CUSTOM_PERCENTILE ][ row ][ column ] = values[ custom_l ];
+
+    if ( oddNumberOfTimesteps ) {
+      statistics[ MEDIAN              ][ row ][ column ] = middleValue;
+      statistics[ FIRST_QUARTILE      ][ row ][ column ] = lowerValue;
+      statistics[ THIRD_QUARTILE      ][ row ][ column ] = upperValue;
+      statistics[ INTERQUARTILE_RANGE ][ row ][ column ] =
+        upperValue - lowerValue;
+    } else {
+      final float averageLowerValue =
+        ( lowerValue + values[ lower_1 ] ) * 0.5f;
+      final float averageUpperValue =
+        ( upperValue + values[ upper_1 ] ) * 0.5f;
+
+      statistics[ MEDIAN              ][ row ][ column ] =
+        ( middleValue + values[ middle_1 ] ) * 0.5f;
+      statistics[ FIRST_QUARTILE      ][ row ][ column ] = averageLowerValue;
+      statistics[ THIRD_QUARTILE      ][ row ][ column ] = averageUpperValue;
+      statistics[ INTERQUARTILE_RANGE ][ row ][ column ] =
+        averageUpperValue - averageLowerValue;
+    }
   }
 
   /**
-   * PURPOSE: mean - Compute the mean of a set of valid values from
-   *                 data[ first ] .. data[ end - 1 ].
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: float mean or BADVAL3 if all are invalid.
+   * PURPOSE: select - Reorder values[ first .. last ] so that values[ rank ]
+   *          holds the value it would hold if they were sorted, with no
+   *          larger value before it and no smaller value after it.
+   * INPUTS:  float[] values  Values to reorder.
+   *          int first       First index of the values to reorder.
+   *          int last        Last index of the values to reorder.
+   *          int rank        Index of the value to find.
+   * OUTPUTS: float[] values  Partially ordered values.
+   * NOTES:   Hoare's quickselect with median-of-three pivots.
    **/
 
-  private static float mean( final float[] data,
-                             final int first, final int end ) {
+  static void select( final float[] values, int first, int last,
+                      final int rank ) {
 
-    float result = BADVAL3;
-    int count = 0;
+    while ( last > first ) {
+      final int middle = ( first + last ) >>> 1;
 
-    for ( int index = first; index < end; ++index ) {
-      final float value = data[ index ];
+      if ( values[ middle ] < values[ first ] ) swap( values, middle, first );
+      if ( values[ last   ] < values[ first ] ) swap( values, last, first );
+      if ( values[ last   ] < values[ middle ] ) swap( values, last, middle );
 
-      if ( value > AMISS3 ) {
-        
-        if ( result <= BADVAL3 || result >= DataUtilities.NC_FILL_FLOAT) {
-          result = value;
-          count = 1;
-        } else {
-          final int count1 = count + 1;
-          result = ( count * result + value ) / count1;
-          count = count1;
-        }
-      }
-    }
+      final float pivot = values[ middle ];
+      int left = first;
+      int right = last;
 
-    return result;
-  }
+      while ( left <= right ) {
 
-  /**
-   * PURPOSE: firstValidIndex - Compute the index of the first valid value.
-   * INPUTS:  final float[] data  Data to compare.
-   * RETURNS: int 0-based index into data[] or -1 if all invalid.
-   **/
+        while ( values[ left ] < pivot ) {
+          ++left;
+        }
 
-  private static int firstValidIndex( final float[] data ) {
+        while ( values[ right ] > pivot ) {
+          --right;
+        }
 
-    final int count = data.length;
-    int result = -1;
+        if ( left <= right ) {
+          swap( values, left, right );
+          ++left;
+          --right;
+        }
+      }
 
-    for ( int index = 0; index < count; ++index ) {
-      final float value = data[ index ];
-      
-      if ( value > AMISS3 ) {
-        result = index;
-        index = count;
+      if ( rank <= right ) {
+        last = right;
+      } else if ( rank >= left ) {
+        first = left;
+      } else {
+        return;
       }
     }
+  }
 
-    return result;
+  private static void swap( final float[] values, final int i, final int j ) {
+    final float value = values[ i ];
+    values[ i ] = values[ j ];
+    values[ j ] = value;
   }
 
   /**
-   * PURPOSE: sumf - Kahan Sum an array of floats.
-   * INPUTS:  final float[] data  Data to sum.
-   *          final int first     Starting index into data[].
-   * RETURNS: double sum of valid values.
-   * NOTES:   Based on version published in: "Floating-Point Summation"
-   *          C/C++ Users Journal Sept 1996, pp 51-55, by Evan Manning.
+   * PURPOSE: maximum8HourMeans - Compute the maximum of a set of 8-hour means.
+   * INPUTS:  final float[] data       Data to compare.
+   *          double hoursPerTimestep  Decimal hours per timestep.
+   * RETURNS: float maximum of a set of 8-hour means of the valid, non-fill
+   *          values, or BADVAL3 if no window holds one.
+   * NOTES:   The window's sum and count of valid values are updated as it
+   *          slides rather than summed again for each window.
    **/
 
-  private static double sumf( final float[] data, final int first ) {
+  private static float maximum8HourMeans( final float[] data,
+                                          final double hoursPerTimestep ) {
 
-    final int count = data.length;
-    double sum        = 0.0; // The sum of the values in the array.
-    double correction = 0.0; // Kahan corrector subtracts each round-off error
+    final int count = (int) ( 8.0 / hoursPerTimestep + 0.5 );
+    final int timesteps = data.length - count;
+    float result = BADVAL3;
 
-    for ( int index = first; index < count; ++index ) {
-      final double nextTerm = data[ index ];
-      final double correctedNextTerm = nextTerm - correction;
-      final double newSum = sum + correctedNextTerm;
-      correction = ( newSum - sum ) - correctedNextTerm;
-      sum = newSum;
+    if ( count <= 0 ) {
+      return result;
     }
 
-    return sum;
-  }
-
-  /**
-   * PURPOSE: geometricMeanf - Compute the geometric mean of data[].
-   * INPUTS:  final float[] data  Data to read.
-   *          final int first     Starting index into data[].
-   * RETURNS: double geometric mean of valid values.
-   * @throws Exception 
-   **/
-
-  private static double geometricMeanf( final float[] data, final int first ) throws Exception {
+    double windowSum = 0.0;
+    int windowCount = 0;
 
-    final int count = data.length;
-    final int numberOfValues = count - first;
-    final double root    = numberOfValues > 0 ? 1.0 / numberOfValues : 0.0;
-    double geometricMean = numberOfValues > 0 ? 1.0 : 0.0;
+    for ( int index = 0; index < data.length; ++index ) {
+      final float value = data[ index ];
 
-    for ( int index = first; index < numberOfValues; ++index ) {
-      final double nextTerm = data[ index ];
-      geometricMean *= java.lang.Math.pow( nextTerm, root );
-    }
-    
-    if ( Double.isNaN(geometricMean)){
-    	//throw new Exception("Geometric Mean is not a number");
-    }
+      if ( validInWindow( value ) ) {
+        windowSum += value;
+        ++windowCount;
+      }
 
-    return geometricMean;
-  }
+      final int timestep = index - count + 1; // First timestep in the window.
 
-  /**
-   * PURPOSE: variancef - Compute the variance of data[].
-   * INPUTS:  final float[] data  Data to read.
-   *          final int first     Starting index into data[].
-   *          final double mean   mean of the data.
-   * RETURNS: double variance of the data from its mean.
-   * NOTES:   Based on Kahan summation.
-   **/
+      if ( timestep > timesteps ) {
+        break;
+      }
 
-  private static double variancef( final float[] data, final int first,
-                                   final double mean ) {
+      if ( timestep >= 0 ) {
 
-    final int count = data.length;
-    final int numberOfValues = count - first;
-    double s2         = 0.0; // The variance.
-    double sum        = 0.0; // The sum of the squares of the differences of
-                             // each data value and the mean.
-    double correction = 0.0; // Kahan corrector subtracts each round-off error
-
-    for ( int index = first; index < count; ++index ) {
-      final double value             = data[ index ];
-      final double meanDifference    = value - mean;
-      final double nextTerm          = meanDifference * meanDifference;
-      final double correctedNextTerm = nextTerm - correction;
-      final double newSum            = sum + correctedNextTerm;
-      correction = ( newSum - sum ) - correctedNextTerm;
-      sum = newSum;
-    }
+        if ( windowCount > 0 ) {
+          final float windowMean = (float) ( windowSum / windowCount );
 
-    if ( numberOfValues > 1 ) {
-      s2 = sum / ( numberOfValues - 1 );
-    }
-    return s2;
-  }
+          if ( windowMean > result ) {
+            result = windowMean;
+          }
+        }
 
-  /**
-   * PURPOSE: exceedance - Compute the number of values in data[] that are
-   *          greater than threshold.
-   * INPUTS:  final float[] data  Data to read.
-   *          final int first     Starting index into data[].
-   *          final double threshold  Threshold to compare to.
-   * RETURNS: int the number of data values greater than threshold.
-   **/
+        final float firstValue = data[ timestep ];
 
-  private static int exceedance( final float[] data, final int first,
-                                 final double threshold ) {
-    final int count = data.length;
-    int result = 0;
+        if ( validInWindow( firstValue ) ) {
+          windowSum -= firstValue;
+          --windowCount;
 
-    for ( int index = first; index < count; ++index ) {
-      
-      if ( data[ index ] > threshold ) {
-        ++result;
+          if ( windowCount == 0 ) {
+            windowSum = 0.0; // Discard accumulated round-off.
+          }
+        }
       }
     }
 
     return result;
   }
-};
\ No newline at end of file
+
+  // Fill values are left out of the sliding sums so that they cannot
+  // swamp the other values of the windows they pass through:
+
+  private static boolean validInWindow( final float value ) {
+    return value > AMISS3 && value < DataUtilities.NC_FILL_FLOAT;
+  }
+};
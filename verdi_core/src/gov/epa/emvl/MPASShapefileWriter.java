@@ -13,7 +13,7 @@ package gov.epa.emvl;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.logging.log4j.LogManager;		// 2014
 import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println with logger messages
@@ -24,7 +24,7 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import anl.verdi.data.ArrayReader;
 import anl.verdi.data.DataFrame;
 import anl.verdi.data.MPASDataFrameIndex;
-import anl.verdi.data.MeshCellInfo;
+import anl.verdi.data.MeshGeometry;
 
 public final class MPASShapefileWriter {
 	static final Logger Logger = LogManager.getLogger(MPASShapefileWriter.class.getName());
@@ -81,7 +81,7 @@ public final class MPASShapefileWriter {
                             final String variable, final ArrayReader renderVariable, DataFrame dataFrame,
                             final int timestep,
                             final int layer,
-                            MeshCellInfo[] cells, CoordinateReferenceSystem crs ) throws IOException {
+                            MeshGeometry mesh, int cellCount, CoordinateReferenceSystem crs ) throws IOException {
 
     // What it is NOT:  Many Java users and developers assume that a 64-bit implementation
     // means that many of the built-in Java types are doubled in size from 32 to 64.  
@@ -93,31 +93,32 @@ public final class MPASShapefileWriter {
     // would continue running just as they do under a 32-bit VM.
     
 	//Debug - export subset
-	ArrayList<MeshCellInfo> newCells = new ArrayList<MeshCellInfo>();
-	for (int i = 0; i < cells.length; ++i) {
-		if (cells[i].getMinX() >= minLon &&
-				cells[i].getMaxX() <= maxLon &&
-				cells[i].getMinY() >= minLat &&
-				cells[i].getMaxY() <= maxLat)
-			newCells.add(cells[i]);
+	int[] cells = new int[cellCount];
+	int selected = 0;
+	for (int c = 0; c < cellCount; ++c) {
+		if (mesh.getMinLon(c) >= minLon &&
+				mesh.getMaxLon(c) <= maxLon &&
+				mesh.getMinLat(c) >= minLat &&
+				mesh.getMaxLat(c) <= maxLat)
+			cells[selected++] = c;
 	}
 	
-	cells = newCells.toArray(new MeshCellInfo[0]);
+	cells = Arrays.copyOf(cells, selected);
 	int numVertices = 0;
 	minLon = Double.POSITIVE_INFINITY;
 	maxLon = Double.NEGATIVE_INFINITY;
 	minLat = Double.POSITIVE_INFINITY;
 	maxLat = Double.NEGATIVE_INFINITY;
 	for (int i = 0; i < cells.length; ++i) {
-		numVertices = numVertices + cells[i].getNumVertices() + 1;
-		if (cells[i].getMinX() < minLon)
-			minLon = cells[i].getMinX();
-		if (cells[i].getMaxX() > maxLon)
-			maxLon = cells[i].getMaxX();
-		if (cells[i].getMinY() < minLat)
-			minLat = cells[i].getMinY();
-		if (cells[i].getMaxY() > maxLat)
-			maxLat = cells[i].getMaxY();
+		numVertices = numVertices + mesh.getNumVertices(cells[i]) + 1;
+		if (mesh.getMinLon(cells[i]) < minLon)
+			minLon = mesh.getMinLon(cells[i]);
+		if (mesh.getMaxLon(cells[i]) > maxLon)
+			maxLon = mesh.getMaxLon(cells[i]);
+		if (mesh.getMinLat(cells[i]) < minLat)
+			minLat = mesh.getMinLat(cells[i]);
+		if (mesh.getMaxLat(cells[i]) > maxLat)
+			maxLat = mesh.getMaxLat(cells[i]);
 	}
 		
     final int BYTES_PER_INT = 4;
@@ -190,7 +191,7 @@ public final class MPASShapefileWriter {
       int offset = HEADER_BYTES / 2;
       for ( int i = 0; i < cells.length; ++i ) {
     	writeInt( recordHeader, 0, offset, BIG);
-    	int length = (RECORD_CONTENT_BYTES_SHP + 2 * BYTES_PER_DOUBLE * (cells[i].getNumVertices() + 1)) / 2;
+    	int length = (RECORD_CONTENT_BYTES_SHP + 2 * BYTES_PER_DOUBLE * (mesh.getNumVertices(cells[i]) + 1)) / 2;
     	writeInt( recordHeader, 4, length, BIG );
     	offset += length + RECORD_HEADER_BYTES_SHP / 2;
     	file.write( recordHeader );
@@ -216,7 +217,7 @@ public final class MPASShapefileWriter {
 
       for ( int i = 0; i < cells.length; ++i ) {	  
           writeInt( recordHeader, 0, i + 1, BIG );
-          int length = (RECORD_CONTENT_BYTES_SHP + 2 * BYTES_PER_DOUBLE * (cells[i].getNumVertices() + 1)) / 2;
+          int length = (RECORD_CONTENT_BYTES_SHP + 2 * BYTES_PER_DOUBLE * (mesh.getNumVertices(cells[i]) + 1)) / 2;
           writeInt( recordHeader, 4, length, BIG );
         file.write( recordHeader );
         file.flush();
@@ -225,28 +226,28 @@ public final class MPASShapefileWriter {
 
 
 
-        byteIndex = writeDouble( recordContents, 4, cells[i].getMinX(), LITTLE );
+        byteIndex = writeDouble( recordContents, 4, mesh.getMinLon(cells[i]), LITTLE );
         byteIndex =
-          writeDouble( recordContents, byteIndex, cells[i].getMinY(), LITTLE );
+          writeDouble( recordContents, byteIndex, mesh.getMinLat(cells[i]), LITTLE );
         byteIndex =
-          writeDouble( recordContents, byteIndex, cells[i].getMaxX(), LITTLE );
+          writeDouble( recordContents, byteIndex, mesh.getMaxLon(cells[i]), LITTLE );
         byteIndex =
-          writeDouble( recordContents, byteIndex, cells[i].getMaxY(), LITTLE);
+          writeDouble( recordContents, byteIndex, mesh.getMaxLat(cells[i]), LITTLE);
         
         byteIndex = writeInt( recordContents, byteIndex, 1, LITTLE );
-        byteIndex = writeInt( recordContents, byteIndex, cells[i].getNumVertices() + 1, LITTLE );
+        byteIndex = writeInt( recordContents, byteIndex, mesh.getNumVertices(cells[i]) + 1, LITTLE );
         byteIndex = writeInt( recordContents, byteIndex, 0, LITTLE );
 
-        for (int j = cells[i].getNumVertices() - 1; j >= 0; --j) {
+        for (int j = mesh.getNumVertices(cells[i]) - 1; j >= 0; --j) {
         	byteIndex =
-        	          writeDouble( recordContents, byteIndex,cells[i].getLon(j), LITTLE );
+        	          writeDouble( recordContents, byteIndex,mesh.getLon(cells[i], j), LITTLE );
         	byteIndex =
-      	          writeDouble( recordContents, byteIndex,cells[i].getLat(j), LITTLE );
+      	          writeDouble( recordContents, byteIndex,mesh.getLat(cells[i], j), LITTLE );
         }
     	byteIndex =
-  	          writeDouble( recordContents, byteIndex,cells[i].getLon(cells[i].getNumVertices() - 1), LITTLE );
+  	          writeDouble( recordContents, byteIndex,mesh.getLon(cells[i], mesh.getNumVertices(cells[i]) - 1), LITTLE );
     	byteIndex =
-	          writeDouble( recordContents, byteIndex,cells[i].getLat(cells[i].getNumVertices() - 1), LITTLE );
+	          writeDouble( recordContents, byteIndex,mesh.getLat(cells[i], mesh.getNumVertices(cells[i]) - 1), LITTLE );
 
         file.write(recordContents, 0, length * 2);
         file.flush();
@@ -261,14 +262,14 @@ public final class MPASShapefileWriter {
     }
 
     if ( variable != null && cells != null ) {
-      writeDBF( fileName, variable, renderVariable, dataFrame, timestep, layer, cells );
+      writeDBF( fileName, variable, renderVariable, dataFrame, timestep, layer, mesh, cells );
       writePRJ( fileName, crs );
     }
   }
   
   
   private static void writeDBF( final String fileName, final String variable, final ArrayReader renderVariable, final DataFrame dataFrame,
-          final int timestep, final int layer, MeshCellInfo[] cells ) throws IOException {
+          final int timestep, final int layer, MeshGeometry mesh, int[] cells ) throws IOException {
 	  DbaseFileHeader header = new DbaseFileHeader();
 	  header.addColumn("ID", 'N', 10, 0);
       header.addColumn(variable, 'F', 20, 6);
@@ -281,8 +282,10 @@ public final class MPASShapefileWriter {
       MPASDataFrameIndex index = new MPASDataFrameIndex(dataFrame);
       for (int i = 0; i < cells.length; ++i) {
     	  Object[] row = new Object[2];
-    	  row[0] = new Double(cells[i].getId());
-    	  row[1] = new Double(cells[i].getValue(renderVariable, dataFrame, index, timestep, layer));
+    	  int id = mesh.getId(cells[i]);
+    	  index.set(timestep, layer, id);
+    	  row[0] = new Double(id);
+    	  row[1] = new Double(renderVariable.get(dataFrame, index));
        	  dbf.write(row);
       }
       dbf.close();  
@@ -9,6 +9,8 @@ package gov.epa.emvl;
 //import org.geotools.referencing.CRS;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -57,6 +59,9 @@ public class Mapper {
 	private static String defaultMapFileDirectory = null;
 	private Projection projection;
 	private CoordinateReferenceSystem targetCRS;
+	// the layers last drawn as an overlay, and what they were drawn for
+	private BufferedImage overlayImage = null;
+	private List<Object> overlayState = null;
 	
 	public Mapper(String directoryName) {
 		this(directoryName, null, null);
@@ -109,6 +114,19 @@ public class Mapper {
 			final CoordinateReferenceSystem gridCRS, final Graphics graphics, int xOffset,
 			int yOffset, int width, int height, boolean withHucs,
 			boolean withRivers, boolean withRoads) {
+		draw(domain, gridBounds, gridCRS, graphics, xOffset, yOffset, width, height,
+				withHucs, withRivers, withRoads, false);
+	}
+
+	// Draw the map as above. With cacheOverlay the layers are drawn into a transparent
+	// image that is drawn again, without drawing the layers, while the layers, their
+	// styles, the grid bounds and the size stay the same, e.g. for each frame of an
+	// animation. Only use it when graphics draws to an image or the screen: the
+	// layers of a vector (EPS) export must be drawn as lines.
+	public void draw(final double[][] domain, final double[][] gridBounds,
+			final CoordinateReferenceSystem gridCRS, final Graphics graphics, int xOffset,
+			int yOffset, int width, int height, boolean withHucs,
+			boolean withRivers, boolean withRoads, boolean cacheOverlay) {
 		// 2015 get to this upon completion of gov.epa.emvl.TilePlot - all done with TilePlot.draw
 		// gov.epa.emvl.Projector projector: projection of the overall map to be drawn
 		// java.awt.Graphics graphics
@@ -158,6 +176,12 @@ public class Mapper {
 		}
 		Logger.debug("number of layers now = " + layers.size());	// now = 1
 
+		if (cacheOverlay && width > 0 && height > 0) {
+			drawOverlay(domain, gridBounds, gridCRS, (Graphics2D) graphics, xOffset, yOffset, width, height);
+			graphics.setColor(mapColor);
+			return;
+		}
+
 		// start looping through the VerdiBoundaries
 		for (VerdiBoundaries layer : layers) {
 			Logger.debug("drawing for a layer");	// OK to here
@@ -191,6 +215,42 @@ public class Mapper {
 		}
 	}
 	
+	// Draw the layers through the overlay image, drawing them into it first if anything
+	// they are drawn for has changed.
+	private synchronized void drawOverlay(final double[][] domain, final double[][] gridBounds,
+			final CoordinateReferenceSystem gridCRS, final Graphics2D graphics, int xOffset,
+			int yOffset, int width, int height) {
+		List<Object> state = new ArrayList<Object>();
+		state.add(gridCRS);
+		state.add(width);
+		state.add(height);
+		for (double[] bounds : gridBounds) {
+			for (double bound : bounds)
+				state.add(bound);
+		}
+		for (VerdiBoundaries layer : layers)
+			state.add(layer.getDrawState());
+		state.add(graphics.getRenderingHints());
+
+		if (overlayImage == null || !state.equals(overlayState)) {
+			Logger.debug("drawing the map layers into the overlay image");
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D imageGraphics = image.createGraphics();
+			try {
+				imageGraphics.setRenderingHints(graphics.getRenderingHints());
+				for (VerdiBoundaries layer : layers) {
+					imageGraphics.setColor(mapColor);
+					layer.draw(domain, gridBounds, gridCRS, imageGraphics, 0, 0, width, height);
+				}
+			} finally {
+				imageGraphics.dispose();
+			}
+			overlayImage = image;
+			overlayState = state;
+		}
+		graphics.drawImage(overlayImage, xOffset, yOffset, null);
+	}
+
 	public void setLayerStyle(TilePlotConfiguration config) {
 		Color color = config.getLayerColor();
 		int width = config.getLayerLineSize();
@@ -5,35 +5,110 @@
 package gov.epa.emvl;
 
 import ucar.unidata.geoloc.Projection;
+import ucar.unidata.geoloc.ProjectionImpl;
 import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.ProjectionPointImpl;
 
+// Holds no state between calls, so it may be used by many threads at once.
+// Prefer the array methods for more than a few points.
+
 public class Projector {
 
   private final Projection projection;
-  private final LatLonPointImpl latLon = new LatLonPointImpl();
-  private ProjectionPointImpl xyPoint = new ProjectionPointImpl();
-  private final double scale = 1000.0; // Must scale projected points! UGLY!
+  private final double scale; // Must scale projected points! UGLY!
 
   public Projector( Projection projection ) {
+    this( projection, 1000.0 );
+  }
+
+  // Projected points are the projection's coordinates times scale.
+
+  public Projector( Projection projection, double scale ) {
     this.projection = projection;
+    this.scale = scale;
   }
-  // synchronized keywords added to avoid threading problems with draws - Mary Ann Bitz 6/09/09
-  public synchronized void project( double longitude, double latitude, double[] xy ) {
-    latLon.set( latitude, longitude );
+
+  public void project( double longitude, double latitude, double[] xy ) {
+    final LatLonPointImpl latLon = new LatLonPointImpl( latitude, longitude );
+    final ProjectionPointImpl xyPoint = new ProjectionPointImpl();
     projection.latLonToProj( latLon, xyPoint );
-    xy[ 0 ] = xyPoint.getX() * scale; 
-    xy[ 1 ] = xyPoint.getY() * scale; 
+    xy[ 0 ] = xyPoint.getX() * scale;
+    xy[ 1 ] = xyPoint.getY() * scale;
   }
 
-  public synchronized void unproject( double x, double y, double[] lonlat ) {
-    xyPoint = new ProjectionPointImpl( x / scale, y / scale );
+  public void unproject( double x, double y, double[] lonlat ) {
+    final ProjectionPointImpl xyPoint = new ProjectionPointImpl( x / scale, y / scale );
+    final LatLonPointImpl latLon = new LatLonPointImpl();
     projection.projToLatLon( xyPoint, latLon );
-    lonlat[ 0 ] = latLon.getLongitude(); 
-    lonlat[ 1 ] = latLon.getLatitude(); 
+    lonlat[ 0 ] = latLon.getLongitude();
+    lonlat[ 1 ] = latLon.getLatitude();
+  }
+
+  // Project the first count points of longitudes, latitudes into x, y.
+  // The output arrays may be the input arrays.
+
+  public void project( double[] longitudes, double[] latitudes,
+                       double[] x, double[] y, int count ) {
+
+    if ( projection instanceof ProjectionImpl ) {
+      final double[][] from = { copy( latitudes, count, 1.0 ),
+                                copy( longitudes, count, 1.0 ) };
+      final double[][] to = { new double[ count ], new double[ count ] };
+      ( (ProjectionImpl) projection ).latLonToProj( from, to,
+        ProjectionImpl.INDEX_LAT, ProjectionImpl.INDEX_LON );
+
+      for ( int point = 0; point < count; ++point ) {
+        x[ point ] = to[ ProjectionImpl.INDEX_X ][ point ] * scale;
+        y[ point ] = to[ ProjectionImpl.INDEX_Y ][ point ] * scale;
+      }
+    } else {
+      final double[] xy = { 0.0, 0.0 };
+
+      for ( int point = 0; point < count; ++point ) {
+        project( longitudes[ point ], latitudes[ point ], xy );
+        x[ point ] = xy[ 0 ];
+        y[ point ] = xy[ 1 ];
+      }
+    }
+  }
+
+  // Unproject the first count points of x, y into longitudes, latitudes.
+  // The output arrays may be the input arrays.
+
+  public void unproject( double[] x, double[] y,
+                         double[] longitudes, double[] latitudes, int count ) {
+
+    if ( projection instanceof ProjectionImpl ) {
+      final double[][] from = { copy( x, count, 1.0 / scale ),
+                                copy( y, count, 1.0 / scale ) };
+      final double[][] to = { new double[ count ], new double[ count ] };
+      ( (ProjectionImpl) projection ).projToLatLon( from, to );
+
+      // projToLatLon stores latitudes in to[ 0 ] and longitudes in to[ 1 ]:
+      System.arraycopy( to[ 0 ], 0, latitudes, 0, count );
+      System.arraycopy( to[ 1 ], 0, longitudes, 0, count );
+    } else {
+      final double[] lonlat = { 0.0, 0.0 };
+
+      for ( int point = 0; point < count; ++point ) {
+        unproject( x[ point ], y[ point ], lonlat );
+        longitudes[ point ] = lonlat[ 0 ];
+        latitudes[ point ] = lonlat[ 1 ];
+      }
+    }
   }
 
   public Projection getProjection() {
 	  return projection;
   }
+
+  private static double[] copy( double[] values, int count, double factor ) {
+    final double[] result = new double[ count ];
+
+    for ( int index = 0; index < count; ++index ) {
+      result[ index ] = values[ index ] * factor;
+    }
+
+    return result;
+  }
 }
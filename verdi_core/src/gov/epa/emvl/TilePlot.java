@@ -10,6 +10,7 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.text.NumberFormat;
@@ -28,6 +29,7 @@ import org.apache.logging.log4j.Logger;			// 2014 replacing System.out.println w
 import anl.verdi.area.target.GridInfo;
 import anl.verdi.data.DataUtilities;
 import anl.verdi.plot.config.PlotConfiguration;
+import anl.verdi.plot.color.ColorBinner;
 import anl.verdi.plot.config.TilePlotConfiguration;
 import anl.verdi.plot.gui.ObsAnnotation;
 import anl.verdi.plot.gui.ObsAnnotation.Symbol;
@@ -1075,11 +1077,24 @@ public class TilePlot {
 		// Color entire grid area with the lowest legend color then
 		// avoid drawing the (usually numerous) grid cells that have that color.
 
+		final ColorBinner binner = colorIndexCache == null ? getBinner(legendLevels) : null;
+
+		// Write the cells straight into the pixels of the image when possible:
+
+		if (TileRaster.canRender(rasterImage, graphics)) {
+			TileRaster.render(rasterImage, graphics, xMinimum, xMaximum, yMinimum, yMaximum,
+					rows, columns, legendColors, data, binner, colorIndexCache);
+			graphics.setColor(Color.LIGHT_GRAY);
+			graphics.drawRect(xMinimum, yMinimum, (int) width, (int) height);
+			graphics.setColor(gColor);
+			return;
+		}
+
 		graphics.setColor(backgroundColor);
 		
 		if (rows == 1 && columns == 1) {
 			float dat = data[0][0];
-			int index = colorIndexCache == null ? indexOfValue(dat, legendLevels) : colorIndexCache[0][0];
+			int index = colorIndexCache == null ? binner.indexOf(dat) : colorIndexCache[0][0];
 			graphics.setColor(index == -1 ? Color.WHITE : legendColors[index]);
 		}
 		
@@ -1104,7 +1119,7 @@ public class TilePlot {
 				//final 
 				float datum = data[dataRow][dataColumn];
 				
-				final int colorIndex = colorIndexCache == null ? indexOfValue(datum, legendLevels) : colorIndexCache[dataRow][dataColumn];
+				final int colorIndex = colorIndexCache == null ? binner.indexOf(datum) : colorIndexCache[dataRow][dataColumn];
 
 				final Color cellColor = (colorIndex == -1 ? Color.WHITE : legendColors[colorIndex]);
 				
@@ -1150,11 +1165,36 @@ public class TilePlot {
 	}
 	
 	public byte[][] calculateColorIndices(final float[][] data, final double[] legendLevels) {
-		byte[][] indices = new byte[data.length][data[0].length];
-		for (int i = 0; i < data.length; ++i)
-			for (int j = 0; j < data[i].length; ++j)
-				indices[i][j] = indexOfValue(data[i][j], legendLevels);
-		return indices;
+		return calculateColorIndices(data, legendLevels, null);
+	}
+	
+	/**
+	 * calculateColorIndices - legend color index of each data value, -1 for missing values.
+	 * indices is reused if it has the same shape as data, otherwise a new array is returned.
+	 */
+	public byte[][] calculateColorIndices(final float[][] data, final double[] legendLevels, byte[][] indices) {
+		return getBinner(legendLevels).indexOf(data, indices);
+	}
+	
+	private ColorBinner binner = null;
+	
+	private BufferedImage rasterImage = null;
+	
+	/**
+	 * setRasterImage - image that the graphics passed to draw render into.
+	 * When set, grid cells are written directly into its pixels rather than
+	 * drawn as rectangles, unless the graphics are scaled or rotated.
+	 * Set to null to always draw through the graphics.
+	 */
+	public synchronized void setRasterImage(final BufferedImage image) {
+		rasterImage = image;
+	}
+	
+	// the binner is kept while the legend levels are unchanged
+	private synchronized ColorBinner getBinner(final double[] legendLevels) {
+		if (binner == null || !binner.matches(legendLevels))
+			binner = new ColorBinner(legendLevels);
+		return binner;
 	}
 	
 	/**
@@ -1209,35 +1249,6 @@ public class TilePlot {
 			graphics.drawLine( xpMinimum, yp, xpMaximum, yp );
 		}
 	}
-
-	/**
-	 * indexOfValue - Clamped index of value within range.
-	 * 
-	 * @pre ! Numerics.isNan( value )
-	 * @pre values != null
-	 * @pre values.length >= 2
-	 * @post return >= 0
-	 * @post return < values.length - 1
-	 * @post value >= values[ return ]
-	 * @post value <= values[ return ]
-	 */
-
-	private static byte indexOfValue(float value, final double[] values) { // TODO: log color legend: take log on value
-		if (new Float(value).toString().equals("NaN") || value <= DataUtilities.AMISS3 || value <= DataUtilities.BADVAL3 || value >= DataUtilities.NC_FILL_FLOAT)
-			return -1;
-		
-		final int count = values.length;
-		
-		if (values[0] == values[values.length-1])
-			return 0;
-
-		for (int index = 1; index < count; index++) {
-			if (values[index] > value)
-				return (byte)(index - 1);
-		}
-
-		return (byte)(count - 2);
-	}
 	
 	/**
 	 * dateTime - create date-time string.
@@ -0,0 +1,134 @@
+/**
+ * TileRaster - Writes tile plot grid cells directly into the pixels of an image
+ * @version $Revision$ $Date$
+ **/
+
+package gov.epa.emvl;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import anl.verdi.plot.color.ColorBinner;
+import anl.verdi.util.ParallelUtilities;
+
+public final class TileRaster {
+
+	private TileRaster() {} // Non-instantiable.
+
+	// number of pixel rows filled by a single task
+	private static final int ROWS_PER_TASK = 32;
+
+	/**
+	 * canRender - whether the graphics draw into image with no more than a translation,
+	 * so that grid cells can be written into its pixels.
+	 */
+
+	public static boolean canRender(final BufferedImage image, final Graphics graphics) {
+		if (image == null || !(graphics instanceof Graphics2D))
+			return false;
+		final int type = image.getType();
+		if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB)
+			return false;
+		if (!(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+				|| !(image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel))
+			return false;
+		if (image.getRaster().getDataBuffer().getOffset() != 0
+				|| image.getRaster().getSampleModelTranslateX() != 0
+				|| image.getRaster().getSampleModelTranslateY() != 0)
+			return false; // a sub-image of a larger one
+		final AffineTransform transform = ((Graphics2D) graphics).getTransform();
+		return (transform.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0
+				&& transform.getTranslateX() == Math.rint(transform.getTranslateX())
+				&& transform.getTranslateY() == Math.rint(transform.getTranslateY());
+	}
+
+	/**
+	 * render - fill the area [xMinimum, xMaximum) x [yMinimum, yMaximum) of the image
+	 * with the legend color of each grid cell, sampling the nearest cell for each pixel.
+	 * The first data row is drawn at the bottom. Cells with missing data are drawn white.
+	 * Rows of pixels are filled in parallel.
+	 *
+	 * @pre canRender( image, graphics )
+	 * @pre data != null || colorIndexCache != null
+	 */
+
+	public static void render(final BufferedImage image, final Graphics graphics,
+			int xMinimum, int xMaximum, int yMinimum, int yMaximum,
+			final int rows, final int columns,
+			final Color[] legendColors, final float[][] data,
+			final ColorBinner binner, final byte[][] colorIndexCache) {
+
+		final AffineTransform transform = ((Graphics2D) graphics).getTransform();
+		final int tx = (int) transform.getTranslateX();
+		final int ty = (int) transform.getTranslateY();
+
+		// Pixels to fill, in image coordinates, within the image and the clip:
+
+		Rectangle area = new Rectangle(xMinimum + tx, yMinimum + ty, xMaximum - xMinimum, yMaximum - yMinimum);
+		area = area.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+		final Rectangle clip = graphics.getClipBounds();
+		if (clip != null)
+			area = area.intersection(new Rectangle(clip.x + tx, clip.y + ty, clip.width, clip.height));
+		if (area.isEmpty())
+			return;
+
+		final float xDelta = (float) (xMaximum - xMinimum) / columns;
+		final float yDelta = (float) (yMaximum - yMinimum) / rows;
+		final int x0 = xMinimum + tx;
+		final int y0 = yMinimum + ty;
+
+		// The grid column of each pixel column and the grid row of each pixel row:
+
+		final int[] pixelColumns = new int[area.width];
+		for (int i = 0; i < area.width; ++i) {
+			final int column = (int) ((area.x + i - x0 + 0.5f) / xDelta);
+			pixelColumns[i] = Math.min(columns - 1, Math.max(0, column));
+		}
+
+		final int[] pixelRows = new int[area.height];
+		for (int i = 0; i < area.height; ++i) {
+			final int row = rows - 1 - (int) ((area.y + i - y0 + 0.5f) / yDelta);
+			pixelRows[i] = Math.min(rows - 1, Math.max(0, row));
+		}
+
+		// Color of each legend index, shifted by one so missing data (-1) is white:
+
+		final int[] rgb = new int[legendColors.length + 1];
+		rgb[0] = Color.WHITE.getRGB();
+		for (int i = 0; i < legendColors.length; ++i)
+			rgb[i + 1] = legendColors[i].getRGB();
+
+		final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final int stride = ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride();
+		final Rectangle fill = area;
+
+		ParallelUtilities.forRange(0, fill.height, ROWS_PER_TASK, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				final byte[] rowIndices = new byte[columns];
+				int previousRow = -1;
+
+				for (int i = from; i < to; ++i) {
+					final int dataRow = pixelRows[i];
+
+					if (dataRow != previousRow) {
+						if (colorIndexCache != null)
+							System.arraycopy(colorIndexCache[dataRow], 0, rowIndices, 0, columns);
+						else
+							binner.indexOf(data[dataRow], 0, columns, rowIndices);
+						previousRow = dataRow;
+					}
+
+					int offset = (fill.y + i) * stride + fill.x;
+					for (int j = 0; j < fill.width; ++j)
+						pixels[offset++] = rgb[rowIndices[pixelColumns[j]] + 1];
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,72 @@
+package anl.verdi.area.target;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * @version $Revision$ $Date$
+ */
+public class TargetIntersectorTest extends TestCase {
+
+	private GeometryFactory factory = new GeometryFactory();
+
+	private LinearRing ring(double... xy) {
+		Coordinate[] coords = new Coordinate[xy.length / 2 + 1];
+		for (int i = 0; i < xy.length / 2; i++)
+			coords[i] = new Coordinate(xy[2 * i], xy[2 * i + 1]);
+		coords[coords.length - 1] = coords[0];
+		return factory.createLinearRing(coords);
+	}
+
+	// the overlap of each cell calculated with a full intersection
+	private void check(Geometry poly, int rows, int columns, double west, double south, double width, double height) {
+		Map<String, Double> expected = new HashMap<String, Double>();
+		for (int i = 0; i < columns; i++) {
+			for (int j = 0; j < rows; j++) {
+				Geometry cell = factory.toGeometry(new Envelope(west + i * width, west + (i + 1) * width,
+								south + j * height, south + (j + 1) * height));
+				double area = poly.intersection(cell).getArea();
+				if ((float) area > 0)
+					expected.put(j + "," + i, area);
+			}
+		}
+
+		TargetIntersector.Overlap overlap = new TargetIntersector(null, factory).intersectGrid(poly, rows, columns,
+						west, south, width, height, 1);
+		assertEquals(expected.size(), overlap.getRowIndex().length);
+		for (int k = 0; k < overlap.getRowIndex().length; k++) {
+			Double area = expected.get(overlap.getRowIndex()[k] + "," + overlap.getColIndex()[k]);
+			assertNotNull(area);
+			assertEquals(area, overlap.getOverlapArea()[k], area * 1e-5);
+		}
+	}
+
+	public void testConcave() {
+		// a U shape crossing several cells, with a hole
+		Polygon poly = factory.createPolygon(ring(0.5, 0.5, 5.5, 0.5, 5.5, 4.2, 4.1, 4.2, 4.1, 1.7, 1.3, 1.7, 1.3, 4.6, 0.5, 4.6),
+						new LinearRing[] { ring(2, 0.8, 3.5, 0.8, 3.5, 1.2, 2, 1.2) });
+		check(factory.createMultiPolygon(new Polygon[] { poly }), 6, 7, 0, 0, 1, 1);
+	}
+
+	public void testOutsideGrid() {
+		Polygon poly = factory.createPolygon(ring(-2.5, -1.5, 2.5, -1.5, 1.5, 2.5), null);
+		check(factory.createMultiPolygon(new Polygon[] { poly }), 3, 3, 0, 0, 1, 1);
+
+		Polygon away = factory.createPolygon(ring(10, 10, 11, 10, 11, 11), null);
+		assertTrue(new TargetIntersector(null, factory).intersectGrid(away, 3, 3, 0, 0, 1, 1, 1).isEmpty());
+	}
+
+	public void testWithinCell() {
+		Polygon poly = factory.createPolygon(ring(120.2, 40.1, 120.7, 40.3, 120.4, 40.9), null);
+		check(factory.createMultiPolygon(new Polygon[] { poly }), 4, 4, 118, 38, 1.5, 1.5);
+	}
+}
@@ -3,16 +3,20 @@ package anl.verdi.data;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.FloatBuffer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
 
 //import javax.measure.units.Unit;		// JScience changed its hierarchy
 //import javax.measure.unit.Unit;
@@ -30,6 +34,7 @@ import ucar.ma2.Array;
 import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
 import anl.verdi.formula.Formula;
+import anl.verdi.formula.FormulaCache;
 import anl.verdi.formula.FormulaFactory;
 import anl.verdi.formula.IllegalFormulaException;
 import anl.verdi.formula.ValidationResult;
@@ -1069,6 +1074,437 @@ public class DataTests extends TestCase {
 		manager.closeAllDatasets();
 	}
 
+	public void testTimeStepAveragerByTimeStep() throws InvalidRangeException {
+		// large enough that each slab is summed in parallel
+		int[] shape = new int[]{3, 2, 300, 400};
+		Array array = ArrayFactory.createDoubleArray(shape);
+		Random random = new Random();
+		for (int i = 0; i < array.getSize(); i++) {
+			array.setDouble(i, random.nextInt(10));
+		}
+
+		DataFrameBuilder builder = new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 3));
+		DataFrame frame = builder.createDataFrame();
+		TimeStepAverager averager = new TimeStepAverager();
+		DataFrame expected = averager.transform(frame);
+
+		// average each time step as a frame of its own
+		assertEquals(shape[1], averager.getAveragesPerTimeStep(frame));
+		double[] averages = new double[shape[0] * shape[1]];
+		for (int t = 0; t < shape[0]; t++) {
+			Slice slice = new Slice();
+			slice.setTimeRange(t, 1);
+			averager.averageTimeStep(frame.slice(slice), 0, averages, t * shape[1]);
+		}
+		DataFrame averaged = averager.createFrame(frame, frame.getAxes().getTimeAxis(), averages);
+
+		assertEquals(2, averaged.getAxes().getAxes().size());
+		assertEquals(shape[0], averaged.getAxes().getTimeAxis().getExtent());
+		assertEquals(shape[1], averaged.getAxes().getZAxis().getExtent());
+		DataFrameIndex expectedIndex = expected.getIndex();
+		DataFrameIndex dfIndex = averaged.getIndex();
+		for (int t = 0; t < shape[0]; t++) {
+			for (int l = 0; l < shape[1]; l++) {
+				expectedIndex.set(t, l, 0, 0);
+				dfIndex.set(t, l, 0, 0);
+				double sum = 0;
+				for (int y = 0; y < shape[2]; y++) {
+					for (int x = 0; x < shape[3]; x++) {
+						sum += array.getDouble(array.getIndex().set(t, l, y, x));
+					}
+				}
+				assertEquals(sum / (shape[2] * shape[3]), averaged.getDouble(dfIndex), 1e-9);
+				assertEquals(expected.getDouble(expectedIndex), averaged.getDouble(dfIndex));
+			}
+		}
+	}
+
+	public void testSampledVectorField() {
+		// 2 time steps, 1 layer, 5 rows and 7 cols, sampled every 3rd cell
+		int[] shape = new int[]{2, 1, 5, 7};
+		Array uArray = Array.factory(float.class, shape);
+		Array vArray = Array.factory(float.class, shape);
+		Random random = new Random();
+		for (int i = 0; i < uArray.getSize(); i++) {
+			uArray.setFloat(i, random.nextFloat() * 20 - 10);
+			vArray.setFloat(i, random.nextFloat() * 20 - 10);
+		}
+		DataFrame[] frames = new DataFrame[2];
+		Array[] arrays = {uArray, vArray};
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = new DataFrameBuilder().setArray(arrays[i]).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 0)).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 1)).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 2)).
+							addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 3)).
+							createDataFrame();
+		}
+
+		int stride = 3;
+		SampledVectorField field = new SampledVectorField(frames[0], frames[1], stride);
+		assertEquals(3, field.getSampledColumns());
+		assertEquals(2, field.getSampledRows());
+
+		// the largest components of the sampled cells only
+		double uMax = 0;
+		double vMax = 0;
+		Index index = uArray.getIndex();
+		for (int t = 0; t < shape[0]; t++) {
+			for (int y = 0; y < shape[2]; y += stride) {
+				for (int x = 0; x < shape[3]; x += stride) {
+					index.set(t, 0, y, x);
+					uMax = Math.max(uMax, Math.abs(uArray.getDouble(index)));
+					vMax = Math.max(vMax, Math.abs(vArray.getDouble(index)));
+				}
+			}
+		}
+		assertEquals(uMax, field.getUMaximum(), 0);
+		assertEquals(vMax, field.getVMaximum(), 0);
+
+		double[] us = new double[6];
+		double[] vs = new double[6];
+		for (int t = 0; t < shape[0]; t++) {
+			field.getSamples(t, 0, us, vs);
+			for (int row = 0; row < 2; row++) {
+				for (int column = 0; column < 3; column++) {
+					index.set(t, 0, row * stride, column * stride);
+					assertEquals(uArray.getDouble(index) * 0.5 / uMax, us[row * 3 + column], 1e-12);
+					assertEquals(vArray.getDouble(index) * 0.5 / vMax, vs[row * 3 + column], 1e-12);
+				}
+			}
+		}
+	}
+
+	public void testDataFrameSummary() throws InvalidRangeException {
+		// 3 time steps, 2 layers, 3 rows and 2 cols with a missing and a fill value
+		int[] shape = new int[]{3, 2, 3, 2};
+		Array array = Array.factory(float.class, shape);
+		Index index = array.getIndex();
+		Random random = new Random();
+		for (int t = 0; t < shape[0]; t++) {
+			for (int l = 0; l < shape[1]; l++) {
+				for (int row = 0; row < shape[2]; row++) {
+					for (int col = 0; col < shape[3]; col++) {
+						index.set(t, l, row, col);
+						array.setFloat(index, random.nextInt(100) - 50);
+					}
+				}
+			}
+		}
+		index.set(1, 0, 2, 1);
+		array.setFloat(index, (float) DataUtilities.BADVAL3);
+		index.set(2, 1, 0, 0);
+		array.setFloat(index, DataUtilities.NC_FILL_FLOAT);
+
+		DataFrameBuilder builder = new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 3));
+		DataFrame frame = builder.createDataFrame();
+		DataFrameSummary summary = DataFrameSummary.getSummary(frame);
+		assertSame(summary, DataFrameSummary.getSummary(frame));
+
+		double allMin = Double.POSITIVE_INFINITY, allMax = Double.NEGATIVE_INFINITY;
+		for (int t = 0; t < shape[0]; t++) {
+			for (int l = 0; l < shape[1]; l++) {
+				double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+				int count = 0;
+				for (int row = 0; row < shape[2]; row++) {
+					for (int col = 0; col < shape[3]; col++) {
+						index.set(t, l, row, col);
+						float val = array.getFloat(index);
+						if (val <= DataUtilities.AMISS3 || val >= DataUtilities.NC_FILL_FLOAT) continue;
+						min = Math.min(min, val);
+						max = Math.max(max, val);
+						sum += val;
+						count++;
+					}
+				}
+				assertEquals(min, summary.getMin(t, l));
+				assertEquals(max, summary.getMax(t, l));
+				assertEquals(sum, summary.getSum(t, l), 1e-6);
+				assertEquals(count, summary.getCount(t, l));
+				int minIndex = summary.getMinIndex(t, l);
+				index.set(t, l, minIndex / shape[3], minIndex % shape[3]);
+				assertEquals(min, (double) array.getFloat(index));
+				allMin = Math.min(allMin, min);
+				allMax = Math.max(allMax, max);
+			}
+		}
+		assertEquals(5, summary.getCount(1, 0));
+		assertEquals(5, summary.getCount(2, 1));
+
+		DataUtilities.MinMax minMax = DataUtilities.minMax(frame);
+		assertEquals(allMin, minMax.getMin());
+		assertEquals(allMax, minMax.getMax());
+		minMax = DataUtilities.minMax(frame, 1, 0);
+		assertEquals(summary.getMin(1, 0), minMax.getMin());
+		assertEquals(summary.getMax(1, 0), minMax.getMax());
+		minMax = DataUtilities.minMax(frame, 2);
+		assertEquals(Math.min(summary.getMin(2, 0), summary.getMin(2, 1)), minMax.getMin());
+		minMax = DataUtilities.minMaxForTimeLayer(frame, 1);
+		assertEquals(Math.max(summary.getMax(0, 1), Math.max(summary.getMax(1, 1), summary.getMax(2, 1))), minMax.getMax());
+	}
+
+	public void testDataFrameSlabs() throws InvalidRangeException {
+		int[] shape = new int[]{3, 2, 4, 5};
+		Array array = Array.factory(float.class, shape);
+		Index index = array.getIndex();
+		Random random = new Random();
+		for (int i = 0; i < array.getSize(); i++) {
+			array.setFloat(i, random.nextFloat());
+		}
+
+		DataFrameBuilder builder = new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 3));
+		DataFrame frame = builder.createDataFrame();
+
+		// a section whose rows are not contiguous
+		Slice slice = new Slice();
+		slice.setXRange(1, 3);
+		slice.setYRange(1, 2);
+		DataFrame section = frame.slice(slice);
+
+		for (DataFrame df : new DataFrame[]{frame, section}) {
+			int[] dfShape = df.getShape();
+			assertEquals(dfShape[2] * dfShape[3], df.getSlabSize());
+			float[] floats = new float[df.getSlabSize() + 1];
+			double[] doubles = new double[df.getSlabSize()];
+			DataFrameIndex dfIndex = df.getIndex();
+			for (int t = 0; t < dfShape[0]; t++) {
+				for (int l = 0; l < dfShape[1]; l++) {
+					df.getSlab(t, l, floats, 1);
+					df.getSlab(t, l, doubles, 0);
+					FloatBuffer view = df.getSlabView(t, l);
+					assertEquals(df == frame, view != null);
+					for (int y = 0; y < dfShape[2]; y++) {
+						for (int x = 0; x < dfShape[3]; x++) {
+							dfIndex.set(t, l, x, y);
+							float value = df.getFloat(dfIndex);
+							assertEquals(value, floats[1 + y * dfShape[3] + x], 0);
+							assertEquals(value, doubles[y * dfShape[3] + x], 0);
+							if (view != null)
+								assertEquals(value, view.get(y * dfShape[3] + x), 0);
+						}
+					}
+				}
+			}
+
+			float[] series = new float[dfShape[0]];
+			dfIndex.set(1, 1, 1, 0);
+			df.getTimeSeries(dfIndex, series, 0);
+			for (int t = 0; t < dfShape[0]; t++) {
+				dfIndex.set(t, 1, 1, 0);
+				assertEquals(df.getFloat(dfIndex), series[t], 0);
+			}
+		}
+	}
+
+	public void testMappedDataFrame() throws IOException, InvalidRangeException {
+		int[] shape = new int[]{3, 2, 4, 5};
+		Array array = Array.factory(float.class, shape);
+		Random random = new Random();
+		for (int i = 0; i < array.getSize(); i++) {
+			array.setFloat(i, random.nextFloat() * 100 - 20);
+		}
+		array.setFloat(7, DataUtilities.NC_FILL_FLOAT);
+
+		DataFrameBuilder builder = new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestTimeCoordAxis(AxisType.TIME, shape[0]), 0)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.LAYER, shape[1]), 1)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.Y_AXIS, shape[2]), 2)).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, shape[3]), 3));
+		DataFrame frame = builder.createDataFrame();
+		MappedDataFrame mapped = new MappedDataFrame(frame, shape[0], new File(System.getProperty("java.io.tmpdir")));
+		for (int t = 0; t < shape[0]; t++) {
+			mapped.writeTimeStep(t, array.section(new int[]{t, 0, 0, 0}, new int[]{1, shape[1], shape[2], shape[3]}));
+		}
+
+		// the logs are kept by the frame and read in place
+		DataFrame log = DataUtilities.createLogDataFrame(mapped, 10);
+		assertSame(log, DataUtilities.createLogDataFrame(mapped, 10));
+		DataFrameIndex index = frame.getIndex();
+		DataFrameIndex mappedIndex = mapped.getIndex();
+		DataFrameIndex logIndex = log.getIndex();
+		for (int t = 0; t < shape[0]; t++) {
+			for (int l = 0; l < shape[1]; l++) {
+				for (int y = 0; y < shape[2]; y++) {
+					for (int x = 0; x < shape[3]; x++) {
+						index.set(t, l, x, y);
+						mappedIndex.set(t, l, x, y);
+						logIndex.set(t, l, x, y);
+						float value = frame.getFloat(index);
+						assertEquals(value, mapped.getFloat(mappedIndex), 0);
+						if (value > 0 && value < DataUtilities.NC_FILL_FLOAT)
+							assertEquals(Math.log10(value), log.getDouble(logIndex), 1e-5);
+						else
+							assertEquals(DataUtilities.BADVAL3, log.getDouble(logIndex), 0);
+					}
+				}
+			}
+		}
+
+		// the cross section ranges read the mapped frame through its index
+		for (int x = 0; x < shape[3]; x++) {
+			DataUtilities.MinMax expected = DataUtilities.minMaxTX(frame, 1, x);
+			DataUtilities.MinMax minMax = DataUtilities.minMaxTX(mapped, 1, x);
+			assertEquals(expected.getMin(), minMax.getMin(), 0);
+			assertEquals(expected.getMax(), minMax.getMax(), 0);
+		}
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int l = 0; l < shape[1]; l++) {
+			for (int x = 0; x < shape[3]; x++) {
+				index.set(2, l, x, 3);
+				min = Math.min(min, frame.getDouble(index));
+				max = Math.max(max, frame.getDouble(index));
+			}
+		}
+		DataUtilities.MinMax minMax = DataUtilities.minMaxTY(mapped, 2, 3);
+		assertEquals(min, minMax.getMin(), 0);
+		assertEquals(max, minMax.getMax(), 0);
+		try {
+			DataUtilities.minMaxTY(mapped, 2, shape[2]);
+			fail("row " + shape[2] + " is out of range");
+		} catch (InvalidRangeException e) {
+		}
+
+		// slabs and time series are read from the time step they are in
+		float[] slab = new float[frame.getSlabSize()];
+		float[] mappedSlab = new float[mapped.getSlabSize()];
+		frame.getSlab(2, 1, slab, 0);
+		mapped.getSlab(2, 1, mappedSlab, 0);
+		assertTrue(Arrays.equals(slab, mappedSlab));
+		assertEquals(FloatBuffer.wrap(slab), mapped.getSlabView(2, 1));
+		float[] series = new float[shape[0]];
+		float[] mappedSeries = new float[shape[0]];
+		index.set(0, 1, 4, 3);
+		mappedIndex.set(0, 1, 4, 3);
+		frame.getTimeSeries(index, series, 0);
+		mapped.getTimeSeries(mappedIndex, mappedSeries, 0);
+		assertTrue(Arrays.equals(series, mappedSeries));
+
+		// closing the frame releases its file and the file of its logs
+		File file = mapped.getFile();
+		File logFile = ((MappedDataFrame) log).getFile();
+		assertTrue(file.exists());
+		mapped.close();
+		assertFalse(file.exists());
+		assertFalse(logFile.exists());
+	}
+
+	private DataFrame createCacheFrame(int size) {
+		Array array = Array.factory(float.class, new int[]{size});
+		return new DataFrameBuilder().setArray(array).
+						addAxis(DataFrameAxis.createDataFrameAxis(new TestCoordAxis(AxisType.X_AXIS, size), 0)).
+						createDataFrame();
+	}
+
+	public void testFormulaCacheEviction() {
+		// room for two 1000 float results
+		FormulaCache cache = new FormulaCache(10000);
+		Set<Dataset> datasets = new HashSet<Dataset>();
+		DataFrame a = createCacheFrame(1000);
+		DataFrame b = createCacheFrame(1000);
+		DataFrame c = createCacheFrame(1000);
+		cache.put("a", a, datasets);
+		cache.put("b", b, datasets);
+		assertEquals(8000, cache.getSize());
+		// a is now used more recently than b, so b is evicted for c
+		assertSame(a, cache.get("a"));
+		cache.put("c", c, datasets);
+		assertSame(a, cache.get("a"));
+		assertNull(cache.get("b"));
+		assertSame(c, cache.get("c"));
+		assertEquals(8000, cache.getSize());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// too large to cache at all
+		cache.put("d", createCacheFrame(3000), datasets);
+		assertNull(cache.get("d"));
+		assertSame(a, cache.get("a"));
+
+		cache.clear();
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+	}
+
+	public void testFormulaCacheInvalidation() throws IOException {
+		List<DataLoader> loaders = new ArrayList<DataLoader>();
+		loaders.add(new TestDataLoader());
+		DataManager dataManager = new DataManager(loaders);
+		Dataset first = dataManager.createDatasets(new URL("file:/first.nc")).get(0);
+		Dataset second = dataManager.createDatasets(new URL("file:/second.nc")).get(0);
+
+		FormulaCache cache = dataManager.getFormulaCache();
+		Set<Dataset> firstOnly = new HashSet<Dataset>();
+		firstOnly.add(first);
+		Set<Dataset> secondOnly = new HashSet<Dataset>();
+		secondOnly.add(second);
+		Set<Dataset> both = new HashSet<Dataset>(firstOnly);
+		both.add(second);
+		DataFrame frame = createCacheFrame(10);
+		cache.put("first", frame, firstOnly);
+		cache.put("second", frame, secondOnly);
+		cache.put("both", frame, both);
+
+		// closing a dataset drops every result read from it
+		dataManager.closeDataset(first.getAlias());
+		assertNull(cache.get("first"));
+		assertNull(cache.get("both"));
+		assertSame(frame, cache.get("second"));
+
+		dataManager.closeAllDatasets();
+		assertNull(cache.get("second"));
+	}
+
+	class TestDataset extends AbstractDataset {
+
+		public TestDataset(URL url) {
+			super(url);
+		}
+
+		public int getIndexInURL() {
+			return 0;
+		}
+
+		public DatasetMetadata getMetadata() {
+			return null;
+		}
+
+		public int getNetcdfCovn() {
+			return 0;
+		}
+
+		public void setNetcdfConv(int conv) {
+		}
+	}
+
+	class TestDataLoader implements DataLoader {
+
+		public boolean canHandle(URL url) {
+			return true;
+		}
+
+		public List<Dataset> createDatasets(URL url) {
+			List<Dataset> datasets = new ArrayList<Dataset>();
+			datasets.add(new TestDataset(url));
+			return datasets;
+		}
+
+		public DataReader createReader(Dataset set) {
+			return null;
+		}
+	}
+
 	class TestCoordAxis implements CoordAxis {
 
 		private Range range;
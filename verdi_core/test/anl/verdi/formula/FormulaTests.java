@@ -173,6 +173,45 @@ public class FormulaTests extends TestCase {
 		assertTrue(fa.equals(parser.evaluate()));
 	}
 
+	public void testCompiledEval() throws IllegalFormulaException {
+		FormulaArray o3 = new FormulaArray(createRandomArray(3, 2, 10, 20));
+		FormulaArray no2 = new FormulaArray(createRandomArray(3, 2, 10, 20));
+		String formula = "(O3[1] * 2 + NO2[1]) / 3 - sqrt(abs(O3[1] - NO2[1])) * (O3[1] > .5)";
+
+		DefaultParser parser = new DefaultParser(formula, new Frame());
+		parser.setCompile(false);
+		parser.setVariable("O3[1]", formulaArrayToDataFrame(o3));
+		parser.setVariable("NO2[1]", formulaArrayToDataFrame(no2));
+		Array expected = parser.evaluate().getArray();
+
+		parser = new DefaultParser(formula, new Frame());
+		parser.setCompile(true);
+		parser.setVariable("O3[1]", formulaArrayToDataFrame(o3));
+		parser.setVariable("NO2[1]", formulaArrayToDataFrame(no2));
+		Array result = parser.evaluate().getArray();
+
+		assertTrue(equals(expected, result));
+	}
+
+	public void testConvertedEval() throws IllegalFormulaException {
+		FormulaArray o3 = new FormulaArray(createRandomArray(3, 2, 10, 20));
+		FormulaArray no2 = new FormulaArray(createRandomArray(3, 2, 10, 20));
+		String formula = "O3[1] + NO2[1] * 2";
+
+		DefaultParser parser = new DefaultParser(formula, new Frame());
+		parser.setVariable("O3[1]", formulaArrayToDataFrame(o3.times(new FormulaArray(1000.0)).plus(new FormulaArray(5.0))));
+		parser.setVariable("NO2[1]", formulaArrayToDataFrame(no2));
+		Array expected = parser.evaluate().getArray();
+
+		for (boolean compile : new boolean[]{false, true}) {
+			parser = new DefaultParser(formula, new Frame());
+			parser.setCompile(compile);
+			parser.setVariable("O3[1]", formulaArrayToDataFrame(o3), 1000, 5);
+			parser.setVariable("NO2[1]", formulaArrayToDataFrame(no2));
+			assertTrue(equals(expected, parser.evaluate().getArray()));
+		}
+	}
+
 	public void testMod() throws IllegalFormulaException {
 		DefaultParser parser = new DefaultParser("10 % 3", new Frame());
 		assertEquals(10.0 % 3.0, doubleFromArray(parser.evaluate()));
@@ -0,0 +1,79 @@
+package anl.verdi.plot.color;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import anl.verdi.data.DataUtilities;
+
+/**
+ * @version $Revision$ $Date$
+ */
+public class ColorBinnerTest extends TestCase {
+
+	// the original linear scan
+	private static byte expected(float value, double[] levels) {
+		if (Float.isNaN(value) || value <= DataUtilities.AMISS3 || value <= DataUtilities.BADVAL3
+						|| value >= DataUtilities.NC_FILL_FLOAT)
+			return -1;
+		if (levels[0] == levels[levels.length - 1])
+			return 0;
+		for (int index = 1; index < levels.length; index++) {
+			if (levels[index] > value)
+				return (byte) (index - 1);
+		}
+		return (byte) (levels.length - 2);
+	}
+
+	private void check(double[] levels) {
+		ColorBinner binner = new ColorBinner(levels);
+		Random random = new Random(7);
+		double min = Math.min(levels[0], levels[levels.length - 1]);
+		double range = Math.abs(levels[levels.length - 1] - levels[0]) + 1;
+		for (int i = 0; i < 10000; i++) {
+			float value = (float) (min - range * .1 + random.nextDouble() * range * 1.2);
+			assertEquals(expected(value, levels), binner.indexOf(value));
+			assertEquals(expected(value, levels), ColorBinner.indexOf(value, levels));
+		}
+		for (double level : levels) {
+			assertEquals(expected((float) level, levels), binner.indexOf((float) level));
+			assertEquals(expected((float) level, levels), ColorBinner.indexOf((float) level, levels));
+		}
+	}
+
+	public void testIndexOf() {
+		// uniform
+		check(new double[]{0, .1, .2, .3, .4, .5, .6, .7, .8, .9, 1});
+		check(new double[]{-5, 0, 5, 10, 15});
+		// not uniform
+		check(new double[]{0, 1, 10, 100, 1000});
+		// not sorted
+		check(new double[]{5, 1, 3, 10});
+		// constant
+		check(new double[]{2, 2, 2});
+	}
+
+	public void testMissing() {
+		ColorBinner binner = new ColorBinner(new double[]{0, 1, 2});
+		assertEquals(ColorBinner.MISSING, binner.indexOf(Float.NaN));
+		assertEquals(ColorBinner.MISSING, binner.indexOf(DataUtilities.NC_FILL_FLOAT));
+		assertEquals(ColorBinner.MISSING, binner.indexOf((float) DataUtilities.BADVAL3));
+	}
+
+	public void testGrid() {
+		double[] levels = {0, 1, 2, 3};
+		ColorBinner binner = new ColorBinner(levels);
+		float[][] data = new float[300][400];
+		Random random = new Random(11);
+		for (float[] row : data)
+			for (int j = 0; j < row.length; j++)
+				row[j] = random.nextFloat() * 4;
+		data[5][7] = Float.NaN;
+
+		byte[][] indices = binner.indexOf(data, null);
+		for (int i = 0; i < data.length; i++)
+			for (int j = 0; j < data[i].length; j++)
+				assertEquals(expected(data[i][j], levels), indices[i][j]);
+		assertSame(indices, binner.indexOf(data, indices));
+		assertNotSame(indices, binner.indexOf(new float[2][2], indices));
+	}
+}
@@ -271,6 +271,62 @@ public class UtilitiesTest extends TestCase {
 		assertEquals(1.0, result.getArray().getDouble(resultIndex));
 	}
 
+	public void testForRangeSingleThread() {
+		String threads = System.getProperty(Tools.THREAD_COUNT);
+		System.setProperty(Tools.THREAD_COUNT, "1");
+		try {
+			final int[] starts = new int[4];
+			final int[] count = new int[1];
+			ParallelUtilities.forRange(0, 35, 10, new ParallelUtilities.RangeFunction() {
+				public void apply(int from, int to) {
+					assertEquals(0, from % 10);
+					assertEquals(Math.min(from + 10, 35), to);
+					starts[count[0]++] = from;
+				}
+			});
+			assertEquals(4, count[0]);
+			assertTrue(Arrays.equals(new int[]{0, 10, 20, 30}, starts));
+		} finally {
+			restoreThreads(threads);
+		}
+	}
+
+	public void testMinMaxSingleThread() {
+		String threads = System.getProperty(Tools.THREAD_COUNT);
+		System.setProperty(Tools.THREAD_COUNT, "1");
+		try {
+			// more elements than a single chunk of the min max search
+			int rows = 100, cols = 500;
+			Array array = ArrayFactory.createDoubleArray(new int[]{rows, cols});
+			Index index = array.getIndex();
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < cols; j++) {
+					index.set(i, j);
+					array.setDouble(index, 20 + (i * cols + j) % 7);
+				}
+			}
+			index.set(80, 3);
+			array.setDouble(index, 10);
+			index.set(60, 7);
+			array.setDouble(index, 50);
+
+			FormulaArray fa = new FormulaArray(array);
+			assertEquals(10.0, fa.min());
+			assertEquals(50.0, fa.max());
+			assertTrue(Arrays.equals(new int[]{80, 3}, fa.minIndices()));
+			assertTrue(Arrays.equals(new int[]{60, 7}, fa.maxIndices()));
+		} finally {
+			restoreThreads(threads);
+		}
+	}
+
+	private void restoreThreads(String threads) {
+		if (threads == null)
+			System.clearProperty(Tools.THREAD_COUNT);
+		else
+			System.setProperty(Tools.THREAD_COUNT, threads);
+	}
+
 	private Array createArray(int val) {
 		Array array = ArrayFactory.createDoubleArray(new int[]{1});
 		Index index = array.getIndex();
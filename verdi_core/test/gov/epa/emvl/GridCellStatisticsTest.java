@@ -0,0 +1,93 @@
+package gov.epa.emvl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$ $Date$
+ */
+public class GridCellStatisticsTest extends TestCase {
+
+	private static final float B = GridCellStatistics.BADVAL3;
+
+	private float[][][] compute(float[][][] data, int statIndex, double percentile) throws Exception {
+		float[][][] statistics = new float[GridCellStatistics.STATISTICS][data.length][data[0].length];
+		GridCellStatistics.computeStatistics(data, 5, 1, statistics, statIndex, percentile);
+		return statistics;
+	}
+
+	public void testQuartilesMatchSortedValues() throws Exception {
+		Random random = new Random(7);
+		for (int timesteps = 1; timesteps < 40; timesteps++) {
+			float[][][] data = new float[2][3][timesteps];
+			for (float[][] row : data)
+				for (float[] cell : row)
+					for (int t = 0; t < timesteps; t++)
+						cell[t] = random.nextInt(8) == 0 ? B : random.nextInt(20);
+			float[][][] copy = new float[2][3][];
+			for (int row = 0; row < 2; row++)
+				for (int column = 0; column < 3; column++)
+					copy[row][column] = data[row][column].clone();
+
+			float[][][] statistics = compute(data, GridCellStatistics.MEDIAN, 90);
+			for (int row = 0; row < 2; row++) {
+				for (int column = 0; column < 3; column++) {
+					// the input is not reordered
+					assertTrue(Arrays.equals(copy[row][column], data[row][column]));
+					float[] valid = new float[timesteps];
+					int count = 0;
+					for (float value : data[row][column])
+						if (value > GridCellStatistics.AMISS3)
+							valid[count++] = value;
+					Arrays.sort(valid, 0, count);
+					assertEquals(count, statistics[GridCellStatistics.COUNT][row][column], 0);
+					if (count == 0) {
+						assertEquals(B, statistics[GridCellStatistics.MEDIAN][row][column], 0);
+						continue;
+					}
+					float median = count % 2 != 0 ? valid[count / 2]
+									: (valid[count / 2] + valid[Math.max(count / 2 - 1, 0)]) * 0.5f;
+					assertEquals(valid[0], statistics[GridCellStatistics.MINIMUM][row][column], 0);
+					assertEquals(valid[count - 1], statistics[GridCellStatistics.MAXIMUM][row][column], 0);
+					assertEquals(median, statistics[GridCellStatistics.MEDIAN][row][column], 0);
+					assertEquals(count >= 4 ? valid[count - 4] : B,
+									statistics[GridCellStatistics.FOURTH_MAX][row][column], 0);
+					int custom = (int) Math.round(count * 0.9);
+					assertEquals(valid[Math.min(Math.max(custom - 1, 0), count - 1)],
+									statistics[GridCellStatistics.CUSTOM_PERCENTILE][row][column], 0);
+				}
+			}
+		}
+	}
+
+	public void testMoments() throws Exception {
+		float[][][] data = { { { 2, B, 4, 4, 4, 5, 5, 7, 9 } } };
+		float[][][] statistics = compute(data, GridCellStatistics.STANDARD_DEVIATION, 0);
+		assertEquals(40f, statistics[GridCellStatistics.SUM][0][0], 0);
+		assertEquals(5f, statistics[GridCellStatistics.MEAN][0][0], 0);
+		assertEquals(32f / 7, statistics[GridCellStatistics.VARIANCE][0][0], 1e-6f);
+
+		statistics = compute(data, GridCellStatistics.GEOMETRIC_MEAN, 0);
+		assertEquals(Math.pow(2.0 * 4 * 4 * 4 * 5 * 5 * 7 * 9, 1.0 / 8),
+						statistics[GridCellStatistics.GEOMETRIC_MEAN][0][0], 1e-5);
+
+		statistics = compute(data, GridCellStatistics.HOURS_OF_NON_COMPLIANCE, 0);
+		assertEquals(2f, statistics[GridCellStatistics.HOURS_OF_NON_COMPLIANCE][0][0], 0);
+
+		statistics = compute(data, GridCellStatistics.TIMESTEP_OF_MINIMUM, 0);
+		assertEquals(1f, statistics[GridCellStatistics.TIMESTEP_OF_MINIMUM][0][0], 0);
+		assertEquals(9f, statistics[GridCellStatistics.TIMESTEP_OF_MAXIMUM][0][0], 0);
+	}
+
+	public void testMaximum8HourMean() throws Exception {
+		float[][][] data = { { { 1, 1, 1, 1, 1, 1, 1, 1, 9, B, 1, 1, 1, 1, 1, 1, 1 } } };
+		float[][][] statistics = compute(data, GridCellStatistics.MAXIMUM_8HOUR_MEAN, 0);
+		// the window from 2 to 9 holds 7 valid values
+		assertEquals(15f / 7, statistics[GridCellStatistics.MAXIMUM_8HOUR_MEAN][0][0], 1e-6f);
+
+		statistics = compute(new float[][][] { { { 1, 2, 3 } } }, GridCellStatistics.MAXIMUM_8HOUR_MEAN, 0);
+		assertEquals(B, statistics[GridCellStatistics.MAXIMUM_8HOUR_MEAN][0][0], 0);
+	}
+}
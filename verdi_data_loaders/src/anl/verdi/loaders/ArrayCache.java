@@ -0,0 +1,259 @@
+package anl.verdi.loaders;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+
+/**
+ * Least recently used cache of the arrays read from a dataset, bounded by
+ * the number of bytes held. Each entry records the section of the variable
+ * that it contains, so a request for a section that lies within a cached
+ * one is served as a view of the cached array rather than read again.
+ * Entries evicted from the cache can optionally be kept in a second tier of
+ * soft references that the garbage collector is free to reclaim.
+ *
+ * @version $Revision$ $Date$
+ */
+public class ArrayCache {
+
+	private static class Entry {
+		String name;
+		int[] origin, shape;
+		long bytes;
+		Array array;
+		SoftReference<Array> softArray;
+
+		Entry(String name, int[] origin, int[] shape, Array array) {
+			this.name = name;
+			this.origin = origin.clone();
+			this.shape = shape.clone();
+			this.array = array;
+			bytes = array.getSizeBytes();
+		}
+
+		boolean contains(int[] origin, int[] shape) {
+			if (origin.length != this.origin.length) return false;
+			for (int i = 0; i < origin.length; i++) {
+				if (origin[i] < this.origin[i] || origin[i] + shape[i] > this.origin[i] + this.shape[i]) return false;
+			}
+			return true;
+		}
+
+		Array section(Array array, int[] origin, int[] shape) throws InvalidRangeException {
+			int[] sectionOrigin = new int[origin.length];
+			boolean same = true;
+			for (int i = 0; i < origin.length; i++) {
+				sectionOrigin[i] = origin[i] - this.origin[i];
+				same &= sectionOrigin[i] == 0 && shape[i] == this.shape[i];
+			}
+			return same ? array : array.sectionNoReduce(sectionOrigin, shape, null);
+		}
+	}
+
+	private long maxBytes;
+	private long bytes;
+	private boolean softTier;
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, .75f, true);
+	private Map<String, Entry> softEntries = new LinkedHashMap<String, Entry>();
+	private long hits, containedHits, softHits, misses, evictions;
+
+	/**
+	 * Creates an ArrayCache.
+	 *
+	 * @param maxBytes the maximum number of bytes held by the cache
+	 * @param softTier whether or not evicted arrays are kept as soft references
+	 */
+	public ArrayCache(long maxBytes, boolean softTier) {
+		this.maxBytes = maxBytes;
+		this.softTier = softTier;
+	}
+
+	private static String createKey(String name, int[] origin, int[] shape) {
+		StringBuilder key = new StringBuilder(name);
+		for (int i = 0; i < origin.length; i++) {
+			key.append(i == 0 ? '.' : ',').append(origin[i]).append(':').append(shape[i]);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Gets the cached array for the specified section of the named variable.
+	 * If the section is not cached itself but lies within a cached section, a
+	 * view of the cached array is returned.
+	 *
+	 * @param name the name of the variable
+	 * @param origin the origin of the section
+	 * @param shape the shape of the section
+	 * @return the cached array, or null if the section is not cached.
+	 */
+	public synchronized Array get(String name, int[] origin, int[] shape) {
+		String key = createKey(name, origin, shape);
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			hits++;
+			return entry.array;
+		}
+
+		try {
+			Entry container = null;
+			for (Entry cached : entries.values()) {
+				if (cached.name.equals(name) && cached.contains(origin, shape)) {
+					container = cached;
+					break;
+				}
+			}
+			if (container != null) {
+				// touch the containing entry so it stays recently used
+				entries.get(createKey(container.name, container.origin, container.shape));
+				containedHits++;
+				return container.section(container.array, origin, shape);
+			}
+
+			entry = softEntries.remove(key);
+			Array array = entry == null ? null : entry.softArray.get();
+			if (array != null) {
+				softHits++;
+				put(name, origin, shape, array);
+				return array;
+			}
+		} catch (InvalidRangeException e) {
+			// the ranges were checked by contains so this should not happen
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Puts the array for the specified section of the named variable
+	 * into the cache, evicting the least recently used arrays as
+	 * necessary. Arrays larger than the cache are only kept in the
+	 * soft tier.
+	 *
+	 * @param name the name of the variable
+	 * @param origin the origin of the section
+	 * @param shape the shape of the section
+	 * @param array the array containing the section
+	 */
+	public synchronized void put(String name, int[] origin, int[] shape, Array array) {
+		Entry entry = new Entry(name, origin, shape, array);
+		String key = createKey(name, origin, shape);
+		Entry old = entries.remove(key);
+		if (old != null) bytes -= old.bytes;
+
+		if (entry.bytes > maxBytes) {
+			addSoft(key, entry);
+			return;
+		}
+		entries.put(key, entry);
+		bytes += entry.bytes;
+
+		for (Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator(); bytes > maxBytes && iter.hasNext();) {
+			Map.Entry<String, Entry> eldest = iter.next();
+			if (eldest.getValue() == entry) continue;
+			iter.remove();
+			bytes -= eldest.getValue().bytes;
+			evictions++;
+			addSoft(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	private void addSoft(String key, Entry entry) {
+		if (!softTier) return;
+		entry.softArray = new SoftReference<Array>(entry.array);
+		entry.array = null;
+		softEntries.put(key, entry);
+		// drop the entries whose arrays have been reclaimed
+		for (Iterator<Entry> iter = softEntries.values().iterator(); iter.hasNext();) {
+			if (iter.next().softArray.get() == null) iter.remove();
+		}
+	}
+
+	/**
+	 * Removes all the arrays from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		softEntries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Removes the arrays of the variables whose names start with the
+	 * specified prefix. Sources sharing a cache prefix the names they
+	 * cache with an id of their own so that each can be cleared alone.
+	 *
+	 * @param prefix the start of the variable names to remove
+	 */
+	public synchronized void clear(String prefix) {
+		for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+			Entry entry = iter.next();
+			if (entry.name.startsWith(prefix)) {
+				iter.remove();
+				bytes -= entry.bytes;
+			}
+		}
+		for (Iterator<Entry> iter = softEntries.values().iterator(); iter.hasNext();) {
+			if (iter.next().name.startsWith(prefix)) iter.remove();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes held by the cache, not counting the soft tier.
+	 *
+	 * @return the number of bytes held by the cache.
+	 */
+	public synchronized long getSizeBytes() {
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests served as a view of a larger cached section.
+	 *
+	 * @return the number of requests served as a view of a larger cached section.
+	 */
+	public synchronized long getContainedHitCount() {
+		return containedHits;
+	}
+
+	public synchronized long getSoftHitCount() {
+		return softHits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Gets the names of the cached sections, most recently used last.
+	 *
+	 * @return the names of the cached sections.
+	 */
+	public synchronized List<String> getKeys() {
+		return new ArrayList<String>(entries.keySet());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ArrayCache[" + entries.size() + " arrays, " + bytes + " of " + maxBytes + " bytes, hits=" + hits
+						+ ", contained hits=" + containedHits + ", soft hits=" + softHits + ", misses=" + misses
+						+ ", evictions=" + evictions + "]";
+	}
+}
@@ -0,0 +1,195 @@
+package anl.verdi.loaders;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads selected columns of a CSV file into primitive arrays in a single
+ * pass. Characters are read in blocks and numbers are parsed in place, so
+ * no String is created for a line or a value. The first line holds the
+ * column headers and is skipped. As with StringTokenizer, empty values
+ * between consecutive commas are skipped and blank lines are ignored.
+ *
+ * @version $Revision$ $Date$
+ */
+public class CSVColumnReader {
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+					1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	// digits that always fit exactly in the mantissa of a double
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private final int[] columns;
+	// file column, values of the column; null for the columns not read
+	private final double[][] values;
+	private int rows = 0;
+
+	/**
+	 * Creates a CSVColumnReader that reads the specified columns.
+	 *
+	 * @param columns the index in the file of each of the columns to read
+	 */
+	public CSVColumnReader(int... columns) {
+		this.columns = columns.clone();
+		int max = -1;
+		for (int column : columns)
+			max = Math.max(max, column);
+		values = new double[max + 1][];
+		for (int column : columns) {
+			if (column >= 0)
+				values[column] = new double[1024];
+		}
+	}
+
+	/**
+	 * Reads the columns from the specified CSV data. The reader is not
+	 * closed.
+	 *
+	 * @param in the CSV data, starting with the column headers
+	 * @throws IOException if there is an error reading the data
+	 * @throws NumberFormatException if a value in one of the columns is not
+	 * a number
+	 */
+	public void read(Reader in) throws IOException {
+		char[] buf = new char[64 * 1024];
+		char[] token = new char[64];
+		int tokenLength = 0;
+		boolean header = true;
+		int column = 0;
+		int count;
+		while ((count = in.read(buf)) != -1) {
+			for (int i = 0; i < count; i++) {
+				char c = buf[i];
+				if (c == ',' || c == '\n' || c == '\r') {
+					if (!header && endToken(token, tokenLength, column))
+						column++;
+					tokenLength = 0;
+					if (c != ',') {
+						// a line without values does not count as a row
+						if (!header && column > 0)
+							rows++;
+						header = false;
+						column = 0;
+					}
+				} else if (!header) {
+					if (tokenLength == token.length)
+						token = Arrays.copyOf(token, token.length * 2);
+					token[tokenLength++] = c;
+				}
+			}
+		}
+		if (!header && endToken(token, tokenLength, column))
+			column++;
+		if (column > 0)
+			rows++;
+	}
+
+	// stores a value if its column is read, returns false for an empty value
+	private boolean endToken(char[] token, int length, int column) {
+		int start = 0;
+		int end = length;
+		while (start < end && token[start] <= ' ')
+			start++;
+		while (end > start && token[end - 1] <= ' ')
+			end--;
+		if (start == end)
+			return false;
+		if (column < values.length && values[column] != null) {
+			if (rows >= values[column].length) {
+				int size = Math.max(rows + 1, rows * 2);
+				for (int i = 0; i < values.length; i++) {
+					if (values[i] != null && values[i].length < size)
+						values[i] = Arrays.copyOf(values[i], size);
+				}
+			}
+			values[column][rows] = parseDouble(token, start, end);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of rows read, not counting the column headers.
+	 */
+	public int getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * Gets the values read for a column. Values missing from short rows are
+	 * 0.
+	 *
+	 * @param i the position of the column in the columns passed to the
+	 * constructor
+	 * @return the values of the column, of the length of the row count.
+	 */
+	public double[] getColumn(int i) {
+		double[] column = values[columns[i]];
+		return column.length == rows ? column : Arrays.copyOf(column, rows);
+	}
+
+	/**
+	 * Parses a number in the format accepted by Double.parseDouble. Plain
+	 * decimal numbers of up to 15 significant digits are parsed directly;
+	 * others are handed to Double.parseDouble. Both give the nearest double
+	 * to the number.
+	 *
+	 * @param chars the characters holding the number
+	 * @param start the index of the first character of the number
+	 * @param end the index after the last character of the number
+	 * @return the number.
+	 * @throws NumberFormatException if the characters are not a number
+	 */
+	public static double parseDouble(char[] chars, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+			negative = chars[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		boolean any = false;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c >= '0' && c <= '9') {
+				any = true;
+				if (mantissa != 0 || c != '0')
+					digits++;
+				mantissa = mantissa * 10 + (c - '0');
+				if (point)
+					scale++;
+				if (digits > MAX_EXACT_DIGITS)
+					return Double.parseDouble(new String(chars, start, end - start));
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		int exponent = 0;
+		if (any && i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+				negativeExponent = chars[i] == '-';
+				i++;
+			}
+			int expStart = i;
+			for (; i < end && chars[i] >= '0' && chars[i] <= '9' && exponent < 1000; i++)
+				exponent = exponent * 10 + (chars[i] - '0');
+			if (i == expStart)
+				i = -1;
+			if (negativeExponent)
+				exponent = -exponent;
+		}
+		exponent -= scale;
+		if (!any || i != end || exponent < -22 || exponent > 22)
+			return Double.parseDouble(new String(chars, start, end - start));
+		double value = mantissa;
+		value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+}
@@ -3,15 +3,13 @@ package anl.verdi.loaders;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.logging.log4j.LogManager;		// 2014
@@ -29,6 +27,7 @@ import anl.verdi.data.Dataset;
 import anl.verdi.data.DatasetMetadata;
 import anl.verdi.data.DefaultVariable;
 import anl.verdi.data.Variable;
+import anl.verdi.util.ParallelUtilities;
 import anl.verdi.util.VUnits;
 
 /**
@@ -62,12 +61,9 @@ public class CSVDataset extends AbstractDataset {
   private Map<String,String> columnNameMap;
   private String[] fields = {"Time Axis Column","X Axis Column","Y Axis Column","Layer Axis Column","Value Axis Column"};
 	
-	Map<String,Double[]> dataMap;
 	Map<String,Double[]> axesMap;
 	private ArrayDouble.D4 array;
 
-	Map<String,Map<Double,Integer>> axesPosMap;
-
 	/**
 	 * Creates a CSVDataset from the specified url,
 	 *
@@ -111,8 +107,8 @@ public class CSVDataset extends AbstractDataset {
 
 	
 	private void loadColumnHeaders(URL url) throws IOException {
-		// Read in the column headers from the CSV file and check
-		// the size of the data in the file (rows and columns)
+		// Read in the column headers from the CSV file. The rows are
+		// counted as the data is loaded.
 		
 		BufferedReader buf  = new BufferedReader(new InputStreamReader(url.openStream()));
 		columnNames = new ArrayList<String>();
@@ -123,10 +119,6 @@ public class CSVDataset extends AbstractDataset {
 
 		while (st.hasMoreTokens())
 			columnNames.add(st.nextToken());
-
-		// count num of rows to allocate storage  
-		while (buf.readLine() != null)
-			numRows++;
 		numCols = columnNames.size();
 
 		buf.close();
@@ -137,105 +129,73 @@ public class CSVDataset extends AbstractDataset {
 		// Loads data from the CSV file and create the NetCDF Array object 
 		// based on the user's data mappings from the CSV dialog.
 		
-		// Read in the data from the CSV file and store in a 2D
-		// double array 
-		double data[][] = new double[numRows][numCols];
-
-		BufferedReader buf  = new BufferedReader(new InputStreamReader(url.openStream()));
-		String line;
-		StringTokenizer st;
-  
-		buf  = new BufferedReader(new InputStreamReader(url.openStream()));  
-		buf.readLine();                     // skip column headers
-
-		int row = 0;
-		int col = 0;
-		while((line = buf.readLine()) != null){
-			st = new StringTokenizer(line,",");
-			col = 0;
-			while (st.hasMoreTokens()){
-				data[row][col] = new Double(st.nextToken());
-				col++;
-			}
-			row++;
-		}
-		buf.close(); 
+		// Read the mapped columns from the CSV file in a single pass
+		int[] columns = new int[fields.length];
+		for (int i = 0; i < fields.length; i++)
+			columns[i] = columnNames.indexOf(columnNameMap.get(fields[i]));
 
-
-		// build a map of <name, data> for easier access
-		dataMap = new HashMap<String,Double[]>();
-		col = 0;
-		for (String varName : columnNames){
-			Double d[] = new Double[numRows];
-
-			for (int i=0; i<numRows; i++)
-				d[i] = data[i][col];
-
-			dataMap.put(varName, d);
-
-			col++;
+		CSVColumnReader reader = new CSVColumnReader(columns);
+		Reader in = new InputStreamReader(url.openStream());
+		try {
+			reader.read(in);
+		} finally {
+			in.close();
 		}
+		numRows = reader.getRowCount();
 
-		// Create the NetCDF Array object
-		ArrayList<Double> list;
+		// Loop over all axis and build a sorted array of the unique values
+		// of each. Since the CSV data will probably contain multiple entries
+		// for each axis data, we should build an array containing only the
+		// unique values, ie [1,2,3...etc].
 		axesMap = new HashMap<String,Double[]>();
-		axesPosMap = new HashMap<String, Map<Double,Integer>>();
-		Double[] axesData;
-		Map<Double,Integer> posMap;
-		int cnt;
-		int[] dim = new int[4];
-		
-		
-		// Loop over all axis and build a unique set for each.  Since the
-		// CSV data will probably contain multiple entries for each axis data,
-		// we should build an array containing only the unique values,
-		// ie [1,2,3...etc].
+		final double[][] axisColumns = new double[fields.length - 1][];
+		final double[][] axisValues = new double[fields.length - 1][];
+		final int[] dim = new int[4];
 		for (int i=0; i< fields.length-1; i++){  // Don't grab the value field
-					
-			// Get the entire axis column data from the data map (raw CSV data)
-			list = new ArrayList(Arrays.asList(dataMap.get(columnNameMap.get(fields[i]))));
-		
-			// Make a unique set
-			Set<Double> set = new HashSet<Double>();
-			set.addAll(list);
-			list.clear();
-			list.addAll(set);
-			Collections.sort(list);
-			dim[i] = list.size();  // new array of size of unique axis data values
-
-			// Also record the position of the data in the list for later retrieval
-			// since the data in the CSV file may not be ordered sequentially wrt
-			// the axis data
-			axesData = new Double[dim[i]];
-			posMap = new HashMap<Double,Integer>();
-			cnt=0;
-			for (Double d : list){
-				axesData[cnt] = d;
-				posMap.put(d, cnt);
-				cnt++;
-			}
+			axisColumns[i] = reader.getColumn(i);
+			axisValues[i] = unique(axisColumns[i]);
+			dim[i] = axisValues[i].length;
+
+			Double[] axesData = new Double[dim[i]];
+			for (int j = 0; j < dim[i]; j++)
+				axesData[j] = axisValues[i][j];
 			axesMap.put(columnNameMap.get(fields[i]), axesData);
-			axesPosMap.put(columnNameMap.get(fields[i]), posMap);
 		}
 		
 		array = new ArrayDouble.D4(dim[0],dim[1],dim[2],dim[3]);
 		
-		// Now actually build the NetCDF Array object
-		
-		double[] csvData = new double[5];
-		int[] csvDataLoc = new int[5];
-		
-		for (int i=0; i<numRows; i++){   // loop over each row in csv data
-		
-			for (int j=0; j< csvData.length; j++){
-				csvData[j] = dataMap.get(columnNameMap.get(fields[j]))[i];
-				if (j < csvData.length - 1)
-				  csvDataLoc[j] = (Integer)((Map)(axesPosMap.get(columnNameMap.get(fields[j])))).get(csvData[j]);
+		// Now actually build the NetCDF Array object. The data in the CSV
+		// file may not be ordered sequentially wrt the axis data, so the
+		// position of each row is found in the sorted axis values.
+		final int[] cells = new int[numRows];
+		ParallelUtilities.forRange(0, numRows, 64 * 1024, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				for (int row = from; row < to; row++) {
+					int cell = 0;
+					for (int i = 0; i < axisColumns.length; i++)
+						cell = cell * dim[i] + Arrays.binarySearch(axisValues[i], axisColumns[i][row]);
+					cells[row] = cell;
+				}
 			}
-				
-			// Set the data in the CDF Array type
-			array.set(csvDataLoc[0],csvDataLoc[1],csvDataLoc[2],csvDataLoc[3], csvData[4]);
+		});
+
+		// rows are set in file order so that the last of duplicate rows wins
+		double[] storage = (double[]) array.getStorage();
+		double[] values = reader.getColumn(fields.length - 1);
+		for (int row = 0; row < numRows; row++)
+			storage[cells[row]] = values[row];
+	}
+
+	// the distinct values in ascending order
+	private static double[] unique(double[] column) {
+		double[] sorted = column.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || Double.compare(sorted[i], sorted[i - 1]) != 0)
+				sorted[count++] = sorted[i];
 		}
+		return Arrays.copyOf(sorted, count);
 	}
 
 	/**
@@ -364,10 +324,6 @@ public class CSVDataset extends AbstractDataset {
 		return name;
 	}
 
-	public Map<String, Double[]> getDataMap() {
-		return dataMap;
-	}
-
 	public ArrayDouble.D4 getArray() {
 		return array;
 	}
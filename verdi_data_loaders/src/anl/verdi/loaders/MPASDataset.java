@@ -9,12 +9,14 @@
 package anl.verdi.loaders;
 
 import java.awt.Color;
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -23,14 +25,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.unitsofmeasurement.unit.Unit;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
 
 import ucar.ma2.Array;
 import ucar.ma2.ArrayChar;
@@ -56,6 +57,7 @@ import anl.verdi.data.DefaultVariable;
 import anl.verdi.data.MPASDataFrameIndex;
 import anl.verdi.data.MPASPlotDataFrame;
 import anl.verdi.data.MeshCellInfo;
+import anl.verdi.data.MeshGeometry;
 import anl.verdi.data.MeshDataReader;
 import anl.verdi.data.MultiAxisDataset;
 import anl.verdi.data.Variable;
@@ -66,6 +68,7 @@ import anl.verdi.plot.data.LatCellComparator;
 import anl.verdi.plot.data.LonCellComparator;
 import anl.verdi.plot.data.MinMaxInfo;
 import anl.verdi.plot.data.MinMaxLevelListener;
+import anl.verdi.util.Tools;
 import anl.verdi.util.VUnits;
 
 @SuppressWarnings("rawtypes")
@@ -96,9 +99,8 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	ArrayReader depth, elevation, zonal, meridional;
 	ucar.ma2.ArrayInt.D2 vertexList = null;
 	private Map<Integer, Integer> vertexPositionMap = new HashMap<Integer, Integer>();
-	private Map<Integer, CellInfo> cellIdInfoMap;
-	private CellInfo[] cellsToRender = null;
-	private List<CellInfo> cellsToRenderList = null;
+	private MeshGeometry mesh;
+	private MeshCellInfo[] cellsToRender = null;
 	Collection<MeshCellInfo> allCells = null;
 	MeshCellInfo[] allCellArray = null;
 	MeshCellInfo[] lonSortedCellArray = null;
@@ -129,65 +131,46 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	}
 
 	
+	/**
+	 * View of a single cell in the mesh geometry store.
+	 */
 	public class CellInfo implements MeshCellInfo { 
-		double[] latCoords;
-		double[] lonCoords;
-		boolean visible;
-		int cellId;
-		int colorIndex;
-		double lon = 0;
-		double lat = 0;
-		int minX;
-		int minY;
-		int maxX;
-		int maxY;
-		boolean cellClicked = false;
-		
-		private CellInfo(int id, int numVertices) {
-			latCoords = new double[numVertices];
-			lonCoords = new double[numVertices];
-			cellId = id;
-			cellIdInfoMap.put(id,  this);
-		}
-		
-		public void setLat(double val) {
-			lat = val;
-		}
+		final int index;
 		
-		public void setLon(double val) {
-			lon = val;
+		private CellInfo(int index) {
+			this.index = index;
 		}
 		
 		public int getNumVertices() {
-			return latCoords.length;
+			return mesh.getNumVertices(index);
 		}
 		
 		public double getLon() {
-			return lon;
+			return mesh.getCenterLon(index);
 		}
 		
-		public double getLon(int index) {
-			return lonCoords[index] * RAD_TO_DEG;
+		public double getLon(int i) {
+			return mesh.getLon(index, i);
 		}
 		
-		public double getLonRad(int index) {
-			return lonCoords[index];
+		public double getLonRad(int i) {
+			return mesh.getLonRad(index, i);
 		}
 		
 		public double getLat() {
-			return lat;
+			return mesh.getCenterLat(index);
 		}
 
-		public double getLat(int index) {
-			return latCoords[index] * RAD_TO_DEG;
+		public double getLat(int i) {
+			return mesh.getLat(index, i);
 		}
 		
-		public double getLatRad(int index) {
-			return latCoords[index];
+		public double getLatRad(int i) {
+			return mesh.getLatRad(index, i);
 		}
 		
 		public int getId() {
-			return cellId;
+			return mesh.getId(index);
 		}
 		
 		public double getMinLonValue() {
@@ -199,11 +182,11 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		}
 		
 		public int getMinXPosition() {
-			return minX;
+			return mesh.getMinXPosition(index);
 		}
 		
 		public int getMaxXPosition() {
-			return maxX;
+			return mesh.getMaxXPosition(index);
 		}
 		
 		public double getMinLatValue() {
@@ -216,15 +199,16 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		
 		
 		public int getMinYPosition() {
-			return minY;
+			return mesh.getMinYPosition(index);
 		}
 		
 		public int getMaxYPosition() {
-			return maxY;
+			return mesh.getMaxYPosition(index);
 		}
 		
 		public Double getElevationValue(String axisName, int currentLayer, int currentTimestep) {
 			Double e = null;
+			int cellId = getId();
 			if (axisName != null) {
 				if (axisName.equals(VAR_ELEVATION)) {
 					double h1 = elevation.get(cellId, currentLayer);
@@ -249,18 +233,18 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		}
 		
 		public double getZonal(int currentLayer, int currentTimestep) {
-			return zonal.get(currentTimestep, cellId, currentLayer);
+			return zonal.get(currentTimestep, getId(), currentLayer);
 		}
 		
 		public double getMeridional(int currentLayer, int currentTimestep) {
-			return meridional.get(currentTimestep, cellId, currentLayer);
+			return meridional.get(currentTimestep, getId(), currentLayer);
 		}
 		
 		public String toString() {
-			String str = cellId + " [ ";
-			for (int i = 0; i < lonCoords.length; ++i) {
+			String str = getId() + " [ ";
+			for (int i = 0; i < getNumVertices(); ++i) {
 				str += getLon(i) + " " + getLat(i);
-				if (i + 1 < lonCoords.length)
+				if (i + 1 < getNumVertices())
 					str += ", ";
 			}
 			str += "] ";
@@ -272,265 +256,139 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		}
 				
 		public double getValue(ArrayReader renderVariable, DataFrame frame, MPASDataFrameIndex index, int timestep, int layer) {			
-			index.set(timestep, layer, cellId);
+			index.set(timestep, layer, getId());
 			return renderVariable.get(frame, index);
 		}
 		
 		public double getMinX() {
-			return getLon(minX);
+			return mesh.getMinLon(index);
 		}
 		
 		public double getMinLon() {
-			return lonCoords[minX];
+			return mesh.getMinLonRad(index);
 		}
 		
 		public double getMaxX() {
-			return getLon(maxX);
+			return mesh.getMaxLon(index);
 		}
 		
 		public double getMaxLon() {
-			return lonCoords[maxX];
+			return mesh.getMaxLonRad(index);
 		}
 		
 		public double getMinY() {
-			return getLat(minY);
+			return mesh.getMinLat(index);
 		}
 		
 		public double getMaxY() {
-			return getLat(maxY);
+			return mesh.getMaxLat(index);
 		}
 		
 		public double getMinLat() {
-			return latCoords[minY];
+			return mesh.getMinLatRad(index);
 		}
 		
 		public double getMaxLat() {
-			return latCoords[maxY];
-		}
-		
-		public void calculateCellBounds() {
-			minX = 0;
-			maxX = 0;
-			minY = 0;
-			maxY = 0;
-			for (int j = 0; j < latCoords.length; ++j) {
-				if (lonCoords[j] < lonCoords[minX])
-					minX = j;
-				if (lonCoords[j] > lonCoords[maxX])
-					maxX = j;
-				if (latCoords[j] < latCoords[minY])
-					minY = j;
-				if (latCoords[j] > latCoords[maxY])
-					maxY = j;
-			}	
-		}
-
-		private Double[] duplicatePoint(int i) {
-			Double[] pt = new Double[2];
-			pt[0] = lonCoords[i];
-			pt[1] = latCoords[i];
-			return pt;
-		}
-		
-		
-		//p2 is the point that crosses the boundary, p1 is the last good point
-		private Double[] clipPoint(double p1x, double p1y, double p2x, double p2y) {
-			double dx1, dx2, dx;
-			if (p2x < 0) {
-				dx1 = Math.PI + p2x;//distance from end to p2x
-				dx2 = Math.PI - p1x;//distance from p1x to end
-			}
-			else {
-				dx1 = Math.PI - p2x;//distance from end to p2x
-				dx2 = Math.PI + p1x;//distance from p1x to end
-			}
-			
-			dx = dx1 + dx2;
-			
-			double dy = p2y - p1y;
-			
-			double ratio = dy / dx;
-			
-			Double[] pt = new Double[2];
-			pt[0] = Math.PI;
-			if (p1x < 0)
-				pt[0] *= -1;
-			pt[1] = p1y + dx1 * ratio;
-			
-			return pt;
-			
+			return mesh.getMaxLatRad(index);
 		}
 		
-		public CellInfo split(int index) {
-			CellInfo clone = null;
-			try {
-						
-			ArrayList<Double[]>[] lists = new ArrayList[2];
-			
-			lists[0] = new ArrayList<Double[]>();
-			lists[1] = new ArrayList<Double[]>();
-			
-			int prevType = 0;
-			if (lonCoords[0] < 0)
-				prevType = 1;
-			
-			lists[prevType].add(duplicatePoint(0));
-			
-			int type = 0;
-			for (int i = 1; i < lonCoords.length; ++i) {
-				if (lonCoords[i] < 0)
-					type = 1;
-				if (prevType == type)
-					lists[prevType].add(duplicatePoint(i));
-				else {
-					Double[] pt = clipPoint(lonCoords[i-1], latCoords[i-1], lonCoords[i], latCoords[i]);
-					lists[prevType].add(pt);
-					Double[] pt2 = new Double[2];
-					pt2[0] = pt[0] * -1;
-					pt2[1] = pt[1];
-					lists[type].add(pt2);
-					lists[type].add(duplicatePoint(i));
-				}
-				prevType = type;
-				type = 0;
-			}
-			if (lonCoords[0] < 0)
-				type = 1;
-			if (prevType != type) {
-				int i = lonCoords.length - 1;
-				Double[] pt = clipPoint(lonCoords[i], latCoords[i], lonCoords[0], latCoords[0]);
-				lists[prevType].add(pt);
-				Double[] pt2 = new Double[2];
-				pt2[0] = pt[0] * -1;
-				pt2[1] = pt[1];
-				lists[type].add(pt2);
-			}
-			
-			clone = new CellInfo(cellId, lists[0].size());
-			latCoords = new double[lists[1].size()];
-			lonCoords = new double[lists[1].size()];
-			for(int i = 0; i < latCoords.length; ++i) {
-				lonCoords[i] = lists[1].get(i)[0];
-				latCoords[i] = lists[1].get(i)[1];
-			}
-			for(int i = 0; i < clone.latCoords.length; ++i) {
-				clone.lonCoords[i] = lists[0].get(i)[0];
-				clone.latCoords[i] = lists[0].get(i)[1];
-			}
-			
-			calculateCellBounds();
-			clone.calculateCellBounds();
-			
-			clone.lat = lat;
-			
-			lon = (lonCoords[maxX] + lonCoords[minX]) / 2;
-			clone.lon = (clone.lonCoords[clone.maxX] + clone.lonCoords[clone.minX]) / 2;
-			
-			
-			splitCells.put(clone, index);
-			} catch (Throwable t) {
-				t.printStackTrace();
-			}
-
-			return clone;
+		public Geometry toGeometry() {
+			return mesh.toGeometry(index, TargetCalculator.getGeometryFactory());
 		}
-		
-
-		/*
-		public CellInfo split(int index) {	
-			CellInfo clone = new CellInfo(cellId, lonCoords.length);
-			clone.latCoords = Arrays.copyOf(latCoords, latCoords.length);
-			clone.lonCoords = Arrays.copyOf(lonCoords, lonCoords.length);
-			
-			for (int j = 0; j < lonCoords.length; ++j) {
-				if (lonCoords[j] < 0) {
-					lonCoords[j] = Math.PI;
-				}
-				else if (clone.lonCoords[j] > 0)
-					clone.lonCoords[j] = Math.PI * -1;
-			}
-			
-			calculateCellBounds();
-			clone.calculateCellBounds();
-			
-			clone.lat = lat;
-			
-			lon = (lonCoords[maxX] + lonCoords[minX]) / 2;
-			clone.lon = (clone.lonCoords[clone.maxX] + clone.lonCoords[clone.minX]) / 2;
-			
-			
-			splitCells.put(clone, index);
-			
-			//System.out.println("Split cell " + cell.cellId + " negative: " + negativeCell);
-			//System.out.println("longitudes " + Arrays.toString(cell.lonCoords));
-			//System.out.println("latitudes " + Arrays.toString(cell.latCoords));
-			//System.out.println("longitudes " + Arrays.toString(cellHalf.lonCoords));
-			//System.out.println("latitudes " + Arrays.toString(cellHalf.latCoords));
+	}
 
-			return clone;
+	//p2 is the point that crosses the boundary, p1 is the last good point
+	private static double[] clipPoint(double p1x, double p1y, double p2x, double p2y) {
+		double dx1, dx2, dx;
+		if (p2x < 0) {
+			dx1 = Math.PI + p2x;//distance from end to p2x
+			dx2 = Math.PI - p1x;//distance from p1x to end
 		}
-		*/
-		
-		public Geometry toGeometry() {
-            Coordinate[] coords = new Coordinate[getNumVertices() + 1];
-            for (int i = 0; i < getNumVertices(); ++i) {
-            	coords[i] = new Coordinate(getLon(i), getLat(i));
-            }
-            coords[coords.length - 1] = coords[0];
-            return TargetCalculator.getGeometryFactory().createPolygon(coords);
+		else {
+			dx1 = Math.PI - p2x;//distance from end to p2x
+			dx2 = Math.PI + p1x;//distance from p1x to end
 		}
 		
-		//All this shouldn't be needed with new split method
-		/*
-		public Geometry toGeometry() {
-            Coordinate[] coords = new Coordinate[getNumVertices() + 1];
-            Coordinate[] origCoords = new Coordinate[getNumVertices() + 1];
-            double xP = Double.NaN;
-            double xPP = Double.NaN;
-            double yP = Double.NaN;
-            double yPP = Double.NaN;
-            int removedVertices = 0;
-            for (int i = 0; i < getNumVertices(); ++i) {
-            	double x = getLon(i);
-            	double y = getLat(i);
-            	//Needed to work around com.vividsolutions.jts.geom.TopologyException: found non-noded intersection between LINESTRING ( -179.32438229684877 -84.0, -180.0 -83.64965921403859 ) and LINESTRING ( -180.0 -83.49458162383357, -180.0 -83.7820279688085 ) [ (-180.0, -83.64965921403859, NaN) ]
-            	//Happens when multiple polygon edges are in a straight line
-            	if ((xP == x && xPP == x) ||
-            			(yP == y && yPP == y)) {
-            		++removedVertices;
-            		xP = x;
-            		yP = y;
-            	} else {
-            		xPP = xP;
-            		xP = x;
-            		yPP = yP;
-            		yP = y;
-            	}
-            	coords[i - removedVertices] = new Coordinate(x, y);
-            	origCoords[i] = new Coordinate(x, y);
-            }
-            //remove duplicate segments wrapping last 2 and first
-            if ((xP == coords[0].x && xPP == coords[0].x) ||
-            		(yP == coords[0].y && yPP == coords[0].y))
-            	++removedVertices;
-            //remove duplicate segments wrapping last and first 2
-            if ((coords[0].x == coords[1].x ) && (coords[0].x == coords[coords.length - 2 - removedVertices].x) ||
-            		(coords[0].y == coords[1].y) && (coords[0].y == coords[coords.length - 2 - removedVertices].y)) {
-            	++removedVertices;
-            	for (int i = 0; i < coords.length - 2; ++i)
-            		coords[i] = coords[i+1];
-            }
-            
-            coords[coords.length - 1 - removedVertices] = coords[0];
-            if (removedVertices != 0) {
-            	Coordinate[] newCoords = new Coordinate[coords.length - removedVertices];
-            	for (int i = 0; i < newCoords.length; ++i)
-            		newCoords[i] = coords[i];
-            	coords = newCoords;
-            }
-            return TargetCalculator.getGeometryFactory().createPolygon(coords);
-		}
-		*/
+		dx = dx1 + dx2;
+		
+		double dy = p2y - p1y;
+		
+		double ratio = dy / dx;
+		
+		double[] pt = new double[2];
+		pt[0] = Math.PI;
+		if (p1x < 0)
+			pt[0] *= -1;
+		pt[1] = p1y + dx1 * ratio;
+		
+		return pt;
+		
+	}
+	
+	/**
+	 * Splits a cell that crosses the date line into the part east of it
+	 * and the part west of it, clipping the edges that cross it.
+	 * 
+	 * @return the {lons, lats} of the eastern (positive) part followed by
+	 * the {lons, lats} of the western (negative) part
+	 */
+	private static double[][] split(double[] lonCoords, double[] latCoords, int count) {
+		List<double[]>[] lists = new ArrayList[2];
+		
+		lists[0] = new ArrayList<double[]>();
+		lists[1] = new ArrayList<double[]>();
+		
+		int prevType = 0;
+		if (lonCoords[0] < 0)
+			prevType = 1;
+		
+		lists[prevType].add(new double[] { lonCoords[0], latCoords[0] });
+		
+		int type = 0;
+		for (int i = 1; i < count; ++i) {
+			if (lonCoords[i] < 0)
+				type = 1;
+			if (prevType == type)
+				lists[prevType].add(new double[] { lonCoords[i], latCoords[i] });
+			else {
+				double[] pt = clipPoint(lonCoords[i-1], latCoords[i-1], lonCoords[i], latCoords[i]);
+				lists[prevType].add(pt);
+				lists[type].add(new double[] { pt[0] * -1, pt[1] });
+				lists[type].add(new double[] { lonCoords[i], latCoords[i] });
+			}
+			prevType = type;
+			type = 0;
+		}
+		if (lonCoords[0] < 0)
+			type = 1;
+		if (prevType != type) {
+			int i = count - 1;
+			double[] pt = clipPoint(lonCoords[i], latCoords[i], lonCoords[0], latCoords[0]);
+			lists[prevType].add(pt);
+			lists[type].add(new double[] { pt[0] * -1, pt[1] });
+		}
+		
+		double[][] parts = new double[4][];
+		for (int part = 0; part < 2; ++part) {
+			List<double[]> list = lists[part];
+			parts[part * 2] = new double[list.size()];
+			parts[part * 2 + 1] = new double[list.size()];
+			for (int i = 0; i < list.size(); ++i) {
+				parts[part * 2][i] = list.get(i)[0];
+				parts[part * 2 + 1][i] = list.get(i)[1];
+			}
+		}
+		return parts;
+	}
+	
+	// the longitude in degrees midway between the extremes of the vertices
+	private static double midLon(double[] lons) {
+		double min = lons[0], max = lons[0];
+		for (double lon : lons) {
+			min = Math.min(min, lon);
+			max = Math.max(max, lon);
+		}
+		return (min + max) / 2 * RAD_TO_DEG;
 	}
 
 	/*
@@ -593,6 +451,8 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	double lonMin = Double.POSITIVE_INFINITY;
 	double latMax = Double.NEGATIVE_INFINITY;
 	double lonMax = Double.NEGATIVE_INFINITY;
+	// vertex bounds before they are widened to the full globe
+	double exactLonMin, exactLonMax, exactLatMin, exactLatMax;
 
 	double dataWidth = 0;
 	double dataHeight = 0;
@@ -870,33 +730,66 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		KNOWN_UNITS.put("xice", "-");		
 	}
 	
-	Map<String, Array> arrayCache = new HashMap<String, Array>();
+	// one budget for the arrays read from all the MPAS datasets
+	private static final ArrayCache ARRAY_CACHE = new ArrayCache(getCacheSize(), true);
+	private static final AtomicInteger NEXT_CACHE_ID = new AtomicInteger();
+
+	// prefixes the variable names cached by this dataset
+	private final String cachePrefix = NEXT_CACHE_ID.getAndIncrement() + "/";
+
+	// the maximum number of bytes held by the array cache
+	private static long getCacheSize() {
+		String prop = System.getProperty(Tools.MPAS_CACHE_SIZE);
+		if (prop != null && !prop.trim().isEmpty()) {
+			try {
+				return Long.parseLong(prop.trim()) * 1024 * 1024;
+			} catch (NumberFormatException e) {
+				Logger.warn("Invalid value for " + Tools.MPAS_CACHE_SIZE + ": " + prop);
+			}
+		}
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	/**
+	 * Gets the cache of the arrays read from this dataset. The cache is
+	 * shared by all the MPAS datasets.
+	 *
+	 * @return the cache of the arrays read from this dataset.
+	 */
+	public ArrayCache getArrayCache() {
+		return ARRAY_CACHE;
+	}
+
 	public Array read(String name) throws IOException {
-		Array ret = arrayCache.get(name);
+		ucar.nc2.Variable var = getVariableDS(getVariable(name));
+		if (var == null)
+			return null;
+		int[] shape = var.getShape();
+		int[] origin = new int[shape.length];
+		Array ret = ARRAY_CACHE.get(cachePrefix + name, origin, shape);
 		if (ret != null)
 			return ret;
-		ucar.nc2.Variable var = getVariableDS(getVariable(name));
-		if (var != null) {
-			ret = var.read();
-			arrayCache.put(name, ret);
-		}
+		ret = var.read();
+		ARRAY_CACHE.put(cachePrefix + name, origin, shape, ret);
 		return ret;
 	}
 	
 	public Array read(String name, int[] origin, int[] shape) throws IOException, InvalidRangeException {
 		if (origin == null && shape == null)
 			return read(name);
-		String key = name;
-		if (origin != null)
-			key += "." + Arrays.toString(origin);
-		if (shape != null)
-			key += "." + Arrays.toString(shape);
-		Array ret = arrayCache.get(key);
+		ucar.nc2.Variable var = getVariableDS(getVariable(name));
+		if (origin == null)
+			origin = new int[var.getRank()];
+		if (shape == null) {
+			shape = var.getShape();
+			for (int i = 0; i < shape.length; i++)
+				shape[i] -= origin[i];
+		}
+		Array ret = ARRAY_CACHE.get(cachePrefix + name, origin, shape);
 		if (ret != null)
 			return ret;
-		ucar.nc2.Variable var = getVariableDS(getVariable(name));
 		ret = var.read(origin, shape);
-		arrayCache.put(key, ret);
+		ARRAY_CACHE.put(cachePrefix + name, origin, shape, ret);
 		return ret;
 	}
 	
@@ -1115,15 +1008,37 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		vertexList = (ucar.ma2.ArrayInt.D2) read("verticesOnCell");
 		
 		indexToVertexId = read("indexToVertexID");
-		int numVertices = dataset.findDimension("nVertices").getLength();
-		for (int i = 0; i < numVertices; ++i) {
-			if (indexToVertexId != null)
-				vertexPositionMap.put(indexToVertexId.getInt(i), i);
-			else
-				vertexPositionMap.put(i, i);
-		}
 		
-		loadCellStructure();
+		// datasets on the same grid share the derived cell structure
+		File cacheDir = MeshCache.getCacheDir();
+		String meshKey = null;
+		MeshCache cached = null;
+		if (cacheDir != null) {
+			meshKey = MeshCache.createKey(cellVertices, vertexList, latVert, lonVert, latCell, lonCell, indexToVertexId);
+			cached = MeshCache.load(cacheDir, meshKey);
+		}
+		if (cached != null) {
+			Logger.info("Loaded cell structure from mesh cache " + meshKey);
+			mesh = cached.getMesh();
+			lonMin = cached.getLonMin();
+			lonMax = cached.getLonMax();
+			latMin = cached.getLatMin();
+			latMax = cached.getLatMax();
+			avgCellDiam = cached.getAvgCellDiam();
+			initCellStructure(cached.getNumCells());
+		} else {
+			int numVertices = dataset.findDimension("nVertices").getLength();
+			for (int i = 0; i < numVertices; ++i) {
+				if (indexToVertexId != null)
+					vertexPositionMap.put(indexToVertexId.getInt(i), i);
+				else
+					vertexPositionMap.put(i, i);
+			}
+			
+			loadCellStructure();
+			if (cacheDir != null)
+				new MeshCache(mesh, cellsToRender.length, exactLonMin, exactLonMax, exactLatMin, exactLatMax, avgCellDiam).store(cacheDir, meshKey);
+		}
 					
 		Logger.info("Lat min " + latMin + " max " + latMax + " lon min " + lonMin + " max " + lonMax);
 		
@@ -1141,49 +1056,79 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	
 	private void loadCellStructure() throws IOException {		
 		int numCells =  dataset.findDimension("nCells").getLength();
-		cellsToRender = new CellInfo[numCells];
-		allCells = new HashSet<MeshCellInfo>();
-		splitCells = new HashMap<MeshCellInfo, Integer>();
-		cellIdInfoMap = new HashMap<Integer, CellInfo>();
+		mesh = new MeshGeometry(numCells, (int) vertexList.getSize());
+		List<double[][]> splitParts = new ArrayList<double[][]>();
+		List<Integer> splitIds = new ArrayList<Integer>();
 
 		
 		long cellDiamCount = 0;
 		double cellDiamSum = 0;
 		avgCellDiam = 0;		
 		
+		double[] lons = new double[vertexList.getShape()[1]];
+		double[] lats = new double[lons.length];
 		for (int i = 0; i < numCells; ++i) { //for each cell
 			int vertices = cellVertices.getInt(i);
-			CellInfo cell = new CellInfo(i, vertices);
-			cellsToRender[i] = cell;
+			double cellMinLon = Double.POSITIVE_INFINITY;
+			double cellMaxLon = Double.NEGATIVE_INFINITY;
+			double cellMinLat = Double.POSITIVE_INFINITY;
+			double cellMaxLat = Double.NEGATIVE_INFINITY;
 			
 			for (int j = 0; j < vertices; ++j) { //for each vertex
 				int vId = vertexList.get(i,j);
 				vId = vertexPositionMap.get(vId);
-				cell.latCoords[j] = normalizeLat(latVert.getDouble(vId));
-				cell.lonCoords[j] = normalizeLon(lonVert.getDouble(vId));
+				lats[j] = normalizeLat(latVert.getDouble(vId));
+				lons[j] = normalizeLon(lonVert.getDouble(vId));
+				cellMinLon = Math.min(cellMinLon, lons[j]);
+				cellMaxLon = Math.max(cellMaxLon, lons[j]);
+				cellMinLat = Math.min(cellMinLat, lats[j]);
+				cellMaxLat = Math.max(cellMaxLat, lats[j]);
 			}
 			
-			cell.calculateCellBounds();
-			cell.setLat(normalizeLat(latCell.getDouble(i)) * RAD_TO_DEG);
-			cell.setLon(normalizeLon(lonCell.getDouble(i)) * RAD_TO_DEG);
-			if (cell.getMinLon() < lonMin)
-				lonMin = cell.getMinLon();
-			if (cell.getMaxLon() > lonMax)
-				lonMax = cell.getMaxLon();
-			if (cell.getMinLat() < latMin)
-				latMin = cell.getMinLat();
-			if (cell.getMaxLat() > latMax)
-				latMax = cell.getMaxLat();
-			//if (vertices != 6)
-				//System.out.println("Cell " + cell.getId() + " " + vertices + " vertices lon " + cell.lon + " lat " + cell.lat);
+			double lat = normalizeLat(latCell.getDouble(i)) * RAD_TO_DEG;
+			double lon = normalizeLon(lonCell.getDouble(i)) * RAD_TO_DEG;
+			if (cellMinLon < lonMin)
+				lonMin = cellMinLon;
+			if (cellMaxLon > lonMax)
+				lonMax = cellMaxLon;
+			if (cellMinLat < latMin)
+				latMin = cellMinLat;
+			if (cellMaxLat > latMax)
+				latMax = cellMaxLat;
 			
-			if (cell.lonCoords[cell.maxX] - cell.lonCoords[cell.minX] > Math.PI * 1.5)
-				cell.split(i);
-			else {
+			if (cellMaxLon - cellMinLon > Math.PI * 1.5) {
+				// the cell keeps the western part, the eastern part is
+				// added after all the cells as a split cell
+				double[][] parts = split(lons, lats, vertices);
+				mesh.addCell(i, parts[2], parts[3], parts[2].length, midLon(parts[2]), lat);
+				splitParts.add(parts);
+				splitIds.add(i);
+			} else {
+				mesh.addCell(i, lons, lats, vertices, lon, lat);
 				++cellDiamCount;
-				cellDiamSum += cell.getMaxLon() - cell.getMinLon();
+				cellDiamSum += cellMaxLon - cellMinLon;
 			}
 		}
+		for (int i = 0; i < splitParts.size(); ++i) {
+			double[][] parts = splitParts.get(i);
+			mesh.addCell(splitIds.get(i), parts[0], parts[1], parts[0].length, midLon(parts[0]), mesh.getCenterLat(splitIds.get(i)));
+		}
+		mesh.trim();
+		avgCellDiam = cellDiamSum / cellDiamCount;
+		initCellStructure(numCells);
+	}
+	
+	/**
+	 * Derives the dataset extents from the vertex bounds and creates the
+	 * cell views over the mesh. The first numCells cells of the mesh are the
+	 * dataset's cells, any others are the split sections of the cells that
+	 * cross the date line.
+	 */
+	private void initCellStructure(int numCells) {
+		exactLonMin = lonMin;
+		exactLonMax = lonMax;
+		exactLatMin = latMin;
+		exactLatMax = latMax;
 		
 		dataWidth = lonMax - lonMin;
 		dataHeight = latMax - latMin;
@@ -1208,12 +1153,17 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 		
 		dataWidth = lonMax - lonMin;
 		dataHeight = latMax - latMin;
-		
-		avgCellDiam = cellDiamSum / cellDiamCount;
 
-		cellsToRenderList = Arrays.asList(cellsToRender);
-		allCells.addAll(cellsToRenderList);
-		allCells.addAll(splitCells.keySet());
+		// views of the cells in the order of the mesh geometry
+		splitCells = new HashMap<MeshCellInfo, Integer>();
+		allCellArray = new MeshCellInfo[mesh.getCellCount()];
+		for (int i = 0; i < allCellArray.length; ++i) {
+			allCellArray[i] = new CellInfo(i);
+			if (i >= numCells)
+				splitCells.put(allCellArray[i], mesh.getId(i));
+		}
+		cellsToRender = Arrays.copyOf(allCellArray, numCells);
+		allCells = Collections.unmodifiableList(Arrays.asList(allCellArray));
 		
 		//System.out.println("Lat min " + latMin + " max " + latMax + " lon min " + lonMin + " max " + lonMax);
 	}
@@ -1368,12 +1318,15 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	 * Closes this dataset. It will have to be recreated to be used again.
 	 */
 	public void close() throws IOException {
-		cellIdInfoMap = null;
+		mesh = null;
 		cellsToRender = null;
-		cellsToRenderList = null;
 		allCells = null;
+		allCellArray = null;
+		lonSortedCellArray = null;
+		latSortedCellArray = null;
 		splitCells = null;
-		arrayCache.clear();
+		Logger.debug("closing " + getName() + ", " + ARRAY_CACHE);
+		ARRAY_CACHE.clear(cachePrefix);
 		// BUG: since gridDataset can be shared among several GridNetcdfDataset objects,
 		// it needs a reference count to avoid closing the Netcdf file when the user deletes
 		// one of the Datasets.
@@ -1525,30 +1478,36 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	}
 	
 	public MeshCellInfo[] getAllCellsArray() {
-		if (allCellArray == null || allCellArray.length != allCells.size()) {
-			allCellArray = allCells.toArray(new MeshCellInfo[0]);
-		}
 		return allCellArray;
 	}
 		
 	public MeshCellInfo[] getLonSortedCellsArray() {
-		if (lonSortedCellArray == null) {
-			lonSortedCellArray = getAllCellsArray().clone();
-			Arrays.sort(lonSortedCellArray, LonCellComparator.getInstance() );
-		}
+		if (lonSortedCellArray == null)
+			lonSortedCellArray = getCells(mesh.getLonSortedOrder());
 		return lonSortedCellArray;
 	}
 	
 	public MeshCellInfo[] getLatSortedCellsArray() {
-		if (latSortedCellArray == null) {
-			latSortedCellArray = getAllCellsArray().clone();
-			Arrays.sort(latSortedCellArray, LatCellComparator.getInstance() );
-		}
+		if (latSortedCellArray == null)
+			latSortedCellArray = getCells(mesh.getLatSortedOrder());
 		return latSortedCellArray;
 	}
 	
+	private MeshCellInfo[] getCells(int[] order) {
+		MeshCellInfo[] cells = new MeshCellInfo[order.length];
+		for (int i = 0; i < order.length; ++i)
+			cells[i] = allCellArray[order[i]];
+		return cells;
+	}
+	
+	public MeshGeometry getMeshGeometry() {
+		return mesh;
+	}
+	
 	public MeshCellInfo getCellInfo(int id) {
-		return cellIdInfoMap.get(id);
+		if (cellsToRender == null || id < 0 || id >= cellsToRender.length)
+			return null;
+		return cellsToRender[id];
 	}
 	
 	public double getExactWidth() {
@@ -1581,7 +1540,6 @@ public class MPASDataset extends AbstractDataset implements MultiAxisDataset, IM
 	
 	private MPASDataset() {
 		super(null);
-		cellIdInfoMap = new HashMap<Integer, CellInfo>();
 	}
 
 	/** 
@@ -14,6 +14,7 @@ import java.util.Vector;
 
 import anl.verdi.data.CoordAxis;
 import anl.verdi.data.DataFrame;
+import anl.verdi.data.DataFrameSummary;
 import anl.verdi.data.MPASDataFrameIndex;
 import anl.verdi.plot.data.IMPASDataset;
 import anl.verdi.plot.data.MinMaxInfo;
@@ -84,7 +85,7 @@ public class MPASMinMaxCalculator implements Runnable {
 		final MPASDataFrameIndex index = new MPASDataFrameIndex(dataFrame);
 		MinMaxInfo layerInfo = resolveLayerInfo(layer);
 		//All callers require at least the first timestep calculated
-		getTimestep(index, layer, 0);
+		getTimestep(index, null, layer, 0);
 		if (!calcDone)
 			addLevelListener(listener);
 		return layerInfo;
@@ -102,9 +103,9 @@ public class MPASMinMaxCalculator implements Runnable {
 		return info;
 	}
 	
-	private void calculateLayer(MPASDataFrameIndex index, int layer) {
+	private void calculateLayer(DataFrameSummary summary, int layer) {
 		for (int i = timeOrigin; i < numTimesteps; ++i) {
-			getTimestep(index, layer, i);
+			getTimestep(null, summary, layer, i);
 		}
 		return;
 	}
@@ -130,7 +131,7 @@ public class MPASMinMaxCalculator implements Runnable {
 	}
 
 	
-	private MinMaxInfo getTimestep(MPASDataFrameIndex index, int layer, int timestep) {
+	private MinMaxInfo getTimestep(MPASDataFrameIndex index, DataFrameSummary summary, int layer, int timestep) {
 		Map<Integer, MinMaxInfo> layerMap = null;
 		MinMaxInfo layerInfo = resolveLayerInfo(layer);
 		synchronized (timestepCache) {
@@ -149,17 +150,23 @@ public class MPASMinMaxCalculator implements Runnable {
 			}
 		}
 		synchronized (stepInfo) {
-			calculateStep(index, layer, timestep, layerInfo, stepInfo);
+			calculateStep(index, summary, layer, timestep, layerInfo, stepInfo);
 		}
 		return stepInfo;
 	}
 	
 	//Returns true if the timestep was just calculated and needs to be added to the layer
-	private boolean calculateStep(MPASDataFrameIndex index, int layer, int step, MinMaxInfo layerInfo, MinMaxInfo stepInfo) {
+	//Uses the frame summary if there is one, otherwise scans the cells through the index
+	private boolean calculateStep(MPASDataFrameIndex index, DataFrameSummary summary, int layer, int step, MinMaxInfo layerInfo, MinMaxInfo stepInfo) {
 		if (stepInfo.getCount() == numCells) //Already calculated
 			return false;
-		for (int i = 0; i < numCells; ++i) {
-			stepInfo.visitValue(getValue(index, layer, step, i), i);
+		if (summary != null) {
+			stepInfo.visitValue(summary.getMin(step, layer), summary.getMinIndex(step, layer));
+			stepInfo.visitValue(summary.getMax(step, layer), summary.getMaxIndex(step, layer));
+		} else {
+			for (int i = 0; i < numCells; ++i) {
+				stepInfo.visitValue(getValue(index, layer, step, i), i);
+			}
 		}
 		stepInfo.incrementCount(numCells);
 		
@@ -177,9 +184,10 @@ public class MPASMinMaxCalculator implements Runnable {
 	}
 	
 	public void run() {
-		final MPASDataFrameIndex index = new MPASDataFrameIndex(dataFrame);
+		//The summary is built in parallel and shared with the other users of the frame
+		DataFrameSummary summary = DataFrameSummary.getSummary(dataFrame);
 		for (int i = layerOrigin; i < numLayers; ++i) {
-			calculateLayer(index, i);
+			calculateLayer(summary, i);
 		}
 		synchronized(this) {
 			calcDone = true;
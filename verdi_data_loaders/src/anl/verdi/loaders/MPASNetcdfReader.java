@@ -9,6 +9,7 @@
 package anl.verdi.loaders;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -185,6 +186,41 @@ public class MPASNetcdfReader extends AbstractDataReader<IMPASDataset> {
 			throw new UnsupportedOperationException();
 		}
 
+		@Override
+		public int getSlabSize() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void getSlab(int timeStep, int layer, float[] values, int offset) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void getSlab(int timeStep, int layer, double[] values, int offset) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void getSlab(int timeStep, int layer, FloatBuffer values) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FloatBuffer getSlabView(int timeStep, int layer) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void getTimeSeries(DataFrameIndex index, float[] values, int offset) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void getTimeSeries(DataFrameIndex index, double[] values, int offset) {
+			throw new UnsupportedOperationException();
+		}
+
 		@Override
 		public DataFrame slice(Slice slice) throws InvalidRangeException {
 			throw new UnsupportedOperationException();
@@ -0,0 +1,227 @@
+package anl.verdi.loaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ucar.ma2.Array;
+import anl.verdi.data.MeshGeometry;
+import anl.verdi.util.Tools;
+
+/**
+ * Cache of the cell structure derived from an MPAS grid, persisted to a
+ * binary file so that datasets sharing the same grid do not have to
+ * rebuild it. Files are keyed by a hash of the grid variables and are
+ * memory-mapped when loaded.
+ *
+ * @version $Revision$ $Date$
+ */
+public class MeshCache {
+
+	static final Logger Logger = LogManager.getLogger(MeshCache.class.getName());
+
+	private static final int MAGIC = 0x5645524D; // "VERM"
+	// increment whenever the file layout or the way the structure is derived changes
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".mesh";
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 5 * 8;
+
+	private MeshGeometry mesh;
+	private int numCells;
+	private double lonMin, lonMax, latMin, latMax, avgCellDiam;
+
+	/**
+	 * Creates a MeshCache entry.
+	 *
+	 * @param mesh the cell geometry
+	 * @param numCells the number of cells in the dataset, split cell sections follow them in the mesh
+	 * @param lonMin the minimum vertex longitude in radians
+	 * @param lonMax the maximum vertex longitude in radians
+	 * @param latMin the minimum vertex latitude in radians
+	 * @param latMax the maximum vertex latitude in radians
+	 * @param avgCellDiam the average cell diameter in radians
+	 */
+	public MeshCache(MeshGeometry mesh, int numCells, double lonMin, double lonMax, double latMin, double latMax,
+					double avgCellDiam) {
+		this.mesh = mesh;
+		this.numCells = numCells;
+		this.lonMin = lonMin;
+		this.lonMax = lonMax;
+		this.latMin = latMin;
+		this.latMax = latMax;
+		this.avgCellDiam = avgCellDiam;
+	}
+
+	public MeshGeometry getMesh() {
+		return mesh;
+	}
+
+	public int getNumCells() {
+		return numCells;
+	}
+
+	public double getLonMin() {
+		return lonMin;
+	}
+
+	public double getLonMax() {
+		return lonMax;
+	}
+
+	public double getLatMin() {
+		return latMin;
+	}
+
+	public double getLatMax() {
+		return latMax;
+	}
+
+	public double getAvgCellDiam() {
+		return avgCellDiam;
+	}
+
+	/**
+	 * Gets the directory that holds the cache files, creating it if necessary.
+	 *
+	 * @return the cache directory, or null if caching is disabled or the
+	 * directory cannot be created.
+	 */
+	public static File getCacheDir() {
+		return Tools.getCacheDir(Tools.MESH_CACHE_DIR, "meshcache");
+	}
+
+	/**
+	 * Creates the cache key for a grid from the contents of the variables
+	 * that define it.
+	 *
+	 * @param arrays the grid variables, any of which may be null
+	 * @return the cache key.
+	 */
+	public static String createKey(Array... arrays) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		for (Array array : arrays) {
+			if (array == null) {
+				buffer.putLong(-1);
+				continue;
+			}
+			buffer.putLong(array.getSize());
+			for (int dim : array.getShape())
+				buffer.putInt(dim);
+			long size = array.getSize();
+			for (int i = 0; i < size; ++i) {
+				if (buffer.remaining() < 8) {
+					digest.update(buffer.array(), 0, buffer.position());
+					buffer.clear();
+				}
+				buffer.putDouble(array.getDouble(i));
+			}
+		}
+		digest.update(buffer.array(), 0, buffer.position());
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	/**
+	 * Loads the cached structure for the specified key.
+	 *
+	 * @param dir the cache directory
+	 * @param key the cache key
+	 * @return the cached structure, or null if there is none.
+	 */
+	public static MeshCache load(File dir, String key) {
+		File file = new File(dir, key + SUFFIX);
+		if (!file.isFile())
+			return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				buffer.order(ByteOrder.nativeOrder());
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					Logger.info("Ignoring mesh cache file " + file + " written by another version");
+					return null;
+				}
+				int numCells = buffer.getInt();
+				double lonMin = buffer.getDouble();
+				double lonMax = buffer.getDouble();
+				double latMin = buffer.getDouble();
+				double latMax = buffer.getDouble();
+				double avgCellDiam = buffer.getDouble();
+				MeshGeometry mesh = MeshGeometry.read(buffer);
+				return new MeshCache(mesh, numCells, lonMin, lonMax, latMin, latMax, avgCellDiam);
+			} finally {
+				raf.close();
+			}
+		} catch (Exception e) {
+			// a truncated or corrupt file is treated as a miss and rewritten
+			Logger.warn("Unable to read mesh cache file " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores this structure under the specified key. The file is written
+	 * under a temporary name and then renamed so that a partially written
+	 * file is never loaded.
+	 *
+	 * @param dir the cache directory
+	 * @param key the cache key
+	 */
+	public void store(File dir, String key) {
+		long size = HEADER_BYTES + mesh.getByteSize();
+		if (size > Integer.MAX_VALUE) {
+			Logger.info("Mesh too large to cache: " + size + " bytes");
+			return;
+		}
+		File file = new File(dir, key + SUFFIX);
+		File temp = null;
+		try {
+			temp = File.createTempFile(key, ".tmp", dir);
+			RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putInt(numCells);
+				buffer.putDouble(lonMin);
+				buffer.putDouble(lonMax);
+				buffer.putDouble(latMin);
+				buffer.putDouble(latMax);
+				buffer.putDouble(avgCellDiam);
+				mesh.write(buffer);
+				buffer.flip();
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			} finally {
+				raf.close();
+			}
+			if (!temp.renameTo(file)) {
+				// another process may have written the same grid
+				temp.delete();
+			}
+		} catch (IOException e) {
+			Logger.warn("Unable to write mesh cache file " + file, e);
+			if (temp != null)
+				temp.delete();
+		}
+	}
+}
@@ -1,5 +1,6 @@
 /**
  * ArrayFloatLog - Subclass of ArrayFloat used to return log of each value
+ * The log of each value is computed once, a slab at a time, when first read
  * @author Tony Howard
  * @version $Revision$ $Date$
  **/
@@ -9,40 +10,67 @@ package ucar.ma2;
 public class ArrayFloatLog extends ArrayFloat {
 	
 	double logBase;
+	float[] logs;
+	LogSlabs slabs;
 
 	public ArrayFloatLog(ArrayFloat source, double base) {
 		super(source.getIndex(), (float[])source.getStorage());
+		logs = new float[((float[])getStorage()).length];
 		setLogBase(base);
 		
 	}
 	
+	// a view of the same storage, such as a section, shares the computed logs
+	private ArrayFloatLog(Index index, float[] storage, ArrayFloatLog source) {
+		super(index, storage);
+		logBase = source.logBase;
+		logs = source.logs;
+		slabs = source.slabs;
+	}
+	
+	protected Array createView(Index index) {
+		return new ArrayFloatLog(index, (float[])getStorage(), this);
+	}
+	
 	public void setLogBase(double base) {
 		logBase = Math.log(base);
+		final float[] values = (float[])getStorage();
+		slabs = new LogSlabs(this, values.length, base) {
+			void computeRange(int from, int to) {
+				for (int i = from; i < to; i++)
+					logs[i] = (float)log(values[i]);
+			}
+		};
+	}
+	
+	private float log(int element) {
+		slabs.ensure(element);
+		return logs[element];
 	}
 	
 	public float getFloat(Index index) {
-		return (float)(Math.log(super.getFloat(index)) / logBase);
+		return log(index.currentElement());
 	}	
 	public float getFloat(int index) {
-		return (float)(Math.log(super.getFloat(index)) / logBase);
+		return log(index);
 	}
 	public double getDouble(Index index) {
-		return (double)(Math.log(super.getDouble(index)) / logBase);
+		return log(index.currentElement());
 	}	
 	public double getDouble(int index) {
-		return (double)(Math.log(super.getDouble(index)) / logBase);
+		return log(index);
 	}
 	public int getInt(Index index) {
-		return (int)Math.round(Math.log(super.getInt(index)) / logBase);
+		return Math.round(log(index.currentElement()));
 	}	
 	public int getInt(int index) {
-		return (int)Math.round(Math.log(super.getInt(index)) / logBase);
+		return Math.round(log(index));
 	}
 	public long getLong(Index index) {
-		return Math.round(Math.log(super.getInt(index)) / logBase);
+		return Math.round(log(index.currentElement()));
 	}	
 	public long getLong(int index) {
-		return Math.round(Math.log(super.getInt(index)) / logBase);
+		return Math.round(log(index));
 	}
 	
 	
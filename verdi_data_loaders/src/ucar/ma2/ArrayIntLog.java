@@ -1,5 +1,6 @@
 /**
  * ArrayIntLog - Subclass of ArrayInt used to return log of each value
+ * The log of each value is computed once, a slab at a time, when first read
  * @author Tony Howard
  * @version $Revision$ $Date$
  **/
@@ -10,40 +11,67 @@ package ucar.ma2;
 public class ArrayIntLog extends ArrayInt {
 	
 	double logBase;
+	double[] logs;
+	LogSlabs slabs;
 
 	public ArrayIntLog(ArrayInt source, double base) {
 		super(source.getIndex(), (int[])source.getStorage());
+		logs = new double[((int[])getStorage()).length];
 		setLogBase(base);
 		
 	}
 	
+	// a view of the same storage, such as a section, shares the computed logs
+	private ArrayIntLog(Index index, int[] storage, ArrayIntLog source) {
+		super(index, storage);
+		logBase = source.logBase;
+		logs = source.logs;
+		slabs = source.slabs;
+	}
+	
+	protected Array createView(Index index) {
+		return new ArrayIntLog(index, (int[])getStorage(), this);
+	}
+	
 	public void setLogBase(double base) {
 		logBase = Math.log(base);
+		final int[] values = (int[])getStorage();
+		slabs = new LogSlabs(this, values.length, base) {
+			void computeRange(int from, int to) {
+				for (int i = from; i < to; i++)
+					logs[i] = log(values[i]);
+			}
+		};
+	}
+	
+	private double log(int element) {
+		slabs.ensure(element);
+		return logs[element];
 	}
 	
 	public float getFloat(Index index) {
-		return (float)(Math.log(super.getFloat(index)) / logBase);
+		return (float)log(index.currentElement());
 	}	
 	public float getFloat(int index) {
-		return (float)(Math.log(super.getFloat(index)) / logBase);
+		return (float)log(index);
 	}
 	public double getDouble(Index index) {
-		return (double)(Math.log(super.getDouble(index)) / logBase);
+		return log(index.currentElement());
 	}	
 	public double getDouble(int index) {
-		return (double)(Math.log(super.getDouble(index)) / logBase);
+		return log(index);
 	}
 	public int getInt(Index index) {
-		return (int)Math.round(Math.log(super.getInt(index)) / logBase);
+		return (int)Math.round(log(index.currentElement()));
 	}	
 	public int getInt(int index) {
-		return (int)Math.round(Math.log(super.getInt(index)) / logBase);
+		return (int)Math.round(log(index));
 	}
 	public long getLong(Index index) {
-		return Math.round(Math.log(super.getInt(index)) / logBase);
+		return Math.round(log(index.currentElement()));
 	}	
 	public long getLong(int index) {
-		return Math.round(Math.log(super.getInt(index)) / logBase);
+		return Math.round(log(index));
 	}
 	
 	
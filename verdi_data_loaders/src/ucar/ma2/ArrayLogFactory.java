@@ -1,14 +1,64 @@
 /**
  * ArrayLogFactory - Used to provide wrapper around Arrays that returns log value of each item in the array
+ * The wrappers are shared, so every plot of an array reads the same computed logs
  * @author Tony Howard
  * @version $Revision$ $Date$
  **/
 
 package ucar.ma2;
 
+import java.util.Map;
+import java.util.WeakHashMap;
+
 public class ArrayLogFactory {
-	
+
+	// source array, log arrays of the source for each base
+	private static final Map<Array, Array[]> LOG_ARRAYS = new WeakHashMap<Array, Array[]>();
+
 	public static Array getArray(Array source, double base) {
+		synchronized (LOG_ARRAYS) {
+			Array[] logArrays = LOG_ARRAYS.get(source);
+			if (logArrays != null) {
+				for (Array logArray : logArrays) {
+					if (getLogBase(logArray) == Math.log(base))
+						return logArray;
+				}
+			}
+			Array logArray = createArray(source, base);
+			if (logArray == null)
+				return null;
+			int length = logArrays == null ? 0 : logArrays.length;
+			Array[] added = new Array[length + 1];
+			if (logArrays != null)
+				System.arraycopy(logArrays, 0, added, 0, length);
+			added[length] = logArray;
+			LOG_ARRAYS.put(source, added);
+			return logArray;
+		}
+	}
+
+	/**
+	 * Gets the memory held by the log arrays of an array, to be counted along with the array itself.
+	 */
+	public static long getSizeBytes(Array source) {
+		long bytes = 0;
+		synchronized (LOG_ARRAYS) {
+			Array[] logArrays = LOG_ARRAYS.get(source);
+			if (logArrays != null) {
+				for (Array logArray : logArrays) {
+					if (logArray instanceof ArrayFloatLog)
+						bytes += 4L * ((ArrayFloatLog)logArray).logs.length;
+					else if (logArray instanceof ArrayDoubleLog)
+						bytes += 8L * ((ArrayDoubleLog)logArray).logs.length;
+					else if (logArray instanceof ArrayIntLog)
+						bytes += 8L * ((ArrayIntLog)logArray).logs.length;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private static Array createArray(Array source, double base) {
 		if (source instanceof ArrayFloat)
 			return new ArrayFloatLog((ArrayFloat)source, base);
 		else if (source instanceof ArrayDouble)
@@ -18,4 +68,12 @@ public class ArrayLogFactory {
 		return null;
 	}
 
+	private static double getLogBase(Array logArray) {
+		if (logArray instanceof ArrayFloatLog)
+			return ((ArrayFloatLog)logArray).logBase;
+		else if (logArray instanceof ArrayDoubleLog)
+			return ((ArrayDoubleLog)logArray).logBase;
+		return ((ArrayIntLog)logArray).logBase;
+	}
+
 }
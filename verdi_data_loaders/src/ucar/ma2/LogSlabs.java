@@ -0,0 +1,74 @@
+/**
+ * LogSlabs - Tracks which slabs of a log array's storage have been computed. The log of a slab is
+ * computed, in parallel, the first time one of its values is read and kept, so each value costs one
+ * Math.log however many times it is read. A slab is a time step, or a time step and layer, when the
+ * array is contiguous and has more than two dimensions.
+ * @version $Revision$ $Date$
+ **/
+
+package ucar.ma2;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import anl.verdi.core.VerdiConstants;
+import anl.verdi.util.ParallelUtilities;
+
+abstract class LogSlabs {
+
+	// values per slab when the storage does not follow the shape
+	private static final int DEFAULT_SLAB_SIZE = 64 * 1024;
+	private static final int GRAIN = 4096;
+
+	final double logBase;
+	private final int size;
+	private final int slabSize;
+	private final AtomicIntegerArray ready;
+
+	LogSlabs(Array source, int size, double base) {
+		this.logBase = Math.log(base);
+		this.size = size;
+		int[] shape = source.getShape();
+		int slab = DEFAULT_SLAB_SIZE;
+		if (source.getSize() == size && shape.length > 2)
+			slab = shape[shape.length - 2] * shape[shape.length - 1];
+		slabSize = Math.max(1, slab);
+		ready = new AtomicIntegerArray(size == 0 ? 0 : (size - 1) / slabSize + 1);
+	}
+
+	/**
+	 * Computes the slab holding an element of the storage if it has not been computed yet.
+	 */
+	final void ensure(int element) {
+		int slab = element / slabSize;
+		if (ready.get(slab) == 0)
+			compute(slab);
+	}
+
+	private synchronized void compute(int slab) {
+		if (ready.get(slab) != 0)
+			return;
+		int from = slab * slabSize;
+		int to = (int) Math.min((long) from + slabSize, size);
+		ParallelUtilities.forRange(from, to, GRAIN, new ParallelUtilities.RangeFunction() {
+			public void apply(int from, int to) {
+				computeRange(from, to);
+			}
+		});
+		ready.set(slab, 1);
+	}
+
+	/**
+	 * Stores the log of the source values from one storage element up to another.
+	 */
+	abstract void computeRange(int from, int to);
+
+	/**
+	 * Gets the log of a value, or BADVAL3 for missing, fill, zero, negative and NaN values, which have no
+	 * log to plot.
+	 */
+	final double log(double value) {
+		if (!(value > 0) || value >= VerdiConstants.NC_FILL_FLOAT)
+			return VerdiConstants.BADVAL3;
+		return Math.log(value) / logBase;
+	}
+}
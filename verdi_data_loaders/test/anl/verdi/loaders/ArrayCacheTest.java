@@ -0,0 +1,70 @@
+package anl.verdi.loaders;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+
+/**
+ * @version $Revision$ $Date$
+ */
+public class ArrayCacheTest extends TestCase {
+
+	private Array createArray(int... shape) {
+		Array array = Array.factory(float.class, shape);
+		for (int i = 0; i < array.getSize(); i++) {
+			array.setFloat(i, i);
+		}
+		return array;
+	}
+
+	public void testContainment() {
+		ArrayCache cache = new ArrayCache(1024 * 1024, false);
+		Array array = createArray(4, 10);
+		cache.put("var", new int[]{0, 0}, new int[]{4, 10}, array);
+
+		assertSame(array, cache.get("var", new int[]{0, 0}, new int[]{4, 10}));
+		Array section = cache.get("var", new int[]{1, 2}, new int[]{2, 3});
+		assertNotNull(section);
+		assertEquals(2, section.getShape()[0]);
+		assertEquals(3, section.getShape()[1]);
+		assertEquals(12f, section.getFloat(0));
+		assertNull(cache.get("var", new int[]{3, 0}, new int[]{2, 10}));
+		assertNull(cache.get("other", new int[]{0, 0}, new int[]{4, 10}));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getContainedHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	public void testEviction() {
+		// room for two 4 x 10 float arrays
+		ArrayCache cache = new ArrayCache(2 * 4 * 10 * 4, false);
+		cache.put("a", new int[]{0, 0}, new int[]{4, 10}, createArray(4, 10));
+		cache.put("b", new int[]{0, 0}, new int[]{4, 10}, createArray(4, 10));
+		// make "a" the most recently used
+		assertNotNull(cache.get("a", new int[]{0, 0}, new int[]{4, 10}));
+		cache.put("c", new int[]{0, 0}, new int[]{4, 10}, createArray(4, 10));
+
+		assertNull(cache.get("b", new int[]{0, 0}, new int[]{4, 10}));
+		assertNotNull(cache.get("a", new int[]{0, 0}, new int[]{4, 10}));
+		assertNotNull(cache.get("c", new int[]{0, 0}, new int[]{4, 10}));
+		assertEquals(1, cache.getEvictionCount());
+		assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+
+		// too large to cache
+		cache.put("d", new int[]{0, 0}, new int[]{40, 10}, createArray(40, 10));
+		assertNull(cache.get("d", new int[]{0, 0}, new int[]{40, 10}));
+	}
+
+	public void testClearPrefix() {
+		// two sources sharing one cache
+		ArrayCache cache = new ArrayCache(1024 * 1024, true);
+		cache.put("1/var", new int[]{0, 0}, new int[]{4, 10}, createArray(4, 10));
+		cache.put("11/var", new int[]{0, 0}, new int[]{4, 10}, createArray(4, 10));
+		long bytes = cache.getSizeBytes();
+
+		cache.clear("1/");
+		assertNull(cache.get("1/var", new int[]{0, 0}, new int[]{4, 10}));
+		assertNotNull(cache.get("11/var", new int[]{0, 0}, new int[]{4, 10}));
+		assertEquals(bytes / 2, cache.getSizeBytes());
+	}
+}
@@ -0,0 +1,73 @@
+package anl.verdi.loaders;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$ $Date$
+ */
+public class CSVColumnReaderTest extends TestCase {
+
+	private double parse(String value) {
+		return CSVColumnReader.parseDouble(value.toCharArray(), 0, value.length());
+	}
+
+	public void testParseDouble() {
+		String[] values = { "0", "-0", "+1", "12.5", "-3.25", ".5", "5.", "0.000001", "123456789012345",
+						"1234567890.123456789", "0.1", "2.2250738585072014E-308", "1e22", "1.5e-7", "-4.2E+3",
+						"1e300", "NaN", "Infinity", "7d" };
+		for (String value : values)
+			assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+							Double.doubleToLongBits(parse(value)));
+
+		try {
+			parse("1e");
+			fail("1e is not a number");
+		} catch (NumberFormatException e) {
+		}
+		try {
+			parse("abc");
+			fail("abc is not a number");
+		} catch (NumberFormatException e) {
+		}
+	}
+
+	public void testRead() throws Exception {
+		StringBuilder csv = new StringBuilder("time,x,y,value\r\n");
+		for (int i = 0; i < 3000; i++)
+			csv.append(i % 4).append(", ").append(i).append(",,").append(i * 0.5).append(",9\r\n");
+		csv.append("\n3,1,2,4.5");
+
+		// the empty y value is skipped, as StringTokenizer does
+		CSVColumnReader reader = new CSVColumnReader(2, 0, 3, 0);
+		reader.read(new StringReader(csv.toString()));
+		assertEquals(3001, reader.getRowCount());
+		double[] values = reader.getColumn(0);
+		double[] times = reader.getColumn(1);
+		assertEquals(3001, values.length);
+		assertEquals(1499.5, values[2999]);
+		assertEquals(2.0, times[2998]);
+		assertEquals(9.0, reader.getColumn(2)[2999]);
+		assertEquals(2.0, values[3000]);
+		assertEquals(3.0, times[3000]);
+		assertEquals(4.5, reader.getColumn(2)[3000]);
+		assertEquals(times[1234], reader.getColumn(3)[1234]);
+	}
+
+	public void testReadShortRows() throws Exception {
+		// rows without a value in the read column still count
+		StringBuilder csv = new StringBuilder("a,b,c\n");
+		for (int i = 0; i < 3000; i++)
+			csv.append(i).append('\n');
+		csv.append("1,2,3\n");
+
+		CSVColumnReader reader = new CSVColumnReader(2);
+		reader.read(new StringReader(csv.toString()));
+		assertEquals(3001, reader.getRowCount());
+		double[] values = reader.getColumn(0);
+		assertEquals(3001, values.length);
+		assertEquals(0.0, values[2999]);
+		assertEquals(3.0, values[3000]);
+	}
+}
@@ -0,0 +1,48 @@
+package anl.verdi.loaders;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import anl.verdi.data.MeshGeometry;
+
+/**
+ * @version $Revision$ $Date$
+ */
+public class MeshCacheTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		MeshGeometry mesh = new MeshGeometry(2, 7);
+		mesh.addCell(0, new double[]{0.1, 0.2, 0.15}, new double[]{0.0, 0.0, 0.1}, 3, 8.6, 1.9);
+		mesh.addCell(1, new double[]{-0.3, -0.1, -0.1, -0.3}, new double[]{0.2, 0.2, 0.4, 0.4}, 4, -11.5, 17.2);
+		mesh.trim();
+
+		File dir = File.createTempFile("meshcache", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			new MeshCache(mesh, 2, -0.3, 0.2, 0.0, 0.4, 0.2).store(dir, "test");
+			MeshCache cached = MeshCache.load(dir, "test");
+			assertNotNull(cached);
+			assertEquals(2, cached.getNumCells());
+			assertEquals(-0.3, cached.getLonMin());
+			assertEquals(0.2, cached.getAvgCellDiam());
+
+			MeshGeometry copy = cached.getMesh();
+			assertEquals(2, copy.getCellCount());
+			assertEquals(7, copy.getVertexCount());
+			assertEquals(1, copy.getId(1));
+			assertEquals(4, copy.getNumVertices(1));
+			assertEquals(-0.1, copy.getLonRad(1, 2));
+			assertEquals(0.4, copy.getMaxLatRad(1));
+			assertEquals(17.2, copy.getCenterLat(1));
+			assertEquals(1, copy.getLonSortedOrder()[0]);
+			assertEquals(0, copy.getLatSortedOrder()[0]);
+
+			assertNull(MeshCache.load(dir, "missing"));
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+}